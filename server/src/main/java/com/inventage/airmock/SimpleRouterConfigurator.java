@@ -4,6 +4,10 @@ package com.inventage.airmock;
 import com.inventage.airmock.kernel.AirmockApplication;
 import com.inventage.airmock.kernel.logging.HeaderToContextHandler;
 import com.inventage.airmock.kernel.logging.LoggerHandler;
+import com.inventage.airmock.kernel.proxy.resilience.DeadlineHandler;
+import com.inventage.airmock.kernel.route.CookieCrumbsHandler;
+import com.inventage.airmock.kernel.session.CookieSessionHandler;
+import com.inventage.airmock.kernel.session.MappedSessionStore;
 import com.inventage.airmock.waf.AirmockHandler;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -14,6 +18,7 @@ import io.vertx.reactivex.core.Vertx;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.handler.SessionHandler;
 import io.vertx.reactivex.ext.web.sstore.LocalSessionStore;
+import io.vertx.reactivex.ext.web.sstore.SessionStore;
 
 import java.lang.reflect.Field;
 import java.util.List;
@@ -29,6 +34,9 @@ import static org.apache.commons.lang3.Validate.notNull;
 public class SimpleRouterConfigurator implements RouterConfigurator {
     public static final String CONFIG_PREFIX = SimpleRouterConfigurator.class.getName() + ".";
     public static final String RUN_IN_STATELESS_MODE = "run-in-stateless-mode";
+    public static final String SESSION_STORE = "session-store";
+    public static final String SESSION_STORE_MAPPED = "mapped";
+    public static final String SESSION_STORE_COOKIE = "cookie";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleRouterConfigurator.class);
 
@@ -37,27 +45,55 @@ public class SimpleRouterConfigurator implements RouterConfigurator {
         notNull(router);
         notNull(config);
 
+        router.route().handler(new DeadlineHandler());
+        router.route().handler(new CookieCrumbsHandler());
         router.route().handler(new HeaderToContextHandler());
         router.route().handler(LoggerHandler.create(LoggerFormat.DEFAULT));
         addSessionHandler(vertx, router, config);
 
-        router.route().handler(new AirmockHandler(config, router.getDelegate()));
+        router.route().handler(new AirmockHandler(vertx.getDelegate(), config, router.getDelegate()));
 
         applications.forEach(application -> addHandlerForApplication(application, router));
     }
 
+    /**
+     * Whether the sessions are kept as objects in memory, so that changing a session object outside of a request is
+     * seen by the next request of the session. The mapped and the cookie session store work on serialized copies.
+     *
+     * @param config config
+     * @return true for the local session store
+     */
+    public static boolean sessionsInMemory(JsonObject config) {
+        final String sessionStore = config.getString(CONFIG_PREFIX + SESSION_STORE);
+        return !Boolean.valueOf(config.getString(CONFIG_PREFIX + RUN_IN_STATELESS_MODE))
+            && !SESSION_STORE_COOKIE.equalsIgnoreCase(sessionStore)
+            && !SESSION_STORE_MAPPED.equalsIgnoreCase(sessionStore);
+    }
+
     private void addSessionHandler(Vertx vertx, Router router, JsonObject config) {
         final String runInStatelessMode = config.getString(CONFIG_PREFIX + RUN_IN_STATELESS_MODE);
 
         if (Boolean.valueOf(runInStatelessMode)) {
             LOGGER.info("addSessionHandler: Running in STATELESS mode.");
         }
+        else if (SESSION_STORE_COOKIE.equalsIgnoreCase(config.getString(CONFIG_PREFIX + SESSION_STORE))) {
+            LOGGER.info("addSessionHandler: keeping the sessions in encrypted cookies.");
+            router.route().handler(new CookieSessionHandler(vertx, config));
+        }
         else {
-            router.route().handler(SessionHandler.create(LocalSessionStore.create(vertx, "airmock-session-handler"))
+            router.route().handler(SessionHandler.create(createSessionStore(vertx, config))
                     .setSessionCookieName("airmock"));
         }
     }
 
+    private SessionStore createSessionStore(Vertx vertx, JsonObject config) {
+        if (SESSION_STORE_MAPPED.equalsIgnoreCase(config.getString(CONFIG_PREFIX + SESSION_STORE))) {
+            LOGGER.info("addSessionHandler: using the mapped session store.");
+            return SessionStore.newInstance(MappedSessionStore.create(vertx.getDelegate(), config));
+        }
+        return LocalSessionStore.create(vertx, "airmock-session-handler");
+    }
+
     private void addHandlerForApplication(AirmockApplication application, Router router) {
         final Optional<Router> applicationRouter = application.createRoutes();
         if (applicationRouter.isPresent()) {
@@ -6,6 +6,7 @@ import com.inventage.airmock.SimpleRouterConfigurator;
 import com.inventage.airmock.kernel.util.AirmockConfigRetriever;
 import com.inventage.airmock.kernel.util.ConfigUtils;
 import io.vertx.core.Future;
+import io.vertx.core.http.Http2Settings;
 import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -28,9 +29,16 @@ public class ServerVerticle extends AbstractVerticle {
     public static final String HTTPS_PORT = "https-port";
     public static final String HTTPS_KEY_STORE_PATH = "https-key-store-path";
     public static final String HTTPS_KEY_STORE_PASSWORD = "https-key-store-password";
+    public static final String HTTP2 = "http2";
+    public static final String HTTP2_MAX_CONCURRENT_STREAMS = "http2-max-concurrent-streams";
+    public static final String HTTP2_INITIAL_WINDOW_SIZE = "http2-initial-window-size";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ServerVerticle.class);
 
+    private static final int MAX_HEADER_SIZE = 1024 * 20;
+    private static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+    private static final int DEFAULT_INITIAL_WINDOW_SIZE = 1024 * 1024;
+
     @Override
     public void start() throws Exception {
         LOGGER.debug("starting.....");
@@ -60,23 +68,42 @@ public class ServerVerticle extends AbstractVerticle {
     private void listenForHttp(Router router, JsonObject config) {
         final int serverPort = ConfigUtils.getInteger(config, CONFIG_PREFIX + HTTP_PORT, 10000);
         if (serverPort > 0) {
-            final HttpServerOptions options = new HttpServerOptions()
-                    .setMaxHeaderSize(1024 * 20);
-            vertx.createHttpServer(options).requestHandler(router).listen(serverPort);
+            vertx.createHttpServer(serverOptions(config)).requestHandler(router).listen(serverPort);
         }
     }
 
     private void listenForHttps(Router router, JsonObject config) {
         final int serverPort = ConfigUtils.getInteger(config, CONFIG_PREFIX + HTTPS_PORT, -1);
         if (serverPort > 0) {
-            final HttpServerOptions options = new HttpServerOptions()
-                    .setMaxHeaderSize(1024 * 20)
+            final HttpServerOptions options = serverOptions(config)
                     .setSsl(true)
                     .setKeyStoreOptions(getJksOptions(config));
             vertx.createHttpServer(options).requestHandler(router).listen(serverPort);
         }
     }
 
+    /**
+     * Options shared by both listeners. With HTTP/2 enabled, TLS connections negotiate h2 by ALPN; otherwise they are
+     * served with HTTP/1.x only. Cleartext connections always accept h2c, with prior knowledge or by an upgrade from
+     * HTTP/1.1.
+     *
+     * @param config config
+     * @return options
+     */
+    static HttpServerOptions serverOptions(JsonObject config) {
+        final boolean http2 = !"false".equalsIgnoreCase(config.getString(CONFIG_PREFIX + HTTP2));
+        final HttpServerOptions options = new HttpServerOptions()
+                .setMaxHeaderSize(MAX_HEADER_SIZE)
+                .setUseAlpn(http2);
+        if (http2) {
+            options.setInitialSettings(new Http2Settings()
+                    .setMaxConcurrentStreams(ConfigUtils.getInteger(config, CONFIG_PREFIX + HTTP2_MAX_CONCURRENT_STREAMS, DEFAULT_MAX_CONCURRENT_STREAMS))
+                    .setInitialWindowSize(ConfigUtils.getInteger(config, CONFIG_PREFIX + HTTP2_INITIAL_WINDOW_SIZE, DEFAULT_INITIAL_WINDOW_SIZE))
+                    .setMaxHeaderListSize(MAX_HEADER_SIZE));
+        }
+        return options;
+    }
+
     private JksOptions getJksOptions(JsonObject config) {
         final String keyStorePath = config.getString(CONFIG_PREFIX + HTTPS_KEY_STORE_PATH);
         if (keyStorePath == null || keyStorePath.isEmpty()) {
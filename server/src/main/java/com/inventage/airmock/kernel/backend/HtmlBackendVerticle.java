@@ -3,9 +3,10 @@ package com.inventage.airmock.kernel.backend;
 import com.inventage.airmock.kernel.RouteProvider;
 import com.inventage.airmock.kernel.ServerVerticle;
 import com.inventage.airmock.kernel.proxy.HttpProxy;
+import com.inventage.airmock.kernel.proxy.resilience.ResiliencePolicy;
+import com.inventage.airmock.kernel.proxy.resilience.ResilienceRegistry;
 import com.inventage.airmock.kernel.util.AirmockConfigRetriever;
 import com.inventage.airmock.waf.proxy.AirmockHttpProxy;
-import io.vertx.circuitbreaker.CircuitBreakerOptions;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
@@ -18,6 +19,8 @@ import io.vertx.reactivex.core.http.HttpClient;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Function;
 
 import static com.inventage.airmock.kernel.util.ConfigUtils.getInteger;
@@ -76,7 +79,13 @@ public class HtmlBackendVerticle extends AbstractVerticle implements RouteProvid
 
             this.proxy = new AirmockHttpProxy(xForwardedHost, xForwardedPort == null ? null : xForwardedPort.toString());
             this.proxy.setClient(client.getDelegate());
-            this.proxy.circuitBreaker(CircuitBreaker.create("backend", vertx, getHttpProxyCircuitBreakerOptions()));
+            final ResiliencePolicy resilience = ResiliencePolicy.of(resilienceConfig());
+            final ResilienceRegistry registry = ResilienceRegistry.shared(vertx.getDelegate());
+            this.proxy.circuitBreaker(CircuitBreaker.newInstance(registry.circuitBreaker(vertx.getDelegate(), backendName, resilience)));
+            this.proxy.timeouts(resilience);
+            if (resilience.retries() > 0) {
+                this.proxy.retries(resilience.retries(), registry.retryBudget(backendName, resilience));
+            }
             this.proxy.backend(backendProtocol, backendHost, backendPort);
             proxy.backendUrlMapper(this.backendUrlMapper);
 
@@ -125,16 +134,18 @@ public class HtmlBackendVerticle extends AbstractVerticle implements RouteProvid
     }
 
     /**
-     * Get circuitBreakerOptions for HtmlBackendVerticle.
+     * The entries of the config of this backend, with the keys of the mapping config of {@link ResiliencePolicy}, e.g.
+     * {@code <prefix>breakerMaxFailures}.
      *
-     * @return CircuitBreakerOptions
+     * @return config without prefix
      */
-    protected CircuitBreakerOptions getHttpProxyCircuitBreakerOptions() {
-        return new CircuitBreakerOptions()
-            .setMaxFailures(10) // number of failure before opening the circuit
-            .setTimeout(240 * 1000) // consider a failure if the operation does not succeed in milliseconds
-            .setFallbackOnFailure(true) // do we call the fallback on failure
-            .setResetTimeout(10 * 1000) // milliseconds spent in open state before attempting to re-try
-            ;
+    private Map<String, String> resilienceConfig() {
+        final Map<String, String> resilienceConfig = new HashMap<>();
+        for (String key : config.fieldNames()) {
+            if (key.startsWith(getConfigPrefix()) && config.getValue(key) != null) {
+                resilienceConfig.put(key.substring(getConfigPrefix().length()), config.getValue(key).toString());
+            }
+        }
+        return resilienceConfig;
     }
 }
@@ -1,7 +1,13 @@
 package com.inventage.airmock.kernel.proxy;
 
+import com.inventage.airmock.kernel.proxy.balancer.LoadBalancer;
+import com.inventage.airmock.kernel.proxy.cache.ResponseCache;
+import com.inventage.airmock.kernel.proxy.compression.Compression;
 import com.inventage.airmock.kernel.proxy.internal.BackendRequestImpl;
 import com.inventage.airmock.kernel.proxy.internal.BackendResponse;
+import com.inventage.airmock.kernel.proxy.internal.RequestCoalescer;
+import com.inventage.airmock.kernel.proxy.resilience.ResiliencePolicy;
+import com.inventage.airmock.kernel.proxy.resilience.RetryBudget;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientResponse;
@@ -40,6 +46,14 @@ public interface HttpProxy {
      */
     HttpProxy backendSelector(Function<HttpServerRequest, Future<SocketAddress>> selector);
 
+    /**
+     * Spread the requests over the instances of the backend; replaces the backend selector.
+     *
+     * @param loadBalancer balancer
+     * @return HttpProxy
+     */
+    HttpProxy loadBalancer(LoadBalancer loadBalancer);
+
     /**
      * Set the circuitBreaker.
      *
@@ -48,6 +62,23 @@ public interface HttpProxy {
      */
     HttpProxy circuitBreaker(CircuitBreaker circuitBreaker);
 
+    /**
+     * Retry requests with an idempotent method and without body, which fail before the backend answered.
+     *
+     * @param retries     maximal number of retries of a request, 0 to disable retries
+     * @param retryBudget budget limiting the retries to a share of the requests
+     * @return HttpProxy
+     */
+    HttpProxy retries(int retries, RetryBudget retryBudget);
+
+    /**
+     * Bound the backend requests by the connect, first byte, idle and total timeouts of the given policy.
+     *
+     * @param policy policy of the mapping
+     * @return HttpProxy
+     */
+    HttpProxy timeouts(ResiliencePolicy policy);
+
     /**
      * Set the applicationJwtCookieName.
      *
@@ -79,6 +110,40 @@ public interface HttpProxy {
      */
     HttpProxy backendUrlMapper(Function<String, String> backendUrlMapper);
 
+    /**
+     * Set the watermarks of the pipes between frontend and backend. If the bytes written but not yet flushed to one
+     * side reach the high watermark, reading from the other side is paused until they dropped to the low watermark.
+     *
+     * @param highWatermark bytes
+     * @param lowWatermark  bytes
+     * @return HttpProxy
+     */
+    HttpProxy watermarks(int highWatermark, int lowWatermark);
+
+    /**
+     * Use the given cache for the responses of the backend.
+     *
+     * @param responseCache cache, null to disable caching
+     * @return HttpProxy
+     */
+    HttpProxy responseCache(ResponseCache responseCache);
+
+    /**
+     * Compress the responses for clients accepting it.
+     *
+     * @param compression settings, null to send the responses as they are
+     * @return HttpProxy
+     */
+    HttpProxy compression(Compression compression);
+
+    /**
+     * Let identical concurrent requests share one backend request.
+     *
+     * @param requestCoalescer coalescer, null to send every request on its own
+     * @return HttpProxy
+     */
+    HttpProxy requestCoalescer(RequestCoalescer requestCoalescer);
+
     /**
      * Set the Http client in the proxy.
      *
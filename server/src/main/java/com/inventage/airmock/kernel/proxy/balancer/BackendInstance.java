@@ -0,0 +1,73 @@
+package com.inventage.airmock.kernel.proxy.balancer;
+
+import io.vertx.core.net.SocketAddress;
+
+import java.util.Objects;
+
+/**
+ * One instance of a backend, as configured in the "instances" array of the backend of a mapping.
+ */
+public final class BackendInstance {
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private final String host;
+    private final int port;
+    private final int weight;
+
+    /**
+     * @param host   host
+     * @param port   port
+     * @param weight share of the requests relative to the other instances, at least 1
+     */
+    public BackendInstance(String host, int port, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight of backend instance " + host + ":" + port + " must be at least 1, was " + weight);
+        }
+        this.host = host;
+        this.port = port;
+        this.weight = weight;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public int weight() {
+        return weight;
+    }
+
+    /**
+     * Address of this instance.
+     *
+     * @return address
+     */
+    public SocketAddress address() {
+        return SocketAddress.inetSocketAddress(port, host);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final BackendInstance that = (BackendInstance) o;
+        return port == that.port && weight == that.weight && Objects.equals(host, that.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, port, weight);
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port + (weight == DEFAULT_WEIGHT ? "" : " (weight " + weight + ")");
+    }
+}
@@ -0,0 +1,59 @@
+package com.inventage.airmock.kernel.proxy.balancer;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+/**
+ * Probes all instances of a load balancer periodically with a GET request to the health check path of its policy.
+ */
+final class HealthChecker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HealthChecker.class);
+
+    private static final int MIN_ERROR_STATUS = 400;
+
+    private final Vertx vertx;
+    private final HttpClient client;
+    private final LoadBalancer balancer;
+
+    HealthChecker(Vertx vertx, HttpClient client, LoadBalancer balancer) {
+        this.vertx = vertx;
+        this.client = client;
+        this.balancer = balancer;
+    }
+
+    /**
+     * Probe now and then at the interval of the policy.
+     */
+    void start() {
+        final HealthPolicy policy = balancer.healthPolicy();
+        LOGGER.info("start: probing '{}' of {} every {}ms", policy.healthCheckPath(), balancer.members(), policy.healthCheckIntervalMillis());
+        probeAll();
+        vertx.setPeriodic(policy.healthCheckIntervalMillis(), id -> probeAll());
+    }
+
+    private void probeAll() {
+        balancer.members().forEach(this::probe);
+    }
+
+    private void probe(LoadBalancer.Member member) {
+        final HealthPolicy policy = balancer.healthPolicy();
+        final BackendInstance instance = member.instance();
+        final HttpClientRequest request = client.request(HttpMethod.GET, instance.port(), instance.host(), policy.healthCheckPath());
+        request.setTimeout(policy.healthCheckTimeoutMillis());
+        request.handler(response -> {
+            final boolean success = response.statusCode() < MIN_ERROR_STATUS;
+            LOGGER.debug("probe: '{}' answered {}", instance, response.statusCode());
+            response.exceptionHandler(e -> member.onProbe(false));
+            response.endHandler(v -> member.onProbe(success));
+        });
+        request.exceptionHandler(e -> {
+            LOGGER.debug("probe: '{}' failed with '{}'", instance, e.getMessage());
+            member.onProbe(false);
+        });
+        request.end();
+    }
+}
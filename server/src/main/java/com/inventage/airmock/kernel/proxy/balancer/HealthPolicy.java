@@ -0,0 +1,149 @@
+package com.inventage.airmock.kernel.proxy.balancer;
+
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the active health checks and the passive outlier detection of the instances of a backend, read from the
+ * config of a mapping.
+ * <p>
+ * Active checks are enabled by {@link #HEALTH_CHECK_PATH}: every instance is probed with a GET request at the given
+ * interval; it is taken out of the balancing after {@link #UNHEALTHY_THRESHOLD} failed probes in a row and taken back
+ * after {@link #HEALTHY_THRESHOLD} successful ones. A probe succeeds with a status below 400 within the timeout.
+ * <p>
+ * Outlier detection watches the proxied requests: an instance answering {@link #OUTLIER_CONSECUTIVE_ERRORS} times in a
+ * row with a 5xx status or a connection error, or whose average latency exceeds {@link #OUTLIER_LATENCY_FACTOR} times
+ * the average of the other instances, is ejected. The first ejection lasts {@link #OUTLIER_BASE_EJECTION} seconds and
+ * each following one twice as long, up to {@link #OUTLIER_MAX_EJECTION}.
+ */
+public final class HealthPolicy {
+    public static final String HEALTH_CHECK_PATH = "healthCheckPath";
+    public static final String HEALTH_CHECK_INTERVAL = "healthCheckInterval";
+    public static final String HEALTH_CHECK_TIMEOUT = "healthCheckTimeout";
+    public static final String HEALTHY_THRESHOLD = "healthyThreshold";
+    public static final String UNHEALTHY_THRESHOLD = "unhealthyThreshold";
+    public static final String OUTLIER_CONSECUTIVE_ERRORS = "outlierConsecutiveErrors";
+    public static final String OUTLIER_LATENCY_FACTOR = "outlierLatencyFactor";
+    public static final String OUTLIER_BASE_EJECTION = "outlierBaseEjection";
+    public static final String OUTLIER_MAX_EJECTION = "outlierMaxEjection";
+    public static final String OUTLIER_MAX_EJECTION_PERCENT = "outlierMaxEjectionPercent";
+
+    public static final HealthPolicy DEFAULT = of(Collections.emptyMap());
+
+    private static final int DEFAULT_INTERVAL_SECONDS = 10;
+    private static final int DEFAULT_TIMEOUT_MILLIS = 2000;
+    private static final int DEFAULT_HEALTHY_THRESHOLD = 2;
+    private static final int DEFAULT_UNHEALTHY_THRESHOLD = 3;
+    private static final int DEFAULT_CONSECUTIVE_ERRORS = 5;
+    private static final double DEFAULT_LATENCY_FACTOR = 3.0;
+    private static final int DEFAULT_BASE_EJECTION_SECONDS = 30;
+    private static final int DEFAULT_MAX_EJECTION_SECONDS = 300;
+    private static final int DEFAULT_MAX_EJECTION_PERCENT = 50;
+    private static final int MAX_DOUBLINGS = 30;
+
+    private final String healthCheckPath;
+    private final long healthCheckIntervalMillis;
+    private final long healthCheckTimeoutMillis;
+    private final int healthyThreshold;
+    private final int unhealthyThreshold;
+    private final int consecutiveErrors;
+    private final double latencyFactor;
+    private final long baseEjectionMillis;
+    private final long maxEjectionMillis;
+    private final int maxEjectionPercent;
+
+    private HealthPolicy(Map<String, String> config) {
+        this.healthCheckPath = config.get(HEALTH_CHECK_PATH);
+        this.healthCheckIntervalMillis = TimeUnit.SECONDS.toMillis(ConfigUtils.getInteger(config, HEALTH_CHECK_INTERVAL, DEFAULT_INTERVAL_SECONDS));
+        this.healthCheckTimeoutMillis = ConfigUtils.getInteger(config, HEALTH_CHECK_TIMEOUT, DEFAULT_TIMEOUT_MILLIS);
+        this.healthyThreshold = Math.max(1, ConfigUtils.getInteger(config, HEALTHY_THRESHOLD, DEFAULT_HEALTHY_THRESHOLD));
+        this.unhealthyThreshold = Math.max(1, ConfigUtils.getInteger(config, UNHEALTHY_THRESHOLD, DEFAULT_UNHEALTHY_THRESHOLD));
+        this.consecutiveErrors = ConfigUtils.getInteger(config, OUTLIER_CONSECUTIVE_ERRORS, DEFAULT_CONSECUTIVE_ERRORS);
+        final String factor = config.get(OUTLIER_LATENCY_FACTOR);
+        this.latencyFactor = factor == null ? DEFAULT_LATENCY_FACTOR : Double.parseDouble(factor.trim());
+        this.baseEjectionMillis = TimeUnit.SECONDS.toMillis(ConfigUtils.getInteger(config, OUTLIER_BASE_EJECTION, DEFAULT_BASE_EJECTION_SECONDS));
+        this.maxEjectionMillis = Math.max(baseEjectionMillis,
+            TimeUnit.SECONDS.toMillis(ConfigUtils.getInteger(config, OUTLIER_MAX_EJECTION, DEFAULT_MAX_EJECTION_SECONDS)));
+        this.maxEjectionPercent = ConfigUtils.getInteger(config, OUTLIER_MAX_EJECTION_PERCENT, DEFAULT_MAX_EJECTION_PERCENT);
+    }
+
+    /**
+     * Read the policy from the config of a mapping; missing entries have their default.
+     *
+     * @param config config of a mapping, may be null
+     * @return policy
+     */
+    public static HealthPolicy of(Map<String, String> config) {
+        return new HealthPolicy(config == null ? Collections.emptyMap() : config);
+    }
+
+    /**
+     * Path probed by the active health checks.
+     *
+     * @return path, null if active checks are disabled
+     */
+    public String healthCheckPath() {
+        return healthCheckPath;
+    }
+
+    public long healthCheckIntervalMillis() {
+        return healthCheckIntervalMillis;
+    }
+
+    public long healthCheckTimeoutMillis() {
+        return healthCheckTimeoutMillis;
+    }
+
+    public int healthyThreshold() {
+        return healthyThreshold;
+    }
+
+    public int unhealthyThreshold() {
+        return unhealthyThreshold;
+    }
+
+    /**
+     * Errors in a row which eject an instance, 0 to disable.
+     *
+     * @return errors
+     */
+    public int consecutiveErrors() {
+        return consecutiveErrors;
+    }
+
+    /**
+     * Factor of the average latency of the other instances above which an instance is an outlier, 0 to disable.
+     *
+     * @return factor
+     */
+    public double latencyFactor() {
+        return latencyFactor;
+    }
+
+    /**
+     * Duration of an ejection, doubled for every ejection in a row.
+     *
+     * @param ejections number of ejections in a row, at least 1
+     * @return milliseconds
+     */
+    public long ejectionMillis(int ejections) {
+        final int doublings = Math.min(ejections - 1, MAX_DOUBLINGS);
+        return Math.min(maxEjectionMillis, baseEjectionMillis << doublings);
+    }
+
+    public long maxEjectionMillis() {
+        return maxEjectionMillis;
+    }
+
+    public int maxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    @Override
+    public String toString() {
+        return "healthCheckPath=" + healthCheckPath + ", interval=" + healthCheckIntervalMillis + "ms, consecutiveErrors=" + consecutiveErrors
+            + ", latencyFactor=" + latencyFactor + ", ejection=" + baseEjectionMillis + ".." + maxEjectionMillis + "ms";
+    }
+}
@@ -0,0 +1,591 @@
+package com.inventage.airmock.kernel.proxy.balancer;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.shareddata.Shareable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads the requests of a mapping over the instances of its backend.
+ * <p>
+ * The balancer of a mapping is shared by all verticles of a vert.x instance. Its state, the position of the round
+ * robin and the number of outstanding requests per instance, is kept in atomic counters, so selecting an instance
+ * never blocks. The proxy counts a request as outstanding from sending it to the backend until the response is
+ * completely sent to the frontend or the exchange failed.
+ * <p>
+ * Only available instances are selected: instances failing the active health checks and instances ejected as
+ * outliers, see {@link HealthPolicy}, are skipped. If no instance is available, all are used, as refusing every
+ * request would be worse than trying.
+ */
+public final class LoadBalancer implements Shareable {
+    public static final String DEFAULT_HASH_COOKIE = "airmock";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadBalancer.class);
+
+    private static final String SHARED_MAP = "airmock.load-balancers";
+    private static final int VIRTUAL_NODES_PER_WEIGHT = 100;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final long MIN_OUTLIER_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int LATENCY_SMOOTHING = 8;
+    private static final int PERCENT = 100;
+
+    private final Strategy strategy;
+    private final String hashCookie;
+    private final HealthPolicy healthPolicy;
+    private final AtomicBoolean healthChecksStarted = new AtomicBoolean();
+    private final Member[] members;
+    private final Map<SocketAddress, Member> membersByAddress = new HashMap<>();
+    private final AtomicLong next = new AtomicLong();
+    private final int[] schedule;
+    private final long[] ringHashes;
+    private final int[] ringMembers;
+
+    /**
+     * Strategies to select an instance.
+     */
+    public enum Strategy {
+        /** Each instance in turn. */
+        ROUND_ROBIN,
+        /** Each instance in turn, as often as its weight, interleaved. */
+        WEIGHTED,
+        /** The instance with the fewest outstanding requests relative to its weight. */
+        LEAST_OUTSTANDING,
+        /** The less loaded of two randomly chosen instances. */
+        POWER_OF_TWO,
+        /** The instance the value of the hash cookie is mapped to, so a session sticks to one instance. */
+        CONSISTENT_HASH;
+
+        /**
+         * Parse a strategy, accepting for example "least-outstanding" as well as "LEAST_OUTSTANDING".
+         *
+         * @param name name of the strategy
+         * @return the strategy
+         */
+        public static Strategy of(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private LoadBalancer(List<BackendInstance> instances, Strategy strategy, String hashCookie, HealthPolicy healthPolicy) {
+        if (instances.isEmpty()) {
+            throw new IllegalArgumentException("at least one backend instance is required");
+        }
+        this.strategy = strategy;
+        this.hashCookie = hashCookie;
+        this.healthPolicy = healthPolicy;
+        this.members = new Member[instances.size()];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new Member(this, instances.get(i));
+            membersByAddress.put(members[i].address, members[i]);
+        }
+        this.schedule = strategy == Strategy.WEIGHTED ? weightedSchedule(members) : null;
+        if (strategy == Strategy.CONSISTENT_HASH) {
+            final List<long[]> ring = ring(members);
+            this.ringHashes = new long[ring.size()];
+            this.ringMembers = new int[ring.size()];
+            for (int i = 0; i < ring.size(); i++) {
+                ringHashes[i] = ring.get(i)[0];
+                ringMembers[i] = (int) ring.get(i)[1];
+            }
+        }
+        else {
+            this.ringHashes = null;
+            this.ringMembers = null;
+        }
+    }
+
+    /**
+     * Create a balancer with the default health policy.
+     *
+     * @param instances  instances of the backend
+     * @param strategy   strategy
+     * @param hashCookie name of the cookie used by {@link Strategy#CONSISTENT_HASH}
+     * @return balancer
+     */
+    public static LoadBalancer create(List<BackendInstance> instances, Strategy strategy, String hashCookie) {
+        return create(instances, strategy, hashCookie, HealthPolicy.DEFAULT);
+    }
+
+    /**
+     * Create a balancer.
+     *
+     * @param instances    instances of the backend
+     * @param strategy     strategy
+     * @param hashCookie   name of the cookie used by {@link Strategy#CONSISTENT_HASH}
+     * @param healthPolicy health checks and outlier detection
+     * @return balancer
+     */
+    public static LoadBalancer create(List<BackendInstance> instances, Strategy strategy, String hashCookie, HealthPolicy healthPolicy) {
+        LOGGER.info("create: {} balancing over {}, {}", strategy, instances, healthPolicy);
+        return new LoadBalancer(instances, strategy, hashCookie == null ? DEFAULT_HASH_COOKIE : hashCookie, healthPolicy);
+    }
+
+    /**
+     * The balancer of a mapping, shared by all verticles of the vert.x instance; the first call creates it.
+     *
+     * @param vertx        vertx
+     * @param name         name of the mapping
+     * @param instances    instances of the backend
+     * @param strategy     strategy
+     * @param hashCookie   name of the cookie used by {@link Strategy#CONSISTENT_HASH}
+     * @param healthPolicy health checks and outlier detection
+     * @return balancer
+     */
+    public static LoadBalancer shared(Vertx vertx, String name, List<BackendInstance> instances, Strategy strategy, String hashCookie,
+                                      HealthPolicy healthPolicy) {
+        return vertx.sharedData().<String, LoadBalancer>getLocalMap(SHARED_MAP)
+            .computeIfAbsent(name, key -> create(instances, strategy, hashCookie, healthPolicy));
+    }
+
+    /**
+     * Start probing the instances, if the health policy has a health check path. Only the first call starts the
+     * probes; they run on the context of the caller.
+     *
+     * @param vertx  vertx
+     * @param client client for the probes
+     */
+    public void startHealthChecks(Vertx vertx, HttpClient client) {
+        if (healthPolicy.healthCheckPath() != null && healthChecksStarted.compareAndSet(false, true)) {
+            new HealthChecker(vertx, client, this).start();
+        }
+    }
+
+    public HealthPolicy healthPolicy() {
+        return healthPolicy;
+    }
+
+    public Strategy strategy() {
+        return strategy;
+    }
+
+    /**
+     * The members of this balancer, in the order of the configured instances.
+     *
+     * @return members
+     */
+    public List<Member> members() {
+        return Collections.unmodifiableList(Arrays.asList(members));
+    }
+
+    /**
+     * The member with the given address.
+     *
+     * @param address address returned by {@link #select(HttpServerRequest)}
+     * @return member, null if the address is not one of this balancer
+     */
+    public Member member(SocketAddress address) {
+        return membersByAddress.get(address);
+    }
+
+    /**
+     * Select the instance for a request.
+     *
+     * @param request frontend request
+     * @return the selected member
+     */
+    public Member select(HttpServerRequest request) {
+        if (members.length == 1) {
+            return members[0];
+        }
+        final long now = System.currentTimeMillis();
+        switch (strategy) {
+            case WEIGHTED:
+                return weighted(now);
+            case LEAST_OUTSTANDING:
+                return leastOutstanding(candidates(now));
+            case POWER_OF_TWO:
+                return powerOfTwo(candidates(now));
+            case CONSISTENT_HASH:
+                return consistentHash(hashKey(request), now);
+            default:
+                return roundRobin(candidates(now));
+        }
+    }
+
+    /**
+     * The available members, or all if none is available.
+     */
+    private Member[] candidates(long now) {
+        int available = 0;
+        for (Member member : members) {
+            if (member.isAvailable(now)) {
+                available++;
+            }
+        }
+        if (available == members.length || available == 0) {
+            return members;
+        }
+        final Member[] candidates = new Member[available];
+        int i = 0;
+        for (Member member : members) {
+            if (member.isAvailable(now)) {
+                candidates[i++] = member;
+            }
+        }
+        return candidates;
+    }
+
+    private Member roundRobin(Member[] candidates) {
+        return candidates[(int) Math.floorMod(next.getAndIncrement(), (long) candidates.length)];
+    }
+
+    /**
+     * The next available member of the schedule.
+     */
+    private Member weighted(long now) {
+        final long start = next.getAndIncrement();
+        for (int i = 0; i < schedule.length; i++) {
+            final Member member = members[schedule[(int) Math.floorMod(start + i, (long) schedule.length)]];
+            if (member.isAvailable(now)) {
+                return member;
+            }
+        }
+        return members[schedule[(int) Math.floorMod(start, (long) schedule.length)]];
+    }
+
+    /**
+     * Scans all candidates, starting at a rotating position so that ties are spread evenly.
+     */
+    private Member leastOutstanding(Member[] candidates) {
+        final int start = (int) Math.floorMod(next.getAndIncrement(), (long) candidates.length);
+        Member best = candidates[start];
+        for (int i = 1; i < candidates.length; i++) {
+            final Member candidate = candidates[(start + i) % candidates.length];
+            if (candidate.isLessLoadedThan(best)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private Member powerOfTwo(Member[] candidates) {
+        if (candidates.length == 1) {
+            return candidates[0];
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(candidates.length);
+        final int second = (first + 1 + random.nextInt(candidates.length - 1)) % candidates.length;
+        return candidates[second].isLessLoadedThan(candidates[first]) ? candidates[second] : candidates[first];
+    }
+
+    /**
+     * The first available member on the ring at or after the hash of the key; requests without key are balanced round
+     * robin. If a member is not available, its keys move to the next members on the ring and come back once it is.
+     */
+    Member consistentHash(String key, long now) {
+        if (key == null) {
+            return roundRobin(candidates(now));
+        }
+        final long hash = hash(key);
+        int index = Arrays.binarySearch(ringHashes, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (int i = 0; i < ringHashes.length; i++) {
+            final Member member = members[ringMembers[(index + i) % ringHashes.length]];
+            if (member.isAvailable(now)) {
+                return member;
+            }
+        }
+        return members[ringMembers[index % ringHashes.length]];
+    }
+
+    /**
+     * Average latency of the members other than the given one which are available and have enough samples.
+     */
+    private long averageLatencyOfOthers(Member member, long now) {
+        long sum = 0;
+        int count = 0;
+        for (Member other : members) {
+            if (other != member && other.isAvailable(now) && other.latencySamples.get() >= MIN_LATENCY_SAMPLES) {
+                sum += other.latencyNanos.get();
+                count++;
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Whether one more member may be ejected without exceeding the maximal percentage of ejected members.
+     */
+    private boolean mayEject(long now) {
+        int ejected = 1;
+        for (Member member : members) {
+            if (member.isEjected(now)) {
+                ejected++;
+            }
+        }
+        return ejected * PERCENT <= healthPolicy.maxEjectionPercent() * members.length;
+    }
+
+    /**
+     * Value of the hash cookie, or the remote host if the request has none.
+     */
+    private String hashKey(HttpServerRequest request) {
+        for (String cookieHeader : request.headers().getAll(HttpHeaders.COOKIE)) {
+            for (String cookie : cookieHeader.split(";")) {
+                final int separator = cookie.indexOf('=');
+                if (separator > 0 && cookie.substring(0, separator).trim().equals(hashCookie)) {
+                    return cookie.substring(separator + 1).trim();
+                }
+            }
+        }
+        final SocketAddress remote = request.remoteAddress();
+        return remote == null ? null : remote.host();
+    }
+
+    /**
+     * Smooth weighted round robin: every instance appears as often as its weight, spread over the schedule.
+     */
+    private static int[] weightedSchedule(Member[] members) {
+        int totalWeight = 0;
+        for (Member member : members) {
+            totalWeight += member.instance.weight();
+        }
+        final int[] schedule = new int[totalWeight];
+        final int[] current = new int[members.length];
+        for (int slot = 0; slot < totalWeight; slot++) {
+            int selected = 0;
+            for (int i = 0; i < members.length; i++) {
+                current[i] += members[i].instance.weight();
+                if (current[i] > current[selected]) {
+                    selected = i;
+                }
+            }
+            current[selected] -= totalWeight;
+            schedule[slot] = selected;
+        }
+        return schedule;
+    }
+
+    /**
+     * Virtual nodes of all members as pairs of hash and member index, sorted by hash.
+     */
+    private static List<long[]> ring(Member[] members) {
+        final List<long[]> ring = new ArrayList<>();
+        for (int i = 0; i < members.length; i++) {
+            final int virtualNodes = VIRTUAL_NODES_PER_WEIGHT * members[i].instance.weight();
+            for (int node = 0; node < virtualNodes; node++) {
+                ring.add(new long[] {hash(members[i].instance.host() + ":" + members[i].instance.port() + "#" + node), i});
+            }
+        }
+        ring.sort((a, b) -> Long.compare(a[0], b[0]));
+        return ring;
+    }
+
+    /**
+     * 64 bit FNV-1a hash, finished with the avalanche step of MurmurHash3 for an even spread on the ring.
+     */
+    static long hash(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return strategy + " " + Arrays.toString(members);
+    }
+
+    /**
+     * An instance of the backend together with its number of outstanding requests.
+     */
+    public static final class Member {
+        private final LoadBalancer balancer;
+        private final BackendInstance instance;
+        private final SocketAddress address;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveErrors = new AtomicInteger();
+        private final AtomicLong latencyNanos = new AtomicLong();
+        private final AtomicInteger latencySamples = new AtomicInteger();
+        private final AtomicInteger ejections = new AtomicInteger();
+        private final AtomicInteger probeSuccesses = new AtomicInteger();
+        private final AtomicInteger probeFailures = new AtomicInteger();
+        private volatile long ejectedUntil;
+        private volatile boolean healthy = true;
+
+        private Member(LoadBalancer balancer, BackendInstance instance) {
+            this.balancer = balancer;
+            this.instance = instance;
+            this.address = instance.address();
+        }
+
+        public BackendInstance instance() {
+            return instance;
+        }
+
+        public SocketAddress address() {
+            return address;
+        }
+
+        public int outstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * A request was sent to this instance.
+         */
+        public void acquire() {
+            outstanding.incrementAndGet();
+        }
+
+        /**
+         * A request to this instance completed.
+         */
+        public void release() {
+            outstanding.decrementAndGet();
+        }
+
+        /**
+         * Whether the active health checks consider this instance healthy.
+         *
+         * @return boolean
+         */
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * Whether this instance is ejected as outlier.
+         *
+         * @param now current time in milliseconds
+         * @return boolean
+         */
+        public boolean isEjected(long now) {
+            return now < ejectedUntil;
+        }
+
+        /**
+         * Whether this instance may be selected.
+         *
+         * @param now current time in milliseconds
+         * @return boolean
+         */
+        public boolean isAvailable(long now) {
+            return healthy && !isEjected(now);
+        }
+
+        /**
+         * The backend answered a request.
+         *
+         * @param statusCode   status of the response
+         * @param latencyNanos time from sending the request until the response arrived
+         */
+        public void onResponse(int statusCode, long latencyNanos) {
+            onResponse(statusCode, latencyNanos, System.currentTimeMillis());
+        }
+
+        void onResponse(int statusCode, long latency, long now) {
+            if (statusCode >= 500) {
+                onError(now);
+                return;
+            }
+            consecutiveErrors.set(0);
+            if (now > ejectedUntil + balancer.healthPolicy.maxEjectionMillis()) {
+                ejections.set(0);
+            }
+            final long average = latencyNanos.accumulateAndGet(latency,
+                (current, sample) -> current == 0 ? sample : current + (sample - current) / LATENCY_SMOOTHING);
+            final double factor = balancer.healthPolicy.latencyFactor();
+            if (factor > 0 && latencySamples.incrementAndGet() >= MIN_LATENCY_SAMPLES && average > MIN_OUTLIER_LATENCY_NANOS) {
+                final long others = balancer.averageLatencyOfOthers(this, now);
+                if (others > 0 && average > factor * others) {
+                    eject(now, "average latency " + TimeUnit.NANOSECONDS.toMillis(average) + "ms, others " + TimeUnit.NANOSECONDS.toMillis(others) + "ms");
+                }
+            }
+        }
+
+        /**
+         * The request to the backend failed, e.g. because the connection could not be established.
+         */
+        public void onError() {
+            onError(System.currentTimeMillis());
+        }
+
+        void onError(long now) {
+            final int threshold = balancer.healthPolicy.consecutiveErrors();
+            if (threshold > 0 && consecutiveErrors.incrementAndGet() >= threshold) {
+                eject(now, threshold + " errors in a row");
+            }
+        }
+
+        /**
+         * Result of an active health check.
+         *
+         * @param success whether the probe succeeded
+         */
+        void onProbe(boolean success) {
+            if (success) {
+                probeFailures.set(0);
+                if (!healthy && probeSuccesses.incrementAndGet() >= balancer.healthPolicy.healthyThreshold()) {
+                    healthy = true;
+                    LOGGER.info("onProbe: backend instance '{}' is healthy again", instance);
+                }
+            }
+            else {
+                probeSuccesses.set(0);
+                if (healthy && probeFailures.incrementAndGet() >= balancer.healthPolicy.unhealthyThreshold()) {
+                    healthy = false;
+                    LOGGER.warn("onProbe: backend instance '{}' is unhealthy", instance);
+                }
+            }
+        }
+
+        private void eject(long now, String reason) {
+            if (isEjected(now)) {
+                return;
+            }
+            if (!balancer.mayEject(now)) {
+                LOGGER.warn("eject: backend instance '{}' is an outlier ({}), but too many instances are ejected already", instance, reason);
+                return;
+            }
+            final long duration = balancer.healthPolicy.ejectionMillis(ejections.incrementAndGet());
+            ejectedUntil = now + duration;
+            consecutiveErrors.set(0);
+            latencyNanos.set(0);
+            latencySamples.set(0);
+            LOGGER.warn("eject: backend instance '{}' ejected for {}ms: {}", instance, duration, reason);
+        }
+
+        /**
+         * Compares outstanding requests per weight, without dividing.
+         */
+        private boolean isLessLoadedThan(Member other) {
+            return (long) outstanding.get() * other.instance.weight() < (long) other.outstanding.get() * instance.weight();
+        }
+
+        @Override
+        public String toString() {
+            return instance + " outstanding=" + outstanding.get() + (healthy ? "" : " unhealthy")
+                + (isEjected(System.currentTimeMillis()) ? " ejected" : "");
+        }
+    }
+}
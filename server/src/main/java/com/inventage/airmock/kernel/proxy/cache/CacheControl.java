@@ -0,0 +1,64 @@
+package com.inventage.airmock.kernel.proxy.cache;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpHeaders;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Directives of the Cache-Control headers of a request or response (RFC 7234, section 5.2).
+ */
+final class CacheControl {
+    static final String NO_STORE = "no-store";
+    static final String NO_CACHE = "no-cache";
+    static final String PRIVATE = "private";
+    static final String MAX_AGE = "max-age";
+    static final String S_MAXAGE = "s-maxage";
+
+    private final Map<String, String> directives = new HashMap<>();
+
+    private CacheControl(MultiMap headers) {
+        for (String header : headers.getAll(HttpHeaders.CACHE_CONTROL)) {
+            for (String directive : header.split(",")) {
+                final int equals = directive.indexOf('=');
+                final String name = (equals < 0 ? directive : directive.substring(0, equals)).trim().toLowerCase(Locale.ROOT);
+                if (!name.isEmpty()) {
+                    directives.put(name, equals < 0 ? "" : unquote(directive.substring(equals + 1).trim()));
+                }
+            }
+        }
+    }
+
+    static CacheControl of(MultiMap headers) {
+        return new CacheControl(headers);
+    }
+
+    boolean has(String directive) {
+        return directives.containsKey(directive);
+    }
+
+    /**
+     * Value of a delta-seconds directive like max-age.
+     *
+     * @param directive name of the directive
+     * @return seconds or -1 if the directive is missing or invalid
+     */
+    long seconds(String directive) {
+        final String value = directives.get(directive);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String unquote(String value) {
+        return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"") ? value.substring(1, value.length() - 1) : value;
+    }
+}
@@ -0,0 +1,334 @@
+package com.inventage.airmock.kernel.proxy.cache;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A response stored in the {@link ResponseCache}: status, end-to-end headers and body of a backend response, the
+ * values of the request headers it varies on and its freshness.
+ * <p>
+ * Instances are immutable, apart from the compressed variants of the body kept with them; a revalidation creates a
+ * refreshed copy.
+ */
+public final class CachedResponse {
+    private static final Set<String> NOT_STORED_HEADERS = new HashSet<>(Arrays.asList(
+        "connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade",
+        "content-length", "age"));
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final String VARY = "Vary";
+
+    private final int statusCode;
+    private final String statusMessage;
+    private final MultiMap headers;
+    private final Buffer body;
+    private final Map<String, String> vary;
+    private final String sessionId;
+    private final long responseTime;
+    private final long freshUntil;
+    private final long initialAge;
+    private final Map<String, Buffer> encodedBodies = new ConcurrentHashMap<>();
+
+    private CachedResponse(int statusCode, String statusMessage, MultiMap headers, Buffer body, Map<String, String> vary, String sessionId,
+                           long responseTime, long freshUntil, long initialAge) {
+        this.statusCode = statusCode;
+        this.statusMessage = statusMessage;
+        this.headers = headers;
+        this.body = body;
+        this.vary = vary;
+        this.sessionId = sessionId;
+        this.responseTime = responseTime;
+        this.freshUntil = freshUntil;
+        this.initialAge = initialAge;
+    }
+
+    /**
+     * Create an entry for a backend response.
+     *
+     * @param statusCode      status code of the response
+     * @param statusMessage   status message of the response
+     * @param responseHeaders headers of the response
+     * @param body            body of the response
+     * @param requestHeaders  headers of the frontend request, for the values of the headers listed in Vary
+     * @param sessionId       session the entry is restricted to or null if it is shared by all sessions
+     * @param now             current time in milliseconds
+     * @return the entry
+     */
+    public static CachedResponse create(int statusCode, String statusMessage, MultiMap responseHeaders, Buffer body, MultiMap requestHeaders,
+                                        String sessionId, long now) {
+        final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        copyStoredHeaders(responseHeaders, headers);
+        final long initialAge = age(responseHeaders);
+        return new CachedResponse(statusCode, statusMessage, headers, body, varyValues(responseHeaders, requestHeaders), sessionId,
+            now, freshUntil(headers, initialAge, now), initialAge);
+    }
+
+    /**
+     * Values of the request headers listed in the Vary header of the response.
+     *
+     * @param responseHeaders headers of the response
+     * @param requestHeaders  headers of the request
+     * @return lower case header name to value, an empty string for missing headers
+     */
+    static Map<String, String> varyValues(MultiMap responseHeaders, MultiMap requestHeaders) {
+        final Map<String, String> values = new LinkedHashMap<>();
+        for (String name : varyHeaders(responseHeaders)) {
+            values.put(name, String.join(",", requestHeaders.getAll(name)));
+        }
+        return values;
+    }
+
+    /**
+     * Lower case names of the headers listed in the Vary header.
+     *
+     * @param responseHeaders headers of the response
+     * @return header names
+     */
+    static Set<String> varyHeaders(MultiMap responseHeaders) {
+        final Set<String> names = new HashSet<>();
+        for (String header : responseHeaders.getAll(VARY)) {
+            for (String name : header.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    names.add(name.trim().toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return names;
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    public String statusMessage() {
+        return statusMessage;
+    }
+
+    public MultiMap headers() {
+        return headers;
+    }
+
+    public Buffer body() {
+        return body;
+    }
+
+    /**
+     * The body in the given content coding, encoded on first use and kept with the entry.
+     *
+     * @param coding  content coding
+     * @param encoder encodes the body
+     * @return encoded body
+     */
+    public Buffer encodedBody(String coding, Function<Buffer, Buffer> encoder) {
+        return encodedBodies.computeIfAbsent(coding, key -> encoder.apply(body));
+    }
+
+    public String sessionId() {
+        return sessionId;
+    }
+
+    public String etag() {
+        return headers.get(HttpHeaders.ETAG);
+    }
+
+    public String lastModified() {
+        return headers.get(HttpHeaders.LAST_MODIFIED);
+    }
+
+    public boolean isFresh(long now) {
+        return now < freshUntil;
+    }
+
+    /**
+     * Whether the backend can be asked if the entry is still valid.
+     *
+     * @return true if the entry has an ETag or a Last-Modified header
+     */
+    public boolean isRevalidatable() {
+        return etag() != null || lastModified() != null;
+    }
+
+    /**
+     * Age of the entry, as sent in the Age header.
+     *
+     * @param now current time in milliseconds
+     * @return seconds
+     */
+    public long age(long now) {
+        return initialAge + Math.max(0, now - responseTime) / 1000;
+    }
+
+    /**
+     * Whether the request headers listed in Vary have the same values as in the request the entry was stored for.
+     *
+     * @param requestHeaders headers of the request
+     * @return true if the entry may be used for the request
+     */
+    public boolean matches(MultiMap requestHeaders) {
+        for (Map.Entry<String, String> entry : vary.entrySet()) {
+            if (!entry.getValue().equals(String.join(",", requestHeaders.getAll(entry.getKey())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add the validators of the entry to a request to the backend.
+     *
+     * @param requestHeaders headers of the backend request
+     */
+    public void addConditionalHeaders(MultiMap requestHeaders) {
+        if (etag() != null) {
+            requestHeaders.set(HttpHeaders.IF_NONE_MATCH, etag());
+        }
+        if (lastModified() != null) {
+            requestHeaders.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified());
+        }
+    }
+
+    /**
+     * Create a copy with the headers of a 304 response of the backend (RFC 7234, section 4.3.4).
+     *
+     * @param notModifiedHeaders headers of the 304 response
+     * @param now                current time in milliseconds
+     * @return the refreshed entry
+     */
+    public CachedResponse refresh(MultiMap notModifiedHeaders, long now) {
+        final MultiMap refreshed = MultiMap.caseInsensitiveMultiMap().addAll(headers);
+        final MultiMap updates = MultiMap.caseInsensitiveMultiMap();
+        copyStoredHeaders(notModifiedHeaders, updates);
+        for (String name : updates.names()) {
+            refreshed.set(name, updates.getAll(name));
+        }
+        final long age = age(notModifiedHeaders);
+        return new CachedResponse(statusCode, statusMessage, refreshed, body, vary, sessionId, now, freshUntil(refreshed, age, now), age);
+    }
+
+    /**
+     * Approximate memory used by the entry.
+     *
+     * @return bytes
+     */
+    public int size() {
+        int size = ENTRY_OVERHEAD + body.length();
+        for (Map.Entry<String, String> header : headers) {
+            size += header.getKey().length() + header.getValue().length();
+        }
+        return size;
+    }
+
+    /**
+     * Serialize the entry: length of the metadata (int), metadata as JSON, body.
+     *
+     * @return serialized entry
+     */
+    Buffer toBuffer() {
+        final JsonArray headerArray = new JsonArray();
+        headers.forEach(header -> headerArray.add(new JsonArray().add(header.getKey()).add(header.getValue())));
+        final JsonObject varyObject = new JsonObject();
+        vary.forEach(varyObject::put);
+        final byte[] metadata = new JsonObject()
+            .put("status", statusCode)
+            .put("message", statusMessage)
+            .put("headers", headerArray)
+            .put("vary", varyObject)
+            .put("session", sessionId)
+            .put("responseTime", responseTime)
+            .put("freshUntil", freshUntil)
+            .put("initialAge", initialAge)
+            .encode().getBytes(StandardCharsets.UTF_8);
+        return Buffer.buffer(Integer.BYTES + metadata.length + body.length()).appendInt(metadata.length).appendBytes(metadata).appendBuffer(body);
+    }
+
+    /**
+     * Deserialize an entry written by {@link #toBuffer()}.
+     *
+     * @param buffer serialized entry
+     * @return the entry
+     */
+    static CachedResponse fromBuffer(Buffer buffer) {
+        final int metadataLength = buffer.getInt(0);
+        final JsonObject metadata = new JsonObject(buffer.getString(Integer.BYTES, Integer.BYTES + metadataLength, StandardCharsets.UTF_8.name()));
+        final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        for (Object header : metadata.getJsonArray("headers")) {
+            headers.add(((JsonArray) header).getString(0), ((JsonArray) header).getString(1));
+        }
+        final Map<String, String> vary = new LinkedHashMap<>();
+        metadata.getJsonObject("vary").forEach(entry -> vary.put(entry.getKey(), (String) entry.getValue()));
+        return new CachedResponse(metadata.getInteger("status"), metadata.getString("message"), headers,
+            buffer.getBuffer(Integer.BYTES + metadataLength, buffer.length()), vary, metadata.getString("session"),
+            metadata.getLong("responseTime"), metadata.getLong("freshUntil"), metadata.getLong("initialAge"));
+    }
+
+    /**
+     * Freshness lifetime from s-maxage, max-age or Expires; responses without any or with no-cache are stale at once.
+     */
+    private static long freshUntil(MultiMap headers, long initialAge, long now) {
+        final CacheControl cacheControl = CacheControl.of(headers);
+        long lifetime = 0;
+        if (cacheControl.has(CacheControl.NO_CACHE)) {
+            return now;
+        }
+        if (cacheControl.seconds(CacheControl.S_MAXAGE) >= 0) {
+            lifetime = cacheControl.seconds(CacheControl.S_MAXAGE);
+        }
+        else if (cacheControl.seconds(CacheControl.MAX_AGE) >= 0) {
+            lifetime = cacheControl.seconds(CacheControl.MAX_AGE);
+        }
+        else if (headers.get(HttpHeaders.EXPIRES) != null) {
+            final long expires = parseDate(headers.get(HttpHeaders.EXPIRES), 0);
+            final long date = parseDate(headers.get(HttpHeaders.DATE), now);
+            lifetime = Math.max(0, expires - date) / 1000;
+        }
+        return now + (lifetime - initialAge) * 1000;
+    }
+
+    private static long age(MultiMap headers) {
+        final String age = headers.get(HttpHeaders.AGE);
+        if (age == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(age.trim()));
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseDate(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void copyStoredHeaders(MultiMap from, MultiMap to) {
+        from.forEach(header -> {
+            if (!NOT_STORED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                to.add(header.getKey(), header.getValue());
+            }
+        });
+    }
+}
@@ -0,0 +1,156 @@
+package com.inventage.airmock.kernel.proxy.cache;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Second tier of the {@link ResponseCache}: a memory mapped file used as a ring buffer for the entries evicted from
+ * memory.
+ * <p>
+ * Entries are appended at the write position, which wraps to the start of the file at its end. An append overwrites
+ * the oldest entries, which are evicted; so the tier evicts first in, first out. Only the index is kept on the heap,
+ * the content of the file is not used after a restart. Instances are not thread safe.
+ */
+final class DiskTier {
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final Map<String, Location> index = new HashMap<>();
+    private final Deque<Location> writeOrder = new ArrayDeque<>();
+    private int writePosition;
+    private long usedBytes;
+
+    private DiskTier(RandomAccessFile file, int capacity) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Map the given file; it is created or resized if needed.
+     *
+     * @param path     path of the file
+     * @param capacity size of the file in bytes
+     * @return the tier
+     * @throws IOException if the file can not be opened or mapped
+     */
+    static DiskTier open(String path, int capacity) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(path, "rw");
+        file.setLength(capacity);
+        return new DiskTier(file, capacity);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Read an entry.
+     *
+     * @param key key
+     * @return the serialized entry or null if it is not in this tier
+     */
+    Buffer get(String key) {
+        final Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        final byte[] bytes = new byte[location.length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(location.offset);
+        source.get(bytes);
+        return Buffer.buffer(bytes);
+    }
+
+    /**
+     * Write an entry, evicting the oldest entries it overwrites.
+     *
+     * @param key   key
+     * @param entry serialized entry
+     * @return false if the entry is larger than the tier
+     */
+    boolean put(String key, Buffer entry) {
+        final int length = entry.length();
+        if (length > capacity) {
+            return false;
+        }
+        if (writePosition + length > capacity) {
+            writePosition = 0;
+        }
+        while (!writeOrder.isEmpty() && writeOrder.peekFirst().overlaps(writePosition, length)) {
+            evict(writeOrder.pollFirst());
+        }
+        final ByteBuffer target = buffer.duplicate();
+        target.position(writePosition);
+        target.put(entry.getBytes());
+        final Location location = new Location(key, writePosition, length);
+        writeOrder.addLast(location);
+        final Location replaced = index.put(key, location);
+        if (replaced != null) {
+            usedBytes -= replaced.length;
+        }
+        usedBytes += length;
+        writePosition += length;
+        return true;
+    }
+
+    /**
+     * Remove an entry from the index; its bytes are reused when the write position passes them.
+     *
+     * @param key key
+     */
+    void remove(String key) {
+        final Location location = index.remove(key);
+        if (location != null) {
+            usedBytes -= location.length;
+        }
+    }
+
+    void close() throws IOException {
+        index.clear();
+        writeOrder.clear();
+        file.close();
+    }
+
+    private void evict(Location location) {
+        if (index.get(location.key) == location) {
+            remove(location.key);
+        }
+    }
+
+    /**
+     * Position of an entry in the file.
+     */
+    private static final class Location {
+        private final String key;
+        private final int offset;
+        private final int length;
+
+        private Location(String key, int offset, int length) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private boolean overlaps(int start, int size) {
+            return offset < start + size && start < offset + length;
+        }
+    }
+}
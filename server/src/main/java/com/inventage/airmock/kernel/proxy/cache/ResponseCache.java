@@ -0,0 +1,340 @@
+package com.inventage.airmock.kernel.proxy.cache;
+
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.shareddata.Shareable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Cache for responses of the backends, used by the proxy for the mappings with caching enabled.
+ * <p>
+ * Only responses with status 200 to GET requests are stored, if Cache-Control allows it and they have an explicit
+ * freshness (s-maxage, max-age or Expires) or a validator (ETag or Last-Modified). Fresh entries are served without
+ * asking the backend; stale entries are revalidated with a conditional request. Responses setting cookies are never
+ * stored.
+ * <p>
+ * An entry is restricted to the session of the request it was stored for, if the response is private, varies on
+ * Cookie or Authorization or on a header the proxy changed, or if the proxy sent cookies of the cookie bag or an access
+ * token to the backend. Such entries are never served to other sessions.
+ * <p>
+ * The entries are kept in memory up to a configured size; the least recently used entries are evicted. If a disk tier
+ * is configured, evicted entries are moved to a memory mapped file and promoted back to memory on their next use.
+ * The cache is shared by all verticles of a vert.x instance and thread safe.
+ */
+public final class ResponseCache implements Shareable {
+    public static final String CONFIG_PREFIX = ResponseCache.class.getName() + ".";
+    public static final String MAX_MEMORY_MB = "max-memory-mb";
+    public static final String MAX_ENTRY_SIZE_KB = "max-entry-size-kb";
+    public static final String DISK_PATH = "disk-path";
+    public static final String DISK_SIZE_MB = "disk-size-mb";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCache.class);
+
+    private static final String PRAGMA = "Pragma";
+    private static final String SHARED_MAP = "airmock.response-cache";
+    private static final int KILO_BYTE = 1024;
+    private static final int MEGA_BYTE = 1024 * 1024;
+    private static final int DEFAULT_MAX_MEMORY_MB = 64;
+    private static final int DEFAULT_MAX_ENTRY_SIZE_KB = 1024;
+    private static final int DEFAULT_DISK_SIZE_MB = 256;
+    private static final int MAX_DISK_SIZE_MB = 2047;
+
+    private final Map<String, CachedResponse> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxMemory;
+    private final int maxEntrySize;
+    private final DiskTier disk;
+    private long usedMemory;
+    private long evicted;
+
+    ResponseCache(long maxMemory, int maxEntrySize, DiskTier disk) {
+        this.maxMemory = maxMemory;
+        this.maxEntrySize = maxEntrySize;
+        this.disk = disk;
+    }
+
+    /**
+     * The cache of the given vert.x instance, created with the configuration found at the keys prefixed with
+     * {@link #CONFIG_PREFIX} on first use.
+     *
+     * @param vertx  vertx
+     * @param config configuration
+     * @return the cache
+     */
+    public static ResponseCache shared(Vertx vertx, JsonObject config) {
+        return vertx.sharedData().<String, ResponseCache>getLocalMap(SHARED_MAP).computeIfAbsent(SHARED_MAP, name -> create(config));
+    }
+
+    /**
+     * Create a cache with the configuration found at the keys prefixed with {@link #CONFIG_PREFIX}.
+     *
+     * @param config configuration
+     * @return the cache
+     */
+    public static ResponseCache create(JsonObject config) {
+        final long maxMemory = (long) ConfigUtils.getInteger(config, CONFIG_PREFIX + MAX_MEMORY_MB, DEFAULT_MAX_MEMORY_MB) * MEGA_BYTE;
+        final int maxEntrySize = ConfigUtils.getInteger(config, CONFIG_PREFIX + MAX_ENTRY_SIZE_KB, DEFAULT_MAX_ENTRY_SIZE_KB) * KILO_BYTE;
+        final String diskPath = config.getString(CONFIG_PREFIX + DISK_PATH);
+        DiskTier disk = null;
+        if (diskPath != null) {
+            final int diskSize = Math.min(MAX_DISK_SIZE_MB, ConfigUtils.getInteger(config, CONFIG_PREFIX + DISK_SIZE_MB, DEFAULT_DISK_SIZE_MB)) * MEGA_BYTE;
+            try {
+                disk = DiskTier.open(diskPath, diskSize);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Could not open response cache file: " + diskPath, e);
+            }
+        }
+        LOGGER.info("create: {} MB in memory, entries up to {} KB, disk tier '{}'", maxMemory / MEGA_BYTE, maxEntrySize / KILO_BYTE, diskPath);
+        return new ResponseCache(maxMemory, maxEntrySize, disk);
+    }
+
+    /**
+     * Key of the responses of a backend for a request.
+     *
+     * @param protocol protocol of the backend
+     * @param backend  address of the backend
+     * @param uri      uri of the backend request
+     * @return key
+     */
+    public static String key(String protocol, SocketAddress backend, String uri) {
+        return protocol + "://" + backend.host() + ":" + backend.port() + uri;
+    }
+
+    /**
+     * Whether the cache may be used for a request: GET and HEAD requests without Cache-Control no-store.
+     *
+     * @param request frontend request
+     * @return boolean
+     */
+    public static boolean isCacheable(HttpServerRequest request) {
+        return (request.method() == HttpMethod.GET || request.method() == HttpMethod.HEAD)
+            && !CacheControl.of(request.headers()).has(CacheControl.NO_STORE);
+    }
+
+    /**
+     * Whether the client asks to revalidate even fresh entries, by Cache-Control no-cache or max-age=0 or by Pragma
+     * no-cache.
+     *
+     * @param request frontend request
+     * @return boolean
+     */
+    public static boolean requiresRevalidation(HttpServerRequest request) {
+        final CacheControl cacheControl = CacheControl.of(request.headers());
+        return cacheControl.has(CacheControl.NO_CACHE) || cacheControl.seconds(CacheControl.MAX_AGE) == 0
+            || CacheControl.NO_CACHE.equalsIgnoreCase(request.getHeader(PRAGMA));
+    }
+
+    /**
+     * Whether the client sent validators itself; such requests are passed to the backend unchanged.
+     *
+     * @param request frontend request
+     * @return boolean
+     */
+    public static boolean isConditional(HttpServerRequest request) {
+        return request.headers().contains(HttpHeaders.IF_NONE_MATCH) || request.headers().contains(HttpHeaders.IF_MODIFIED_SINCE);
+    }
+
+    /**
+     * Decide whether a backend response may be stored and whether it must be restricted to the session.
+     *
+     * @param method          method of the request
+     * @param statusCode      status code of the response
+     * @param responseHeaders headers of the backend response
+     * @param frontendHeaders headers of the frontend request
+     * @param backendHeaders  headers of the backend request, as changed by the proxy
+     * @return scope of the entry
+     */
+    public static Scope scope(HttpMethod method, int statusCode, MultiMap responseHeaders, MultiMap frontendHeaders, MultiMap backendHeaders) {
+        final CacheControl cacheControl = CacheControl.of(responseHeaders);
+        final Set<String> vary = CachedResponse.varyHeaders(responseHeaders);
+        if (method != HttpMethod.GET || statusCode != 200
+            || cacheControl.has(CacheControl.NO_STORE) || CacheControl.of(frontendHeaders).has(CacheControl.NO_STORE)
+            || responseHeaders.contains(HttpHeaders.SET_COOKIE) || vary.contains("*")) {
+            return Scope.NONE;
+        }
+        final boolean explicitFreshness = cacheControl.seconds(CacheControl.S_MAXAGE) >= 0 || cacheControl.seconds(CacheControl.MAX_AGE) >= 0
+            || responseHeaders.contains(HttpHeaders.EXPIRES);
+        final boolean validator = responseHeaders.contains(HttpHeaders.ETAG) || responseHeaders.contains(HttpHeaders.LAST_MODIFIED);
+        if (!explicitFreshness && !validator) {
+            return Scope.NONE;
+        }
+        if (cacheControl.has(CacheControl.PRIVATE) || vary.contains("cookie") || vary.contains("authorization")
+            || backendHeaders.contains(HttpHeaders.COOKIE) || backendHeaders.contains(HttpHeaders.AUTHORIZATION)) {
+            return Scope.SESSION;
+        }
+        for (String header : vary) {
+            if (!Objects.equals(String.join(",", frontendHeaders.getAll(header)), String.join(",", backendHeaders.getAll(header)))) {
+                return Scope.SESSION;
+            }
+        }
+        return Scope.SHARED;
+    }
+
+    /**
+     * Maximal size of the body of an entry.
+     *
+     * @return bytes
+     */
+    public int maxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Find the entry for a request; an entry of the session is preferred over a shared one.
+     *
+     * @param key            key of the request
+     * @param sessionId      session of the request or null
+     * @param requestHeaders headers of the frontend request, matched against the Vary header of the entry
+     * @return the entry or null
+     */
+    public synchronized CachedResponse get(String key, String sessionId, MultiMap requestHeaders) {
+        CachedResponse entry = sessionId == null ? null : find(sessionKey(key, sessionId));
+        if (entry == null || !entry.matches(requestHeaders)) {
+            entry = find(key);
+        }
+        return entry != null && entry.matches(requestHeaders) ? entry : null;
+    }
+
+    /**
+     * Store an entry, replacing the entry of the same key and session.
+     *
+     * @param key   key of the request
+     * @param entry entry
+     */
+    public synchronized void put(String key, CachedResponse entry) {
+        final String storageKey = storageKey(key, entry);
+        remove(storageKey);
+        if (entry.size() > maxEntrySize) {
+            return;
+        }
+        memory.put(storageKey, entry);
+        usedMemory += entry.size();
+        evict();
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param key   key of the request
+     * @param entry entry
+     */
+    public synchronized void remove(String key, CachedResponse entry) {
+        remove(storageKey(key, entry));
+    }
+
+    public synchronized int size() {
+        return memory.size() + (disk == null ? 0 : disk.size());
+    }
+
+    public synchronized long usedMemory() {
+        return usedMemory;
+    }
+
+    /**
+     * Number of entries evicted from memory.
+     *
+     * @return count
+     */
+    public synchronized long evicted() {
+        return evicted;
+    }
+
+    /**
+     * Close the file of the disk tier.
+     */
+    public synchronized void close() {
+        memory.clear();
+        usedMemory = 0;
+        if (disk != null) {
+            try {
+                disk.close();
+            }
+            catch (IOException e) {
+                LOGGER.warn("close: could not close response cache file, error: '{}'", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return memory.size() + " entries with " + usedMemory + " bytes in memory, "
+            + (disk == null ? "no disk tier" : disk.size() + " entries with " + disk.usedBytes() + " bytes on disk") + ", " + evicted + " evicted";
+    }
+
+    private CachedResponse find(String storageKey) {
+        final CachedResponse entry = memory.get(storageKey);
+        if (entry != null || disk == null) {
+            return entry;
+        }
+        final Buffer serialized = disk.get(storageKey);
+        if (serialized == null) {
+            return null;
+        }
+        disk.remove(storageKey);
+        final CachedResponse promoted = CachedResponse.fromBuffer(serialized);
+        memory.put(storageKey, promoted);
+        usedMemory += promoted.size();
+        evict();
+        return promoted;
+    }
+
+    private void remove(String storageKey) {
+        final CachedResponse removed = memory.remove(storageKey);
+        if (removed != null) {
+            usedMemory -= removed.size();
+        }
+        if (disk != null) {
+            disk.remove(storageKey);
+        }
+    }
+
+    private void evict() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<String, CachedResponse>> iterator = memory.entrySet().iterator();
+        while (usedMemory > maxMemory && iterator.hasNext()) {
+            final Map.Entry<String, CachedResponse> eldest = iterator.next();
+            iterator.remove();
+            usedMemory -= eldest.getValue().size();
+            evicted++;
+            if (disk != null && (eldest.getValue().isFresh(now) || eldest.getValue().isRevalidatable())) {
+                disk.put(eldest.getKey(), eldest.getValue().toBuffer());
+            }
+        }
+    }
+
+    private static String storageKey(String key, CachedResponse entry) {
+        return entry.sessionId() == null ? key : sessionKey(key, entry.sessionId());
+    }
+
+    private static String sessionKey(String key, String sessionId) {
+        return sessionId + " " + key;
+    }
+
+    /**
+     * Who may use a stored response.
+     */
+    public enum Scope {
+        /** The response must not be stored. */
+        NONE,
+        /** All sessions. */
+        SHARED,
+        /** Only the session of the request it was stored for. */
+        SESSION
+    }
+}
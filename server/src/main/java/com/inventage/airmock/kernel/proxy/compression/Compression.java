@@ -0,0 +1,248 @@
+package com.inventage.airmock.kernel.proxy.compression;
+
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpVersion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Settings of the compression of the responses of a mapping, read from the config of the mapping, and the negotiation
+ * of the content coding with the client.
+ * <p>
+ * A response is compressed with gzip or deflate, as accepted by the client, if it is enabled by {@link #COMPRESS}, the
+ * response is successful, not encoded yet, of a type listed in {@link #COMPRESS_TYPES} and not known to be smaller than
+ * {@link #COMPRESS_MIN_SIZE} bytes. Responses marked with {@code Cache-Control: no-transform} and event streams are
+ * never compressed.
+ */
+public final class Compression {
+    public static final String COMPRESS = "compress";
+    public static final String COMPRESS_MIN_SIZE = "compressMinSize";
+    public static final String COMPRESS_LEVEL = "compressLevel";
+    public static final String COMPRESS_TYPES = "compressTypes";
+
+    public static final List<String> DEFAULT_TYPES = Collections.unmodifiableList(Arrays.asList(
+        "text/", "application/json", "application/javascript", "application/xml", "image/svg+xml", "+json", "+xml"));
+
+    private static final int DEFAULT_MIN_SIZE = 1024;
+    private static final int DEFAULT_LEVEL = 6;
+    private static final String EVENT_STREAM = "text/event-stream";
+    private static final String NO_TRANSFORM = "no-transform";
+    private static final String IDENTITY = "identity";
+    private static final String VARY = "Vary";
+    private static final String WEAK_PREFIX = "W/";
+
+    private final boolean enabled;
+    private final int minSize;
+    private final int level;
+    private final List<String> types;
+
+    private Compression(Map<String, String> config) {
+        this.enabled = Boolean.parseBoolean(config.get(COMPRESS));
+        this.minSize = ConfigUtils.getInteger(config, COMPRESS_MIN_SIZE, DEFAULT_MIN_SIZE);
+        this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, ConfigUtils.getInteger(config, COMPRESS_LEVEL, DEFAULT_LEVEL)));
+        final String typeList = config.get(COMPRESS_TYPES);
+        if (typeList == null) {
+            this.types = DEFAULT_TYPES;
+        }
+        else {
+            final List<String> configured = new ArrayList<>();
+            for (String type : typeList.split(",")) {
+                if (!type.trim().isEmpty()) {
+                    configured.add(type.trim().toLowerCase(Locale.ROOT));
+                }
+            }
+            this.types = configured;
+        }
+    }
+
+    /**
+     * Read the settings from the config of a mapping; missing entries have their default.
+     *
+     * @param config config of a mapping, may be null
+     * @return settings
+     */
+    public static Compression of(Map<String, String> config) {
+        return new Compression(config == null ? Collections.emptyMap() : config);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Deflate level from 1 (fastest) to 9 (smallest).
+     *
+     * @return level
+     */
+    public int level() {
+        return level;
+    }
+
+    /**
+     * The content coding to compress a response with.
+     *
+     * @param request         request of the client
+     * @param statusCode      status of the response
+     * @param responseHeaders headers of the response
+     * @return coding or null if the response is sent as it is
+     */
+    public Encoding negotiate(HttpServerRequest request, int statusCode, MultiMap responseHeaders) {
+        if (!enabled || request.method() == HttpMethod.HEAD || request.version() == HttpVersion.HTTP_1_0
+            || statusCode < 200 || statusCode >= 300 || statusCode == 204 || statusCode == 206) {
+            return null;
+        }
+        final String contentEncoding = responseHeaders.get(HttpHeaders.CONTENT_ENCODING);
+        if (contentEncoding != null && !IDENTITY.equalsIgnoreCase(contentEncoding.trim())) {
+            return null;
+        }
+        final String cacheControl = responseHeaders.get(HttpHeaders.CACHE_CONTROL);
+        if (cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains(NO_TRANSFORM)) {
+            return null;
+        }
+        final String contentLength = responseHeaders.get(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength != null && parseLong(contentLength) < minSize) {
+            return null;
+        }
+        if (!isCompressible(responseHeaders.get(HttpHeaders.CONTENT_TYPE))) {
+            return null;
+        }
+        return Encoding.accepted(request.headers().getAll(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    /**
+     * Whether responses of the given content type are compressed.
+     *
+     * @param contentType value of the Content-Type header, may be null
+     * @return boolean
+     */
+    public boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        final int parameters = contentType.indexOf(';');
+        final String type = (parameters < 0 ? contentType : contentType.substring(0, parameters)).trim().toLowerCase(Locale.ROOT);
+        if (type.equals(EVENT_STREAM)) {
+            return false;
+        }
+        for (String candidate : types) {
+            if (candidate.endsWith("/") ? type.startsWith(candidate) : candidate.startsWith("+") ? type.endsWith(candidate) : type.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adapt the headers of a response to its compressed body: the length is unknown, the coding is announced, caches
+     * must vary on the accepted codings and a strong ETag becomes weak, as the bytes differ from the uncompressed body.
+     *
+     * @param headers  headers of the response to the client
+     * @param encoding coding of the body
+     */
+    public static void applyHeaders(MultiMap headers, Encoding encoding) {
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        headers.set(HttpHeaders.CONTENT_ENCODING, encoding.token());
+        boolean varies = false;
+        for (String vary : headers.getAll(VARY)) {
+            for (String name : vary.split(",")) {
+                varies |= name.trim().equalsIgnoreCase(HttpHeaders.ACCEPT_ENCODING.toString()) || "*".equals(name.trim());
+            }
+        }
+        if (!varies) {
+            headers.add(VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        final String etag = headers.get(HttpHeaders.ETAG);
+        if (etag != null && !etag.startsWith(WEAK_PREFIX)) {
+            headers.set(HttpHeaders.ETAG, WEAK_PREFIX + etag);
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Content codings produced by the proxy.
+     */
+    public enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        public String token() {
+            return token;
+        }
+
+        /**
+         * The preferred coding accepted by the Accept-Encoding headers of a request; gzip is preferred at equal quality.
+         * The quality of "*" applies to the codings which are not listed explicitly.
+         *
+         * @param acceptEncoding values of the Accept-Encoding headers
+         * @return coding or null if none is accepted
+         */
+        static Encoding accepted(List<String> acceptEncoding) {
+            final Map<Encoding, Double> listed = new EnumMap<>(Encoding.class);
+            double wildcard = 0;
+            for (String header : acceptEncoding) {
+                for (String element : header.split(",")) {
+                    final String[] parts = element.split(";");
+                    final String name = parts[0].trim().toLowerCase(Locale.ROOT);
+                    if ("*".equals(name)) {
+                        wildcard = quality(parts);
+                    }
+                    for (Encoding encoding : values()) {
+                        if (name.equals(encoding.token)) {
+                            listed.put(encoding, quality(parts));
+                        }
+                    }
+                }
+            }
+            Encoding best = null;
+            double bestQuality = 0;
+            for (Encoding encoding : values()) {
+                final double quality = listed.getOrDefault(encoding, wildcard);
+                if (quality > bestQuality) {
+                    best = encoding;
+                    bestQuality = quality;
+                }
+            }
+            return best;
+        }
+
+        private static double quality(String[] parts) {
+            for (int i = 1; i < parts.length; i++) {
+                final String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2));
+                    }
+                    catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.inventage.airmock.kernel.proxy.compression;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streaming compressor for one response body. The body is fed in chunks with {@link #compress(Buffer)} and completed
+ * with {@link #finish()}; an aborted body must be released with {@link #end()}, as the deflater holds native memory.
+ * gzip is written as raw deflate data framed by the gzip header and trailer, deflate as zlib data (RFC 1950).
+ */
+public final class Compressor {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int OUTPUT_SIZE = 8 * 1024;
+    private static final int BYTE_MASK = 0xff;
+
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] output = new byte[OUTPUT_SIZE];
+    private boolean headerWritten;
+    private boolean ended;
+
+    /**
+     * @param encoding coding of the compressed body
+     * @param level    deflate level
+     */
+    public Compressor(Compression.Encoding encoding, int level) {
+        final boolean gzip = encoding == Compression.Encoding.GZIP;
+        this.deflater = new Deflater(level, gzip);
+        this.crc = gzip ? new CRC32() : null;
+    }
+
+    /**
+     * Compress a body at once.
+     *
+     * @param body     body
+     * @param encoding coding
+     * @param level    deflate level
+     * @return compressed body
+     */
+    public static Buffer compress(Buffer body, Compression.Encoding encoding, int level) {
+        final Compressor compressor = new Compressor(encoding, level);
+        return compressor.compress(body).appendBuffer(compressor.finish());
+    }
+
+    /**
+     * Compress the next chunk of the body.
+     *
+     * @param chunk chunk
+     * @return compressed data available so far
+     */
+    public Buffer compress(Buffer chunk) {
+        final Buffer compressed = start();
+        if (ended) {
+            return compressed;
+        }
+        final byte[] bytes = chunk.getBytes();
+        if (crc != null) {
+            crc.update(bytes);
+        }
+        deflater.setInput(bytes);
+        drain(compressed, false);
+        return compressed;
+    }
+
+    /**
+     * Complete the body and release the deflater.
+     *
+     * @return the remaining compressed data
+     */
+    public Buffer finish() {
+        final Buffer compressed = start();
+        if (ended) {
+            return compressed;
+        }
+        deflater.finish();
+        drain(compressed, true);
+        if (crc != null) {
+            appendIntLittleEndian(compressed, crc.getValue());
+            appendIntLittleEndian(compressed, deflater.getBytesRead());
+        }
+        end();
+        return compressed;
+    }
+
+    /**
+     * Release the deflater without completing the body.
+     */
+    public void end() {
+        if (!ended) {
+            ended = true;
+            deflater.end();
+        }
+    }
+
+    private Buffer start() {
+        final Buffer compressed = Buffer.buffer();
+        if (!headerWritten && crc != null) {
+            compressed.appendBytes(GZIP_HEADER);
+        }
+        headerWritten = true;
+        return compressed;
+    }
+
+    /**
+     * Collect the output of the deflater. Every chunk is flushed, so that the client receives the body as it arrives
+     * from the backend; this costs a few bytes per chunk.
+     */
+    private void drain(Buffer compressed, boolean finishing) {
+        if (finishing) {
+            while (!deflater.finished()) {
+                compressed.appendBytes(output, 0, deflater.deflate(output, 0, output.length, Deflater.NO_FLUSH));
+            }
+        }
+        else {
+            int length;
+            do {
+                length = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+                compressed.appendBytes(output, 0, length);
+            } while (length == output.length);
+        }
+    }
+
+    private static void appendIntLittleEndian(Buffer buffer, long value) {
+        for (int i = 0; i < 4; i++) {
+            buffer.appendByte((byte) (value >> (8 * i) & BYTE_MASK));
+        }
+    }
+}
@@ -3,24 +3,30 @@ package com.inventage.airmock.kernel.proxy.internal;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.inventage.airmock.kernel.Constants;
 import com.inventage.airmock.kernel.proxy.HttpProxy;
+import com.inventage.airmock.kernel.proxy.balancer.LoadBalancer;
+import com.inventage.airmock.kernel.proxy.cache.CachedResponse;
+import com.inventage.airmock.kernel.proxy.resilience.DeadlineHandler;
+import com.inventage.airmock.kernel.proxy.resilience.ResiliencePolicy;
 import com.inventage.airmock.kernel.route.RoutingContextUtils;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.*;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.core.net.SocketAddress;
-import io.vertx.core.streams.Pump;
 import io.vertx.core.streams.ReadStream;
 import io.vertx.reactivex.ext.web.Cookie;
 import io.vertx.reactivex.ext.web.RoutingContext;
 
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
 /**
@@ -29,6 +35,11 @@ import java.util.function.Function;
 public class BackendRequestImpl {
     private static final Logger LOGGER = LoggerFactory.getLogger(BackendRequestImpl.class);
 
+    private static final Set<HttpMethod> IDEMPOTENT_METHODS = EnumSet.of(HttpMethod.GET, HttpMethod.HEAD, HttpMethod.OPTIONS,
+        HttpMethod.TRACE, HttpMethod.PUT, HttpMethod.DELETE);
+    private static final Set<HttpMethod> METHODS_WITHOUT_BODY = EnumSet.of(HttpMethod.GET, HttpMethod.HEAD, HttpMethod.OPTIONS,
+        HttpMethod.TRACE, HttpMethod.DELETE);
+
     protected final String proxyHostName;
     protected final String proxyHostPort;
     protected final HttpClient httpClient;
@@ -47,7 +58,29 @@ public class BackendRequestImpl {
 
     protected MultiMap headers;
 
-    protected Pump requestPump;
+    protected ProxyPipe requestPipe;
+    protected int highWatermark = ProxyPipe.DEFAULT_HIGH_WATERMARK;
+    protected int lowWatermark = ProxyPipe.DEFAULT_LOW_WATERMARK;
+
+    protected String cacheKey;
+    protected CachedResponse cachedResponse;
+
+    protected RequestCoalescer coalescer;
+
+    protected LoadBalancer.Member balancerMember;
+    protected LoadBalancer.Member outstandingAt;
+    protected long sentAt;
+    protected int retries;
+
+    protected ResiliencePolicy resilience = ResiliencePolicy.DEFAULT;
+    protected long phaseTimer = -1;
+    protected long totalTimer = -1;
+    protected long idleBytes = -1;
+    protected boolean headSent;
+    protected boolean bodyEnded;
+    protected HttpClientRequest abandoned;
+
+    RequestCoalescer.Flight flight;
 
     public BackendRequestImpl(String proxyHostName,
                               String proxyHostPort,
@@ -79,12 +112,103 @@ public class BackendRequestImpl {
     }
 
     /**
-     * Returns true if http version is 1.1.
+     * Set the watermarks of the pipes in both directions.
+     *
+     * @param high unflushed bytes at which the reading side is paused
+     * @param low  unflushed bytes at which the reading side is resumed
+     * @return this
+     */
+    public BackendRequestImpl watermarks(int high, int low) {
+        highWatermark = high;
+        lowWatermark = low;
+        return this;
+    }
+
+    /**
+     * Use the response cache for this request.
+     *
+     * @param key    key of the request in the cache
+     * @param stale  stale entry to revalidate with a conditional request, may be null
+     * @return this
+     */
+    public BackendRequestImpl responseCache(String key, CachedResponse stale) {
+        cacheKey = key;
+        cachedResponse = stale;
+        return this;
+    }
+
+    /**
+     * Let identical concurrent requests share one backend request.
+     *
+     * @param requestCoalescer coalescer of the proxy, null to send every request on its own
+     * @return this
+     */
+    public BackendRequestImpl coalescer(RequestCoalescer requestCoalescer) {
+        coalescer = requestCoalescer;
+        return this;
+    }
+
+    /**
+     * Count this request as outstanding at the given instance of the backend while it is sent.
+     *
+     * @param member instance selected by the load balancer, may be null
+     * @return this
+     */
+    public BackendRequestImpl balancerMember(LoadBalancer.Member member) {
+        balancerMember = member;
+        return this;
+    }
+
+    /**
+     * Bound the phases of this request by the timeouts of the given policy.
+     *
+     * @param policy policy of the mapping
+     * @return this
+     */
+    public BackendRequestImpl timeouts(ResiliencePolicy policy) {
+        resilience = policy;
+        return this;
+    }
+
+    /**
+     * Returns true if a body of unknown length can be sent to the frontend without closing the connection afterwards:
+     * chunked with HTTP/1.1, in data frames with HTTP/2.
      *
      * @return boolean
      */
-    public boolean isHttp11() {
-        return frontendRequest.version() == HttpVersion.HTTP_1_1;
+    public boolean isStreamingWithoutLength() {
+        return frontendRequest.version() != HttpVersion.HTTP_1_0;
+    }
+
+    /**
+     * Abort a response whose body can not be completed. A HTTP/2 stream is reset, so the other streams of the
+     * connection go on; a HTTP/1.x connection is closed.
+     *
+     * @param response response to the frontend
+     */
+    void abort(HttpServerResponse response) {
+        if (routingContext.request().version() == HttpVersion.HTTP_2) {
+            response.reset();
+        }
+        else {
+            response.close();
+        }
+    }
+
+    /**
+     * Whether the frontend request has a body. A HTTP/2 request may send a body without announcing its length; as the
+     * end of its stream is not known before the body is read, it is expected to have one unless its method has none by
+     * convention.
+     *
+     * @return boolean
+     */
+    private boolean hasBody() {
+        final String contentLength = frontendRequest.getHeader(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength != null) {
+            return !"0".equals(contentLength.trim());
+        }
+        return frontendRequest.headers().contains(HttpHeaders.TRANSFER_ENCODING)
+            || frontendRequest.version() == HttpVersion.HTTP_2 && !METHODS_WITHOUT_BODY.contains(frontendRequest.method());
     }
 
     /**
@@ -135,27 +259,226 @@ public class BackendRequestImpl {
             }
         }
 
+        if (frontendRequest.version() == HttpVersion.HTTP_2 && !backendRequest.isChunked()
+            && frontendRequest.getHeader(HttpHeaders.CONTENT_LENGTH) == null && hasBody()) {
+            // a body without length: sent chunked to a HTTP/1.1 backend
+            backendRequest.setChunked(true);
+        }
+
         // Set headers
         propagateHeaders(routingContext, frontendRequest, backendRequest);
+        if (cachedResponse != null) {
+            cachedResponse.addConditionalHeaders(backendRequest.headers());
+        }
+        if (coalescer != null && coalescer.join(this, backend, backendResponseHandler)) {
+            // the frontend request stays paused until the response of the flight arrives
+            cacheKey = null;
+            frontendRequest.response().closeHandler(v -> {
+                if (stop() != null) {
+                    coalescer.leave(flight, this);
+                }
+            });
+            return;
+        }
+
+        final HttpClientRequest request = backendRequest;
+        headSent = false;
+        bodyEnded = false;
+        backendRequest.handler(resp -> {
+            if (request != abandoned) {
+                onDataAvailableFromBackend(resp, backendResponseHandler);
+            }
+        });
+        backendRequest.exceptionHandler(err -> {
+            if (request != abandoned) {
+                onExceptionReceivedFromBackend(err, backendResponseHandler);
+            }
+        });
+        if (resilience.hasTimeouts() && !startTimers(backendResponseHandler)) {
+            return;
+        }
+        this.frontendRequest.response().endHandler(v -> {
+            if (stop() != null && !isShared()) {
+                backendRequest.reset();
+            }
+        });
+        this.frontendRequest.response().closeHandler(v -> {
+            // stopping detaches the body of a shared response, the other requests still receive it
+            if (stop() != null && !isShared()) {
+                LOGGER.debug("send: frontend connection closed, backend request is reset", routingContext);
+                backendRequest.reset();
+            }
+        });
+        if (balancerMember != null && outstandingAt == null) {
+            outstandingAt = balancerMember;
+            outstandingAt.acquire();
+            sentAt = System.nanoTime();
+        }
+        if (retries > 0) {
+            // only requests without body are retried, the frontend request was consumed by the first attempt
+            LOGGER.debug("send: retry {}", retries, routingContext);
+            frontendRequest.handler(null);
+            frontendRequest.endHandler(null);
+            frontendRequest.resume();
+            endBackendRequest(request, backendResponseHandler);
+            return;
+        }
 
         // Apply body filter
         final ReadStream<Buffer> bodyStream = bodyFilter.apply(frontendRequest);
 
         bodyStream.endHandler(v -> {
-            requestPump = null;
-            backendRequest.end();
+            LOGGER.debug("send: request body sent, {}", requestPipe, routingContext);
+            endBackendRequest(request, backendResponseHandler);
         });
-        requestPump = Pump.pump(bodyStream, backendRequest); // frontend -> backend
-        backendRequest.handler(resp -> onDataAvailableFromBackend(resp, backendResponseHandler));
-        backendRequest.exceptionHandler(err -> onExceptionReceivedFromBackend(err, backendResponseHandler));
-        this.frontendRequest.response().endHandler(v -> {
-            if (stop() != null) {
-                backendRequest.reset();
+        requestPipe = new ProxyPipe(bodyStream, backendRequest, ProxyPipe.Direction.REQUEST, highWatermark, lowWatermark); // frontend -> backend
+        LOGGER.debug("send: start request piping", routingContext);
+        requestPipe.start();
+        bodyStream.resume(); // request is sent
+    }
+
+    /**
+     * Start the timers of the total and the connect timeout and send the remaining time in the deadline header.
+     *
+     * @param backendResponseHandler handler
+     * @return false if the deadline has passed already and the request failed
+     */
+    private boolean startTimers(Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        final Vertx vertx = routingContext.vertx().getDelegate();
+        if (resilience.totalTimeoutMillis() > 0) {
+            final long remaining = DeadlineHandler.remainingMillis(routingContext, resilience.totalTimeoutMillis());
+            if (remaining <= 0) {
+                onTimeout("total", backendResponseHandler);
+                return false;
+            }
+            if (resilience.deadlineHeader() != null) {
+                backendRequest.putHeader(resilience.deadlineHeader(), String.valueOf(remaining));
+            }
+            totalTimer = vertx.setTimer(remaining, id -> {
+                totalTimer = -1;
+                onTimeout("total", backendResponseHandler);
+            });
+        }
+        if (resilience.connectTimeoutMillis() > 0 || resilience.firstByteTimeoutMillis() > 0) {
+            startPhaseTimer("connect", resilience.connectTimeoutMillis(), backendResponseHandler);
+            // called once the request got a connection, new or from the pool; the body may take its time to upload
+            final HttpClientRequest request = backendRequest;
+            backendRequest.sendHead(version -> {
+                if (request != backendRequest) {
+                    return;
+                }
+                headSent = true;
+                if (bodyEnded) {
+                    // the request was ended before it got a connection, it is written together with the head
+                    startFirstByteTimer(backendResponseHandler);
+                }
+                else {
+                    cancelPhaseTimer();
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * End the backend request. The first byte timeout starts once the end of the request is written to the backend.
+     *
+     * @param request                the backend request
+     * @param backendResponseHandler handler
+     */
+    private void endBackendRequest(HttpClientRequest request, Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        bodyEnded = true;
+        if (!headSent) {
+            // the completion handler of end() is dropped for a request without connection, see the sendHead handler
+            request.end();
+            return;
+        }
+        request.end(ar -> {
+            if (request == backendRequest && ar.succeeded()) {
+                startFirstByteTimer(backendResponseHandler);
+            }
+        });
+    }
+
+    private void startFirstByteTimer(Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        if (resilience.hasTimeouts()) {
+            startPhaseTimer("first byte", resilience.firstByteTimeoutMillis(), backendResponseHandler);
+        }
+    }
+
+    private void startPhaseTimer(String phase, long timeoutMillis, Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        cancelPhaseTimer();
+        if (timeoutMillis > 0 && frontendRequest != null && backendResponse == null) {
+            phaseTimer = routingContext.vertx().getDelegate().setTimer(timeoutMillis, id -> {
+                phaseTimer = -1;
+                onTimeout(phase, backendResponseHandler);
+            });
+        }
+    }
+
+    /**
+     * Watch the response body: if the backend sent nothing during the idle timeout while the frontend was able to take
+     * more, the request times out. A response shared with other requests is paced by the slowest of them and not watched.
+     *
+     * @param backendResponseHandler handler
+     */
+    private void watchIdle(Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        cancelPhaseTimer();
+        if (resilience.idleTimeoutMillis() <= 0 || flight != null) {
+            return;
+        }
+        phaseTimer = routingContext.vertx().getDelegate().setPeriodic(resilience.idleTimeoutMillis(), id -> {
+            final ProxyPipe pipe = backendResponse instanceof BackendResponseImpl ? ((BackendResponseImpl) backendResponse).responsePipe : null;
+            if (pipe == null || pipe.isPaused()) {
+                idleBytes = -1;
+            }
+            else if (pipe.bytes() == idleBytes) {
+                onTimeout("idle", backendResponseHandler);
+            }
+            else {
+                idleBytes = pipe.bytes();
             }
         });
-        bodyStream.resume(); // request is sent
-        LOGGER.debug("send: start request pumping", routingContext);
-        requestPump.start();
+    }
+
+    /**
+     * A timeout elapsed. Before the response arrived the request fails and the client gets a 504; afterwards the
+     * response body fails and the connection to the client is closed. The connection to the backend is reset in both
+     * cases, so it does not return to the pool.
+     *
+     * @param phase                  phase which timed out
+     * @param backendResponseHandler handler
+     */
+    private void onTimeout(String phase, Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        cancelTimers();
+        if (frontendRequest == null) {
+            return;
+        }
+        final HttpClientRequest request = backendRequest;
+        LOGGER.warn("onTimeout: {} timeout of backend request '{}'", phase, request.absoluteURI(), routingContext);
+        if (backendResponse == null) {
+            abandoned = request;
+            frontendRequest.response().setStatusCode(504);
+            frontendRequest.resume();
+            onExceptionReceivedFromBackend(new TimeoutException(phase + " timeout of backend request " + request.absoluteURI()), backendResponseHandler);
+        }
+        request.reset();
+    }
+
+    private void cancelPhaseTimer() {
+        if (phaseTimer >= 0) {
+            routingContext.vertx().getDelegate().cancelTimer(phaseTimer);
+            phaseTimer = -1;
+            idleBytes = -1;
+        }
+    }
+
+    private void cancelTimers() {
+        cancelPhaseTimer();
+        if (totalTimer >= 0) {
+            routingContext.vertx().getDelegate().cancelTimer(totalTimer);
+            totalTimer = -1;
+        }
     }
 
     /**
@@ -197,29 +520,133 @@ public class BackendRequestImpl {
      * @param backendResponseHandler handler
      */
     protected void onExceptionReceivedFromBackend(Throwable throwable, Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        if (requestPipe != null) {
+            requestPipe.stop();
+        }
         LOGGER.error("onExceptionReceivedFromBackend: '{}' for '{}'",
             throwable, throwable.getMessage(), routingContext.request().absoluteURI(), routingContext);
+        cancelTimers();
+        if (flight != null) {
+            coalescer.abort(flight, throwable);
+        }
+        if (outstandingAt != null) {
+            outstandingAt.onError();
+            releaseOutstanding();
+        }
         backendResponseHandler.handle(Future.failedFuture(throwable));
     }
 
     /**
-     * Stop pumping.
+     * Whether this request may be sent again after it failed: it has an idempotent method and no body, the backend did
+     * not answer yet, the frontend is still waiting and no other request waits for its response.
+     *
+     * @return boolean
+     */
+    public boolean isRetryable() {
+        if (frontendRequest == null || backendResponse != null || flight != null || !IDEMPOTENT_METHODS.contains(frontendRequest.method())) {
+            return false;
+        }
+        if (resilience.totalTimeoutMillis() > 0 && DeadlineHandler.remainingMillis(routingContext, resilience.totalTimeoutMillis()) <= 0) {
+            return false;
+        }
+        return !hasBody();
+    }
+
+    /**
+     * Prepare this request to be sent again, possibly to another instance of the backend.
      *
-     * @return HttpServerRequest
+     * @param member instance selected by the load balancer, may be null
+     * @return this
+     */
+    public BackendRequestImpl retry(LoadBalancer.Member member) {
+        cancelTimers();
+        releaseOutstanding();
+        balancerMember = member;
+        coalescer = null;
+        requestPipe = null;
+        retries++;
+        return this;
+    }
+
+    private void releaseOutstanding() {
+        if (outstandingAt != null) {
+            outstandingAt.release();
+            outstandingAt = null;
+        }
+    }
+
+    /**
+     * Whether other requests receive the response of this backend request, so it must not be reset if this request
+     * goes away.
+     *
+     * @return boolean
+     */
+    protected boolean isShared() {
+        return flight != null && flight.isLeader(this) && flight.isShared();
+    }
+
+    /**
+     * Send this request on its own, after it waited for a response which it can not share.
+     *
+     * @param backend                backend
+     * @param backendResponseHandler handler
+     */
+    void sendAlone(SocketAddress backend, Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        coalescer = null;
+        flight = null;
+        if (frontendRequest != null) {
+            send(backend, backendResponseHandler);
+        }
+    }
+
+    /**
+     * The response for the request this request waited for arrived.
+     *
+     * @param response               response of the backend
+     * @param body                   body stream for this request
+     * @param backendResponseHandler handler
+     */
+    void onCoalescedResponse(HttpClientResponse response, ReadStream<Buffer> body, Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        if (frontendRequest == null) {
+            body.handler(null);
+            return;
+        }
+        frontendRequest.resume();
+        deliver(response, body, backendResponseHandler);
+    }
+
+    /**
+     * The request this request waited for failed.
+     *
+     * @param throwable              error
+     * @param backendResponseHandler handler
+     */
+    void onCoalescedFailure(Throwable throwable, Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
+        if (frontendRequest != null) {
+            frontendRequest.resume();
+            backendResponseHandler.handle(Future.failedFuture(throwable));
+        }
+    }
+
+    /**
+     * Stop the pipes in both directions.
+     *
+     * @return the frontend request or null if already stopped
      */
     public HttpServerRequest stop() {
-        LOGGER.debug("stop: pumps", routingContext);
+        LOGGER.debug("stop: pipes", routingContext);
         final HttpServerRequest request = frontendRequest;
         if (request != null) {
             // Abrupt close
             frontendRequest = null;
-            if (requestPump != null) {
-                requestPump.stop();
-                requestPump = null;
+            if (requestPipe != null) {
+                requestPipe.stop();
             }
             if (this.backendResponse != null) {
-                this.backendResponse.stopPump();
+                this.backendResponse.stopPipe();
             }
+            releaseOutstanding();
+            cancelTimers();
             return request;
         }
         return null;
@@ -235,18 +662,37 @@ public class BackendRequestImpl {
         LOGGER.debug("onDataAvailableFromBackend: backend '{}' responded with status code '{}'",
             backendRequest.absoluteURI(), backendResponse.statusCode(), routingContext);
 
+        backendResponse.pause();
+        watchIdle(backendResponseHandler);
+        if (outstandingAt != null) {
+            outstandingAt.onResponse(backendResponse.statusCode(), System.nanoTime() - sentAt);
+        }
+        final ReadStream<Buffer> body = flight == null ? backendResponse : coalescer.land(flight, backendResponse);
         if (frontendRequest == null) {
+            if (body != backendResponse) {
+                body.handler(null); // the other requests still receive the response
+            }
             return;
         }
-        backendResponse.pause();
+        deliver(backendResponse, body, backendResponseHandler);
+    }
+
+    private void deliver(HttpClientResponse backendResponse, ReadStream<Buffer> body, Handler<AsyncResult<BackendResponse>> backendResponseHandler) {
         final HttpServerResponse frontendResponse = frontendRequest.response();
         if (!frontendResponse.ended()) {
             final BackendResponse response = proxy.getBackendResponse(this, backendResponse, frontendResponse);
+            if (body != backendResponse && response instanceof BackendResponseImpl) {
+                ((BackendResponseImpl) response).body(body);
+            }
+            this.backendResponse = response;
             response.prepare(routingContext);
             backendResponseHandler.handle(Future.succeededFuture(response));
         }
         else {
             LOGGER.debug("onDataAvailableFromBackend: frontend response already ended, backend response is not sent deliverd", routingContext);
+            if (body != backendResponse) {
+                body.handler(null);
+            }
         }
     }
 
@@ -283,6 +729,9 @@ public class BackendRequestImpl {
             else if (header.getKey().equalsIgnoreCase("cookie")) {
                 // don't copy cookie, because they are handled specially later
             }
+            else if (HopByHopHeaders.isHopByHop(header.getKey(), frontendRequest.headers())) {
+                // don't copy headers of the frontend connection, the backend connection has its own
+            }
             else {
                 to.add(header.getKey(), header.getValue());
             }
@@ -1,5 +1,6 @@
 package com.inventage.airmock.kernel.proxy.internal;
 
+import com.inventage.airmock.kernel.proxy.compression.Compression;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
@@ -24,6 +25,14 @@ public interface BackendResponse {
      */
     void prepare(RoutingContext routingContext);
 
+    /**
+     * Compress the body sent to the frontend if the client accepts it and the response qualifies. Must be called
+     * before {@link #prepare(RoutingContext)}.
+     *
+     * @param compression settings of the mapping
+     */
+    void compress(Compression compression);
+
     /**
      * Send backendResponse to frontend.
      *
@@ -33,9 +42,9 @@ public interface BackendResponse {
     void replyToFrontend(Handler<AsyncResult<Void>> backendResponseHandler, RoutingContext routingContext);
 
     /**
-     * Stop Pump.
+     * Stop the pipe of the response body.
      */
-    void stopPump();
+    void stopPipe();
 
     /**
      * A server error has occurred.
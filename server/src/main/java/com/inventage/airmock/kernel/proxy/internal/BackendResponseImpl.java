@@ -1,16 +1,19 @@
 package com.inventage.airmock.kernel.proxy.internal;
 
+import com.inventage.airmock.kernel.proxy.compression.Compression;
+import com.inventage.airmock.kernel.proxy.compression.Compressor;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import io.vertx.core.streams.Pump;
 import io.vertx.core.streams.ReadStream;
 import io.vertx.reactivex.core.Promise;
 import io.vertx.reactivex.ext.web.RoutingContext;
@@ -29,13 +32,16 @@ public class BackendResponseImpl implements BackendResponse {
     protected final HttpClientResponse backendResponse;
     protected final HttpServerResponse frontendResponse;
     protected Function<ReadStream<Buffer>, ReadStream<Buffer>> bodyFilter = Function.identity();
+    protected ReadStream<Buffer> body;
+    protected Compression.Encoding encoding;
 
-    protected Pump responsePump;
+    protected ProxyPipe responsePipe;
 
     public BackendResponseImpl(BackendRequestImpl backendRequest, HttpClientResponse backendResponse, HttpServerResponse frontendResponse) {
         this.backendRequest = backendRequest;
         this.backendResponse = backendResponse;
         this.frontendResponse = frontendResponse;
+        this.body = backendResponse;
     }
 
     public BackendResponseImpl bodyFilter(Function<ReadStream<Buffer>, ReadStream<Buffer>> filter) {
@@ -44,10 +50,33 @@ public class BackendResponseImpl implements BackendResponse {
         return this;
     }
 
+    /**
+     * Read the body from another stream than the backend response, e.g. if the response is shared by several
+     * requests.
+     *
+     * @param stream body of the backend response
+     * @return this
+     */
+    public BackendResponseImpl body(ReadStream<Buffer> stream) {
+        this.body = stream;
+        return this;
+    }
+
     public MultiMap headers() {
         return frontendResponse.headers();
     }
 
+    @Override
+    public void compress(Compression compression) {
+        encoding = compression.negotiate(backendRequest.frontendRequest, backendResponse.statusCode(), backendResponse.headers());
+        if (encoding != null) {
+            LOGGER.debug("compress: body is compressed with '{}'", encoding.token());
+            final Compression.Encoding coding = encoding;
+            // the filters before, e.g. the recording of the response cache, still see the uncompressed body
+            bodyFilter = bodyFilter.andThen(stream -> new CompressingReadStream(stream, new Compressor(coding, compression.level())));
+        }
+    }
+
     public void prepare(RoutingContext routingContext) {
         LOGGER.debug("prepare:", routingContext);
 
@@ -77,13 +106,16 @@ public class BackendResponseImpl implements BackendResponse {
         // Handle other headers
         backendResponse.headers().forEach(header -> {
             if (header.getKey().equalsIgnoreCase("date") || header.getKey().equalsIgnoreCase("warning")
-                || header.getKey().equalsIgnoreCase("transfer-encoding")) {
+                || HopByHopHeaders.isHopByHop(header.getKey(), backendResponse.headers())) {
                 // Skip
             }
             else {
                 frontendResponse.headers().add(header.getKey(), header.getValue());
             }
         });
+        if (encoding != null) {
+            Compression.applyHeaders(frontendResponse.headers(), encoding);
+        }
     }
 
     public void replyToFrontend(Handler<AsyncResult<Void>> backendResponseHandler, RoutingContext routingContext) {
@@ -111,40 +143,29 @@ public class BackendResponseImpl implements BackendResponse {
             });
         }
         else {
-            backendResponse.exceptionHandler(err -> {
+            // Apply body filter
+            final ReadStream<Buffer> bodyStream = bodyFilter.apply(body);
+
+            bodyStream.exceptionHandler(err -> {
                 final HttpServerRequest request = backendRequest.stop();
                 if (request != null) {
-                    request.response().close();
+                    backendRequest.abort(request.response());
                     backendResponseHandler.handle(Future.failedFuture(err));
                 }
-                stopPump();
+                stopPipe();
             });
 
-            // Apply body filter
-            final ReadStream<Buffer> bodyStream = bodyFilter.apply(backendResponse);
-
-            if (chunked && backendRequest.isHttp11()) {
+            if (encoding != null || chunked && backendRequest.isStreamingWithoutLength()) {
+                // the length of a compressed body is unknown
                 frontendResponse.setChunked(true);
-                responsePump = Pump.pump(bodyStream, frontendResponse);
-                responsePump.start();
-                bodyStream.endHandler(v -> {
-                    backendRequest.stop();
-                    backendResponseHandler.handle(Future.succeededFuture());
-                    frontendResponse.end();
-                });
+                pipeToFrontend(bodyStream, backendResponseHandler, false);
             }
             else {
                 final String contentLength = backendResponse.getHeader("content-length");
                 if (contentLength != null) {
-                    responsePump = Pump.pump(bodyStream, frontendResponse);
-                    responsePump.start();
-                    bodyStream.endHandler(v -> {
-                        backendRequest.stop();
-                        backendResponseHandler.handle(Future.succeededFuture());
-                        frontendResponse.end();
-                    });
+                    pipeToFrontend(bodyStream, backendResponseHandler, false);
                 }
-                else {
+                else if (isWithoutBody()) {
                     final Buffer body = Buffer.buffer();
                     bodyStream.handler(body::appendBuffer);
                     bodyStream.endHandler(v -> {
@@ -153,18 +174,52 @@ public class BackendResponseImpl implements BackendResponse {
                         frontendResponse.end(body);
                     });
                 }
+                else if (backendRequest.isStreamingWithoutLength()) {
+                    // unknown length: stream with chunked encoding or HTTP/2 data frames instead of buffering the whole body
+                    frontendResponse.setChunked(true);
+                    pipeToFrontend(bodyStream, backendResponseHandler, false);
+                }
+                else {
+                    // unknown length for a HTTP/1.0 client: the end of the body is signaled by closing the connection
+                    frontendResponse.putHeader(HttpHeaders.CONNECTION, HttpHeaders.CLOSE);
+                    pipeToFrontend(bodyStream, backendResponseHandler, true);
+                }
             }
+        }
 
+        body.resume();
+    }
 
-        }
+    private void pipeToFrontend(ReadStream<Buffer> bodyStream, Handler<AsyncResult<Void>> backendResponseHandler, boolean closeAfterEnd) {
+        responsePipe = new ProxyPipe(bodyStream, frontendResponse, ProxyPipe.Direction.RESPONSE, backendRequest.highWatermark, backendRequest.lowWatermark);
+        responsePipe.start();
+        bodyStream.endHandler(v -> {
+            LOGGER.debug("pipeToFrontend: response body sent, {}", responsePipe);
+            backendRequest.stop();
+            backendResponseHandler.handle(Future.succeededFuture());
+            if (closeAfterEnd) {
+                frontendResponse.end(written -> frontendResponse.close());
+            }
+            else {
+                frontendResponse.end();
+            }
+        });
+    }
 
-        backendResponse.resume();
+    /**
+     * Responses to HEAD requests and with status 1xx, 204 or 304 have no body (RFC 7230, section 3.3.3).
+     *
+     * @return boolean
+     */
+    private boolean isWithoutBody() {
+        final int statusCode = backendResponse.statusCode();
+        return backendRequest.frontendRequest.method() == HttpMethod.HEAD
+            || statusCode < 200 || statusCode == 204 || statusCode == 304;
     }
 
-    public void stopPump() {
-        if (responsePump != null) {
-            responsePump.stop();
-            responsePump = null;
+    public void stopPipe() {
+        if (responsePipe != null) {
+            responsePipe.stop();
         }
     }
 
@@ -202,7 +257,12 @@ public class BackendResponseImpl implements BackendResponse {
     }
 
     public void stop() {
-        backendRequest.reset();
+        if (body == backendResponse) {
+            backendRequest.reset();
+        }
+        else {
+            body.handler(null);
+        }
     }
 
     @Override
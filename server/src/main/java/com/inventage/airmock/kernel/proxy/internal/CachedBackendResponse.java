@@ -0,0 +1,163 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import com.inventage.airmock.kernel.proxy.cache.CachedResponse;
+import com.inventage.airmock.kernel.proxy.compression.Compression;
+import com.inventage.airmock.kernel.proxy.compression.Compressor;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.reactivex.core.Promise;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+/**
+ * Response served from the response cache, either because the entry is fresh or because the backend confirmed it
+ * with a 304 response. Conditional requests matching the ETag of the entry get a 304 response.
+ */
+public class CachedBackendResponse implements BackendResponse {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedBackendResponse.class);
+
+    private final CachedResponse cachedResponse;
+    private final HttpServerRequest frontendRequest;
+    private final HttpServerResponse frontendResponse;
+    private final BackendRequestImpl backendRequest;
+    private final HttpClientResponse backendResponse;
+    private Compression.Encoding encoding;
+    private int compressionLevel;
+
+    /**
+     * Response for a fresh entry.
+     *
+     * @param cachedResponse  entry
+     * @param frontendRequest request
+     */
+    public CachedBackendResponse(CachedResponse cachedResponse, HttpServerRequest frontendRequest) {
+        this(cachedResponse, frontendRequest, null, null);
+    }
+
+    /**
+     * Response for an entry revalidated by the backend.
+     *
+     * @param cachedResponse  refreshed entry
+     * @param frontendRequest request
+     * @param backendRequest  conditional request to the backend
+     * @param backendResponse 304 response of the backend
+     */
+    public CachedBackendResponse(CachedResponse cachedResponse, HttpServerRequest frontendRequest,
+                                 BackendRequestImpl backendRequest, HttpClientResponse backendResponse) {
+        this.cachedResponse = cachedResponse;
+        this.frontendRequest = frontendRequest;
+        this.frontendResponse = frontendRequest.response();
+        this.backendRequest = backendRequest;
+        this.backendResponse = backendResponse;
+    }
+
+    @Override
+    public MultiMap headers() {
+        return frontendResponse.headers();
+    }
+
+    @Override
+    public void compress(Compression compression) {
+        if (!isNotModified()) {
+            encoding = compression.negotiate(frontendRequest, cachedResponse.statusCode(), cachedResponse.headers());
+            compressionLevel = compression.level();
+        }
+    }
+
+    @Override
+    public void prepare(RoutingContext routingContext) {
+        LOGGER.debug("prepare: from cache, revalidated '{}'", backendResponse != null, routingContext);
+        if (isNotModified()) {
+            frontendResponse.setStatusCode(304);
+        }
+        else {
+            frontendResponse.setStatusCode(cachedResponse.statusCode());
+            frontendResponse.setStatusMessage(cachedResponse.statusMessage());
+        }
+        frontendResponse.headers().addAll(cachedResponse.headers());
+        frontendResponse.putHeader(HttpHeaders.AGE, String.valueOf(cachedResponse.age(System.currentTimeMillis())));
+        if (encoding != null) {
+            Compression.applyHeaders(frontendResponse.headers(), encoding);
+        }
+    }
+
+    @Override
+    public void replyToFrontend(Handler<AsyncResult<Void>> backendResponseHandler, RoutingContext routingContext) {
+        if (backendResponse != null) {
+            // the 304 response has no body, it is drained so that the connection can be reused
+            backendRequest.stop();
+            backendResponse.resume();
+        }
+        backendResponseHandler.handle(Future.succeededFuture());
+        if (isNotModified()) {
+            frontendResponse.end();
+        }
+        else if (frontendRequest.method() == HttpMethod.HEAD) {
+            frontendResponse.putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(cachedResponse.body().length()));
+            frontendResponse.end();
+        }
+        else if (encoding != null) {
+            // compressed once per entry and coding
+            final Compression.Encoding coding = encoding;
+            final int level = compressionLevel;
+            final Buffer compressed = cachedResponse.encodedBody(coding.token(), body -> Compressor.compress(body, coding, level));
+            frontendResponse.end(compressed);
+        }
+        else {
+            frontendResponse.end(cachedResponse.body());
+        }
+    }
+
+    @Override
+    public void stopPipe() {
+    }
+
+    @Override
+    public boolean isServerError() {
+        return false;
+    }
+
+    @Override
+    public void stop() {
+        if (backendRequest != null) {
+            backendRequest.reset();
+        }
+    }
+
+    @Override
+    public void failIfServerError(Promise<Object> future, RoutingContext routingContext) {
+    }
+
+    /**
+     * A conditional request of the client is answered with 304 if its If-None-Match header lists the ETag of the entry.
+     *
+     * @return boolean
+     */
+    private boolean isNotModified() {
+        final String ifNoneMatch = frontendRequest.getHeader(HttpHeaders.IF_NONE_MATCH);
+        final String etag = cachedResponse.etag();
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            if ("*".equals(candidate.trim()) || weak(candidate.trim()).equals(weak(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,83 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Body filter recording the body of a backend response while it is piped to the frontend. The recorded body is passed
+ * to the given handler at the end of the body, unless it got larger than the maximal size or the stream was aborted.
+ */
+class CachingReadStream implements ReadStream<Buffer> {
+    private final ReadStream<Buffer> source;
+    private final int maxSize;
+    private final Handler<Buffer> recordedHandler;
+    private Buffer body = Buffer.buffer();
+
+    CachingReadStream(ReadStream<Buffer> source, int maxSize, Handler<Buffer> recordedHandler) {
+        this.source = source;
+        this.maxSize = maxSize;
+        this.recordedHandler = recordedHandler;
+    }
+
+    @Override
+    public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+        source.exceptionHandler(handler == null ? null : error -> {
+            body = null;
+            handler.handle(error);
+        });
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+        if (handler == null) {
+            // the pipe was stopped, the body is incomplete
+            body = null;
+            source.handler(null);
+        }
+        else {
+            source.handler(data -> {
+                record(data);
+                handler.handle(data);
+            });
+        }
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> pause() {
+        source.pause();
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> resume() {
+        source.resume();
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> fetch(long amount) {
+        source.fetch(amount);
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+        source.endHandler(endHandler == null ? null : v -> {
+            if (body != null) {
+                recordedHandler.handle(body);
+                body = null;
+            }
+            endHandler.handle(v);
+        });
+        return this;
+    }
+
+    private void record(Buffer data) {
+        if (body != null) {
+            body = body.length() + data.length() > maxSize ? null : body.appendBuffer(data);
+        }
+    }
+}
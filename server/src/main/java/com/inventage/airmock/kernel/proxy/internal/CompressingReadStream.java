@@ -0,0 +1,77 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import com.inventage.airmock.kernel.proxy.compression.Compressor;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Body filter compressing the body of a backend response while it is piped to the frontend. The compressor is
+ * released if the pipe is stopped or the stream fails.
+ */
+class CompressingReadStream implements ReadStream<Buffer> {
+    private final ReadStream<Buffer> source;
+    private final Compressor compressor;
+    private Handler<Buffer> handler;
+
+    CompressingReadStream(ReadStream<Buffer> source, Compressor compressor) {
+        this.source = source;
+        this.compressor = compressor;
+    }
+
+    @Override
+    public ReadStream<Buffer> exceptionHandler(Handler<Throwable> exceptionHandler) {
+        source.exceptionHandler(exceptionHandler == null ? null : error -> {
+            compressor.end();
+            exceptionHandler.handle(error);
+        });
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> handler(Handler<Buffer> dataHandler) {
+        this.handler = dataHandler;
+        if (dataHandler == null) {
+            // the pipe was stopped, the body is incomplete
+            compressor.end();
+            source.handler(null);
+        }
+        else {
+            source.handler(data -> emit(compressor.compress(data)));
+        }
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> pause() {
+        source.pause();
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> resume() {
+        source.resume();
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> fetch(long amount) {
+        source.fetch(amount);
+        return this;
+    }
+
+    @Override
+    public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+        source.endHandler(endHandler == null ? null : v -> {
+            emit(compressor.finish());
+            endHandler.handle(v);
+        });
+        return this;
+    }
+
+    private void emit(Buffer compressed) {
+        if (handler != null && compressed.length() > 0) {
+            handler.handle(compressed);
+        }
+    }
+}
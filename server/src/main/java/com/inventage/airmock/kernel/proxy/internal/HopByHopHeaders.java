@@ -0,0 +1,43 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpHeaders;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The headers which only concern one connection and are not forwarded by a proxy (RFC 7230, section 6.1), be it
+ * between HTTP/1.x connections or from and to HTTP/2, where they are forbidden (RFC 7540, section 8.1.2.2).
+ */
+final class HopByHopHeaders {
+    private static final Set<String> NAMES = new HashSet<>(Arrays.asList(
+        "connection", "keep-alive", "proxy-connection", "te", "trailer", "transfer-encoding", "upgrade", "http2-settings"));
+
+    private HopByHopHeaders() {
+    }
+
+    /**
+     * Whether a header is not forwarded: it is hop-by-hop, a HTTP/2 pseudo header or listed in the connection header.
+     *
+     * @param name    name of the header
+     * @param headers all headers of the message
+     * @return boolean
+     */
+    static boolean isHopByHop(String name, MultiMap headers) {
+        final String lowerCaseName = name.toLowerCase(Locale.ROOT);
+        if (NAMES.contains(lowerCaseName) || lowerCaseName.startsWith(":")) {
+            return true;
+        }
+        for (String connection : headers.getAll(HttpHeaders.CONNECTION)) {
+            for (String token : connection.split(",")) {
+                if (token.trim().equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
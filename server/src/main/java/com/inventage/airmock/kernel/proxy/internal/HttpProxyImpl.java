@@ -1,10 +1,19 @@
 package com.inventage.airmock.kernel.proxy.internal;
 
 import com.inventage.airmock.kernel.proxy.HttpProxy;
+import com.inventage.airmock.kernel.proxy.balancer.LoadBalancer;
+import com.inventage.airmock.kernel.proxy.cache.CachedResponse;
+import com.inventage.airmock.kernel.proxy.cache.ResponseCache;
+import com.inventage.airmock.kernel.proxy.compression.Compression;
+import com.inventage.airmock.kernel.proxy.resilience.DeadlineHandler;
+import com.inventage.airmock.kernel.proxy.resilience.ResiliencePolicy;
+import com.inventage.airmock.kernel.proxy.resilience.RetryBudget;
+import com.inventage.airmock.kernel.route.RoutingContextUtils;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.logging.Logger;
@@ -29,6 +38,15 @@ public class HttpProxyImpl implements HttpProxy {
     protected Function<HttpServerRequest, Future<SocketAddress>> backendSelector = req -> Future.failedFuture("No backend configured");
     protected String backendProtocol;
     protected Function<String, String> backendUrlMapper = Function.identity();
+    protected int highWatermark = ProxyPipe.DEFAULT_HIGH_WATERMARK;
+    protected int lowWatermark = ProxyPipe.DEFAULT_LOW_WATERMARK;
+    protected ResponseCache responseCache;
+    protected RequestCoalescer requestCoalescer;
+    protected LoadBalancer loadBalancer;
+    protected int retries;
+    protected RetryBudget retryBudget;
+    protected ResiliencePolicy timeouts = ResiliencePolicy.DEFAULT;
+    protected Compression compression;
 
     public HttpProxyImpl() {
         this(null, null);
@@ -53,12 +71,32 @@ public class HttpProxyImpl implements HttpProxy {
         return this;
     }
 
+    @Override
+    public HttpProxy loadBalancer(LoadBalancer balancer) {
+        this.loadBalancer = balancer;
+        this.backendSelector = req -> Future.succeededFuture(balancer.select(req).address());
+        return this;
+    }
+
     @Override
     public HttpProxy circuitBreaker(CircuitBreaker circuitBreaker) {
         this.circuitBreaker = circuitBreaker;
         return this;
     }
 
+    @Override
+    public HttpProxy retries(int retries, RetryBudget retryBudget) {
+        this.retries = retries;
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    @Override
+    public HttpProxy timeouts(ResiliencePolicy policy) {
+        this.timeouts = policy;
+        return this;
+    }
+
     @Override
     public HttpProxy applicationJwtCookieName(String applicationJwtCookieName) {
         this.applicationJwtCookieName = applicationJwtCookieName;
@@ -83,6 +121,11 @@ public class HttpProxyImpl implements HttpProxy {
      * @param fallbackHandler fallbackHandler
      */
     protected void delegateToBackend(RoutingContext routingContext, Handler<RoutingContext> fallbackHandler) {
+        if (timeouts.totalTimeoutMillis() > 0 && DeadlineHandler.remainingMillis(routingContext, timeouts.totalTimeoutMillis()) <= 0) {
+            LOGGER.warn("delegateToBackend: deadline of '{}' passed before the backend was called", routingContext.request().absoluteURI(), routingContext);
+            routingContext.request().response().setStatusCode(504).end();
+            return;
+        }
         routingContext.request().pause();
         final Future<SocketAddress> fut = backendSelector.apply(routingContext.request().getDelegate());
         fut.setHandler(ar -> {
@@ -96,9 +139,19 @@ public class HttpProxyImpl implements HttpProxy {
                     routingContext,
                     this);
                 backendRequest.backendUrlMapper(this.backendUrlMapper);
+                backendRequest.watermarks(highWatermark, lowWatermark);
+                backendRequest.coalescer(requestCoalescer);
+                backendRequest.timeouts(timeouts);
+                if (loadBalancer != null) {
+                    backendRequest.balancerMember(loadBalancer.member(backend));
+                }
+                if (responseCache != null && ResponseCache.isCacheable(routingContext.request().getDelegate())
+                    && replyFromCache(routingContext, backend, backendRequest)) {
+                    return;
+                }
                 if (circuitBreaker != null) {
                     circuitBreaker.execute(future -> {
-                        backendRequest.send(backend,
+                        sendToBackend(backendRequest, backend,
                             asyncResult -> onResponseReceivedFromBackend(asyncResult, future, routingContext));
                     }).setHandler(cc -> {
                         if (cc.succeeded()) {
@@ -120,7 +173,7 @@ public class HttpProxyImpl implements HttpProxy {
                     });
                 }
                 else {
-                    backendRequest.send(backend, asyncResult -> onBackendResponseReceived(asyncResult, routingContext));
+                    sendToBackend(backendRequest, backend, asyncResult -> onBackendResponseReceived(asyncResult, routingContext));
                 }
             }
             else {
@@ -131,6 +184,69 @@ public class HttpProxyImpl implements HttpProxy {
         });
     }
 
+    /**
+     * Send the request to the backend. A request which fails before the backend answered is sent again to a newly
+     * selected backend, as long as it is retryable, the retries of this proxy are not exhausted and the retry budget
+     * allows it.
+     *
+     * @param backendRequest request to the backend
+     * @param backend        backend
+     * @param handler        handler of the last attempt
+     */
+    protected void sendToBackend(BackendRequestImpl backendRequest, SocketAddress backend, Handler<AsyncResult<BackendResponse>> handler) {
+        final RoutingContext routingContext = backendRequest.routingContext;
+        if (retryBudget != null && backendRequest.retries == 0) {
+            retryBudget.onRequest();
+        }
+        backendRequest.send(backend, ar -> {
+            if (ar.failed() && backendRequest.retries < retries && backendRequest.isRetryable() && retryBudget != null && retryBudget.tryRetry()) {
+                LOGGER.warn("sendToBackend: retrying after '{}' from '{}'",
+                    ar.cause() != null ? ar.cause().getMessage() : "Unkown error", backend, routingContext);
+                backendSelector.apply(routingContext.request().getDelegate()).setHandler(next -> {
+                    if (next.succeeded()) {
+                        backendRequest.retry(loadBalancer != null ? loadBalancer.member(next.result()) : null);
+                        sendToBackend(backendRequest, next.result(), handler);
+                    }
+                    else {
+                        handler.handle(ar);
+                    }
+                });
+                return;
+            }
+            handler.handle(ar);
+        });
+    }
+
+    /**
+     * Serve the request from the response cache if it has a fresh response. Otherwise the backend request is prepared
+     * to revalidate a stale response and its response is stored.
+     *
+     * @param routingContext request
+     * @param backend        backend
+     * @param backendRequest request to the backend
+     * @return true if the request was served from the cache
+     */
+    protected boolean replyFromCache(RoutingContext routingContext, SocketAddress backend, BackendRequestImpl backendRequest) {
+        final HttpServerRequest request = routingContext.request().getDelegate();
+        final String key = ResponseCache.key(backendProtocol, backend, backendUrlMapper.apply(request.uri()));
+        final CachedResponse cached = responseCache.get(key, RoutingContextUtils.session(routingContext).id(), request.headers());
+        if (cached != null && cached.isFresh(System.currentTimeMillis()) && !ResponseCache.requiresRevalidation(request)) {
+            LOGGER.debug("replyFromCache: fresh response for '{}'", key, routingContext);
+            request.resume();
+            final BackendResponse response = new CachedBackendResponse(cached, request);
+            if (compression != null) {
+                response.compress(compression);
+            }
+            response.prepare(routingContext);
+            response.replyToFrontend(asyncResult -> onResponseSentToFrontend(asyncResult, routingContext), routingContext);
+            return true;
+        }
+        final boolean revalidate = cached != null && cached.isRevalidatable() && !ResponseCache.isConditional(request);
+        LOGGER.debug("replyFromCache: {} for '{}'", revalidate ? "revalidating stale response" : "no response", key, routingContext);
+        backendRequest.responseCache(key, revalidate ? cached : null);
+        return false;
+    }
+
     /**
      * Callback when backend request was sent.
      *
@@ -146,6 +262,13 @@ public class HttpProxyImpl implements HttpProxy {
         else {
             LOGGER.error("onBackendResponseReceived: request to backend failed '{}'",
                 asyncResult.cause(), asyncResult.cause() != null ? asyncResult.cause().getMessage() : "Unkown error", routingContext);
+            final HttpServerResponse response = routingContext.request().response().getDelegate();
+            if (!response.ended() && !response.closed() && !response.headWritten()) {
+                if (response.getStatusCode() == 200) {
+                    response.setStatusCode(502);
+                }
+                response.end();
+            }
         }
     }
 
@@ -205,15 +328,94 @@ public class HttpProxyImpl implements HttpProxy {
         return this;
     }
 
+    @Override
+    public HttpProxy watermarks(int highWatermark, int lowWatermark) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        return this;
+    }
+
     @Override
     public HttpProxy setClient(HttpClient client) {
         this.client = client;
         return this;
     }
 
+    @Override
+    public HttpProxy responseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    @Override
+    public HttpProxy compression(Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    @Override
+    public HttpProxy requestCoalescer(RequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+        return this;
+    }
+
     @Override
     public BackendResponse getBackendResponse(BackendRequestImpl backendRequest, HttpClientResponse backendResponse, HttpServerResponse frontendResponse) {
-        return new BackendResponseImpl(backendRequest, backendResponse, frontendResponse);
+        final BackendResponse response = backendRequest.cacheKey != null
+            ? getCachingBackendResponse(backendRequest, backendResponse, frontendResponse)
+            : new BackendResponseImpl(backendRequest, backendResponse, frontendResponse);
+        if (compression != null) {
+            response.compress(compression);
+        }
+        return response;
+    }
+
+    /**
+     * Response of the backend to a request using the response cache. A stale response confirmed by the backend is
+     * served from the cache; a storable response is recorded while it is piped to the frontend.
+     *
+     * @param backendRequest   backendRequest
+     * @param backendResponse  backendResponse
+     * @param frontendResponse frontendResponse
+     * @return response
+     */
+    protected BackendResponse getCachingBackendResponse(BackendRequestImpl backendRequest,
+                                                        HttpClientResponse backendResponse,
+                                                        HttpServerResponse frontendResponse) {
+        final RoutingContext routingContext = backendRequest.routingContext;
+        final HttpServerRequest frontendRequest = routingContext.request().getDelegate();
+        final String key = backendRequest.cacheKey;
+        final CachedResponse stale = backendRequest.cachedResponse;
+        if (stale != null && backendResponse.statusCode() == 304) {
+            LOGGER.debug("getCachingBackendResponse: stale response for '{}' is still valid", key, routingContext);
+            final CachedResponse refreshed = stale.refresh(backendResponse.headers(), System.currentTimeMillis());
+            responseCache.put(key, refreshed);
+            return new CachedBackendResponse(refreshed, frontendRequest, backendRequest, backendResponse);
+        }
+        final BackendResponseImpl response = new BackendResponseImpl(backendRequest, backendResponse, frontendResponse);
+        final String sessionId = RoutingContextUtils.session(routingContext).id();
+        ResponseCache.Scope scope = ResponseCache.scope(frontendRequest.method(), backendResponse.statusCode(), backendResponse.headers(),
+            frontendRequest.headers(), backendRequest.backendRequest.headers());
+        if (scope == ResponseCache.Scope.SESSION && sessionId == null) {
+            scope = ResponseCache.Scope.NONE;
+        }
+        if (scope == ResponseCache.Scope.NONE) {
+            if (stale != null) {
+                responseCache.remove(key, stale);
+            }
+            return response;
+        }
+        final String entrySessionId = scope == ResponseCache.Scope.SESSION ? sessionId : null;
+        final String contentLength = backendResponse.getHeader(HttpHeaders.CONTENT_LENGTH);
+        response.bodyFilter(body -> new CachingReadStream(body, responseCache.maxEntrySize(), recorded -> {
+            if (contentLength == null || contentLength.equals(String.valueOf(recorded.length()))) {
+                LOGGER.debug("getCachingBackendResponse: storing response for '{}', restricted to the session '{}'",
+                    key, entrySessionId != null, routingContext);
+                responseCache.put(key, CachedResponse.create(backendResponse.statusCode(), backendResponse.statusMessage(), backendResponse.headers(),
+                    recorded, frontendRequest.headers(), entrySessionId, System.currentTimeMillis()));
+            }
+        }));
+        return response;
     }
 
     @Override
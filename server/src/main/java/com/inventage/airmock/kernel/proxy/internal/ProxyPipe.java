@@ -0,0 +1,178 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pipe between the frontend and the backend, replacing the vert.x {@code Pump}.
+ * <p>
+ * The pipe counts the bytes written but not yet flushed to the destination. If they reach the high watermark, the
+ * source is paused until they dropped to the low watermark. So the memory buffered per request is bounded by the high
+ * watermark, even for slow clients. The bytes transferred and the time the source was paused are counted per pipe and
+ * in total per {@link Direction}.
+ * <p>
+ * The end of the source is not handled by the pipe. A stopped pipe ignores further data of the source; it is stopped
+ * by the proxy if either side fails or closes. Instances must only be used on the context of their streams.
+ */
+public final class ProxyPipe {
+    public static final int DEFAULT_HIGH_WATERMARK = 64 * 1024;
+    public static final int DEFAULT_LOW_WATERMARK = 16 * 1024;
+
+    private final ReadStream<Buffer> source;
+    private final WriteStream<Buffer> destination;
+    private final Direction direction;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private long pendingBytes;
+    private long bytes;
+    private int pauses;
+    private long pausedNanos;
+    private long pausedSince;
+    private boolean paused;
+    private boolean stopped;
+
+    /**
+     * @param source        stream to read from
+     * @param destination   stream to write to
+     * @param direction     direction of the data, for the metrics
+     * @param highWatermark unflushed bytes at which the source is paused
+     * @param lowWatermark  unflushed bytes at which the paused source is resumed
+     */
+    public ProxyPipe(ReadStream<Buffer> source, WriteStream<Buffer> destination, Direction direction, int highWatermark, int lowWatermark) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high, but are low=" + lowWatermark + " high=" + highWatermark);
+        }
+        this.source = source;
+        this.destination = destination;
+        this.direction = direction;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * Start reading from the source.
+     *
+     * @return this
+     */
+    public ProxyPipe start() {
+        source.handler(this::write);
+        return this;
+    }
+
+    /**
+     * Stop the pipe; data still arriving from the source is dropped. The source is not resumed.
+     */
+    public void stop() {
+        if (!stopped) {
+            stopped = true;
+            source.handler(null);
+            if (paused) {
+                endPause();
+            }
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    public int pauses() {
+        return pauses;
+    }
+
+    /**
+     * Total time the source was paused by this pipe.
+     *
+     * @return milliseconds
+     */
+    public long pausedMillis() {
+        final long current = paused ? System.nanoTime() - pausedSince : 0;
+        return TimeUnit.NANOSECONDS.toMillis(pausedNanos + current);
+    }
+
+    @Override
+    public String toString() {
+        return direction + ": " + bytes + " bytes, paused " + pauses + " times for " + pausedMillis() + " ms";
+    }
+
+    private void write(Buffer buffer) {
+        if (stopped) {
+            return;
+        }
+        final int length = buffer.length();
+        bytes += length;
+        direction.bytes.add(length);
+        pendingBytes += length;
+        destination.write(buffer, result -> written(length, result));
+        if (!paused && pendingBytes >= highWatermark) {
+            paused = true;
+            pauses++;
+            direction.pauses.increment();
+            pausedSince = System.nanoTime();
+            source.pause();
+        }
+    }
+
+    private void written(int length, AsyncResult<Void> result) {
+        pendingBytes -= length;
+        if (paused && !stopped && pendingBytes <= lowWatermark) {
+            endPause();
+            source.resume();
+        }
+    }
+
+    private void endPause() {
+        paused = false;
+        final long nanos = System.nanoTime() - pausedSince;
+        pausedNanos += nanos;
+        direction.pausedNanos.add(nanos);
+    }
+
+    /**
+     * Direction of the data in a pipe, with the totals of all pipes.
+     */
+    public enum Direction {
+        /** Request body from the frontend to the backend. */
+        REQUEST,
+        /** Response body from the backend to the frontend. */
+        RESPONSE;
+
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder pauses = new LongAdder();
+        private final LongAdder pausedNanos = new LongAdder();
+
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        public long pauses() {
+            return pauses.sum();
+        }
+
+        /**
+         * Total time the sources of all pipes of this direction were paused.
+         *
+         * @return milliseconds
+         */
+        public long pausedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(pausedNanos.sum());
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single-flight for identical concurrent GET and HEAD requests of a proxy.
+ * <p>
+ * The first request for a key is sent to the backend; identical requests arriving until its response starts join
+ * it instead of sending their own. The response is streamed to all of them through a {@link ResponseFanOut}. Requests
+ * are identical if method, backend, uri, the configured headers and the Cookie and Authorization headers sent to the
+ * backend are equal; as the cookies of the cookie bag and the access token are part of the key, requests of sessions
+ * with different credentials never share a response. Requests with a body, conditional and range requests are not
+ * coalesced. If the response sets cookies, the waiting requests are sent on their own, as the cookies belong to the
+ * session of the first request.
+ * <p>
+ * Instances must only be used on the context of their proxy.
+ */
+public class RequestCoalescer {
+    public static final List<String> DEFAULT_KEY_HEADERS = Arrays.asList("Accept", "Accept-Encoding", "Accept-Language");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestCoalescer.class);
+
+    private static final String[] CREDENTIAL_HEADERS = {HttpHeaders.COOKIE.toString(), HttpHeaders.AUTHORIZATION.toString()};
+    private static final String[] EXCLUDING_HEADERS = {"If-None-Match", "If-Modified-Since", "If-Match", "If-Unmodified-Since", "If-Range", "Range"};
+
+    private final Set<String> keyHeaders = new LinkedHashSet<>();
+    private final Map<String, Flight> flights = new HashMap<>();
+    private long coalesced;
+
+    /**
+     * @param keyHeaders names of the headers which must be equal for identical requests
+     */
+    public RequestCoalescer(Collection<String> keyHeaders) {
+        for (String header : keyHeaders) {
+            this.keyHeaders.add(header.trim().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Number of requests which were served by the backend request of another one.
+     *
+     * @return count
+     */
+    public long coalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Number of backend requests other requests can join.
+     *
+     * @return count
+     */
+    public int inFlight() {
+        return flights.size();
+    }
+
+    /**
+     * Join the flight of an identical request or start a new one.
+     *
+     * @param request        the request, whose backend request is prepared but not sent
+     * @param backend        backend of the request
+     * @param responseHandler handler for the response of the request
+     * @return true if the request joined another one and must not be sent
+     */
+    boolean join(BackendRequestImpl request, SocketAddress backend, Handler<AsyncResult<BackendResponse>> responseHandler) {
+        final String key = key(request.frontendRequest, backend, request.backendRequest);
+        if (key == null) {
+            return false;
+        }
+        final Flight flight = flights.get(key);
+        if (flight == null) {
+            final Flight started = new Flight(key, request);
+            flights.put(key, started);
+            request.flight = started;
+            return false;
+        }
+        coalesced++;
+        flight.followers.add(new Follower(request, backend, responseHandler));
+        request.flight = flight;
+        LOGGER.debug("join: request joined the flight for '{}' with {} waiting request(s)", key, flight.followers.size());
+        return true;
+    }
+
+    /**
+     * Key of a request, null if it must not be coalesced.
+     */
+    private String key(HttpServerRequest frontendRequest, SocketAddress backend, HttpClientRequest backendRequest) {
+        final HttpMethod method = frontendRequest.method();
+        final MultiMap headers = backendRequest.headers();
+        if ((method != HttpMethod.GET && method != HttpMethod.HEAD) || backendRequest.isChunked() || hasBody(headers)) {
+            return null;
+        }
+        for (String header : EXCLUDING_HEADERS) {
+            if (headers.contains(header)) {
+                return null;
+            }
+        }
+        final StringBuilder key = new StringBuilder().append(method).append(' ').append(backend).append(backendRequest.uri());
+        for (String header : keyHeaders) {
+            key.append('\n').append(header).append(':').append(String.join(",", headers.getAll(header)));
+        }
+        for (String header : CREDENTIAL_HEADERS) {
+            key.append('\n').append(header).append(':').append(String.join(",", headers.getAll(header)));
+        }
+        return key.toString();
+    }
+
+    private static boolean hasBody(MultiMap headers) {
+        final String contentLength = headers.get(HttpHeaders.CONTENT_LENGTH);
+        return (contentLength != null && !"0".equals(contentLength.trim())) || headers.contains(HttpHeaders.TRANSFER_ENCODING);
+    }
+
+    /**
+     * The response of the first request arrived: no more requests can join. The response is distributed to the
+     * waiting requests.
+     *
+     * @param flight          flight of the first request
+     * @param backendResponse response of the backend, paused
+     * @return the body stream for the first request
+     */
+    ReadStream<Buffer> land(Flight flight, HttpClientResponse backendResponse) {
+        flights.remove(flight.key, flight);
+        flight.landed = true;
+        final List<Follower> followers = new ArrayList<>(flight.followers);
+        if (followers.isEmpty()) {
+            return backendResponse;
+        }
+        if (backendResponse.headers().contains(HttpHeaders.SET_COOKIE)) {
+            LOGGER.debug("land: response for '{}' sets cookies, {} waiting request(s) are sent on their own", flight.key, followers.size());
+            flight.followers.clear();
+            followers.forEach(follower -> follower.request.sendAlone(follower.backend, follower.responseHandler));
+            return backendResponse;
+        }
+        LOGGER.debug("land: response for '{}' is streamed to {} waiting request(s)", flight.key, followers.size());
+        final ResponseFanOut fanOut = new ResponseFanOut(backendResponse, flight.leader.highWatermark, flight.leader.lowWatermark);
+        final List<ReadStream<Buffer>> bodies = new ArrayList<>();
+        for (int i = 0; i < followers.size(); i++) {
+            bodies.add(fanOut.branch());
+        }
+        final ReadStream<Buffer> leaderBody = fanOut.branch();
+        for (int i = 0; i < followers.size(); i++) {
+            final Follower follower = followers.get(i);
+            follower.request.onCoalescedResponse(backendResponse, bodies.get(i), follower.responseHandler);
+        }
+        return leaderBody;
+    }
+
+    /**
+     * The request of the first request failed before its response arrived; the waiting requests fail as well.
+     *
+     * @param flight flight of the first request
+     * @param error  the failure
+     */
+    void abort(Flight flight, Throwable error) {
+        if (flight.landed) {
+            return;
+        }
+        flights.remove(flight.key, flight);
+        flight.landed = true;
+        final List<Follower> followers = new ArrayList<>(flight.followers);
+        flight.followers.clear();
+        followers.forEach(follower -> follower.request.onCoalescedFailure(error, follower.responseHandler));
+    }
+
+    /**
+     * A waiting request went away.
+     *
+     * @param flight  flight
+     * @param request the waiting request
+     */
+    void leave(Flight flight, BackendRequestImpl request) {
+        flight.followers.removeIf(follower -> follower.request == request);
+    }
+
+    /**
+     * A backend request and the requests waiting for it.
+     */
+    static final class Flight {
+        private final String key;
+        private final BackendRequestImpl leader;
+        private final List<Follower> followers = new ArrayList<>();
+        private boolean landed;
+
+        private Flight(String key, BackendRequestImpl leader) {
+            this.key = key;
+            this.leader = leader;
+        }
+
+        boolean isLeader(BackendRequestImpl request) {
+            return leader == request;
+        }
+
+        /**
+         * Whether other requests receive the response of the backend request.
+         *
+         * @return boolean
+         */
+        boolean isShared() {
+            return !followers.isEmpty();
+        }
+    }
+
+    /**
+     * A request waiting for the response of the first request.
+     */
+    private static final class Follower {
+        private final BackendRequestImpl request;
+        private final SocketAddress backend;
+        private final Handler<AsyncResult<BackendResponse>> responseHandler;
+
+        private Follower(BackendRequestImpl request, SocketAddress backend, Handler<AsyncResult<BackendResponse>> responseHandler) {
+            this.request = request;
+            this.backend = backend;
+            this.responseHandler = responseHandler;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Distributes the body of one backend response to several frontends.
+ * <p>
+ * Every frontend reads from its own {@link Branch}. A paused branch queues the data; if its queue reaches the high
+ * watermark, the backend response is paused until the queue dropped to the low watermark. So the slowest frontend
+ * sets the pace and the memory used per branch is bounded. A branch whose handler is removed, because its frontend
+ * went away, is detached and no longer holds back the others. Instances must only be used on the context of the
+ * backend response.
+ */
+final class ResponseFanOut {
+    private final ReadStream<Buffer> source;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final List<Branch> branches = new ArrayList<>();
+    private boolean sourcePaused = true;
+
+    ResponseFanOut(ReadStream<Buffer> source, int highWatermark, int lowWatermark) {
+        this.source = source;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        source.pause();
+        source.handler(data -> branches.forEach(branch -> branch.offer(data)));
+        source.endHandler(v -> branches.forEach(Branch::end));
+        source.exceptionHandler(error -> branches.forEach(branch -> branch.fail(error)));
+    }
+
+    /**
+     * Create a branch; all branches must be created before the first one is resumed.
+     *
+     * @return a stream of the body
+     */
+    Branch branch() {
+        final Branch branch = new Branch();
+        branches.add(branch);
+        return branch;
+    }
+
+    private void update() {
+        boolean blocked = false;
+        for (Branch branch : branches) {
+            blocked |= branch.full;
+        }
+        if (blocked != sourcePaused) {
+            sourcePaused = blocked;
+            if (blocked) {
+                source.pause();
+            }
+            else {
+                source.resume();
+            }
+        }
+    }
+
+    /**
+     * Body stream of one frontend.
+     */
+    final class Branch implements ReadStream<Buffer> {
+        private final Deque<Buffer> queue = new ArrayDeque<>();
+        private Handler<Buffer> handler;
+        private Handler<Void> endHandler;
+        private Handler<Throwable> exceptionHandler;
+        private int queuedBytes;
+        private boolean paused;
+        private boolean full;
+        private boolean ended;
+        private boolean detached;
+
+        @Override
+        public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+            exceptionHandler = handler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> handler(Handler<Buffer> dataHandler) {
+            if (dataHandler == null) {
+                detach();
+            }
+            handler = dataHandler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> pause() {
+            paused = true;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> resume() {
+            paused = false;
+            drain();
+            update();
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> fetch(long amount) {
+            return resume();
+        }
+
+        @Override
+        public ReadStream<Buffer> endHandler(Handler<Void> handler) {
+            endHandler = handler;
+            return this;
+        }
+
+        /**
+         * Stop receiving data; the frontend went away.
+         */
+        void detach() {
+            detached = true;
+            queue.clear();
+            queuedBytes = 0;
+            full = false;
+            update();
+        }
+
+        private void offer(Buffer data) {
+            if (detached) {
+                return;
+            }
+            queue.add(data);
+            queuedBytes += data.length();
+            drain();
+            if (!full && queuedBytes >= highWatermark) {
+                full = true;
+                update();
+            }
+        }
+
+        private void end() {
+            ended = true;
+            drain();
+        }
+
+        private void fail(Throwable error) {
+            if (!detached && exceptionHandler != null) {
+                exceptionHandler.handle(error);
+            }
+        }
+
+        private void drain() {
+            while (!paused && !detached && handler != null && !queue.isEmpty()) {
+                final Buffer data = queue.poll();
+                queuedBytes -= data.length();
+                handler.handle(data);
+            }
+            if (full && queuedBytes <= lowWatermark) {
+                full = false;
+                update();
+            }
+            if (ended && queue.isEmpty() && !paused && !detached && endHandler != null) {
+                final Handler<Void> handlerOfEnd = endHandler;
+                endHandler = null;
+                handlerOfEnd.handle(null);
+            }
+        }
+    }
+}
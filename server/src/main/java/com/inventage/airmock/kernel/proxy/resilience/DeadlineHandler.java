@@ -0,0 +1,37 @@
+package com.inventage.airmock.kernel.proxy.resilience;
+
+import io.vertx.core.Handler;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the arrival of a request, so that the time spent before the backend is called, e.g. for a token exchange,
+ * counts against the total timeout of the mapping. Must be the first handler of the router.
+ */
+public class DeadlineHandler implements Handler<RoutingContext> {
+    public static final String RECEIVED_AT = DeadlineHandler.class.getName() + ".receivedAt";
+
+    @Override
+    public void handle(RoutingContext rc) {
+        rc.put(RECEIVED_AT, System.nanoTime());
+        rc.next();
+    }
+
+    /**
+     * Milliseconds left of the given total duration of the request.
+     *
+     * @param rc          request
+     * @param totalMillis total duration since the arrival of the request
+     * @return milliseconds, 0 or less if the deadline has passed
+     */
+    public static long remainingMillis(RoutingContext rc, long totalMillis) {
+        Long receivedAt = rc.get(RECEIVED_AT);
+        if (receivedAt == null) {
+            // not routed through this handler: the deadline starts now
+            receivedAt = System.nanoTime();
+            rc.put(RECEIVED_AT, receivedAt);
+        }
+        return totalMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - receivedAt);
+    }
+}
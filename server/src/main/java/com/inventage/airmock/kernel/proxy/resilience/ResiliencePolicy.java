@@ -0,0 +1,161 @@
+package com.inventage.airmock.kernel.proxy.resilience;
+
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import io.vertx.circuitbreaker.CircuitBreakerOptions;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Settings of the circuit breaker and the retries of a mapping, read from the config of the mapping.
+ * <p>
+ * The circuit breaker opens after {@link #BREAKER_MAX_FAILURES} failed calls to the backend and lets calls through
+ * again after {@link #BREAKER_RESET_TIMEOUT} milliseconds. A call taking longer than {@link #BREAKER_TIMEOUT}
+ * milliseconds counts as failure. Requests failing or refused by the open breaker get the status
+ * {@link #BREAKER_FALLBACK_STATUS} if configured.
+ * <p>
+ * Requests with an idempotent method and without body which fail before the backend answered are retried up to
+ * {@link #RETRIES} times, if the {@link RetryBudget} of the mapping allows it.
+ * <p>
+ * The timeouts in milliseconds bound the phases of a backend call: {@link #TIMEOUT_CONNECT} until the request is
+ * written to a connection, {@link #TIMEOUT_FIRST_BYTE} from the end of the request body until the response headers
+ * arrive and
+ * {@link #TIMEOUT_IDLE} between the chunks of the response body. {@link #TIMEOUT_TOTAL} bounds the whole request from
+ * its arrival at Airmock; its remainder is sent to the backend in the {@link #DEADLINE_HEADER}. A timeout of 0 is
+ * disabled.
+ */
+public final class ResiliencePolicy {
+    public static final String BREAKER_MAX_FAILURES = "breakerMaxFailures";
+    public static final String BREAKER_TIMEOUT = "breakerTimeout";
+    public static final String BREAKER_RESET_TIMEOUT = "breakerResetTimeout";
+    public static final String BREAKER_FALLBACK_STATUS = "breakerFallbackStatus";
+    public static final String RETRIES = "retries";
+    public static final String RETRY_BUDGET_RATIO = "retryBudgetRatio";
+    public static final String RETRY_BUDGET_MIN_PER_SECOND = "retryBudgetMinPerSecond";
+    public static final String TIMEOUT_CONNECT = "timeoutConnect";
+    public static final String TIMEOUT_FIRST_BYTE = "timeoutFirstByte";
+    public static final String TIMEOUT_IDLE = "timeoutIdle";
+    public static final String TIMEOUT_TOTAL = "timeoutTotal";
+    public static final String DEADLINE_HEADER = "deadlineHeader";
+
+    public static final ResiliencePolicy DEFAULT = of(Collections.emptyMap());
+
+    private static final int DEFAULT_MAX_FAILURES = 10;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 240 * 1000;
+    private static final long DEFAULT_RESET_TIMEOUT_MILLIS = 10 * 1000;
+    private static final double DEFAULT_RETRY_BUDGET_RATIO = 0.2;
+    private static final int DEFAULT_RETRY_BUDGET_MIN_PER_SECOND = 10;
+
+    private final int maxFailures;
+    private final long timeoutMillis;
+    private final long resetTimeoutMillis;
+    private final Integer fallbackStatus;
+    private final int retries;
+    private final double retryBudgetRatio;
+    private final int retryBudgetMinPerSecond;
+    private final long connectTimeoutMillis;
+    private final long firstByteTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long totalTimeoutMillis;
+    private final String deadlineHeader;
+
+    private ResiliencePolicy(Map<String, String> config) {
+        this.maxFailures = ConfigUtils.getInteger(config, BREAKER_MAX_FAILURES, DEFAULT_MAX_FAILURES);
+        this.timeoutMillis = ConfigUtils.getLong(config, BREAKER_TIMEOUT, DEFAULT_TIMEOUT_MILLIS);
+        this.resetTimeoutMillis = ConfigUtils.getLong(config, BREAKER_RESET_TIMEOUT, DEFAULT_RESET_TIMEOUT_MILLIS);
+        this.fallbackStatus = config.get(BREAKER_FALLBACK_STATUS) == null ? null : ConfigUtils.getInteger(config, BREAKER_FALLBACK_STATUS, 0);
+        this.retries = ConfigUtils.getInteger(config, RETRIES, 0);
+        final String ratio = config.get(RETRY_BUDGET_RATIO);
+        this.retryBudgetRatio = ratio == null ? DEFAULT_RETRY_BUDGET_RATIO : Double.parseDouble(ratio.trim());
+        this.retryBudgetMinPerSecond = ConfigUtils.getInteger(config, RETRY_BUDGET_MIN_PER_SECOND, DEFAULT_RETRY_BUDGET_MIN_PER_SECOND);
+        this.connectTimeoutMillis = ConfigUtils.getLong(config, TIMEOUT_CONNECT, 0);
+        this.firstByteTimeoutMillis = ConfigUtils.getLong(config, TIMEOUT_FIRST_BYTE, 0);
+        this.idleTimeoutMillis = ConfigUtils.getLong(config, TIMEOUT_IDLE, 0);
+        this.totalTimeoutMillis = ConfigUtils.getLong(config, TIMEOUT_TOTAL, 0);
+        this.deadlineHeader = config.get(DEADLINE_HEADER);
+    }
+
+    /**
+     * Read the policy from the config of a mapping; missing entries have their default.
+     *
+     * @param config config of a mapping, may be null
+     * @return policy
+     */
+    public static ResiliencePolicy of(Map<String, String> config) {
+        return new ResiliencePolicy(config == null ? Collections.emptyMap() : config);
+    }
+
+    /**
+     * Options for the circuit breaker.
+     *
+     * @return options
+     */
+    public CircuitBreakerOptions circuitBreakerOptions() {
+        return new CircuitBreakerOptions()
+            .setMaxFailures(maxFailures) // number of failure before opening the circuit
+            .setTimeout(timeoutMillis) // consider a failure if the operation does not succeed in milliseconds
+            .setFallbackOnFailure(true) // do we call the fallback on failure
+            .setResetTimeout(resetTimeoutMillis); // milliseconds spent in open state before attempting to re-try
+    }
+
+    /**
+     * Status of the response if the backend call failed or the circuit is open.
+     *
+     * @return status, null to leave the response to the fallback handler
+     */
+    public Integer fallbackStatus() {
+        return fallbackStatus;
+    }
+
+    /**
+     * Maximal number of retries of a request.
+     *
+     * @return retries, 0 if requests are not retried
+     */
+    public int retries() {
+        return retries;
+    }
+
+    /**
+     * Create the retry budget of this policy.
+     *
+     * @return budget
+     */
+    public RetryBudget retryBudget() {
+        return new RetryBudget(retryBudgetRatio, retryBudgetMinPerSecond);
+    }
+
+    public long connectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public long firstByteTimeoutMillis() {
+        return firstByteTimeoutMillis;
+    }
+
+    public long idleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long totalTimeoutMillis() {
+        return totalTimeoutMillis;
+    }
+
+    /**
+     * Header in which the milliseconds left until the total timeout are sent to the backend.
+     *
+     * @return header name, null if the deadline is not propagated
+     */
+    public String deadlineHeader() {
+        return deadlineHeader;
+    }
+
+    /**
+     * Whether any of the timeouts is enabled.
+     *
+     * @return boolean
+     */
+    public boolean hasTimeouts() {
+        return connectTimeoutMillis > 0 || firstByteTimeoutMillis > 0 || idleTimeoutMillis > 0 || totalTimeoutMillis > 0;
+    }
+}
@@ -0,0 +1,87 @@
+package com.inventage.airmock.kernel.proxy.resilience;
+
+import io.vertx.circuitbreaker.CircuitBreaker;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The circuit breakers and retry budgets of the mappings, shared by all verticles of a vert.x instance. Every mapping
+ * has one breaker and one budget, named like the mapping, so that their state and counters can be reported by mapping.
+ */
+public final class ResilienceRegistry implements Shareable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResilienceRegistry.class);
+
+    private static final String SHARED_MAP = "airmock.resilience";
+
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final Map<String, RetryBudget> retryBudgets = new ConcurrentHashMap<>();
+
+    /**
+     * The registry of the vert.x instance.
+     *
+     * @param vertx vertx
+     * @return registry
+     */
+    public static ResilienceRegistry shared(Vertx vertx) {
+        return vertx.sharedData().<String, ResilienceRegistry>getLocalMap(SHARED_MAP).computeIfAbsent(SHARED_MAP, name -> new ResilienceRegistry());
+    }
+
+    /**
+     * The circuit breaker with the given name; the first call creates it.
+     *
+     * @param vertx  vertx
+     * @param name   name of the mapping
+     * @param policy policy of the mapping
+     * @return breaker
+     */
+    public CircuitBreaker circuitBreaker(Vertx vertx, String name, ResiliencePolicy policy) {
+        return circuitBreakers.computeIfAbsent(name, key -> {
+            LOGGER.info("circuitBreaker: created for '{}' with {}", key, policy.circuitBreakerOptions().toJson());
+            return CircuitBreaker.create(key, vertx, policy.circuitBreakerOptions());
+        });
+    }
+
+    /**
+     * The retry budget with the given name; the first call creates it.
+     *
+     * @param name   name of the mapping
+     * @param policy policy of the mapping
+     * @return budget
+     */
+    public RetryBudget retryBudget(String name, ResiliencePolicy policy) {
+        return retryBudgets.computeIfAbsent(name, key -> policy.retryBudget());
+    }
+
+    /**
+     * State and counters of all breakers and budgets, by name.
+     *
+     * @return json
+     */
+    public JsonObject toJson() {
+        final JsonObject json = new JsonObject();
+        final TreeSet<String> names = new TreeSet<>(circuitBreakers.keySet());
+        names.addAll(retryBudgets.keySet());
+        for (String name : names) {
+            final JsonObject entry = new JsonObject();
+            final CircuitBreaker breaker = circuitBreakers.get(name);
+            if (breaker != null) {
+                entry.put("circuitBreaker", new JsonObject()
+                    .put("state", breaker.state().name())
+                    .put("failures", breaker.failureCount()));
+            }
+            final RetryBudget budget = retryBudgets.get(name);
+            if (budget != null) {
+                entry.put("retryBudget", budget.toJson());
+            }
+            json.put(name, entry);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,107 @@
+package com.inventage.airmock.kernel.proxy.resilience;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket limiting the retries of a mapping to a share of its requests, so that retries can not multiply the
+ * load on a failing backend.
+ * <p>
+ * Every request deposits the ratio of a token, every retry withdraws a whole one. Additionally the bucket is refilled
+ * with a minimal number of tokens per second, so that retries are possible at low traffic. The bucket holds at most
+ * {@link #MAX_TOKENS} tokens. The balance is kept in an atomic counter, in thousandths of a token.
+ */
+public final class RetryBudget {
+    public static final int MAX_TOKENS = 100;
+
+    private static final long SCALE = 1000;
+
+    private final long depositPerRequest;
+    private final long refillPerSecond;
+    private final long maxBalance = MAX_TOKENS * SCALE;
+    private final AtomicLong balance = new AtomicLong();
+    private final AtomicLong lastRefillSecond = new AtomicLong(currentSecond());
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param ratio       retries allowed per request
+     * @param minPerSecond retries allowed per second, independent of the number of requests
+     */
+    public RetryBudget(double ratio, int minPerSecond) {
+        this.depositPerRequest = Math.round(ratio * SCALE);
+        this.refillPerSecond = minPerSecond * SCALE;
+        this.balance.set(Math.min(maxBalance, refillPerSecond));
+    }
+
+    /**
+     * A request was sent.
+     */
+    public void onRequest() {
+        requests.increment();
+        deposit(depositPerRequest);
+    }
+
+    /**
+     * Withdraw a token for a retry.
+     *
+     * @return true if the retry is allowed
+     */
+    public boolean tryRetry() {
+        refill();
+        while (true) {
+            final long current = balance.get();
+            if (current < SCALE) {
+                rejected.increment();
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                retries.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Tokens available.
+     *
+     * @return tokens
+     */
+    public double tokens() {
+        refill();
+        return (double) balance.get() / SCALE;
+    }
+
+    /**
+     * State and counters.
+     *
+     * @return json
+     */
+    public JsonObject toJson() {
+        return new JsonObject()
+            .put("tokens", tokens())
+            .put("requests", requests.sum())
+            .put("retries", retries.sum())
+            .put("rejected", rejected.sum());
+    }
+
+    private void refill() {
+        final long now = currentSecond();
+        final long last = lastRefillSecond.get();
+        if (now > last && lastRefillSecond.compareAndSet(last, now)) {
+            deposit(Math.min(now - last, MAX_TOKENS) * refillPerSecond);
+        }
+    }
+
+    private void deposit(long amount) {
+        balance.accumulateAndGet(amount, (current, added) -> Math.min(maxBalance, current + added));
+    }
+
+    private static long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+}
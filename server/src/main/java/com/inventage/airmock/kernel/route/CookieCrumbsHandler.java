@@ -0,0 +1,27 @@
+package com.inventage.airmock.kernel.route;
+
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+import java.util.List;
+
+/**
+ * Joins the cookie headers of a request into one. HTTP/2 clients may send every cookie in a header of its own (RFC 7540,
+ * section 8.1.2.5), but only the first cookie header is parsed into the cookies of the request. Must be registered before
+ * any handler reading cookies.
+ */
+public class CookieCrumbsHandler implements Handler<RoutingContext> {
+    private static final String SEPARATOR = "; ";
+
+    @Override
+    public void handle(RoutingContext rc) {
+        final MultiMap headers = rc.request().headers().getDelegate();
+        final List<String> crumbs = headers.getAll(HttpHeaders.COOKIE);
+        if (crumbs.size() > 1) {
+            headers.set(HttpHeaders.COOKIE, String.join(SEPARATOR, crumbs));
+        }
+        rc.next();
+    }
+}
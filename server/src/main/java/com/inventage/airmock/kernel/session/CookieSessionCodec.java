@@ -0,0 +1,216 @@
+package com.inventage.airmock.kernel.session;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses, encrypts and encodes a serialized session for a cookie and back.
+ * <p>
+ * Encoded layout (base64url without padding): format (byte), key id (byte), IV (12 bytes), AES-GCM ciphertext of the
+ * deflated session including the 128 bit authentication tag. The format and key id are authenticated as additional
+ * data. The session is always encrypted with the active key; all known keys are tried by their id on decode, so a key
+ * can be rotated by adding a new active key and keeping the old one until all issued cookies expired.
+ */
+final class CookieSessionCodec {
+    static final int MAX_KEY_ID = 255;
+
+    private static final int FORMAT = 1;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int HEADER_LENGTH = 2 + IV_LENGTH;
+    private static final int BUFFER_SIZE = 1024;
+    private static final String ALGORITHM = "AES";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(CookieSessionCodec::newCipher);
+
+    private final SecretKeySpec[] keys = new SecretKeySpec[MAX_KEY_ID + 1];
+    private final int activeKeyId;
+    private final int maxSessionSize;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param keys           AES keys (16, 24 or 32 bytes) by their id, the first one is the active key
+     * @param maxSessionSize maximal size of a decoded session in bytes, larger sessions are rejected
+     */
+    CookieSessionCodec(Map<Integer, byte[]> keys, int maxSessionSize) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("At least one key is required");
+        }
+        int active = -1;
+        for (Map.Entry<Integer, byte[]> key : keys.entrySet()) {
+            final int id = key.getKey();
+            if (id < 0 || id > MAX_KEY_ID) {
+                throw new IllegalArgumentException("Key id must be between 0 and " + MAX_KEY_ID + ": " + id);
+            }
+            final int length = key.getValue().length;
+            if (length != 16 && length != 24 && length != 32) {
+                throw new IllegalArgumentException("Key " + id + " must have 16, 24 or 32 bytes, but has " + length);
+            }
+            this.keys[id] = new SecretKeySpec(key.getValue(), ALGORITHM);
+            if (active < 0) {
+                active = id;
+            }
+        }
+        this.activeKeyId = active;
+        this.maxSessionSize = maxSessionSize;
+    }
+
+    /**
+     * Parse a key list of the form {@code id:base64Key[,id:base64Key]*}; the first key is the active key.
+     *
+     * @param keyList key list
+     * @return keys by id, in the order of the list
+     */
+    static Map<Integer, byte[]> parseKeys(String keyList) {
+        final Map<Integer, byte[]> keys = new LinkedHashMap<>();
+        for (String entry : keyList.split(",")) {
+            final String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            final int colon = trimmed.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Key must be of the form 'id:base64Key'");
+            }
+            final Integer id = Integer.valueOf(trimmed.substring(0, colon).trim());
+            if (keys.containsKey(id)) {
+                throw new IllegalArgumentException("Duplicate key id: " + id);
+            }
+            keys.put(id, Base64.getDecoder().decode(trimmed.substring(colon + 1).trim()));
+        }
+        return keys;
+    }
+
+    int activeKeyId() {
+        return activeKeyId;
+    }
+
+    /**
+     * Compress and encrypt the serialized session with the active key.
+     *
+     * @param session serialized session
+     * @return the cookie safe encoded session
+     */
+    String encode(byte[] session) {
+        final byte[] compressed = deflate(session);
+        final byte[] encoded = new byte[HEADER_LENGTH + compressed.length + TAG_BITS / 8];
+        encoded[0] = FORMAT;
+        encoded[1] = (byte) activeKeyId;
+        final byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        System.arraycopy(iv, 0, encoded, 2, IV_LENGTH);
+        try {
+            final Cipher cipher = CIPHER.get();
+            cipher.init(Cipher.ENCRYPT_MODE, keys[activeKeyId], new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(encoded, 0, 2);
+            cipher.doFinal(compressed, 0, compressed.length, encoded, HEADER_LENGTH);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not encrypt the session", e);
+        }
+        return ENCODER.encodeToString(encoded);
+    }
+
+    /**
+     * Decrypt and decompress an encoded session.
+     *
+     * @param value encoded session
+     * @return the serialized session or null if the value is malformed, was encrypted with an unknown key, was
+     * tampered with or is too large
+     */
+    byte[] decode(String value) {
+        final byte[] encoded;
+        try {
+            encoded = DECODER.decode(value);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (encoded.length < HEADER_LENGTH + TAG_BITS / 8 || encoded[0] != FORMAT) {
+            return null;
+        }
+        final SecretKeySpec key = keys[encoded[1] & 0xff];
+        if (key == null) {
+            return null;
+        }
+        final byte[] compressed;
+        try {
+            final Cipher cipher = CIPHER.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, encoded, 2, IV_LENGTH));
+            cipher.updateAAD(encoded, 0, 2);
+            compressed = cipher.doFinal(encoded, HEADER_LENGTH, encoded.length - HEADER_LENGTH);
+        }
+        catch (AEADBadTagException e) {
+            return null;
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not decrypt the session", e);
+        }
+        return inflate(compressed);
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + BUFFER_SIZE / 8);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(byte[] bytes) {
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                if (out.size() + length > maxSessionSize) {
+                    return null;
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        }
+        catch (DataFormatException e) {
+            return null;
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.inventage.airmock.kernel.session;
+
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.auth.PRNG;
+import io.vertx.ext.web.sstore.SessionStore;
+import io.vertx.ext.web.sstore.impl.SharedDataSessionImpl;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.ext.web.Cookie;
+import io.vertx.reactivex.ext.web.RoutingContext;
+import io.vertx.reactivex.ext.web.Session;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Session handler keeping the whole session in encrypted cookies instead of a server side store.
+ * <p>
+ * The serialized session is compressed, encrypted and authenticated by the {@link CookieSessionCodec} and split into
+ * the cookies {@code airmock.0}, {@code airmock.1}, ... if it does not fit into one cookie. As no state is kept on the
+ * server, any instance sharing the same keys can serve any request, so the instances can be put behind a plain round
+ * robin load balancer without sticky sessions.
+ * <p>
+ * The cookies are only rewritten if the session changed or its last access time has to be refreshed. If a session
+ * grows beyond the configured number of cookies, it is not written and the previous state stays with the client.
+ * <p>
+ * The cookies carry the Secure flag unless {@link #COOKIE_SECURE} is set to {@code false}, which is only needed if the
+ * clients reach airmock over plain http (e.g. a local setup without TLS), as browsers do not send secure cookies there.
+ */
+public class CookieSessionHandler implements Handler<RoutingContext> {
+    public static final String CONFIG_PREFIX = CookieSessionHandler.class.getName() + ".";
+    public static final String KEYS = "keys";
+    public static final String TIMEOUT = "timeout";
+    public static final String CHUNK_SIZE = "chunk-size";
+    public static final String MAX_CHUNKS = "max-chunks";
+    public static final String COOKIE_SECURE = "cookie-secure";
+    public static final String COOKIE_NAME = "airmock";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CookieSessionHandler.class);
+
+    private static final int DEFAULT_TIMEOUT_SECONDS = 30 * 60;
+    private static final int DEFAULT_CHUNK_SIZE = 3800;
+    private static final int DEFAULT_MAX_CHUNKS = 8;
+    private static final int GENERATED_KEY_LENGTH = 32;
+    private static final int TOUCH_DIVISOR = 4;
+    private static final int WARN_PERCENT = 75;
+    private static final int MAX_SESSION_SIZE = 1024 * 1024;
+
+    private final PRNG random;
+    private final CookieSessionCodec codec;
+    private final long timeoutMillis;
+    private final int chunkSize;
+    private final int maxChunks;
+    private final boolean cookieSecure;
+
+    /**
+     * Create the handler with the configuration found at the keys prefixed with {@link #CONFIG_PREFIX}.
+     * <p>
+     * If no keys are configured, a random key is generated, which only works with a single instance.
+     *
+     * @param vertx  vertx
+     * @param config configuration
+     */
+    public CookieSessionHandler(Vertx vertx, JsonObject config) {
+        this.random = new PRNG(vertx.getDelegate());
+        this.codec = new CookieSessionCodec(keys(config.getString(CONFIG_PREFIX + KEYS)), MAX_SESSION_SIZE);
+        this.timeoutMillis = ConfigUtils.getInteger(config, CONFIG_PREFIX + TIMEOUT, DEFAULT_TIMEOUT_SECONDS) * 1000L;
+        this.chunkSize = ConfigUtils.getInteger(config, CONFIG_PREFIX + CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+        this.maxChunks = ConfigUtils.getInteger(config, CONFIG_PREFIX + MAX_CHUNKS, DEFAULT_MAX_CHUNKS);
+        final Object secure = config.getValue(CONFIG_PREFIX + COOKIE_SECURE);
+        this.cookieSecure = secure == null || Boolean.parseBoolean(secure.toString());
+        LOGGER.info("CookieSessionHandler: active key {}, up to {} cookie(s) of {} characters", codec.activeKeyId(), maxChunks, chunkSize);
+    }
+
+    @Override
+    public void handle(RoutingContext routingContext) {
+        final int requestChunks = countChunks(routingContext);
+        final byte[] decoded = requestChunks == 0 ? null : codec.decode(joinChunks(routingContext, requestChunks));
+        final SharedDataSessionImpl restored = decoded == null ? null : restore(decoded, routingContext);
+        final SharedDataSessionImpl session = restored == null
+            ? new SharedDataSessionImpl(random, timeoutMillis, SessionStore.DEFAULT_SESSIONID_LENGTH) : restored;
+        final byte[] original = restored == null ? null : decoded;
+        final long lastAccessed = session.lastAccessed();
+        routingContext.setSession(Session.newInstance(session));
+        routingContext.addHeadersEndHandler(v -> storeSession(routingContext, session, original, lastAccessed, requestChunks));
+        routingContext.next();
+    }
+
+    private SharedDataSessionImpl restore(byte[] decoded, RoutingContext routingContext) {
+        final SharedDataSessionImpl session = new SharedDataSessionImpl(random);
+        try {
+            session.readFromBuffer(0, Buffer.buffer(decoded));
+        }
+        catch (RuntimeException e) {
+            LOGGER.warn("restore: could not read session, error: '{}'", e.getMessage(), routingContext);
+            return null;
+        }
+        if (session.lastAccessed() + session.timeout() < System.currentTimeMillis()) {
+            LOGGER.debug("restore: session '{}' expired", session.id(), routingContext);
+            return null;
+        }
+        return session;
+    }
+
+    private void storeSession(RoutingContext routingContext, SharedDataSessionImpl session, byte[] original, long lastAccessed, int requestChunks) {
+        if (session.isDestroyed()) {
+            expireChunks(routingContext, 0, requestChunks);
+            return;
+        }
+        if (original != null && session.lastAccessed() == lastAccessed
+            && System.currentTimeMillis() - lastAccessed < session.timeout() / TOUCH_DIVISOR
+            && Arrays.equals(original, serialize(session))) {
+            return;
+        }
+        if (original == null && session.isEmpty()) {
+            expireChunks(routingContext, 0, requestChunks);
+            return;
+        }
+        session.setAccessed();
+        final byte[] serialized = serialize(session);
+        final String encoded = codec.encode(serialized);
+        final int capacity = chunkSize * maxChunks;
+        if (encoded.length() > capacity) {
+            LOGGER.error("storeSession: session of {} bytes needs {} of {} characters, session is not updated",
+                serialized.length, encoded.length(), capacity, routingContext);
+            return;
+        }
+        if (encoded.length() * 100L > capacity * (long) WARN_PERCENT) {
+            LOGGER.warn("storeSession: session of {} bytes needs {} of {} characters", serialized.length, encoded.length(), capacity, routingContext);
+        }
+        else {
+            LOGGER.debug("storeSession: session of {} bytes needs {} of {} characters", serialized.length, encoded.length(), capacity, routingContext);
+        }
+        int chunks = 0;
+        for (int start = 0; start < encoded.length(); start += chunkSize) {
+            routingContext.addCookie(sessionCookie(chunks++, encoded.substring(start, Math.min(encoded.length(), start + chunkSize))));
+        }
+        expireChunks(routingContext, chunks, requestChunks);
+    }
+
+    private void expireChunks(RoutingContext routingContext, int from, int to) {
+        for (int chunk = from; chunk < to; chunk++) {
+            routingContext.addCookie(sessionCookie(chunk, "").setMaxAge(0));
+        }
+    }
+
+    private Cookie sessionCookie(int chunk, String value) {
+        return Cookie.cookie(chunkName(chunk), value)
+            .setPath("/")
+            .setHttpOnly(true)
+            .setSecure(cookieSecure);
+    }
+
+    private int countChunks(RoutingContext routingContext) {
+        int chunks = 0;
+        while (chunks < maxChunks && routingContext.getCookie(chunkName(chunks)) != null) {
+            chunks++;
+        }
+        return chunks;
+    }
+
+    private static String joinChunks(RoutingContext routingContext, int chunks) {
+        final StringBuilder value = new StringBuilder();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            value.append(routingContext.getCookie(chunkName(chunk)).getValue());
+        }
+        return value.toString();
+    }
+
+    private static String chunkName(int chunk) {
+        return COOKIE_NAME + "." + chunk;
+    }
+
+    private static byte[] serialize(SharedDataSessionImpl session) {
+        final Buffer buffer = Buffer.buffer();
+        session.writeToBuffer(buffer);
+        return buffer.getBytes();
+    }
+
+    private static Map<Integer, byte[]> keys(String keyList) {
+        if (keyList == null || keyList.trim().isEmpty()) {
+            LOGGER.warn("keys: no keys configured, using a generated key; sessions are only valid on this instance until its restart");
+            final byte[] key = new byte[GENERATED_KEY_LENGTH];
+            new SecureRandom().nextBytes(key);
+            return Collections.singletonMap(0, key);
+        }
+        return CookieSessionCodec.parseKeys(keyList);
+    }
+}
@@ -0,0 +1,358 @@
+package com.inventage.airmock.kernel.session;
+
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.impl.ClusterSerializable;
+import io.vertx.ext.auth.PRNG;
+import io.vertx.ext.web.Session;
+import io.vertx.ext.web.sstore.AbstractSession;
+import io.vertx.ext.web.sstore.SessionStore;
+import io.vertx.ext.web.sstore.impl.SharedDataSessionImpl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+
+/**
+ * Session store keeping the serialized sessions outside of the heap.
+ * <p>
+ * The sessions are appended to a {@link SessionLog} in direct memory or, if a path is configured, in a memory mapped
+ * file which survives a restart. On the heap only a compact {@link SessionIndex} of about 20 bytes per session is
+ * kept. The memory used for the sessions is capped; if it is exhausted, the least recently used sessions are evicted.
+ * Expired sessions are removed from the index by a periodic reaper.
+ * <p>
+ * The store is split into {@link #STRIPES} stripes by the hash of the session id, each with its own index, log and
+ * lock, so the event loops only contend for sessions of the same stripe. The lock is held while the index and the
+ * log are accessed; the sessions are serialized and deserialized outside of it. A persistent store gives each stripe
+ * its own region of the file, sessions written with another number of stripes are not recovered.
+ * <p>
+ * All values put into a session must be serializable by the vert.x session serialization (strings, numbers, buffers
+ * and {@link ClusterSerializable}s).
+ */
+public final class MappedSessionStore implements SessionStore {
+    public static final String CONFIG_PREFIX = MappedSessionStore.class.getName() + ".";
+    public static final String MAX_MEMORY_MB = "max-memory-mb";
+    public static final String SEGMENT_SIZE_MB = "segment-size-mb";
+    public static final String STRIPES = "stripes";
+    public static final String PATH = "path";
+    public static final String REAPER_INTERVAL = "reaper-interval";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedSessionStore.class);
+
+    private static final int MEGA_BYTE = 1024 * 1024;
+    private static final int DEFAULT_MAX_MEMORY_MB = 256;
+    private static final int DEFAULT_SEGMENT_SIZE_MB = 16;
+    private static final int DEFAULT_STRIPES = 4;
+    private static final int DEFAULT_REAPER_INTERVAL = 10_000;
+    private static final int MIN_SEGMENTS = 2;
+
+    private Vertx vertx;
+    private PRNG random;
+    private Stripe[] stripes;
+    private RandomAccessFile file;
+    private long reaperTimerId = -1;
+
+    /**
+     * Create a session store with the configuration found at the keys prefixed with {@link #CONFIG_PREFIX}.
+     *
+     * @param vertx  vertx
+     * @param config configuration
+     * @return the session store
+     */
+    public static MappedSessionStore create(Vertx vertx, JsonObject config) {
+        final JsonObject options = new JsonObject()
+            .put(MAX_MEMORY_MB, ConfigUtils.getInteger(config, CONFIG_PREFIX + MAX_MEMORY_MB, DEFAULT_MAX_MEMORY_MB))
+            .put(SEGMENT_SIZE_MB, ConfigUtils.getInteger(config, CONFIG_PREFIX + SEGMENT_SIZE_MB, DEFAULT_SEGMENT_SIZE_MB))
+            .put(STRIPES, ConfigUtils.getInteger(config, CONFIG_PREFIX + STRIPES, DEFAULT_STRIPES))
+            .put(REAPER_INTERVAL, ConfigUtils.getInteger(config, CONFIG_PREFIX + REAPER_INTERVAL, DEFAULT_REAPER_INTERVAL))
+            .put(PATH, config.getString(CONFIG_PREFIX + PATH));
+        final MappedSessionStore store = new MappedSessionStore();
+        store.init(vertx, options);
+        return store;
+    }
+
+    @Override
+    public SessionStore init(Vertx vertx, JsonObject options) {
+        this.vertx = vertx;
+        this.random = new PRNG(vertx);
+        final int segmentSize = options.getInteger(SEGMENT_SIZE_MB, DEFAULT_SEGMENT_SIZE_MB) * MEGA_BYTE;
+        final long maxMemory = (long) options.getInteger(MAX_MEMORY_MB, DEFAULT_MAX_MEMORY_MB) * MEGA_BYTE;
+        final int segmentCount = (int) Math.max(MIN_SEGMENTS, maxMemory / segmentSize);
+        // every stripe needs at least two segments, one to recycle and one to keep
+        final int stripeCount = Math.max(1, Math.min(options.getInteger(STRIPES, DEFAULT_STRIPES), segmentCount / MIN_SEGMENTS));
+        final int stripeSegments = segmentCount / stripeCount;
+        final String path = options.getString(PATH);
+        stripes = new Stripe[stripeCount];
+        try {
+            if (path != null) {
+                file = new RandomAccessFile(path, "rw");
+                final long capacity = (long) segmentSize * stripeSegments * stripeCount;
+                if (file.length() < capacity) {
+                    file.setLength(capacity);
+                }
+            }
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new Stripe(i, stripeCount, path == null
+                    ? SessionLog.inMemory(segmentSize, stripeSegments)
+                    : SessionLog.mapped(file, (long) i * segmentSize * stripeSegments, segmentSize, stripeSegments));
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Could not open session store file: " + path, e);
+        }
+        if (path != null) {
+            for (Stripe stripe : stripes) {
+                stripe.replay();
+            }
+            LOGGER.info("init: recovered {} session(s) from '{}'", sessions(), path);
+        }
+        final long reaperInterval = options.getInteger(REAPER_INTERVAL, DEFAULT_REAPER_INTERVAL);
+        reaperTimerId = vertx.setPeriodic(reaperInterval, timerId -> removeExpired());
+        LOGGER.info("init: {} stripe(s) of {} segment(s) of {} MB, persistent: {}", stripeCount, stripeSegments, segmentSize / MEGA_BYTE, path != null);
+        return this;
+    }
+
+    @Override
+    public long retryTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Session createSession(long timeout) {
+        return new SharedDataSessionImpl(random, timeout, DEFAULT_SESSIONID_LENGTH);
+    }
+
+    @Override
+    public Session createSession(long timeout, int length) {
+        return new SharedDataSessionImpl(random, timeout, length);
+    }
+
+    @Override
+    public void get(String id, Handler<AsyncResult<Session>> resultHandler) {
+        final long hash = SessionIndex.hash(id);
+        final Stripe stripe = stripe(hash);
+        final Buffer serialized = stripe.read(id, hash, System.currentTimeMillis());
+        if (serialized == null) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        final SharedDataSessionImpl session = new SharedDataSessionImpl(random);
+        try {
+            session.readFromBuffer(0, serialized);
+        }
+        catch (RuntimeException e) {
+            LOGGER.warn("get: could not read session, error: '{}'", e.getMessage());
+            stripe.remove(hash);
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        resultHandler.handle(Future.succeededFuture(session));
+    }
+
+    @Override
+    public void delete(String id, Handler<AsyncResult<Void>> resultHandler) {
+        final long hash = SessionIndex.hash(id);
+        stripe(hash).delete(id, hash);
+        resultHandler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public void put(Session session, Handler<AsyncResult<Void>> resultHandler) {
+        if (!(session instanceof AbstractSession) || !(session instanceof ClusterSerializable)) {
+            resultHandler.handle(Future.failedFuture("Unsupported session type: " + session.getClass().getName()));
+            return;
+        }
+        final AbstractSession abstractSession = (AbstractSession) session;
+        final int readVersion = abstractSession.version();
+        final long hash = SessionIndex.hash(session.id());
+        abstractSession.incrementVersion();
+        final Buffer serialized = Buffer.buffer();
+        try {
+            ((ClusterSerializable) session).writeToBuffer(serialized);
+            final long expiry = session.lastAccessed() + session.timeout();
+            if (!stripe(hash).write(session.id(), hash, readVersion, abstractSession.version(), expiry, serialized)) {
+                resultHandler.handle(Future.failedFuture("Version mismatch"));
+                return;
+            }
+        }
+        catch (RuntimeException e) {
+            resultHandler.handle(Future.failedFuture(e));
+            return;
+        }
+        resultHandler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public void clear(Handler<AsyncResult<Void>> resultHandler) {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+        resultHandler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public void size(Handler<AsyncResult<Integer>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture(sessions()));
+    }
+
+    @Override
+    public void close() {
+        vertx.cancelTimer(reaperTimerId);
+        random.close();
+        for (Stripe stripe : stripes) {
+            stripe.flush();
+        }
+        if (file != null) {
+            try {
+                file.close();
+            }
+            catch (IOException e) {
+                LOGGER.warn("close: could not close session store, error: '{}'", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Number of sessions evicted because the memory was exhausted.
+     *
+     * @return count
+     */
+    public long evicted() {
+        long evicted = 0;
+        for (Stripe stripe : stripes) {
+            evicted += stripe.evicted();
+        }
+        return evicted;
+    }
+
+    void removeExpired() {
+        final long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Stripe stripe : stripes) {
+            removed += stripe.removeExpired(now);
+        }
+        if (removed > 0) {
+            LOGGER.debug("removeExpired: {} session(s) removed", removed);
+        }
+    }
+
+    private int sessions() {
+        int sessions = 0;
+        for (Stripe stripe : stripes) {
+            sessions += stripe.size();
+        }
+        return sessions;
+    }
+
+    private Stripe stripe(long hash) {
+        // the index uses the low bits of the hash
+        return stripes[stripeOf(hash, stripes.length)];
+    }
+
+    private static int stripeOf(long hash, int stripeCount) {
+        return (int) ((hash >>> 32) & Integer.MAX_VALUE) % stripeCount;
+    }
+
+    /**
+     * The sessions of one stripe with their lock.
+     */
+    private static final class Stripe {
+        private final int number;
+        private final int stripeCount;
+        private final SessionLog log;
+        private final SessionIndex index = new SessionIndex();
+        private long evicted;
+
+        Stripe(int number, int stripeCount, SessionLog log) {
+            this.number = number;
+            this.stripeCount = stripeCount;
+            this.log = log;
+        }
+
+        synchronized Buffer read(String id, long hash, long now) {
+            final int slot = index.find(hash);
+            if (slot == SessionIndex.NOT_FOUND || index.expiresAtMillis(slot) < now) {
+                return null;
+            }
+            final long location = index.location(slot);
+            return id.equals(log.readId(location)) ? log.readSession(location) : null;
+        }
+
+        synchronized boolean write(String id, long hash, int readVersion, int version, long expiry, Buffer serialized) {
+            final int slot = index.find(hash);
+            if (slot != SessionIndex.NOT_FOUND && log.readVersion(index.location(slot)) != readVersion) {
+                return false;
+            }
+            index.put(hash, log.append(id, version, expiry, serialized, this::evict), expiry);
+            return true;
+        }
+
+        synchronized void delete(String id, long hash) {
+            if (index.remove(hash) && log.isPersistent()) {
+                log.append(id, 0, SessionLog.TOMBSTONE, Buffer.buffer(), this::evict);
+            }
+        }
+
+        synchronized void remove(long hash) {
+            index.remove(hash);
+        }
+
+        synchronized void clear() {
+            index.clear();
+            log.clear();
+        }
+
+        synchronized int size() {
+            return index.size();
+        }
+
+        synchronized long evicted() {
+            return evicted;
+        }
+
+        synchronized int removeExpired(long now) {
+            return index.removeExpired(now);
+        }
+
+        synchronized void flush() {
+            log.flush();
+        }
+
+        synchronized void replay() {
+            log.replay(this::recover);
+        }
+
+        private void evict(long location, long expiry) {
+            if (expiry == SessionLog.TOMBSTONE) {
+                return;
+            }
+            final long hash = SessionIndex.hash(log.readId(location));
+            final int slot = index.find(hash);
+            if (slot != SessionIndex.NOT_FOUND && index.location(slot) == location) {
+                index.removeSlot(slot);
+                evicted++;
+            }
+        }
+
+        private void recover(long location, long expiry) {
+            final long hash = SessionIndex.hash(log.readId(location));
+            if (stripeOf(hash, stripeCount) != number) {
+                // written with another number of stripes
+                return;
+            }
+            if (expiry == SessionLog.TOMBSTONE || expiry < System.currentTimeMillis()) {
+                index.remove(hash);
+            }
+            else {
+                index.put(hash, location, expiry);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.inventage.airmock.kernel.session;
+
+/**
+ * Compact open addressing index from the hash of a session id to the location of its record in the {@link SessionLog}.
+ * <p>
+ * Per session only the 64 bit hash, the record location and the expiry (in seconds) are kept on the heap. The session
+ * id itself is stored in the record and verified on read, so a hash collision is detected there.
+ */
+final class SessionIndex {
+    static final int NOT_FOUND = -1;
+
+    private static final long EMPTY = 0L;
+    private static final long REMOVED = 1L;
+    private static final long EXPIRY_BASE_SECONDS = 1_500_000_000L;
+    private static final int MIN_CAPACITY = 1024;
+
+    private long[] hashes;
+    private long[] locations;
+    private int[] expiries;
+    private int size;
+    private int used;
+
+    SessionIndex() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Hash of a session id, never one of the reserved values for empty and removed slots.
+     *
+     * @param id session id
+     * @return hash
+     */
+    static long hash(CharSequence id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == EMPTY || hash == REMOVED ? hash + 2 : hash;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find the slot of the given hash.
+     *
+     * @param hash hash of the session id
+     * @return slot or {@link #NOT_FOUND}
+     */
+    int find(long hash) {
+        final int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != EMPTY) {
+            if (hashes[slot] == hash) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    long location(int slot) {
+        return locations[slot];
+    }
+
+    long expiresAtMillis(int slot) {
+        return (expiries[slot] + EXPIRY_BASE_SECONDS) * 1000L;
+    }
+
+    /**
+     * Add or replace the entry for the given hash.
+     *
+     * @param hash            hash of the session id
+     * @param location        location of the record
+     * @param expiresAtMillis expiry of the session
+     */
+    void put(long hash, long location, long expiresAtMillis) {
+        int slot = find(hash);
+        if (slot == NOT_FOUND) {
+            if ((used + 1) * 4L > hashes.length * 3L) {
+                // grow if the table is at least half full with live entries, otherwise only drop the removed ones
+                resize(size * 2 >= hashes.length ? hashes.length * 2 : hashes.length);
+            }
+            slot = freeSlot(hash);
+            if (hashes[slot] == EMPTY) {
+                used++;
+            }
+            hashes[slot] = hash;
+            size++;
+        }
+        locations[slot] = location;
+        expiries[slot] = toExpirySeconds(expiresAtMillis);
+    }
+
+    void removeSlot(int slot) {
+        hashes[slot] = REMOVED;
+        size--;
+    }
+
+    /**
+     * Remove the entry for the given hash.
+     *
+     * @param hash hash of the session id
+     * @return true if there was an entry
+     */
+    boolean remove(long hash) {
+        final int slot = find(hash);
+        if (slot == NOT_FOUND) {
+            return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Remove all entries which expired before the given time.
+     *
+     * @param nowMillis current time
+     * @return number of removed entries
+     */
+    int removeExpired(long nowMillis) {
+        final int now = toExpirySeconds(nowMillis);
+        int removed = 0;
+        for (int slot = 0; slot < hashes.length; slot++) {
+            if (hashes[slot] != EMPTY && hashes[slot] != REMOVED && expiries[slot] < now) {
+                removeSlot(slot);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private int freeSlot(long hash) {
+        final int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != EMPTY && hashes[slot] != REMOVED) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        hashes = new long[capacity];
+        locations = new long[capacity];
+        expiries = new int[capacity];
+        size = 0;
+        used = 0;
+    }
+
+    private void resize(int capacity) {
+        final long[] oldHashes = hashes;
+        final long[] oldLocations = locations;
+        final int[] oldExpiries = expiries;
+        allocate(capacity);
+        for (int slot = 0; slot < oldHashes.length; slot++) {
+            if (oldHashes[slot] != EMPTY && oldHashes[slot] != REMOVED) {
+                final int newSlot = freeSlot(oldHashes[slot]);
+                hashes[newSlot] = oldHashes[slot];
+                locations[newSlot] = oldLocations[slot];
+                expiries[newSlot] = oldExpiries[slot];
+                size++;
+                used++;
+            }
+        }
+    }
+
+    private static int toExpirySeconds(long millis) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(Integer.MIN_VALUE, millis / 1000L - EXPIRY_BASE_SECONDS));
+    }
+}
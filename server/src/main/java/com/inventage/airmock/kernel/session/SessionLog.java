@@ -0,0 +1,295 @@
+package com.inventage.airmock.kernel.session;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Append only log of serialized sessions, kept outside of the heap.
+ * <p>
+ * The log consists of a fixed maximum number of segments of equal size. The segments are either direct byte buffers
+ * or regions of a memory mapped file (if the log is persistent). Records are appended to the current segment; when
+ * all segments are in use, the oldest segment is recycled and the sessions still living in it are evicted. As the
+ * session handler writes a session after each request, this evicts the least recently used sessions.
+ * <p>
+ * Segment layout: magic (int), segment size (int), sequence (long), records, end marker (int 0).
+ * Record layout: length of the rest of the record (int), expiry (long, {@link #TOMBSTONE} for a deleted session),
+ * version (int), length of the id (int), id (UTF-8), serialized session.
+ */
+final class SessionLog {
+    static final long TOMBSTONE = -1L;
+
+    private static final int MAGIC = 0x41534c31;
+    private static final int SEGMENT_HEADER = 16;
+    private static final int RECORD_HEADER = Integer.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final int END_MARKER = 0;
+    private static final int NOT_ALLOCATED = -1;
+
+    private final int segmentSize;
+    private final ByteBuffer[] segments;
+    private final long[] sequences;
+    private final RandomAccessFile file;
+    private long nextSequence = 1;
+    private int current = -1;
+    private int writePosition;
+
+    private SessionLog(int segmentSize, int segmentCount, RandomAccessFile file) {
+        this.segmentSize = segmentSize;
+        this.segments = new ByteBuffer[segmentCount];
+        this.sequences = new long[segmentCount];
+        this.file = file;
+    }
+
+    /**
+     * Create a log in direct memory.
+     *
+     * @param segmentSize  size of a segment in bytes
+     * @param segmentCount maximum number of segments
+     * @return the log
+     */
+    static SessionLog inMemory(int segmentSize, int segmentCount) {
+        return new SessionLog(segmentSize, segmentCount, null);
+    }
+
+    /**
+     * Open a log in a region of a memory mapped file. Existing segments of the region are kept and can be replayed.
+     *
+     * @param file         the file, at least as large as the region
+     * @param offset       start of the region in the file
+     * @param segmentSize  size of a segment in bytes
+     * @param segmentCount maximum number of segments
+     * @return the log
+     * @throws IOException if the file can not be mapped
+     */
+    static SessionLog mapped(RandomAccessFile file, long offset, int segmentSize, int segmentCount) throws IOException {
+        final SessionLog log = new SessionLog(segmentSize, segmentCount, file);
+        for (int segment = 0; segment < segmentCount; segment++) {
+            final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, offset + (long) segment * segmentSize, segmentSize);
+            log.segments[segment] = buffer;
+            if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == segmentSize) {
+                log.sequences[segment] = buffer.getLong(8);
+                log.nextSequence = Math.max(log.nextSequence, log.sequences[segment] + 1);
+            }
+        }
+        return log;
+    }
+
+    boolean isPersistent() {
+        return file != null;
+    }
+
+    /**
+     * Maximal size of a record, which is the serialized session, its id and the record header.
+     *
+     * @return bytes
+     */
+    int maxRecordSize() {
+        return segmentSize - SEGMENT_HEADER - Integer.BYTES;
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param id       session id
+     * @param version  version of the session
+     * @param expiry   expiry of the session or {@link #TOMBSTONE}
+     * @param session  serialized session
+     * @param evictor  called for every record of a recycled segment
+     * @return location of the record
+     */
+    long append(String id, int version, long expiry, Buffer session, RecordVisitor evictor) {
+        final byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        final int recordSize = RECORD_HEADER + idBytes.length + session.length();
+        if (recordSize > maxRecordSize()) {
+            throw new IllegalArgumentException("Session too large for the session store: " + recordSize + " bytes");
+        }
+        if (current < 0 || writePosition + recordSize + Integer.BYTES > segmentSize) {
+            nextSegment(evictor);
+        }
+        final ByteBuffer segment = segments[current];
+        final int position = writePosition;
+        segment.putInt(position, recordSize - Integer.BYTES);
+        segment.putLong(position + 4, expiry);
+        segment.putInt(position + 12, version);
+        segment.putInt(position + 16, idBytes.length);
+        putBytes(segment, position + RECORD_HEADER, idBytes);
+        putBytes(segment, position + RECORD_HEADER + idBytes.length, session.getBytes());
+        writePosition = position + recordSize;
+        segment.putInt(writePosition, END_MARKER);
+        return location(current, position);
+    }
+
+    /**
+     * Read the id of the record at the given location.
+     *
+     * @param location location
+     * @return session id
+     */
+    String readId(long location) {
+        final ByteBuffer segment = segments[segment(location)];
+        final int position = offset(location);
+        return new String(getBytes(segment, position + RECORD_HEADER, segment.getInt(position + 16)), StandardCharsets.UTF_8);
+    }
+
+    int readVersion(long location) {
+        return segments[segment(location)].getInt(offset(location) + 12);
+    }
+
+    /**
+     * Read the serialized session of the record at the given location.
+     *
+     * @param location location
+     * @return serialized session
+     */
+    Buffer readSession(long location) {
+        final ByteBuffer segment = segments[segment(location)];
+        final int position = offset(location);
+        final int idLength = segment.getInt(position + 16);
+        final int sessionLength = segment.getInt(position) + Integer.BYTES - RECORD_HEADER - idLength;
+        return Buffer.buffer(getBytes(segment, position + RECORD_HEADER + idLength, sessionLength));
+    }
+
+    /**
+     * Visit all records of all segments, from the oldest to the newest. The current segment is positioned after
+     * the last record, so appending continues where the log ended.
+     *
+     * @param visitor visitor
+     */
+    void replay(RecordVisitor visitor) {
+        final List<Integer> order = new ArrayList<>();
+        for (int segment = 0; segment < segments.length; segment++) {
+            if (sequences[segment] != 0) {
+                order.add(segment);
+            }
+        }
+        order.sort(Comparator.comparingLong(segment -> sequences[segment]));
+        for (int segment : order) {
+            current = segment;
+            writePosition = visitSegment(segment, visitor);
+        }
+    }
+
+    /**
+     * Drop all records.
+     */
+    void clear() {
+        for (int segment = 0; segment < segments.length; segment++) {
+            if (segments[segment] != null) {
+                segments[segment].putInt(0, 0);
+                sequences[segment] = 0;
+                if (file == null) {
+                    segments[segment] = null;
+                }
+            }
+        }
+        current = -1;
+    }
+
+    /**
+     * Flush a mapped log to its file. The file is closed by its owner.
+     */
+    void flush() {
+        if (file != null) {
+            for (ByteBuffer segment : segments) {
+                if (segment instanceof MappedByteBuffer) {
+                    ((MappedByteBuffer) segment).force();
+                }
+            }
+        }
+    }
+
+    private void nextSegment(RecordVisitor evictor) {
+        int next = NOT_ALLOCATED;
+        for (int segment = 0; segment < segments.length && next == NOT_ALLOCATED; segment++) {
+            if (segments[segment] == null || sequences[segment] == 0) {
+                next = segment;
+            }
+        }
+        if (next == NOT_ALLOCATED) {
+            next = oldestSegment();
+            visitSegment(next, evictor);
+        }
+        if (segments[next] == null) {
+            segments[next] = ByteBuffer.allocateDirect(segmentSize);
+        }
+        final ByteBuffer segment = segments[next];
+        sequences[next] = nextSequence++;
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, segmentSize);
+        segment.putLong(8, sequences[next]);
+        segment.putInt(SEGMENT_HEADER, END_MARKER);
+        current = next;
+        writePosition = SEGMENT_HEADER;
+    }
+
+    private int oldestSegment() {
+        int oldest = 0;
+        for (int segment = 1; segment < segments.length; segment++) {
+            if (sequences[segment] < sequences[oldest]) {
+                oldest = segment;
+            }
+        }
+        return oldest;
+    }
+
+    private int visitSegment(int segment, RecordVisitor visitor) {
+        final ByteBuffer buffer = segments[segment];
+        int position = SEGMENT_HEADER;
+        while (position + RECORD_HEADER <= segmentSize) {
+            final int length = buffer.getInt(position);
+            if (length <= 0 || position + Integer.BYTES + length > segmentSize) {
+                break;
+            }
+            visitor.visit(location(segment, position), buffer.getLong(position + 4));
+            position += Integer.BYTES + length;
+        }
+        return position;
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segment(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    private static void putBytes(ByteBuffer buffer, int position, byte[] bytes) {
+        final ByteBuffer target = buffer.duplicate();
+        target.position(position);
+        target.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer, int position, int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(position);
+        source.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Callback for the records of a segment.
+     */
+    interface RecordVisitor {
+        /**
+         * Called for each record.
+         *
+         * @param location location of the record
+         * @param expiry   expiry of the session or {@link #TOMBSTONE}
+         */
+        void visit(long location, long expiry);
+    }
+}
@@ -3,6 +3,8 @@ package com.inventage.airmock.kernel.util;
 import io.vertx.core.json.JsonObject;
 import org.apache.commons.text.StringSubstitutor;
 
+import java.util.Map;
+
 public final class ConfigUtils {
 
     private JsonObject config;
@@ -18,11 +20,11 @@ public final class ConfigUtils {
      * @return the value as an integer or null if it doesn't exist.
      */
     public static Integer getInteger(JsonObject config, String key) {
-        final String stringValue = config.getString(key);
-        if (stringValue == null) {
+        final Object value = config.getValue(key);
+        if (value == null) {
             return null;
         }
-        return new Double(stringValue).intValue();
+        return new Double(value.toString()).intValue();
     }
 
     /**
@@ -40,6 +42,48 @@ public final class ConfigUtils {
         return new Double(value).intValue();
     }
 
+    /**
+     * Gets the value of the given key of a mapping config as an int.
+     * @param config The config to get the value from, may be null
+     * @param key the key to get the value from
+     * @param defaultValue value to be returned if no value is found by the given key
+     * @return the value as an int or the default value if it doesn't exist.
+     * @throws NumberFormatException if the value is not an int
+     */
+    public static int getInteger(Map<String, String> config, String key, int defaultValue) {
+        final String value = config == null ? null : config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new NumberFormatException("value of '" + key + "' is not an integer: '" + value + "'");
+        }
+    }
+
+    /**
+     * Gets the value of the given key of a mapping config as a long.
+     * @param config The config to get the value from, may be null
+     * @param key the key to get the value from
+     * @param defaultValue value to be returned if no value is found by the given key
+     * @return the value as a long or the default value if it doesn't exist.
+     * @throws NumberFormatException if the value is not a long
+     */
+    public static long getLong(Map<String, String> config, String key, long defaultValue) {
+        final String value = config == null ? null : config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new NumberFormatException("value of '" + key + "' is not an integer: '" + value + "'");
+        }
+    }
+
     /**
      * Replace any environment variables found in the input with the value of the corresponding environment variable.
      * @param config The config to get the replacement values from.
@@ -0,0 +1,46 @@
+package com.inventage.airmock.kernel.util;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Form utility class.
+ */
+public final class FormUtils {
+    public static final String URL_ENCODED = "application/x-www-form-urlencoded";
+
+    private FormUtils() {
+    }
+
+    /**
+     * Encode a form as the body of a request with the content type {@link #URL_ENCODED}. The web client does not apply
+     * its request timeout to requests sent with sendForm, the encoded form is sent with sendBuffer instead.
+     *
+     * @param form form
+     * @return body
+     */
+    public static Buffer urlEncoded(MultiMap form) {
+        final StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, String> entry : form) {
+            if (body.length() > 0) {
+                body.append('&');
+            }
+            body.append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+        }
+        return Buffer.buffer(body.toString());
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -11,12 +11,16 @@ import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.io.*;
 import org.opensaml.xml.parse.BasicParserPool;
 import org.opensaml.xml.parse.XMLParserException;
-import org.opensaml.xml.util.Base64;
 import org.opensaml.xml.util.XMLHelper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
 
 public final class SAMLUtils {
@@ -25,6 +29,9 @@ public final class SAMLUtils {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SAMLUtils.class);
 
+    // thread-safe, shared by all callers
+    private static final BasicParserPool PARSER_POOL = new BasicParserPool();
+
     static {
         try {
             // Initializes ParserPool and Marshallers and Unmarshallers
@@ -55,19 +62,26 @@ public final class SAMLUtils {
     }
 
     /**
-     * Extracts the first assertion of a SAMLResponse and returns it.
+     * Extracts the first assertion of a SAMLResponse and returns it. The SAMLResponse is parsed once; the assertion is
+     * marshalled right into its base64 encoding.
      * @param encodedSamlObject The base64 encoded string SAMLResponse.
-     * @return The first Assertion of the given SAMLResponse as a base64 encoded String.
+     * @return The first Assertion of the given SAMLResponse as a base64 encoded String, null if the given string is not
+     * a SAML assertion or response.
      */
     public static String getEncodedAssertion(String encodedSamlObject) {
+        final XMLObject xmlObject;
+        try {
+            xmlObject = getXMLObject(encodedSamlObject);
+        }
+        catch (XMLParserException | UnmarshallingException | IllegalArgumentException e) {
+            LOGGER.debug("getEncodedAssertion: not a SAML token, error: '{}'", e.getMessage());
+            return null;
+        }
         try {
-            final XMLObject xmlObject = getXMLObject(encodedSamlObject);
-
             if (xmlObject instanceof Assertion) {
                 LOGGER.debug("getEncodedAssertion: XML Object was an Assertion");
                 return getEncodedString((Assertion) xmlObject);
             }
-
             else if (xmlObject instanceof Response) {
                 LOGGER.debug("getEncodedAssertion: XML Object was a Response");
                 final Assertion samlAssertion = getAssertionFromResponse((Response) xmlObject);
@@ -76,10 +90,9 @@ public final class SAMLUtils {
             else {
                 throw new IllegalArgumentException("was neither an assertion nor a response");
             }
-
         }
-        catch (XMLParserException | UnmarshallingException | MarshallingException e) {
-            e.printStackTrace();
+        catch (MarshallingException | IllegalArgumentException e) {
+            LOGGER.warn("getEncodedAssertion: could not extract the assertion, error: '{}'", e.getMessage());
             return null;
         }
     }
@@ -96,14 +109,15 @@ public final class SAMLUtils {
     }
 
     private static XMLObject getXMLObject(String encodedXMLObject) throws XMLParserException, UnmarshallingException {
-        final BasicParserPool parser = new BasicParserPool();
-
-        final byte[] encodedSamlObjectBytes = Base64.decode(encodedXMLObject);
-        final Document encodedSamlDocument = parser.parse(new ByteArrayInputStream(encodedSamlObjectBytes));
+        final byte[] encodedSamlObjectBytes = Base64.getMimeDecoder().decode(encodedXMLObject);
+        final Document encodedSamlDocument = PARSER_POOL.parse(new ByteArrayInputStream(encodedSamlObjectBytes));
         final Element encodedSamlElement = encodedSamlDocument.getDocumentElement();
 
         final UnmarshallerFactory unmarshallerFactory = Configuration.getUnmarshallerFactory();
         final Unmarshaller unmarshaller = unmarshallerFactory.getUnmarshaller(encodedSamlElement);
+        if (unmarshaller == null) {
+            throw new UnmarshallingException("no unmarshaller for element " + encodedSamlElement.getNodeName());
+        }
         return unmarshaller.unmarshall(encodedSamlElement);
     }
 
@@ -112,11 +126,13 @@ public final class SAMLUtils {
         final Marshaller marshaller = marshallerFactory.getMarshaller(assertion);
 
         final Element assertionElement = marshaller.marshall(assertion);
-        final String assertionString = XMLHelper.nodeToString(assertionElement);
-        return removeNewlines(Base64.encodeBytes(assertionString.getBytes()));
-    }
-
-    private static String removeNewlines(String input) {
-        return input.replace("\n", "").replace("\r", "");
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (OutputStream base64 = Base64.getEncoder().wrap(encoded)) {
+            XMLHelper.writeNode(assertionElement, base64);
+        }
+        catch (IOException e) {
+            throw new MarshallingException(e);
+        }
+        return new String(encoded.toByteArray(), StandardCharsets.US_ASCII);
     }
 }
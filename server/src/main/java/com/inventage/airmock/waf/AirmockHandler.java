@@ -1,11 +1,18 @@
 package com.inventage.airmock.waf;
 
+import com.inventage.airmock.SimpleRouterConfigurator;
 import com.inventage.airmock.kernel.util.ConfigUtils;
+import com.inventage.airmock.waf.backend.BackendPool;
 import com.inventage.airmock.waf.cookiebag.Cookiemanager;
+import com.inventage.airmock.waf.cookiebag.SetCookie;
 import com.inventage.airmock.waf.headerbag.HeaderBag;
 import com.inventage.airmock.waf.headerbag.Headermanager;
 import com.inventage.airmock.waf.mapping.*;
+import com.inventage.airmock.waf.session.AirmockSessionState;
+import com.inventage.airmock.waf.session.Role;
+import com.inventage.airmock.waf.session.RoleExpiryWheel;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -14,17 +21,16 @@ import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.Router;
 import io.vertx.reactivex.core.MultiMap;
 import io.vertx.reactivex.ext.web.RoutingContext;
-import io.vertx.reactivex.ext.web.Session;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpCookie;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static com.inventage.airmock.kernel.Constants.JWT_COOKE_NAME;
@@ -38,7 +44,6 @@ import static com.inventage.airmock.waf.cookiebag.Cookiemanager.AUDIT_TOKEN;
 public class AirmockHandler implements Handler<RoutingContext> {
     public static final String PATH_TO_CONFIG = "config-path";
     public static final String PREFIX = AirmockHandler.class.getName() + ".";
-    public static final String WAF_ROLES = "WAF_ROLES";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AirmockHandler.class);
 
@@ -47,8 +52,20 @@ public class AirmockHandler implements Handler<RoutingContext> {
     private static final String SET_COOKIE = HttpHeaders.SET_COOKIE.toString();
 
     private final List<Mapping> mappings = new ArrayList<>();
+    private MappingTable mappingTable;
+    private final boolean expireRolesInBackground;
 
-    public AirmockHandler(JsonObject config, Router router) {
+    /**
+     * Create the handler with the mappings of the mappings file. The mappings are compiled right away, a mapping with an
+     * invalid configuration fails the creation.
+     *
+     * @param vertx  vertx
+     * @param config config
+     * @param router router
+     */
+    public AirmockHandler(Vertx vertx, JsonObject config, Router router) {
+        // the role expiry wheel would only change copies of sessions which are serialized by their store
+        expireRolesInBackground = SimpleRouterConfigurator.sessionsInMemory(config);
         LOGGER.info("--------------------------------------------------------------------");
         LOGGER.info("  __   __  ____  _  _   __    ___  __ _    _  _   __   ____");
         LOGGER.info(" / _\\ (  )(  _ \\( \\/ ) /  \\  / __)(  / )  / )( \\ / _\\ (  __)");
@@ -59,11 +76,11 @@ public class AirmockHandler implements Handler<RoutingContext> {
         try {
             logConfig(config);
             pathToMappingsConfig = config.getString(PREFIX + PATH_TO_CONFIG);
-            final String wafConfig = readFile(pathToMappingsConfig, StandardCharsets.UTF_8);
+            final String wafConfig = readMappings(config);
             LOGGER.info("--config:-----------------------------------------------------------");
             LOGGER.info("using mappings from '{}': \n{}", pathToMappingsConfig, wafConfig);
             LOGGER.info("--------------------------------------------------------------------");
-            applyConfig(wafConfig, config, router);
+            applyConfig(wafConfig, config, router, vertx);
         }
         catch (IOException e) {
             e.printStackTrace();
@@ -79,24 +96,25 @@ public class AirmockHandler implements Handler<RoutingContext> {
      */
     public static void removeRoleFromSession(String roleToBeRemoved, RoutingContext routingContext) {
         LOGGER.info("removeRoleFromSession: role '{}'", roleToBeRemoved, routingContext);
-        final Session session = session(routingContext);
-        final JsonArray roles = session.get(WAF_ROLES);
-        if (roles != null && roles.size() > 0) {
-            final JsonArray newRoles = new JsonArray();
-            roles.stream()
-                .map(item -> (JsonObject) item)
-                .filter(role -> !(role.getString("name").equals(roleToBeRemoved)))
-                .forEach(newRoles::add);
-            session.remove(WAF_ROLES);
-            session.put(WAF_ROLES, newRoles);
-        }
+        AirmockSessionState.of(routingContext).removeRole(roleToBeRemoved);
+    }
+
+    /**
+     * Read the mappings file configured by {@link #PATH_TO_CONFIG}.
+     *
+     * @param config config
+     * @return content of the mappings file
+     * @throws IOException if the file can not be read
+     */
+    public static String readMappings(JsonObject config) throws IOException {
+        return readFile(config.getString(PREFIX + PATH_TO_CONFIG), StandardCharsets.UTF_8);
     }
 
     private void logConfig(JsonObject config) {
         config.stream().filter(this::ofInterest).sorted().forEach(property -> LOGGER.info("{}", property));
     }
 
-    private String readFile(String path, Charset encoding) throws IOException {
+    private static String readFile(String path, Charset encoding) throws IOException {
         if (path == null) {
             throw new IllegalArgumentException("Property 'com.inventage.airmock.waf.AirmockHandler.config-path' not defined.");
         }
@@ -106,20 +124,21 @@ public class AirmockHandler implements Handler<RoutingContext> {
         }
     }
 
-    private void applyConfig(String wafConfig, JsonObject config, Router router) {
+    private void applyConfig(String wafConfig, JsonObject config, Router router, Vertx vertx) {
         final JsonObject entries = new JsonObject(wafConfig);
         final JsonArray mappingsArray = entries.getJsonArray("mappings");
         if (mappingsArray != null) {
             mappingsArray.stream().forEach(entry -> {
                 final JsonObject mapping = (JsonObject) entry;
-                final Mapping newMapping = createMapping(config, mapping, router);
+                final Mapping newMapping = createMapping(config, mapping, router, vertx);
                 mappings.add(newMapping);
                 LOGGER.info("mapping added '{}'", newMapping);
             });
         }
+        mappingTable = MappingTable.build(mappings);
     }
 
-    private Mapping createMapping(JsonObject config, JsonObject mapping, Router router) {
+    private Mapping createMapping(JsonObject config, JsonObject mapping, Router router, Vertx vertx) {
         final ConfigUtils configUtils = new ConfigUtils(config);
         final String name = mapping.getString("name");
         final String contextRoot = mapping.getString("contextRoot");
@@ -129,13 +148,14 @@ public class AirmockHandler implements Handler<RoutingContext> {
         final String[] objects = restrictedToRoles.stream().map(Object::toString).toArray(String[]::new);
         final JsonArray headersArray = jsonArray(mapping, "headers");
         final List<String> headers = headersArray.stream().map(Object::toString).collect(Collectors.toList());
-        final JsonObject backend = mapping.getJsonObject("backend");
+        final BackendPool backend = BackendPool.of(mapping.getJsonObject("backend"), config);
         final Map<String, String> mappingConfig = getMappingConfig(mapping);
 
         final DefaultMapping newMapping = createConcreteMapping(authenticationFlow);
 
         newMapping.init(configUtils, name, contextRoot, objects, deniedAccessUrl,
-            headers, backendProtocol(backend, config), backendHost(backend, config), backendPort(backend, config), mappingConfig);
+            headers, backend.protocol(), backend.host(), backend.port(), backend.instances(), mappingConfig);
+        newMapping.compile(vertx);
 
         return newMapping;
     }
@@ -191,32 +211,7 @@ public class AirmockHandler implements Handler<RoutingContext> {
     }
 
     private Mapping getMapping(String path) {
-        return mappings.stream().filter(mapping -> mapping.isMatching(path)).findFirst().orElse(new DenyAllMapping());
-    }
-
-    private String backendProtocol(JsonObject backend, JsonObject config) {
-        return backend == null ? "" : substituteStringVariable(backend.getString("protocol") == null ? "http" : backend.getString("protocol"), config);
-    }
-    private String backendHost(JsonObject backend, JsonObject config) {
-        return backend == null ? "" : substituteStringVariable(backend.getString("host"), config);
-    }
-    private int backendPort(JsonObject backend, JsonObject config) {
-        return backend == null ? 0 : substituteIntegerVariable(backend.getValue("port"), config);
-    }
-    private String substituteStringVariable(String value, JsonObject config) {
-        return (String) substituteVariable(value, config);
-    }
-    private Integer substituteIntegerVariable(Object value, JsonObject config) {
-        return new Double(substituteVariable(value, config)).intValue();
-    }
-    private String substituteVariable(Object value, JsonObject config) {
-        if (value instanceof String) {
-            final String variable = (String) value;
-            if (variable.startsWith("${") && variable.endsWith("}")) {
-                return String.valueOf(config.getValue(variable.substring(2, variable.length() - 1)));
-            }
-        }
-        return String.valueOf(value);
+        return mappingTable.lookup(path);
     }
 
     @Override
@@ -227,7 +222,7 @@ public class AirmockHandler implements Handler<RoutingContext> {
         mapping.canProceed(routingContext, this).subscribe(canProceed -> {
             if (canProceed) {
                 Cookiemanager.prepareCookieHeaderForRequest(routingContext);
-                Headermanager.prepareHeaderForRequest(routingContext);
+                Headermanager.prepareHeaderForRequest(routingContext, mapping);
                 routingContext.addHeadersEndHandler(v -> addSetCookieForJWT(routingContext, mapping));
                 routingContext.addHeadersEndHandler(v -> intercepted(routingContext, mapping));
                 routingContext.data().put(Mapping.class.getName(), mapping);
@@ -253,7 +248,6 @@ public class AirmockHandler implements Handler<RoutingContext> {
         if (headers.contains(SET_COOKIE)) {
             final List<String> setCookiesValue = headers.getAll(SET_COOKIE);
             handleCookies(routingContext, setCookiesValue, mapping);
-            Cookiemanager.storeCookies(routingContext, setCookiesValue, mapping);
             LOGGER.info("handleHeaders: removing header 'Set-Cookie' and value '{}'", setCookiesValue, routingContext);
             headers.remove(SET_COOKIE);
         }
@@ -272,66 +266,94 @@ public class AirmockHandler implements Handler<RoutingContext> {
     }
 
     /**
-     * Add cookies to rc.
+     * Process the Set-Cookie headers of a backend response: the control API commands are executed and all cookies
+     * are stored in the cookie bag. Each header is tokenized once.
      *
      * @param routingContext  rc
      * @param setCookiesValue cookies
      * @param currentMapping  current mapping
      */
     public void handleCookies(RoutingContext routingContext, List<String> setCookiesValue, Mapping currentMapping) {
-        setCookiesValue.stream()
-            .map(HttpCookie::parse)
-            .flatMap(cookies -> cookies.stream())
-            .forEach(cookie -> processControlApi(cookie, routingContext));
+        final SetCookie cookie = new SetCookie();
+        for (String setCookie : setCookiesValue) {
+            if (cookie.parse(setCookie)) {
+                if (cookie.nameEquals(API_COOKIE)) {
+                    processControlApi(cookie.getValue(), routingContext);
+                }
+                Cookiemanager.storeCookie(routingContext, cookie, currentMapping);
+            }
+        }
     }
 
-    private void processControlApi(HttpCookie cookie, RoutingContext routingContext) {
-        if (API_COOKIE.equals(cookie.getName())) {
-            try {
-                final String cookieValue = URLDecoder.decode(cookie.getValue(), "UTF8");
-                final String[] controlCommand = cookieValue.split("&");
-                Arrays.stream(controlCommand).forEach(command -> {
-                    try {
-                        final String[] controlCookie = command.split("=");
-                        if (controlCookie.length > 0) {
-                            final String commandName = controlCookie[0];
-                            if ("ADD_CREDENTIALS".equalsIgnoreCase(commandName) && controlCookie.length == 2) {
-                                final String apiValue = URLDecoder.decode(controlCookie[1], "UTF8");
-                                final String[] roles = apiValue.split(",");
-                                Arrays.stream(roles).forEach(role -> addRoleToSession(role, routingContext));
-                            }
-                            if ("SET_CREDENTIALS".equalsIgnoreCase(commandName) && controlCookie.length == 2) {
-                                removeAllRolesFromSession(routingContext);
-                                final String apiValue = URLDecoder.decode(controlCookie[1], "UTF8");
-                                final String[] roles = apiValue.split(",");
-                                Arrays.stream(roles).forEach(role -> addRoleToSession(role, routingContext));
-                            }
-                            if ("AUDIT_TOKEN".equalsIgnoreCase(commandName) && controlCookie.length == 2) {
-                                final String apiValue = URLDecoder.decode(controlCookie[1], "UTF8");
-                                addAuditTokenToSession(apiValue, routingContext);
-                            }
-                            if ("ADD_HEADERS".equalsIgnoreCase(commandName) && controlCookie.length == 2) {
-                                final String apiValue = URLDecoder.decode(controlCookie[1], "UTF8");
-                                final String[] headers = apiValue.split(",");
-                                Arrays.stream(headers).forEach(header -> addHeaderToSession(header, routingContext));
-                            }
-                            if ("SESSION".equalsIgnoreCase(commandName) && controlCookie.length == 2) {
-                                final String apiValue = URLDecoder.decode(controlCookie[1], "UTF8");
-                                LOGGER.info("processControlApi: SESSION '{}'", apiValue, routingContext);
-                                // send propagate logout to all mappings
-                                propagateLogout(routingContext);
-                                session(routingContext).destroy();
-                            }
-                        }
-                    }
-                    catch (UnsupportedEncodingException e) {
-                        e.printStackTrace();
-                    }
-                });
+    private void processControlApi(String cookieValue, RoutingContext routingContext) {
+        final String controlCommands = urlDecode(cookieValue, routingContext);
+        final int length = controlCommands.length();
+        int commandStart = 0;
+        while (commandStart < length) {
+            final int commandEnd = indexOf(controlCommands, '&', commandStart, length);
+            final int equals = indexOf(controlCommands, '=', commandStart, commandEnd);
+            final ControlCommand command = ControlCommand.lookup(controlCommands, commandStart, equals);
+            // a command needs exactly one non empty argument
+            if (command != null && equals + 1 < commandEnd && indexOf(controlCommands, '=', equals + 1, commandEnd) == commandEnd) {
+                executeControlCommand(command, urlDecode(controlCommands.substring(equals + 1, commandEnd), routingContext), routingContext);
             }
-            catch (UnsupportedEncodingException e) {
-                e.printStackTrace();
+            commandStart = commandEnd + 1;
+        }
+    }
+
+    private void executeControlCommand(ControlCommand command, String apiValue, RoutingContext routingContext) {
+        switch (command) {
+            case SET_CREDENTIALS:
+                removeAllRolesFromSession(routingContext);
+                forEachListElement(apiValue, role -> addRoleToSession(role, routingContext));
+                break;
+            case ADD_CREDENTIALS:
+                forEachListElement(apiValue, role -> addRoleToSession(role, routingContext));
+                break;
+            case AUDIT_TOKEN:
+                addAuditTokenToSession(apiValue, routingContext);
+                break;
+            case ADD_HEADERS:
+                forEachListElement(apiValue, header -> addHeaderToSession(header, routingContext));
+                break;
+            case SESSION:
+                LOGGER.info("processControlApi: SESSION '{}'", apiValue, routingContext);
+                // send propagate logout to all mappings
+                propagateLogout(routingContext);
+                session(routingContext).destroy();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void forEachListElement(String list, Consumer<String> consumer) {
+        final int length = list.length();
+        int elementStart = 0;
+        while (elementStart < length) {
+            final int elementEnd = indexOf(list, ',', elementStart, length);
+            if (elementEnd > elementStart) {
+                consumer.accept(list.substring(elementStart, elementEnd));
             }
+            elementStart = elementEnd + 1;
+        }
+    }
+
+    private static int indexOf(String value, char c, int from, int to) {
+        final int index = value.indexOf(c, from);
+        return index < 0 || index > to ? to : index;
+    }
+
+    private static String urlDecode(String value, RoutingContext routingContext) {
+        if (value.indexOf('%') < 0 && value.indexOf('+') < 0) {
+            return value;
+        }
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        }
+        catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            LOGGER.warn("urlDecode: invalid control api value '{}'", value, routingContext);
+            return "";
         }
     }
 
@@ -357,38 +379,18 @@ public class AirmockHandler implements Handler<RoutingContext> {
     }
 
     private void removeAllRolesFromSession(RoutingContext routingContext) {
-        session(routingContext).put(WAF_ROLES, new JsonArray());
+        AirmockSessionState.of(routingContext).clearRoles();
     }
 
     private void addRoleToSession(String roleDefinition, RoutingContext routingContext) {
-        final JsonObject role = parseRoleDefinition(roleDefinition);
+        final Role role = Role.parse(roleDefinition);
         if (role != null) {
-            JsonArray roles = session(routingContext).get(WAF_ROLES);
-            if (roles == null) {
-                roles = new JsonArray();
+            final AirmockSessionState state = AirmockSessionState.of(routingContext);
+            state.addRole(role);
+            if (expireRolesInBackground) {
+                RoleExpiryWheel.schedule(routingContext, state);
             }
-            roles.add(role);
             LOGGER.info("addRoleToSession: role '{}'", role, routingContext);
-            session(routingContext).put(WAF_ROLES, roles);
-        }
-    }
-
-    // roleDefinition := credential-name [ ":" credential-timeout [ ":" credential-lifetime ]
-    private JsonObject parseRoleDefinition(String roleDefinition) {
-        JsonObject result = null;
-        if (roleDefinition != null && !roleDefinition.isEmpty()) {
-            final String[] roleElements = roleDefinition.split(":");
-            if (roleElements.length > 0) {
-                result = new JsonObject();
-                result.put("name", roleElements[0]);
-            }
-            if (roleElements.length > 1) {
-                result.put("idleTimeout", roleElements[1]);
-            }
-            if (roleElements.length > 2) {
-                result.put("roleLifetime", roleElements[2]);
-            }
         }
-        return result;
     }
 }
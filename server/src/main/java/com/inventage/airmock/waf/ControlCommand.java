@@ -0,0 +1,65 @@
+package com.inventage.airmock.waf;
+
+import java.util.Arrays;
+
+/**
+ * Commands of the Airlock control API, sent by the backends in the AL_CONTROL cookie.
+ * <p>
+ * The command names are matched case insensitive. The lookup table is indexed by the length of the name, so a
+ * command is found without creating a string for it.
+ */
+enum ControlCommand {
+    ADD_CREDENTIALS,
+    SET_CREDENTIALS,
+    AUDIT_TOKEN,
+    ADD_HEADERS,
+    SESSION;
+
+    private static final ControlCommand[][] BY_LENGTH = byLength();
+
+    private static ControlCommand[][] byLength() {
+        int maxLength = 0;
+        for (ControlCommand command : values()) {
+            maxLength = Math.max(maxLength, command.name().length());
+        }
+        final ControlCommand[][] table = new ControlCommand[maxLength + 1][];
+        for (ControlCommand command : values()) {
+            final int length = command.name().length();
+            final ControlCommand[] bucket = table[length] == null ? new ControlCommand[1] : Arrays.copyOf(table[length], table[length].length + 1);
+            bucket[bucket.length - 1] = command;
+            table[length] = bucket;
+        }
+        return table;
+    }
+
+    /**
+     * Find the command with the given name.
+     *
+     * @param chars characters containing the name
+     * @param start start of the name (inclusive)
+     * @param end   end of the name (exclusive)
+     * @return the command or null if the name is not known
+     */
+    static ControlCommand lookup(CharSequence chars, int start, int end) {
+        final int length = end - start;
+        if (length <= 0 || length >= BY_LENGTH.length || BY_LENGTH[length] == null) {
+            return null;
+        }
+        for (ControlCommand command : BY_LENGTH[length]) {
+            if (command.matches(chars, start)) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(CharSequence chars, int start) {
+        final String name = name();
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toUpperCase(chars.charAt(start + i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,279 @@
+package com.inventage.airmock.waf.backend;
+
+import com.inventage.airmock.kernel.proxy.balancer.BackendInstance;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection pool settings of a backend, as configured in the "backend" object of a mapping.
+ * <p>
+ * Backends are identified by {@code protocol://host:port}; all mappings pointing to the same backend share one pool.
+ * The optional "pool" object of the backend configures the pool:
+ * <pre>
+ * "backend": {
+ *   "host": "localhost",
+ *   "port": "10001",
+ *   "pool": {
+ *     "maxPoolSize": 100,
+ *     "maxWaitQueueSize": -1,
+ *     "keepAlive": true,
+ *     "keepAliveTimeout": 60,
+ *     "pipelining": false,
+ *     "pipeliningLimit": 10,
+ *     "connectTimeout": 5000,
+ *     "idleTimeout": 60,
+ *     "warmUp": 10
+ *   }
+ * }
+ * </pre>
+ * Timeouts are in seconds, except the connect timeout which is in milliseconds. {@code warmUp} is the number of
+ * connections opened at start.
+ * <p>
+ * With {@code "http2": true} the requests are multiplexed over few HTTP/2 connections: negotiated by ALPN with https,
+ * with prior knowledge (h2c) with http, or by an upgrade from HTTP/1.1 if {@code http2Upgrade} is true.
+ * {@code http2MaxPoolSize} is the number of connections per instance and {@code http2MultiplexingLimit} the number of
+ * concurrent streams per connection, -1 for the limit announced by the backend.
+ * <p>
+ * A backend running on several instances lists them in the optional "instances" array; host and port may then be
+ * omitted and default to the first instance. The instances share the pool settings, each gets its own connections:
+ * <pre>
+ * "backend": {
+ *   "instances": [
+ *     { "host": "app1", "port": "10001" },
+ *     { "host": "app2", "port": "10001", "weight": 2 }
+ *   ]
+ * }
+ * </pre>
+ */
+public final class BackendPool {
+    public static final String POOL = "pool";
+    public static final String MAX_POOL_SIZE = "maxPoolSize";
+    public static final String MAX_WAIT_QUEUE_SIZE = "maxWaitQueueSize";
+    public static final String KEEP_ALIVE = "keepAlive";
+    public static final String KEEP_ALIVE_TIMEOUT = "keepAliveTimeout";
+    public static final String PIPELINING = "pipelining";
+    public static final String PIPELINING_LIMIT = "pipeliningLimit";
+    public static final String CONNECT_TIMEOUT = "connectTimeout";
+    public static final String IDLE_TIMEOUT = "idleTimeout";
+    public static final String WARM_UP = "warmUp";
+    public static final String HTTP2 = "http2";
+    public static final String HTTP2_UPGRADE = "http2Upgrade";
+    public static final String HTTP2_MAX_POOL_SIZE = "http2MaxPoolSize";
+    public static final String HTTP2_MULTIPLEXING_LIMIT = "http2MultiplexingLimit";
+    public static final String INSTANCES = "instances";
+    public static final String WEIGHT = "weight";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackendPool.class);
+
+    private static final int DEFAULT_MAX_POOL_SIZE = 10;
+    private static final int MAX_INITIAL_LINE_LENGTH = 10000;
+    private static final int MAX_HEADER_SIZE = 1024 * 20;
+
+    private final String protocol;
+    private final String host;
+    private final int port;
+    private final JsonObject pool;
+    private final List<BackendInstance> instances;
+
+    private BackendPool(String protocol, String host, int port, JsonObject pool, List<BackendInstance> instances) {
+        this.protocol = protocol;
+        this.host = host;
+        this.port = port;
+        this.pool = pool == null ? new JsonObject() : pool;
+        this.instances = instances.isEmpty() ? Collections.singletonList(new BackendInstance(host, port, BackendInstance.DEFAULT_WEIGHT)) : instances;
+    }
+
+    /**
+     * Read the backend of a mapping. Values of the form ${name} are replaced by the value of the config key name.
+     *
+     * @param backend "backend" object of a mapping, may be null
+     * @param config  config
+     * @return the backend; protocol and host are empty and the port is 0 if no backend is configured
+     */
+    public static BackendPool of(JsonObject backend, JsonObject config) {
+        if (backend == null) {
+            return new BackendPool("", "", 0, null, Collections.emptyList());
+        }
+        final String protocol = substituteVariable(backend.getString("protocol") == null ? "http" : backend.getString("protocol"), config);
+        final List<BackendInstance> instances = new ArrayList<>();
+        final JsonArray instancesArray = backend.getJsonArray(INSTANCES);
+        if (instancesArray != null) {
+            for (Object entry : instancesArray) {
+                final JsonObject instance = (JsonObject) entry;
+                final Object weight = instance.getValue(WEIGHT);
+                instances.add(new BackendInstance(substituteVariable(instance.getValue("host"), config), port(instance, config),
+                    weight == null ? BackendInstance.DEFAULT_WEIGHT : Integer.parseInt(substituteVariable(weight, config).trim())));
+            }
+        }
+        if (backend.getValue("host") == null && !instances.isEmpty()) {
+            return new BackendPool(protocol, instances.get(0).host(), instances.get(0).port(), backend.getJsonObject(POOL), instances);
+        }
+        final String host = substituteVariable(backend.getString("host"), config);
+        return new BackendPool(protocol, host, port(backend, config), backend.getJsonObject(POOL), instances);
+    }
+
+    private static int port(JsonObject backend, JsonObject config) {
+        return new Double(substituteVariable(backend.getValue("port"), config)).intValue();
+    }
+
+    /**
+     * Create a backend with default pool settings.
+     *
+     * @param protocol protocol
+     * @param host     host
+     * @param port     port
+     * @return the backend
+     */
+    public static BackendPool of(String protocol, String host, int port) {
+        return new BackendPool(protocol, host, port, null, Collections.emptyList());
+    }
+
+    /**
+     * Collect the distinct backends of all mappings. If several mappings configure a pool for the same backend, the
+     * first configuration is used.
+     *
+     * @param mappings content of the mappings file
+     * @param config   config
+     * @return backends
+     */
+    public static List<BackendPool> fromMappings(JsonObject mappings, JsonObject config) {
+        final Map<String, BackendPool> backends = new LinkedHashMap<>();
+        final JsonArray mappingsArray = mappings.getJsonArray("mappings");
+        if (mappingsArray == null) {
+            return new ArrayList<>();
+        }
+        for (Object entry : mappingsArray) {
+            final JsonObject backendJson = ((JsonObject) entry).getJsonObject("backend");
+            if (backendJson == null) {
+                continue;
+            }
+            final BackendPool backend = of(backendJson, config);
+            final BackendPool existing = backends.get(backend.key());
+            if (existing == null || existing.pool.isEmpty()) {
+                backends.put(backend.key(), backend);
+            }
+            else if (!backend.pool.isEmpty() && !existing.pool.equals(backend.pool)) {
+                LOGGER.warn("fromMappings: conflicting pool configurations for backend '{}', using '{}'", backend.key(), existing.pool);
+            }
+        }
+        return new ArrayList<>(backends.values());
+    }
+
+    /**
+     * Key of a backend.
+     *
+     * @param protocol protocol
+     * @param host     host
+     * @param port     port
+     * @return protocol://host:port
+     */
+    public static String key(String protocol, String host, int port) {
+        return protocol + "://" + host + ":" + port;
+    }
+
+    public String key() {
+        return key(protocol, host, port);
+    }
+
+    public String protocol() {
+        return protocol;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    /**
+     * The instances of this backend; a single one with host and port if no instances are configured.
+     *
+     * @return instances
+     */
+    public List<BackendInstance> instances() {
+        return instances;
+    }
+
+    /**
+     * Number of connections to open at start, at most the pool size.
+     *
+     * @return connections
+     */
+    public int warmUp() {
+        final HttpClientOptions options = clientOptions();
+        return Math.min(intOption(WARM_UP, 0), options.getProtocolVersion() == HttpVersion.HTTP_2 ? options.getHttp2MaxPoolSize() : options.getMaxPoolSize());
+    }
+
+    /**
+     * Options for the HTTP client of this backend.
+     *
+     * @return options
+     */
+    public HttpClientOptions clientOptions() {
+        final HttpClientOptions defaults = new HttpClientOptions();
+        final HttpClientOptions options = new HttpClientOptions()
+            .setMaxInitialLineLength(MAX_INITIAL_LINE_LENGTH)
+            .setMaxHeaderSize(MAX_HEADER_SIZE)
+            .setSsl("https".equalsIgnoreCase(protocol))
+            .setTrustAll(true)
+            .setMaxPoolSize(intOption(MAX_POOL_SIZE, DEFAULT_MAX_POOL_SIZE))
+            .setMaxWaitQueueSize(intOption(MAX_WAIT_QUEUE_SIZE, defaults.getMaxWaitQueueSize()))
+            .setKeepAlive(booleanOption(KEEP_ALIVE, defaults.isKeepAlive()))
+            .setKeepAliveTimeout(intOption(KEEP_ALIVE_TIMEOUT, defaults.getKeepAliveTimeout()))
+            .setPipelining(booleanOption(PIPELINING, defaults.isPipelining()))
+            .setPipeliningLimit(intOption(PIPELINING_LIMIT, defaults.getPipeliningLimit()))
+            .setConnectTimeout(intOption(CONNECT_TIMEOUT, defaults.getConnectTimeout()))
+            .setIdleTimeout(intOption(IDLE_TIMEOUT, defaults.getIdleTimeout()));
+        if (booleanOption(HTTP2, false)) {
+            options.setProtocolVersion(HttpVersion.HTTP_2)
+                .setUseAlpn(options.isSsl())
+                .setHttp2ClearTextUpgrade(booleanOption(HTTP2_UPGRADE, false))
+                .setHttp2MaxPoolSize(intOption(HTTP2_MAX_POOL_SIZE, defaults.getHttp2MaxPoolSize()))
+                .setHttp2MultiplexingLimit(intOption(HTTP2_MULTIPLEXING_LIMIT, defaults.getHttp2MultiplexingLimit()));
+        }
+        return options;
+    }
+
+    @Override
+    public String toString() {
+        return key() + " " + pool.encode();
+    }
+
+    private int intOption(String key, int defaultValue) {
+        final Object value = pool.getValue(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim());
+    }
+
+    private boolean booleanOption(String key, boolean defaultValue) {
+        final Object value = pool.getValue(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString().trim());
+    }
+
+    private static String substituteVariable(Object value, JsonObject config) {
+        if (value instanceof String) {
+            final String variable = (String) value;
+            if (variable.startsWith("${") && variable.endsWith("}")) {
+                return String.valueOf(config.getValue(variable.substring(2, variable.length() - 1)));
+            }
+        }
+        return String.valueOf(value);
+    }
+}
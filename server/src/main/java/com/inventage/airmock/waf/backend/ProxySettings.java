@@ -0,0 +1,136 @@
+package com.inventage.airmock.waf.backend;
+
+import com.inventage.airmock.kernel.proxy.balancer.HealthPolicy;
+import com.inventage.airmock.kernel.proxy.balancer.LoadBalancer;
+import com.inventage.airmock.kernel.proxy.compression.Compression;
+import com.inventage.airmock.kernel.proxy.internal.ProxyPipe;
+import com.inventage.airmock.kernel.proxy.internal.RequestCoalescer;
+import com.inventage.airmock.kernel.proxy.resilience.ResiliencePolicy;
+import com.inventage.airmock.kernel.util.ConfigUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The settings of the proxy of a mapping. They are read from the config of the mapping when it is compiled, so that an
+ * invalid value stops the startup instead of failing the requests of the mapping.
+ */
+public final class ProxySettings {
+    public static final String HIGH_WATERMARK = "highWatermark";
+    public static final String LOW_WATERMARK = "lowWatermark";
+    public static final String CACHE = "cache";
+    public static final String COALESCE = "coalesce";
+    public static final String COALESCE_HEADERS = "coalesceHeaders";
+    public static final String BALANCING = "balancing";
+    public static final String BALANCING_COOKIE = "balancingCookie";
+
+    public static final ProxySettings DEFAULT = of(Collections.emptyMap());
+
+    private final ResiliencePolicy resilience;
+    private final Compression compression;
+    private final HealthPolicy healthPolicy;
+    private final LoadBalancer.Strategy balancing;
+    private final String balancingCookie;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final boolean cache;
+    private final List<String> coalesceHeaders;
+
+    private ProxySettings(Map<String, String> config) {
+        this.resilience = ResiliencePolicy.of(config);
+        this.compression = Compression.of(config);
+        this.healthPolicy = HealthPolicy.of(config);
+        this.balancing = balancing(config.get(BALANCING));
+        this.balancingCookie = config.get(BALANCING_COOKIE);
+        this.highWatermark = ConfigUtils.getInteger(config, HIGH_WATERMARK, ProxyPipe.DEFAULT_HIGH_WATERMARK);
+        this.lowWatermark = ConfigUtils.getInteger(config, LOW_WATERMARK, ProxyPipe.DEFAULT_LOW_WATERMARK);
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("watermarks must satisfy 0 <= " + LOW_WATERMARK + " < " + HIGH_WATERMARK
+                + ", but are " + lowWatermark + " and " + highWatermark);
+        }
+        this.cache = Boolean.parseBoolean(config.get(CACHE));
+        if (Boolean.parseBoolean(config.get(COALESCE))) {
+            final String headers = config.get(COALESCE_HEADERS);
+            this.coalesceHeaders = headers == null ? RequestCoalescer.DEFAULT_KEY_HEADERS : Collections.unmodifiableList(Arrays.asList(headers.split(",")));
+        }
+        else {
+            this.coalesceHeaders = null;
+        }
+    }
+
+    /**
+     * Read the settings from the config of a mapping; missing entries have their default.
+     *
+     * @param config config of a mapping, may be null
+     * @return settings
+     * @throws IllegalArgumentException if a value is not valid
+     */
+    public static ProxySettings of(Map<String, String> config) {
+        return new ProxySettings(config == null ? Collections.emptyMap() : config);
+    }
+
+    private static LoadBalancer.Strategy balancing(String strategy) {
+        if (strategy == null) {
+            return LoadBalancer.Strategy.LEAST_OUTSTANDING;
+        }
+        try {
+            return LoadBalancer.Strategy.of(strategy);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown " + BALANCING + " '" + strategy + "'", e);
+        }
+    }
+
+    public ResiliencePolicy resilience() {
+        return resilience;
+    }
+
+    public Compression compression() {
+        return compression;
+    }
+
+    public HealthPolicy healthPolicy() {
+        return healthPolicy;
+    }
+
+    public LoadBalancer.Strategy balancing() {
+        return balancing;
+    }
+
+    /**
+     * Cookie hashed by the consistent-hash balancing.
+     *
+     * @return name, null to hash the client address
+     */
+    public String balancingCookie() {
+        return balancingCookie;
+    }
+
+    public int highWatermark() {
+        return highWatermark;
+    }
+
+    public int lowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * Are the responses of the backend cached.
+     *
+     * @return boolean
+     */
+    public boolean isCached() {
+        return cache;
+    }
+
+    /**
+     * Headers which identical requests share, if requests are coalesced.
+     *
+     * @return headers, null if requests are not coalesced
+     */
+    public List<String> coalesceHeaders() {
+        return coalesceHeaders;
+    }
+}
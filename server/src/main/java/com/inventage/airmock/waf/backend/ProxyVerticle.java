@@ -3,13 +3,22 @@ package com.inventage.airmock.waf.backend;
 import com.inventage.airmock.kernel.RouteProvider;
 import com.inventage.airmock.kernel.backend.HtmlBackendVerticle;
 import com.inventage.airmock.kernel.proxy.HttpProxy;
+import com.inventage.airmock.kernel.proxy.balancer.BackendInstance;
+import com.inventage.airmock.kernel.proxy.balancer.LoadBalancer;
+import com.inventage.airmock.kernel.proxy.cache.ResponseCache;
+import com.inventage.airmock.kernel.proxy.compression.Compression;
+import com.inventage.airmock.kernel.proxy.internal.RequestCoalescer;
+import com.inventage.airmock.kernel.proxy.resilience.ResiliencePolicy;
+import com.inventage.airmock.kernel.proxy.resilience.ResilienceRegistry;
 import com.inventage.airmock.kernel.util.AirmockConfigRetriever;
+import com.inventage.airmock.waf.AirmockHandler;
 import com.inventage.airmock.waf.mapping.Mapping;
 import com.inventage.airmock.waf.proxy.AirmockHttpProxy;
-import io.vertx.circuitbreaker.CircuitBreakerOptions;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
-import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -19,8 +28,11 @@ import io.vertx.reactivex.core.AbstractVerticle;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import static com.inventage.airmock.kernel.util.ConfigUtils.getInteger;
@@ -31,11 +43,13 @@ import static com.inventage.airmock.kernel.util.ConfigUtils.getInteger;
 public class ProxyVerticle extends AbstractVerticle implements RouteProvider {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProxyVerticle.class);
+    private static final int GATEWAY_TIMEOUT = 504;
 
     private JsonObject config;
     private String xForwardedHost;
     private Integer xForwardedPort;
     private Map<Mapping, HttpProxy> proxies = new HashMap<>();
+    private Map<String, HttpClient> clients = new ConcurrentHashMap<>();
 
     @Override
     public void start(Future<Void> startFuture) {
@@ -57,11 +71,31 @@ public class ProxyVerticle extends AbstractVerticle implements RouteProvider {
 
             this.xForwardedHost = config.getString(HtmlBackendVerticle.class.getName() + ".x-forwarded-host");
             this.xForwardedPort = getInteger(config, HtmlBackendVerticle.class.getName() + ".x-forwarded-port");
+            createPools();
 
             startFuture.complete();
         }
     }
 
+    /**
+     * Create the connection pools of all backends in the mappings file and open the configured number of connections.
+     */
+    protected void createPools() {
+        final List<BackendPool> backends;
+        try {
+            backends = BackendPool.fromMappings(new JsonObject(AirmockHandler.readMappings(config)), config);
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.warn("createPools: could not read the backends, pools are created on first use, error: '{}'", e.getMessage());
+            return;
+        }
+        for (BackendPool backend : backends) {
+            final HttpClient client = createClient(backend);
+            LOGGER.info("createPools: pool for backend '{}'", backend);
+            warmUp(backend, client);
+        }
+    }
+
     @Override
     public Router createRoutes() {
         final Router router = Router.router(vertx);
@@ -94,49 +128,93 @@ public class ProxyVerticle extends AbstractVerticle implements RouteProvider {
     protected void onFallback(RoutingContext rc) {
         final Mapping mapping = (Mapping) rc.data().get(Mapping.class.getName());
         LOGGER.debug("onFallback: error for mapping '{}'. Status code was {}", mapping.getName(), rc.request().response().getStatusCode(), rc);
-        if (!rc.request().response().closed()) {
-            rc.request().response().end();
+        final HttpServerResponse response = rc.request().response().getDelegate();
+        if (!response.closed() && !response.ended()) {
+            final Integer fallbackStatus = mapping.proxySettings().resilience().fallbackStatus();
+            if (fallbackStatus != null && !response.headWritten() && response.getStatusCode() != GATEWAY_TIMEOUT) {
+                response.headers().clear();
+                response.setStatusCode(fallbackStatus);
+            }
+            response.end();
         }
     }
 
     /**
-     * Factory method for the HttpProxy.
+     * Factory method for the HttpProxy, configured by the settings of the compiled mapping.
      * @param mapping the mapping for which a HttpProxy should be created
      * @return new instance of HttpProxy
      */
     protected HttpProxy createHttpProxy(Mapping mapping) {
         final HttpProxy httpProxy = new AirmockHttpProxy(xForwardedHost, xForwardedPort == null ? null : xForwardedPort.toString());
         httpProxy.backend(mapping.backendProtocol(), mapping.backendHost(), mapping.backendPort());
-        httpProxy.setClient(vertx.createHttpClient(withOptions(mapping)).getDelegate());
-        httpProxy.circuitBreaker(CircuitBreaker.create("backend", vertx, getHttpProxyCircuitBreakerOptions()));
+        if (mapping.backendInstances().size() > 1) {
+            httpProxy.loadBalancer(loadBalancer(mapping));
+        }
+        httpProxy.setClient(client(mapping));
+        final ProxySettings settings = mapping.proxySettings();
+        final ResiliencePolicy resilience = settings.resilience();
+        final ResilienceRegistry registry = ResilienceRegistry.shared(vertx.getDelegate());
+        httpProxy.circuitBreaker(CircuitBreaker.newInstance(registry.circuitBreaker(vertx.getDelegate(), mapping.getName(), resilience)));
+        httpProxy.timeouts(resilience);
+        if (resilience.retries() > 0) {
+            LOGGER.info("createHttpProxy: up to {} retries for mapping '{}'", resilience.retries(), mapping.getName());
+            httpProxy.retries(resilience.retries(), registry.retryBudget(mapping.getName(), resilience));
+        }
         httpProxy.backendUrlMapper(Function.identity());
+        httpProxy.watermarks(settings.highWatermark(), settings.lowWatermark());
+        if (settings.isCached()) {
+            LOGGER.info("createHttpProxy: response cache enabled for mapping '{}'", mapping.getName());
+            httpProxy.responseCache(ResponseCache.shared(vertx.getDelegate(), config));
+        }
+        final Compression compression = settings.compression();
+        if (compression.isEnabled()) {
+            LOGGER.info("createHttpProxy: response compression enabled for mapping '{}'", mapping.getName());
+            httpProxy.compression(compression);
+        }
+        if (settings.coalesceHeaders() != null) {
+            LOGGER.info("createHttpProxy: request coalescing enabled for mapping '{}'", mapping.getName());
+            httpProxy.requestCoalescer(new RequestCoalescer(settings.coalesceHeaders()));
+        }
         return httpProxy;
     }
 
-    /**
-     *
-     * @param mapping the mapping for which a HttpProxy should be created
-     * @return HttpClientOptions to be used
-     */
-    protected HttpClientOptions withOptions(Mapping mapping) {
-        return new HttpClientOptions().setMaxInitialLineLength(10000)
-                .setMaxHeaderSize(1024 * 20)
-                .setMaxPoolSize(10 /* = HttpClientOptions.DEFAULT_MAX_POOL_SIZE*/)
-                .setSsl(mapping.backendProtocol() != null && "https".equalsIgnoreCase(mapping.backendProtocol()))
-                .setTrustAll(true);
+    private LoadBalancer loadBalancer(Mapping mapping) {
+        final ProxySettings settings = mapping.proxySettings();
+        final LoadBalancer balancer = LoadBalancer.shared(vertx.getDelegate(), mapping.getName(), mapping.backendInstances(),
+            settings.balancing(), settings.balancingCookie(), settings.healthPolicy());
+        balancer.startHealthChecks(vertx.getDelegate(), client(mapping));
+        LOGGER.info("createHttpProxy: mapping '{}' balanced by {}", mapping.getName(), balancer);
+        return balancer;
     }
 
     /**
-     * Get circuitBreakerOptions for HtmlBackendVerticle.
+     * The shared client of the backend of the given mapping. Mappings with the same backend share the client and thus
+     * the connection pool.
      *
-     * @return CircuitBreakerOptions
+     * @param mapping the mapping
+     * @return client
      */
-    protected CircuitBreakerOptions getHttpProxyCircuitBreakerOptions() {
-        return new CircuitBreakerOptions()
-                .setMaxFailures(10) // number of failure before opening the circuit
-                .setTimeout(240 * 1000) // consider a failure if the operation does not succeed in milliseconds
-                .setFallbackOnFailure(true) // do we call the fallback on failure
-                .setResetTimeout(10 * 1000) // milliseconds spent in open state before attempting to re-try
-                ;
+    protected HttpClient client(Mapping mapping) {
+        final HttpClient client = clients.get(BackendPool.key(mapping.backendProtocol(), mapping.backendHost(), mapping.backendPort()));
+        if (client != null) {
+            return client;
+        }
+        return createClient(BackendPool.of(mapping.backendProtocol(), mapping.backendHost(), mapping.backendPort()));
+    }
+
+    private HttpClient createClient(BackendPool backend) {
+        return clients.computeIfAbsent(backend.key(), key -> vertx.getDelegate().createHttpClient(backend.clientOptions()));
+    }
+
+    private void warmUp(BackendPool backend, HttpClient client) {
+        final int connections = backend.warmUp();
+        for (BackendInstance instance : backend.instances()) {
+            for (int i = 0; i < connections; i++) {
+                client.request(HttpMethod.HEAD, instance.port(), instance.host(), "/")
+                    .handler(response -> response.endHandler(v -> LOGGER.debug("warmUp: connection to '{}' opened", instance)))
+                    .exceptionHandler(e -> LOGGER.warn("warmUp: could not connect to '{}', error: '{}'", instance, e.getMessage()))
+                    .end();
+            }
+        }
     }
 }
@@ -0,0 +1,144 @@
+package com.inventage.airmock.waf.cookiebag;
+
+/**
+ * Single pass tokenizer for the value of a Set-Cookie header (RFC 6265, section 5.2).
+ * <p>
+ * The tokenizer only records the positions of the cookie name, value and path attribute within the header; strings
+ * are created on demand. One instance can be reused for all Set-Cookie headers of a response:
+ * <pre>
+ * final SetCookie cookie = new SetCookie();
+ * for (String header : setCookieHeaders) {
+ *     if (cookie.parse(header)) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * Instances are not thread safe.
+ */
+public final class SetCookie {
+    private static final String PATH = "path";
+    private static final int NONE = -1;
+
+    private CharSequence header;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+    private int pathStart;
+    private int pathEnd;
+
+    /**
+     * Tokenize the given Set-Cookie header value.
+     *
+     * @param setCookie value of the Set-Cookie header
+     * @return false if the header does not contain a valid cookie
+     */
+    public boolean parse(CharSequence setCookie) {
+        header = setCookie;
+        pathStart = NONE;
+        pathEnd = NONE;
+        final int length = setCookie.length();
+        int pairEnd = indexOf(setCookie, ';', 0, length);
+        final int equals = indexOf(setCookie, '=', 0, pairEnd);
+        if (equals == pairEnd) {
+            return false;
+        }
+        nameStart = skipWhitespace(setCookie, 0, equals);
+        nameEnd = trimWhitespace(setCookie, nameStart, equals);
+        if (nameStart == nameEnd) {
+            return false;
+        }
+        valueStart = skipWhitespace(setCookie, equals + 1, pairEnd);
+        valueEnd = trimWhitespace(setCookie, valueStart, pairEnd);
+        if (valueEnd - valueStart >= 2 && setCookie.charAt(valueStart) == '"' && setCookie.charAt(valueEnd - 1) == '"') {
+            valueStart++;
+            valueEnd--;
+        }
+
+        while (pairEnd < length) {
+            final int attributeStart = pairEnd + 1;
+            pairEnd = indexOf(setCookie, ';', attributeStart, length);
+            final int attributeEquals = indexOf(setCookie, '=', attributeStart, pairEnd);
+            final int attributeNameStart = skipWhitespace(setCookie, attributeStart, attributeEquals);
+            final int attributeNameEnd = trimWhitespace(setCookie, attributeNameStart, attributeEquals);
+            if (attributeEquals < pairEnd && regionEqualsIgnoreCase(setCookie, attributeNameStart, attributeNameEnd, PATH)) {
+                pathStart = skipWhitespace(setCookie, attributeEquals + 1, pairEnd);
+                pathEnd = trimWhitespace(setCookie, pathStart, pairEnd);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare the name of the cookie without creating a string.
+     *
+     * @param name expected name
+     * @return boolean
+     */
+    public boolean nameEquals(String name) {
+        final int length = nameEnd - nameStart;
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (header.charAt(nameStart + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getName() {
+        return header.subSequence(nameStart, nameEnd).toString();
+    }
+
+    public String getValue() {
+        return header.subSequence(valueStart, valueEnd).toString();
+    }
+
+    /**
+     * The path attribute of the cookie.
+     *
+     * @return path or null if the cookie has no (or an empty) path attribute
+     */
+    public String getPath() {
+        return pathStart == pathEnd ? null : header.subSequence(pathStart, pathEnd).toString();
+    }
+
+    private static int indexOf(CharSequence chars, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (chars.charAt(i) == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static boolean regionEqualsIgnoreCase(CharSequence chars, int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (Character.toLowerCase(chars.charAt(i)) != Character.toLowerCase(expected.charAt(i - start))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(CharSequence chars, int from, int to) {
+        int i = from;
+        while (i < to && Character.isWhitespace(chars.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimWhitespace(CharSequence chars, int from, int to) {
+        int i = to;
+        while (i > from && Character.isWhitespace(chars.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+}
@@ -1,51 +1,70 @@
 package com.inventage.airmock.waf.headerbag;
 
-import io.vertx.core.json.JsonArray;
-import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Header Bag.
+ * <p>
+ * Immutable snapshot of the headers stored in a session, partitioned by mapping name. Headers without a mapping
+ * name are sent to the backends of all mappings, the others only to the backend of the mapping with that name.
+ * The snapshot is shared by all requests of the session until the headers change, so the lists returned by
+ * {@link #forMapping(String)} are used as they are and must not be copied.
  */
 public final class HeaderBag {
+    public static final HeaderBag EMPTY = new HeaderBag(0, Collections.emptyList());
 
-    public static final String NAME_FIELD = "name";
-    public static final String VALUE_FIELD = "value";
-    public static final String MAPPING_FIELD = "mapping";
+    private final int version;
+    private final List<HttpHeader> global;
+    private final Map<String, List<HttpHeader>> byMapping;
 
-    private HeaderBag() {
-    }
-
-    static JsonArray addOrReplace(HttpHeader newHeader, JsonArray headers) {
-        final JsonObject headerWithSameName = headers.stream()
-                .map(entry -> (JsonObject) entry)
-                .filter(header -> header.getString(NAME_FIELD).equals(newHeader.getName()))
-                .findFirst().orElse(null);
-        if (headerWithSameName == null) {
-            return add(newHeader, headers);
-        }
-        else {
-            return replace(headerWithSameName, newHeader, headers);
+    /**
+     * Create a snapshot of the given headers.
+     *
+     * @param version version of the session state the snapshot was taken from
+     * @param headers headers in the order they are sent
+     */
+    public HeaderBag(int version, Collection<HttpHeader> headers) {
+        this.version = version;
+        final List<HttpHeader> globalHeaders = new ArrayList<>();
+        final Map<String, List<HttpHeader>> mappingHeaders = new LinkedHashMap<>();
+        for (HttpHeader header : headers) {
+            if (header.getMappingName() == null) {
+                globalHeaders.add(header);
+                mappingHeaders.values().forEach(list -> list.add(header));
+            }
+            else {
+                mappingHeaders.computeIfAbsent(header.getMappingName(), name -> new ArrayList<>(globalHeaders)).add(header);
+            }
         }
+        this.global = Collections.unmodifiableList(globalHeaders);
+        mappingHeaders.replaceAll((name, list) -> Collections.unmodifiableList(list));
+        this.byMapping = mappingHeaders;
     }
 
-    private static JsonArray replace(JsonObject headerWithSameName, HttpHeader newHeader, JsonArray headers) {
-        headers.remove(headerWithSameName);
-        return add(newHeader, headers);
+    public int getVersion() {
+        return version;
     }
 
-    private static JsonArray add(HttpHeader newHeader, JsonArray headers) {
-        final JsonObject headerToAdd = new JsonObject();
-        headerToAdd.put(NAME_FIELD, newHeader.getName());
-        headerToAdd.put(VALUE_FIELD, newHeader.getValue());
-        headerToAdd.put(MAPPING_FIELD, newHeader.getMappingName());
-        headers.add(headerToAdd);
-        return headers;
+    /**
+     * The headers to send to the backend of the given mapping.
+     *
+     * @param mappingName name of the mapping
+     * @return unmodifiable list of headers
+     */
+    public List<HttpHeader> forMapping(String mappingName) {
+        final List<HttpHeader> headers = mappingName == null ? null : byMapping.get(mappingName);
+        return headers == null ? global : headers;
     }
 
     public static class HttpHeader {
-        private CharSequence name;
-        private String value;
-        private String mappingName;
+        private final CharSequence name;
+        private final String value;
+        private final String mappingName;
 
         public HttpHeader(CharSequence name, String value) {
             this(name, value, null);
@@ -1,26 +1,19 @@
 package com.inventage.airmock.waf.headerbag;
 
+import com.inventage.airmock.waf.mapping.Mapping;
+import com.inventage.airmock.waf.session.AirmockSessionState;
 import io.vertx.core.http.HttpClientRequest;
-import io.vertx.core.json.JsonArray;
-import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.reactivex.ext.web.RoutingContext;
-import io.vertx.reactivex.ext.web.Session;
 
 import java.util.Arrays;
 import java.util.List;
 
-import static com.inventage.airmock.kernel.route.RoutingContextUtils.session;
-import static com.inventage.airmock.waf.headerbag.HeaderBag.NAME_FIELD;
-import static com.inventage.airmock.waf.headerbag.HeaderBag.VALUE_FIELD;
-
 /**
  * Header Manager.
  */
 public final class Headermanager {
-    public static final String HEADER_BAG = "HEADER_BAG";
-
     private static final String HEADERS_FOR_REQUEST = "HeadersForRequest";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Headermanager.class);
@@ -35,36 +28,27 @@ public final class Headermanager {
      * @param backendRequest backendRequest
      */
     public static void setHeadersToRequest(RoutingContext routingContext, HttpClientRequest backendRequest) {
-        final JsonArray headers = routingContext.get(HEADERS_FOR_REQUEST);
+        final List<HeaderBag.HttpHeader> headers = routingContext.get(HEADERS_FOR_REQUEST);
         if (headers != null && !headers.isEmpty()) {
-            LOGGER.debug("setHeadersToRequest: header '{}' for path '{}'", headers, routingContext.request().path(), routingContext);
-            headers.stream()
-                .map(entry -> (JsonObject) entry)
-                // ToDo: if the header contains a mapping it should be used for filtering
-                .forEach(headerEntry -> backendRequest.putHeader(headerEntry.getString(NAME_FIELD), headerEntry.getString(VALUE_FIELD))
-                );
+            LOGGER.debug("setHeadersToRequest: {} header(s) for path '{}'", headers.size(), routingContext.request().path(), routingContext);
+            for (HeaderBag.HttpHeader header : headers) {
+                backendRequest.putHeader(header.getName(), header.getValue());
+            }
         }
     }
 
 
     /**
-     * Put the headers into the routing context map at the key HEADERS_FOR_REQUEST.
-     *
-     * @param routingContext where the headers are put
-     */
-    public static void prepareHeaderForRequest(RoutingContext routingContext) {
-        prepareHeadersForRequest(routingContext);
-    }
-
-    /**
-     * Put the headers into the routing context map at the key HEADERS_FOR_REQUEST.
+     * Put the headers for the given mapping into the routing context map at the key HEADERS_FOR_REQUEST.
+     * The headers are taken from the snapshot of the session and are not copied.
      *
      * @param routingContext where the headers are put
+     * @param mapping        the mapping of the request
      */
-    private static void prepareHeadersForRequest(RoutingContext routingContext) {
-        final JsonArray headerBag = session(routingContext).get(HEADER_BAG);
-        if (headerBag != null) {
-            routingContext.put(HEADERS_FOR_REQUEST, headerBag.copy());
+    public static void prepareHeaderForRequest(RoutingContext routingContext, Mapping mapping) {
+        final AirmockSessionState state = AirmockSessionState.peek(routingContext);
+        if (state != null) {
+            routingContext.put(HEADERS_FOR_REQUEST, state.getHeaderSnapshot().forMapping(mapping.getName()));
         }
     }
 
@@ -90,14 +74,6 @@ public final class Headermanager {
 
     private static void addHeader(HeaderBag.HttpHeader header, RoutingContext routingContext) {
         LOGGER.info("addHeader: header '{}'", header.getName(), routingContext);
-        final Session session = session(routingContext);
-        JsonArray headerBag = session.get(HEADER_BAG);
-        if (headerBag == null) {
-            headerBag = new JsonArray();
-        }
-
-        headerBag = HeaderBag.addOrReplace(header, headerBag);
-        session.remove(HEADER_BAG);
-        session.put(HEADER_BAG, headerBag);
+        AirmockSessionState.of(routingContext).putHeader(header);
     }
 }
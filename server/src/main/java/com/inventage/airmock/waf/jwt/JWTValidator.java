@@ -1,72 +1,122 @@
 package com.inventage.airmock.waf.jwt;
 
-import com.auth0.jwk.Jwk;
-import com.auth0.jwk.JwkException;
-import com.auth0.jwk.JwkProvider;
-import com.auth0.jwk.JwkProviderBuilder;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.auth0.jwt.interfaces.Verification;
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import io.reactivex.Single;
+import io.vertx.core.Vertx;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.Shareable;
 import io.vertx.reactivex.ext.web.Cookie;
 
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+import java.util.Map;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+/**
+ * Verifies JWTs signed with RS256 by a key of the key set at the certificate URL. Tokens verified before are remembered
+ * until they expire, so that repeated requests with the same token skip the signature verification.
+ */
+public class JWTValidator implements Shareable {
+    public static final String JWT_CACHE_SIZE = "jwtCacheSize";
 
-public class JWTValidator {
     private static final Logger LOGGER = LoggerFactory.getLogger(JWTValidator.class);
 
-    private String certificateUrl;
+    private static final String SHARED_MAP = "airmock.jwtValidators";
+    private static final int DEFAULT_CACHE_SIZE = 10000;
 
-    public JWTValidator(String certificateUrl) {
-        this.certificateUrl = certificateUrl;
+    private final JwksKeyProvider keyProvider;
+    private final VerifiedTokens verifiedTokens;
+
+    public JWTValidator(JwksKeyProvider keyProvider, int cacheSize) {
+        this.keyProvider = keyProvider;
+        this.verifiedTokens = new VerifiedTokens(cacheSize);
+    }
+
+    /**
+     * The validator of the given certificate URL, shared by all verticles of the vert.x instance; the first call creates
+     * it with the settings of its config.
+     *
+     * @param vertx          vertx
+     * @param certificateUrl URL of the key set
+     * @param config         config of the mapping, may be null
+     * @return validator
+     */
+    public static JWTValidator shared(Vertx vertx, String certificateUrl, Map<String, String> config) {
+        final Map<String, String> settings = config == null ? Collections.emptyMap() : config;
+        return vertx.sharedData().<String, JWTValidator>getLocalMap(SHARED_MAP).computeIfAbsent(certificateUrl, url -> {
+            return new JWTValidator(JwksKeyProvider.shared(vertx, url, settings),
+                ConfigUtils.getInteger(settings, JWT_CACHE_SIZE, DEFAULT_CACHE_SIZE));
+        });
     }
 
     /**
      * Checks the validity of a jwt cookie.
      * @param jwtCoookie The cookie that contains the encoded jwt.
      * @param audience The audience to check for. Can be null.
-     * @return Whether or not the cookie is valid according to the certificate url given in the constructor. If the
-     * given jwtCookie is null, false will be returned.
+     * @return Whether or not the cookie is valid according to the certificate url of this validator. If the given
+     * jwtCookie is null, false will be returned.
      */
-    public boolean isValidJWT(Cookie jwtCoookie, String audience) {
+    public Single<Boolean> isValidJWT(Cookie jwtCoookie, String audience) {
         if (jwtCoookie == null) {
-            return false;
+            return Single.just(false);
         }
 
         final String encodedJWT = jwtCoookie.getValue();
+        if (verifiedTokens.contains(encodedJWT, audience, System.currentTimeMillis())) {
+            LOGGER.debug("JWT was verified before");
+            return Single.just(true);
+        }
+        final DecodedJWT decodedJWT;
         try {
-            final DecodedJWT decodedJWT = JWT.decode(encodedJWT);
-            final JWTVerifier jwtVerifier = getVerifier(decodedJWT, audience);
-            jwtVerifier.verify(encodedJWT);
+            decodedJWT = JWT.decode(encodedJWT);
         }
         catch (Exception e) {
-            LOGGER.warn("Exception while verifying jwt: " + e.getMessage());
-            return false;
+            LOGGER.warn("Exception while decoding jwt: " + e.getMessage());
+            return Single.just(false);
         }
-        LOGGER.info("JWT was successfully verified");
-        return true;
+        return Single.<RSAPublicKey>create(emitter -> keyProvider.key(decodedJWT.getKeyId(), ar -> {
+            if (ar.succeeded()) {
+                emitter.onSuccess(ar.result());
+            }
+            else {
+                emitter.onError(ar.cause());
+            }
+        }))
+            .map(publicKey -> {
+                getVerifier(publicKey, audience).verify(encodedJWT);
+                if (decodedJWT.getExpiresAt() != null) {
+                    verifiedTokens.put(encodedJWT, audience, decodedJWT.getExpiresAt().getTime());
+                }
+                LOGGER.info("JWT was successfully verified");
+                return true;
+            })
+            .onErrorReturn(e -> {
+                LOGGER.warn("Exception while verifying jwt: " + e.getMessage());
+                return false;
+            });
     }
 
-    private JWTVerifier getVerifier(DecodedJWT decodedJWT, String audience) throws JwkException, MalformedURLException {
-        final Verification verification = JWT.require(Algorithm.RSA256(getPublicKey(decodedJWT), null));
+    /**
+     * Number of verified tokens remembered.
+     *
+     * @return tokens
+     */
+    int verifiedTokens() {
+        return verifiedTokens.size();
+    }
+
+    private JWTVerifier getVerifier(RSAPublicKey publicKey, String audience) {
+        final Verification verification = JWT.require(Algorithm.RSA256(publicKey, null));
         if (isNotBlank(audience)) {
             verification.withAudience(audience);
         }
         return verification.build();
     }
-
-    private RSAPublicKey getPublicKey(DecodedJWT decodedJWT) throws JwkException, MalformedURLException {
-        final URL certUrl = new URL(certificateUrl);
-        final JwkProvider jwkProvider = new JwkProviderBuilder(certUrl).build();
-        final Jwk jwk = jwkProvider.get(decodedJWT.getKeyId());
-        return (RSAPublicKey) jwk.getPublicKey();
-    }
 }
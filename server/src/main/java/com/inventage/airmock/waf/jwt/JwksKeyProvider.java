@@ -0,0 +1,205 @@
+package com.inventage.airmock.waf.jwt;
+
+import com.auth0.jwk.InvalidPublicKeyException;
+import com.auth0.jwk.Jwk;
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The public keys of a JSON Web Key Set, fetched from its URL without blocking and kept in memory, shared by all
+ * verticles of a vert.x instance.
+ * <p>
+ * The keys are fetched on first use and refreshed every {@link #JWKS_REFRESH_INTERVAL} seconds. A key id not in the set
+ * fetches it again, e.g. after a key rotation, but at most once every {@link #JWKS_REFETCH_INTERVAL} seconds, so tokens
+ * with made up key ids do not hammer the server. Requests arriving while the set is fetched wait for the same fetch.
+ * If a fetch fails, the keys fetched before are kept.
+ */
+public final class JwksKeyProvider implements Shareable {
+    public static final String JWKS_REFRESH_INTERVAL = "jwksRefreshInterval";
+    public static final String JWKS_REFETCH_INTERVAL = "jwksRefetchInterval";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwksKeyProvider.class);
+
+    private static final String SHARED_MAP = "airmock.jwks";
+    private static final int DEFAULT_REFRESH_SECONDS = 600;
+    private static final int DEFAULT_REFETCH_SECONDS = 30;
+    private static final int FETCH_TIMEOUT_MILLIS = 5000;
+    private static final int OK = 200;
+    private static final String NO_KEY_ID = "";
+
+    private final Vertx vertx;
+    private final String certificateUrl;
+    private final long refreshIntervalMillis;
+    private final long refetchIntervalNanos;
+    private final WebClient client;
+
+    private volatile Map<String, RSAPublicKey> keys = Collections.emptyMap();
+    private List<Handler<AsyncResult<Void>>> waiting = new ArrayList<>();
+    private boolean fetching;
+    private long fetchedAt;
+    private long refreshTimer = -1;
+    private long fetches;
+
+    JwksKeyProvider(Vertx vertx, String certificateUrl, Map<String, String> config) {
+        this.vertx = vertx;
+        this.certificateUrl = certificateUrl;
+        this.refreshIntervalMillis = TimeUnit.SECONDS.toMillis(ConfigUtils.getInteger(config, JWKS_REFRESH_INTERVAL, DEFAULT_REFRESH_SECONDS));
+        this.refetchIntervalNanos = TimeUnit.SECONDS.toNanos(ConfigUtils.getInteger(config, JWKS_REFETCH_INTERVAL, DEFAULT_REFETCH_SECONDS));
+        this.client = WebClient.create(vertx, new WebClientOptions().setUserAgent("Airmock/1.0.0"));
+    }
+
+    /**
+     * The provider of the given URL; the first call creates it with the settings of its config.
+     *
+     * @param vertx          vertx
+     * @param certificateUrl URL of the key set
+     * @param config         config of the mapping, may be null
+     * @return provider
+     */
+    public static JwksKeyProvider shared(Vertx vertx, String certificateUrl, Map<String, String> config) {
+        return vertx.sharedData().<String, JwksKeyProvider>getLocalMap(SHARED_MAP)
+            .computeIfAbsent(certificateUrl, url -> new JwksKeyProvider(vertx, url, config == null ? Collections.emptyMap() : config));
+    }
+
+    /**
+     * The key with the given id. The handler is called right away if the key is known, otherwise on the context of the
+     * caller once the key set was fetched again.
+     *
+     * @param keyId   key id of a token, null if the token has none, which matches a key set with a single key
+     * @param handler handler
+     */
+    public void key(String keyId, Handler<AsyncResult<RSAPublicKey>> handler) {
+        final RSAPublicKey known = lookup(keyId);
+        if (known != null) {
+            handler.handle(Future.succeededFuture(known));
+            return;
+        }
+        final Context context = vertx.getOrCreateContext();
+        final boolean wait;
+        final boolean fetch;
+        synchronized (this) {
+            fetch = !fetching && (fetches == 0 || System.nanoTime() - fetchedAt >= refetchIntervalNanos);
+            wait = fetch || fetching;
+            if (wait) {
+                waiting.add(done -> context.runOnContext(v -> {
+                    final RSAPublicKey key = lookup(keyId);
+                    handler.handle(key != null ? Future.succeededFuture(key) : Future.failedFuture(unknown(keyId)));
+                }));
+            }
+        }
+        if (!wait) {
+            // fetched recently: the key id is unknown to the server as well
+            handler.handle(Future.failedFuture(unknown(keyId)));
+            return;
+        }
+        if (fetch) {
+            fetch();
+        }
+        startRefresh();
+    }
+
+    /**
+     * Number of fetches of the key set so far.
+     *
+     * @return fetches
+     */
+    public synchronized long fetches() {
+        return fetches;
+    }
+
+    private IllegalArgumentException unknown(String keyId) {
+        return new IllegalArgumentException("no key with id '" + keyId + "' at " + certificateUrl);
+    }
+
+    private RSAPublicKey lookup(String keyId) {
+        final Map<String, RSAPublicKey> current = keys;
+        if (keyId == null) {
+            return current.size() == 1 ? current.values().iterator().next() : current.get(NO_KEY_ID);
+        }
+        return current.get(keyId);
+    }
+
+    private synchronized void startRefresh() {
+        if (refreshTimer < 0 && refreshIntervalMillis > 0) {
+            refreshTimer = vertx.setPeriodic(refreshIntervalMillis, id -> {
+                synchronized (this) {
+                    if (fetching) {
+                        return;
+                    }
+                }
+                fetch();
+            });
+        }
+    }
+
+    private void fetch() {
+        synchronized (this) {
+            fetching = true;
+            fetchedAt = System.nanoTime();
+            fetches++;
+        }
+        LOGGER.debug("fetch: key set from '{}'", certificateUrl);
+        client.getAbs(certificateUrl).timeout(FETCH_TIMEOUT_MILLIS).send(ar -> {
+            if (ar.succeeded() && ar.result().statusCode() == OK) {
+                try {
+                    keys = parse(ar.result());
+                    LOGGER.info("fetch: keys {} from '{}'", keys.keySet(), certificateUrl);
+                }
+                catch (RuntimeException e) {
+                    LOGGER.warn("fetch: invalid key set from '{}', keeping the previous keys, error: '{}'", certificateUrl, e.getMessage());
+                }
+            }
+            else {
+                LOGGER.warn("fetch: could not fetch the key set from '{}', keeping the previous keys, error: '{}'", certificateUrl,
+                    ar.succeeded() ? "status " + ar.result().statusCode() : ar.cause().getMessage());
+            }
+            final List<Handler<AsyncResult<Void>>> done;
+            synchronized (this) {
+                fetching = false;
+                done = waiting;
+                waiting = new ArrayList<>();
+            }
+            done.forEach(handler -> handler.handle(Future.succeededFuture()));
+        });
+    }
+
+    private Map<String, RSAPublicKey> parse(HttpResponse<Buffer> response) {
+        final Map<String, RSAPublicKey> parsed = new HashMap<>();
+        final JsonArray keyArray = response.bodyAsJsonObject().getJsonArray("keys");
+        for (Object entry : keyArray) {
+            final Jwk jwk = Jwk.fromValues(((JsonObject) entry).getMap());
+            try {
+                final PublicKey publicKey = jwk.getPublicKey();
+                if (publicKey instanceof RSAPublicKey) {
+                    parsed.put(jwk.getId() == null ? NO_KEY_ID : jwk.getId(), (RSAPublicKey) publicKey);
+                }
+            }
+            catch (InvalidPublicKeyException e) {
+                LOGGER.debug("parse: key '{}' skipped, error: '{}'", jwk.getId(), e.getMessage());
+            }
+        }
+        return Collections.unmodifiableMap(parsed);
+    }
+}
@@ -0,0 +1,78 @@
+package com.inventage.airmock.waf.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tokens whose signature was verified, by the hash of the token and the audience, until they expire. The least recently
+ * used token is evicted if the cache is full.
+ */
+final class VerifiedTokens {
+    private final int maxEntries;
+    private final Map<String, Long> expiries;
+
+    VerifiedTokens(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.expiries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > VerifiedTokens.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Whether the token was verified for the audience and has not expired yet.
+     *
+     * @param token    encoded token
+     * @param audience audience, may be null
+     * @param now      current time in milliseconds
+     * @return boolean
+     */
+    synchronized boolean contains(String token, String audience, long now) {
+        if (maxEntries <= 0) {
+            return false;
+        }
+        final String key = key(token, audience);
+        final Long expiresAt = expiries.get(key);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (expiresAt <= now) {
+            expiries.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remember a verified token.
+     *
+     * @param token     encoded token
+     * @param audience  audience, may be null
+     * @param expiresAt expiry of the token in milliseconds
+     */
+    synchronized void put(String token, String audience, long expiresAt) {
+        if (maxEntries > 0) {
+            expiries.put(key(token, audience), expiresAt);
+        }
+    }
+
+    synchronized int size() {
+        return expiries.size();
+    }
+
+    private static String key(String token, String audience) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash) + (audience == null ? "" : " " + audience);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,41 +1,55 @@
 package com.inventage.airmock.waf.mapping;
 
+import com.inventage.airmock.kernel.proxy.balancer.BackendInstance;
 import com.inventage.airmock.kernel.util.ConfigUtils;
 import com.inventage.airmock.waf.AirmockHandler;
+import com.inventage.airmock.waf.backend.ProxySettings;
+import com.inventage.airmock.waf.session.AirmockSessionState;
+import com.inventage.airmock.waf.session.RoleDictionary;
 import io.reactivex.Single;
+import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
-import io.vertx.core.json.JsonArray;
-import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.reactivex.ext.web.RoutingContext;
 import io.vertx.reactivex.ext.web.Session;
 
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.inventage.airmock.kernel.route.RoutingContextUtils.session;
-import static com.inventage.airmock.waf.AirmockHandler.WAF_ROLES;
 
 /**
  * The default mapping used in the airmock WAF.
  */
 public class DefaultMapping implements Mapping {
+    public static final String LAST_ACCESS_INTERVAL = AirmockHandler.PREFIX + "last-access-interval";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultMapping.class);
 
+    private static final int DEFAULT_LAST_ACCESS_INTERVAL_SECONDS = 10;
+    private static final int MAX_PORT = 65535;
+
     private ConfigUtils configUtils;
     private String name;
     private String contextRoot;
     private String backendProtocol;
     private String backendHost;
     private int backendPort;
-    private List<String> restrictedToRoles = new ArrayList<>();
+    private List<BackendInstance> backendInstances = Collections.emptyList();
+    private List<String> restrictedToRoles = Collections.emptyList();
+    private BitSet requiredRoles = new BitSet();
+    private long lastAccessIntervalMillis;
     private String accessDeniedUrl;
     private List<String> headers;
     private Map<String, String> config;
+    private ProxySettings proxySettings = ProxySettings.DEFAULT;
 
     /**
      * Initializes the Mapping with its configuration.
@@ -48,6 +62,7 @@ public class DefaultMapping implements Mapping {
      * @param backendProtocol The protocol to the backend.
      * @param backendHost The host of the backend.
      * @param backendPort The port of the backend.
+     * @param backendInstances The instances of the backend, if it runs on more than one. May be null or empty.
      * @param config The additional configurations.
      */
     public void init(ConfigUtils configUtils,
@@ -59,6 +74,7 @@ public class DefaultMapping implements Mapping {
                      String backendProtocol,
                      String backendHost,
                      int backendPort,
+                     List<BackendInstance> backendInstances,
                      Map<String, String> config) {
         this.configUtils = configUtils;
         this.name = name;
@@ -66,10 +82,56 @@ public class DefaultMapping implements Mapping {
         this.backendProtocol = backendProtocol;
         this.backendHost = backendHost;
         this.backendPort = backendPort;
-        this.restrictedToRoles.addAll(Arrays.asList(restrictedToRoles));
+        this.backendInstances = backendInstances == null || backendInstances.isEmpty()
+            ? Collections.singletonList(new BackendInstance(backendHost, backendPort, BackendInstance.DEFAULT_WEIGHT))
+            : Collections.unmodifiableList(new ArrayList<>(backendInstances));
+        this.restrictedToRoles = Collections.unmodifiableList(Arrays.asList(restrictedToRoles.clone()));
+        this.requiredRoles = RoleDictionary.internAll(this.restrictedToRoles);
+        this.lastAccessIntervalMillis = TimeUnit.SECONDS.toMillis(lastAccessIntervalSeconds(configUtils));
         this.accessDeniedUrl = accessDeniedUrl;
-        this.headers = headers;
-        this.config = config;
+        this.headers = headers == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(headers));
+        this.config = config == null ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(config));
+    }
+
+    /**
+     * Compiles the initialized mapping before it serves any request: resolves and validates its configuration once and
+     * creates the clients its requests need, so that a misconfigured mapping fails at startup. The compiled mapping is
+     * not modified anymore. Subclasses call this method first.
+     * <p>
+     * A mapping needs a name and a context root starting with "/". A mapping without backend has an empty host and port
+     * 0, otherwise the host and every instance of the backend need a host and a port between 1 and 65535. The settings
+     * of the proxy to the backend are read from the config.
+     *
+     * @param vertx vertx
+     * @throws IllegalArgumentException if the configuration of the mapping is not valid
+     */
+    public void compile(Vertx vertx) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("mapping with contextRoot '" + contextRoot + "': missing name");
+        }
+        if (contextRoot == null || !contextRoot.startsWith("/")) {
+            throw new IllegalArgumentException("mapping '" + name + "': contextRoot must start with '/', was '" + contextRoot + "'");
+        }
+        if (!"".equals(backendHost) || backendPort != 0) {
+            for (BackendInstance instance : backendInstances) {
+                validateBackend(instance.host(), instance.port());
+            }
+        }
+        try {
+            proxySettings = ProxySettings.of(config);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("mapping '" + name + "': " + e.getMessage(), e);
+        }
+    }
+
+    private void validateBackend(String host, int port) {
+        if (host == null || host.isEmpty()) {
+            throw new IllegalArgumentException("mapping '" + name + "': missing backend host");
+        }
+        if (port < 1 || port > MAX_PORT) {
+            throw new IllegalArgumentException("mapping '" + name + "': invalid port " + port + " of backend host '" + host + "'");
+        }
     }
 
     @Override
@@ -145,14 +207,31 @@ public class DefaultMapping implements Mapping {
     }
 
 
-    private boolean lastAccess(Session session) {
-        session.put(getContextRoot(), Instant.now());
+    private static int lastAccessIntervalSeconds(ConfigUtils configUtils) {
+        final Integer interval = configUtils == null ? null : configUtils.getInteger(LAST_ACCESS_INTERVAL);
+        return interval == null ? DEFAULT_LAST_ACCESS_INTERVAL_SECONDS : Math.max(0, interval);
+    }
+
+    /**
+     * Records the last access to this mapping in the session. The timestamp is only refreshed once per configured
+     * interval, so that not every request modifies the session.
+     *
+     * @param session session
+     * @param now current time
+     * @return always true
+     */
+    private boolean lastAccess(Session session, long now) {
+        final Long lastAccess = session.get(getContextRoot());
+        if (lastAccess == null || now - lastAccess >= lastAccessIntervalMillis) {
+            session.put(getContextRoot(), now);
+        }
         return true;
     }
 
     /**
      * Checks if the current routingContext contains at least one of the necessary roles.
-     * The necessary roles are stored in field restrictedRoles.
+     * Expired roles are removed from the session first, the idle timeout of the used roles is restarted.
+     * The necessary roles are stored as a bit set in field requiredRoles.
      * @param routingContext The routingContext to check.
      * @return Whether or not the routing context has at least one restricted role.
      * If restrictedRoles is empty, true is returned.
@@ -163,19 +242,17 @@ public class DefaultMapping implements Mapping {
         }
         else {
             final Session session = session(routingContext);
-            session.id();
-            boolean hasOneRequiredRole = false;
-            final JsonArray roles = session.get(WAF_ROLES);
-            if (roles != null) {
-                hasOneRequiredRole = roles.stream()
-                    .map(role -> (JsonObject) role)
-                    .map(role -> role.getString("name"))
-                    .filter(name -> restrictedToRoles.contains(name))
-                    .map(name -> lastAccess(session))
-                    .findFirst().orElse(false);
+            final AirmockSessionState state = AirmockSessionState.peek(routingContext);
+            if (state == null) {
+                return false;
             }
-
-            return hasOneRequiredRole;
+            final long now = System.currentTimeMillis();
+            state.expireRoles(now);
+            if (!state.hasAnyRole(requiredRoles)) {
+                return false;
+            }
+            state.touchRoles(requiredRoles, now);
+            return lastAccess(session, now);
         }
     }
 
@@ -187,10 +264,21 @@ public class DefaultMapping implements Mapping {
         return headers;
     }
 
+    @Override
+    public List<BackendInstance> backendInstances() {
+        return backendInstances;
+    }
+
+    @Override
     public Map<String, String> getConfig() {
         return config;
     }
 
+    @Override
+    public ProxySettings proxySettings() {
+        return proxySettings;
+    }
+
     public ConfigUtils getConfigUtils() {
         return configUtils;
     }
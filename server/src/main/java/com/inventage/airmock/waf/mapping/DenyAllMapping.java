@@ -1,10 +1,16 @@
 package com.inventage.airmock.waf.mapping;
 
+import com.inventage.airmock.kernel.proxy.balancer.BackendInstance;
 import com.inventage.airmock.waf.AirmockHandler;
+import com.inventage.airmock.waf.backend.ProxySettings;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.reactivex.Single;
 import io.vertx.reactivex.ext.web.RoutingContext;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 public class DenyAllMapping implements Mapping {
     @Override
     public String getName() {
@@ -51,4 +57,19 @@ public class DenyAllMapping implements Mapping {
         return 0;
     }
 
+    @Override
+    public List<BackendInstance> backendInstances() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Map<String, String> getConfig() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public ProxySettings proxySettings() {
+        return ProxySettings.DEFAULT;
+    }
+
 }
@@ -1,9 +1,14 @@
 package com.inventage.airmock.waf.mapping;
 
+import com.inventage.airmock.kernel.proxy.balancer.BackendInstance;
 import com.inventage.airmock.waf.AirmockHandler;
+import com.inventage.airmock.waf.backend.ProxySettings;
 import io.reactivex.Single;
 import io.vertx.reactivex.ext.web.RoutingContext;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Class that represents a WAF Mapping.
  */
@@ -75,4 +80,25 @@ public interface Mapping {
      */
     int backendPort();
 
+    /**
+     * Instances of the backend to spread the requests over.
+     *
+     * @return instances, at least the one with backend host and port
+     */
+    List<BackendInstance> backendInstances();
+
+    /**
+     * Additional configuration of this mapping.
+     *
+     * @return config entries
+     */
+    Map<String, String> getConfig();
+
+    /**
+     * Settings of the proxy to the backend, read from the config when the mapping is compiled.
+     *
+     * @return settings
+     */
+    ProxySettings proxySettings();
+
 }
@@ -0,0 +1,151 @@
+package com.inventage.airmock.waf.mapping;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable routing table for resolving the mapping of a request path.
+ * <p>
+ * The context roots of all mappings are compiled into a character trie when the table is built. A lookup walks the
+ * request path once and returns the mapping with the longest context root being a prefix of the path. If no mapping
+ * matches, the shared {@link #DENY_ALL} mapping is returned. Lookups do not allocate.
+ */
+public final class MappingTable {
+    public static final Mapping DENY_ALL = new DenyAllMapping();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappingTable.class);
+
+    private final Node root;
+
+    private MappingTable(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Build the routing table for the given mappings.
+     * Mappings with the same context root are reported and only the first one (in definition order) is used.
+     * Mappings which were shadowed by a preceding, more generic context root are reported too, because with
+     * longest prefix matching they now take precedence.
+     *
+     * @param mappings the mappings in definition order
+     * @return the routing table
+     */
+    public static MappingTable build(List<Mapping> mappings) {
+        final Builder builder = new Builder();
+        for (int i = 0; i < mappings.size(); i++) {
+            final Mapping mapping = mappings.get(i);
+            final String contextRoot = mapping.getContextRoot();
+            if (contextRoot == null) {
+                LOGGER.warn("build: mapping '{}' has no contextRoot and is ignored", mapping.getName());
+                continue;
+            }
+            reportShadowing(mapping, mappings.subList(0, i));
+            builder.add(contextRoot, mapping);
+        }
+        return new MappingTable(builder.root.compile());
+    }
+
+    private static void reportShadowing(Mapping mapping, List<Mapping> predecessors) {
+        for (Mapping predecessor : predecessors) {
+            final String predecessorRoot = predecessor.getContextRoot();
+            if (predecessorRoot == null) {
+                continue;
+            }
+            if (predecessorRoot.equals(mapping.getContextRoot())) {
+                LOGGER.warn("build: mapping '{}' is ambiguous with mapping '{}' for contextRoot '{}' and is ignored",
+                    mapping.getName(), predecessor.getName(), predecessorRoot);
+            }
+            else if (mapping.getContextRoot().startsWith(predecessorRoot)) {
+                LOGGER.warn("build: mapping '{}' with contextRoot '{}' is defined after the more generic mapping '{}' with contextRoot '{}'; "
+                    + "the longest matching contextRoot wins", mapping.getName(), mapping.getContextRoot(), predecessor.getName(), predecessorRoot);
+            }
+        }
+    }
+
+    /**
+     * Resolve the mapping with the longest context root matching the given path.
+     *
+     * @param path request path
+     * @return the matching mapping or {@link #DENY_ALL}
+     */
+    public Mapping lookup(String path) {
+        if (path == null) {
+            return DENY_ALL;
+        }
+        Mapping result = root.mapping;
+        Node node = root;
+        for (int i = 0; i < path.length(); i++) {
+            node = node.child(path.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.mapping != null) {
+                result = node.mapping;
+            }
+        }
+        return result == null ? DENY_ALL : result;
+    }
+
+    /**
+     * Compiled trie node: the keys are sorted to allow a binary search for the child of a character.
+     */
+    private static final class Node {
+        private final char[] keys;
+        private final Node[] children;
+        private final Mapping mapping;
+
+        Node(char[] keys, Node[] children, Mapping mapping) {
+            this.keys = keys;
+            this.children = children;
+            this.mapping = mapping;
+        }
+
+        Node child(char c) {
+            final int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+    }
+
+    /**
+     * Mutable trie used while the table is being built.
+     */
+    private static final class Builder {
+        private final BuilderNode root = new BuilderNode();
+
+        void add(String contextRoot, Mapping mapping) {
+            BuilderNode node = root;
+            for (int i = 0; i < contextRoot.length(); i++) {
+                node = node.childFor(contextRoot.charAt(i));
+            }
+            if (node.mapping == null) {
+                node.mapping = mapping;
+            }
+        }
+    }
+
+    private static final class BuilderNode {
+        private final TreeMap<Character, BuilderNode> children = new TreeMap<>();
+        private Mapping mapping;
+
+        BuilderNode childFor(char c) {
+            return children.computeIfAbsent(c, key -> new BuilderNode());
+        }
+
+        Node compile() {
+            final char[] keys = new char[children.size()];
+            final Node[] compiled = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, BuilderNode> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                compiled[i] = entry.getValue().compile();
+                i++;
+            }
+            return new Node(keys, compiled, mapping);
+        }
+    }
+}
@@ -1,28 +1,46 @@
 package com.inventage.airmock.waf.mapping;
 
-import com.inventage.airmock.kernel.route.RoutingContextUtils;
 import com.inventage.airmock.waf.AirmockHandler;
-import com.inventage.airmock.waf.cookiebag.Cookiemanager;
+import com.inventage.airmock.waf.oneshot.OneShotClient;
+import com.inventage.airmock.waf.session.AirmockSessionState;
 import io.reactivex.Single;
+import io.vertx.core.Vertx;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import io.vertx.ext.web.client.WebClientOptions;
 import io.vertx.reactivex.core.MultiMap;
-import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.core.RxHelper;
 import io.vertx.reactivex.ext.web.RoutingContext;
-import io.vertx.reactivex.ext.web.client.HttpRequest;
-import io.vertx.reactivex.ext.web.client.HttpResponse;
-import io.vertx.reactivex.ext.web.client.WebClient;
+import io.vertx.reactivex.ext.web.Session;
 
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
-
-import static com.inventage.airmock.waf.AirmockHandler.WAF_ROLES;
+import java.net.MalformedURLException;
+import java.net.URL;
 
 
 public class OneShotMapping extends DefaultMapping {
     private static final Logger LOGGER = LoggerFactory.getLogger(OneShotMapping.class);
 
+    private OneShotClient oneShotClient;
+    private MultiMap oneShotBody;
+
+    @Override
+    public void compile(Vertx vertx) {
+        super.compile(vertx);
+        if (getAccessDeniedUrl() == null) {
+            throw new IllegalArgumentException("mapping '" + getName() + "': missing deniedAccessUrl");
+        }
+        try {
+            new URL(getAccessDeniedUrl());
+        }
+        catch (MalformedURLException e) {
+            throw new IllegalArgumentException("mapping '" + getName() + "': invalid deniedAccessUrl '" + getAccessDeniedUrl() + "'", e);
+        }
+        oneShotClient = OneShotClient.shared(io.vertx.reactivex.core.Vertx.newInstance(vertx), getName(), getAccessDeniedUrl(), getConfig());
+        // only read by the requests
+        oneShotBody = MultiMap.caseInsensitiveMultiMap()
+                .set("grant_type", "password")
+                .set("client_id", getName());
+    }
+
     @Override
     public Single<Boolean> canProceed(RoutingContext routingContext, AirmockHandler airmockHandler) {
         if (sessionContainsOneRestrictedRole(routingContext)) {
@@ -33,61 +51,47 @@ public class OneShotMapping extends DefaultMapping {
 
     private Single<Boolean> oneshot(RoutingContext routingContext, AirmockHandler airmockHandler) {
         LOGGER.info("oneshot: on path '{}'", routingContext.request().path(), routingContext);
-        final WebClientOptions options = new WebClientOptions().setUserAgent("Airmock/1.0.0");
-        options.setKeepAlive(false);
-        final WebClient client = WebClient.create(routingContext.vertx(), options);
-        final HttpRequest<Buffer> request = client.post(getAccessDeniedUrl());
-//        final HttpRequest<Buffer> request = client.post(iamPort, iamHost, oneshotUrl);
+        routingContext.request().pause(); // to prevent 'Request has already been read' errors when the request body pumped
+        final Session session = routingContext.session();
 
         // maybe move this to endRequest (if no other flowType uses this feature)
-        addHeadersToRequest(request, routingContext);
-
-        final CompletableFuture<Boolean> future = new CompletableFuture<>();
-
-        Executors.newFixedThreadPool(1).execute(
-            () -> request.sendForm(
-                oneShotBody(), ar -> {
-                    if (ar.succeeded()) {
-                        final HttpResponse<Buffer> iamResponse = ar.result();
-                        airmockHandler.handleCookies(routingContext, iamResponse.cookies(), this);
-                        Cookiemanager.storeCookies(routingContext, iamResponse.cookies(), this);
-                        future.complete(sessionContainsOneRestrictedRole(routingContext));
-                    }
-                    else {
-                        final Throwable cause = ar.cause();
-                        LOGGER.warn("oneshot: failed '{}'", cause.getMessage(), routingContext);
-                        routingContext.response().setStatusCode(500).end();
-                        future.completeExceptionally(cause);
-                    }
-                })
-        );
-
-        return Single.fromFuture(future);
-    }
-
-    private void addHeadersToRequest(HttpRequest<Buffer> request, RoutingContext routingContext) {
-        routingContext.request().headers().names().stream()
-                .filter(getHeaders()::contains)
-                .forEach(name -> request.putHeader(name, routingContext.request().getHeader(name)));
+        return oneShotClient.send(session == null ? null : session.id(), headersForRequest(routingContext), oneShotBody)
+            .observeOn(RxHelper.scheduler(routingContext.vertx().getOrCreateContext()))
+            .map(iamResponse -> {
+                airmockHandler.handleCookies(routingContext, iamResponse.cookies(), this);
+                return sessionContainsOneRestrictedRole(routingContext);
+            })
+            .doOnError(error -> {
+                LOGGER.warn("oneshot: failed '{}'", error.getMessage(), routingContext);
+                routingContext.response().setStatusCode(500).end();
+            });
     }
 
-    private MultiMap oneShotBody() {
-        return MultiMap.caseInsensitiveMultiMap()
-                .set("grant_type", "password")
-                .set("client_id", getName());
+    private MultiMap headersForRequest(RoutingContext routingContext) {
+        final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        for (String name : getHeaders()) {
+            final String value = routingContext.request().getHeader(name);
+            if (value != null) {
+                headers.set(name, value);
+            }
+        }
+        return headers;
     }
 
     /**
      * Checks if the current routingContext contains at least one of the necessary roles.
      * The necessary roles are stored in field restrictedRoles.
-     * In addition this implementation removes all WAF_ROLES from the routingContext after the check.
+     * In addition this implementation removes all roles from the session after the check.
      * @param routingContext The routingContext to check.
      * @return Whether or not the routing context has at least one restricted role.
      * If restrictedRoles is empty, true is returned.
      */
     protected boolean sessionContainsOneRestrictedRole(RoutingContext routingContext) {
         final boolean hasRole = super.sessionContainsOneRestrictedRole(routingContext);
-        RoutingContextUtils.session(routingContext).remove(WAF_ROLES);
+        final AirmockSessionState state = AirmockSessionState.peek(routingContext);
+        if (state != null) {
+            state.clearRoles();
+        }
         return hasRole;
     }
 }
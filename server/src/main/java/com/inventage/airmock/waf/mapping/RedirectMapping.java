@@ -1,6 +1,7 @@
 package com.inventage.airmock.waf.mapping;
 
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.reactivex.ext.web.RoutingContext;
 
@@ -8,6 +9,17 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 
 public class RedirectMapping extends DefaultMapping {
+    private boolean appendPath;
+
+    @Override
+    public void compile(Vertx vertx) {
+        super.compile(vertx);
+        if (getAccessDeniedUrl() == null) {
+            throw new IllegalArgumentException("mapping '" + getName() + "': missing deniedAccessUrl");
+        }
+        appendPath = getAccessDeniedUrl().endsWith("redirect_uri="); // only for OIDC the original url is appended
+    }
+
     @Override
     public void endRequest(RoutingContext routingContext) {
         final String accessDeniedUrl = getAccessDeniedUrlWithPostfix(routingContext);
@@ -18,18 +30,15 @@ public class RedirectMapping extends DefaultMapping {
     }
 
     private String getAccessDeniedUrlWithPostfix(RoutingContext routingContext) {
-        String accessDeniedUrl = getAccessDeniedUrl();
+        if (!appendPath) {
+            return getAccessDeniedUrl();
+        }
 
         try {
-            if (accessDeniedUrl.endsWith("redirect_uri=")) {
-                final String requestPath = URLEncoder.encode(routingContext.request().path(), "ISO-8859-1");
-                accessDeniedUrl = accessDeniedUrl + requestPath; // only for OIDC the original url is appended
-            }
+            return getAccessDeniedUrl() + URLEncoder.encode(routingContext.request().path(), "ISO-8859-1");
         }
         catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
-
-        return accessDeniedUrl;
     }
 }
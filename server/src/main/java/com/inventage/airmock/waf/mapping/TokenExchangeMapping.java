@@ -1,47 +1,56 @@
 package com.inventage.airmock.waf.mapping;
 
 import com.inventage.airmock.waf.AirmockHandler;
-import com.inventage.airmock.waf.cookiebag.Cookiemanager;
 import com.inventage.airmock.waf.jwt.JWTValidator;
+import com.inventage.airmock.waf.tokenexchange.TokenExchangeClient;
 import io.reactivex.Single;
+import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpHeaders;
-import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import io.vertx.ext.web.client.WebClientOptions;
-import io.vertx.reactivex.core.MultiMap;
-import io.vertx.reactivex.core.buffer.Buffer;
 import io.vertx.reactivex.ext.web.Cookie;
 import io.vertx.reactivex.ext.web.RoutingContext;
-import io.vertx.reactivex.ext.web.client.HttpRequest;
-import io.vertx.reactivex.ext.web.client.HttpResponse;
-import io.vertx.reactivex.ext.web.client.WebClient;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Optional;
 
 import static com.inventage.airmock.kernel.Constants.*;
 import static com.inventage.airmock.kernel.Constants.BEARER_PREFIX;
-import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 import static io.netty.handler.codec.http.HttpResponseStatus.UNAUTHORIZED;
 
 public class TokenExchangeMapping extends DefaultMapping {
     private static final Logger LOGGER = LoggerFactory.getLogger(TokenExchangeMapping.class);
 
     private URL tokenExchangeUrl;
+    private String clientId;
+    private JWTValidator jwtValidator;
+    private TokenExchangeClient tokenExchangeClient;
+
+    @Override
+    public void compile(Vertx vertx) {
+        super.compile(vertx);
+        tokenExchangeUrl = tokenExchangeUrl(getAccessDeniedUrl());
+        clientId = requiredConfig("clientId");
+        requiredConfig("subjectIssuer");
+        requiredConfig("clientSecret");
+        final String certificateUrl = requiredConfig("certificateUrl");
+        jwtValidator = JWTValidator.shared(vertx,
+            getConfigUtils() == null ? certificateUrl : getConfigUtils().replaceEnvVariables(certificateUrl), getConfig());
+        tokenExchangeClient = TokenExchangeClient.shared(vertx, getName(), tokenExchangeUrl.toString(), getConfig());
+    }
 
     @Override
     public Single<Boolean> canProceed(RoutingContext routingContext, AirmockHandler airmockHandler) {
         // if there is a JWT in the incoming request, then we can proceed by setting the cookie value as the Authorization: Bearer value
         final Cookie jwtCookie = routingContext.getCookie(JWT_COOKE_NAME);
-        final JWTValidator jwtValidator = getJwtValidator();
-        if (jwtValidator.isValidJWT(jwtCookie, getClientId())) {
-            replaceAuthorizationHeader(routingContext, jwtCookie.getValue());
-            return Single.just(true);
-        }
         routingContext.request().pause(); // to prevent 'Request has already been read' errors when the request body pumped
-        return tokenexchange(routingContext, airmockHandler);
+        return jwtValidator.isValidJWT(jwtCookie, clientId).flatMap(valid -> {
+            if (valid) {
+                replaceAuthorizationHeader(routingContext, jwtCookie.getValue());
+                return Single.just(true);
+            }
+            return tokenexchange(routingContext, airmockHandler);
+        });
     }
 
     private Single<Boolean> tokenexchange(RoutingContext routingContext, AirmockHandler airmockHandler) {
@@ -50,28 +59,24 @@ public class TokenExchangeMapping extends DefaultMapping {
         if (samlHeader == null) {
             return Single.just(false);
         }
-        final WebClientOptions options = new WebClientOptions().setUserAgent("Airmock/1.0.0");
-        options.setKeepAlive(false);
-        options.setConnectTimeout(2);
-        options.setIdleTimeout(2);
-        final WebClient client = WebClient.create(routingContext.vertx(), options);
-        final HttpRequest<Buffer> request = client.post(getTokenExchangeUrl().getPort(), getTokenExchangeUrl().getHost(), getTokenExchangeUrl().getPath());
-
-        request.putHeader(HttpHeaders.CONTENT_TYPE.toString(), "application/x-www-form-urlencoded");
 
-        return request.rxSendForm(tokenexchangeBody(samlHeader))
+        return Single.<TokenExchangeClient.Exchange>create(emitter -> tokenExchangeClient.exchange(samlHeader, ar -> {
+            if (ar.succeeded()) {
+                emitter.onSuccess(ar.result());
+            }
+            else {
+                emitter.onError(ar.cause());
+            }
+        }))
             .map(
-                iamResponse -> {
-                    final Optional<String> jwt = getJWT(iamResponse);
-
-                    if (!jwt.isPresent()) {
+                exchange -> {
+                    if (exchange.accessToken() == null) {
                         setNotAuthorized(routingContext, "Response from IAM failed.");
                         return false;
                     }
 
-                    replaceAndStoreAuthorizationHeader(routingContext, jwt.get());
-                    airmockHandler.handleCookies(routingContext, iamResponse.cookies(), this);
-                    Cookiemanager.storeCookies(routingContext, iamResponse.cookies(), this);
+                    replaceAndStoreAuthorizationHeader(routingContext, exchange.accessToken());
+                    airmockHandler.handleCookies(routingContext, exchange.cookies(), this);
                     return true;
                 })
             .onErrorReturn(
@@ -87,19 +92,6 @@ public class TokenExchangeMapping extends DefaultMapping {
         routingContext.response().setStatusCode(UNAUTHORIZED.code());
     }
 
-    private JWTValidator getJwtValidator() {
-        final String certificateUrl = getConfigUtils().replaceEnvVariables(getConfig().get("certificateUrl"));
-        return new JWTValidator(certificateUrl);
-    }
-
-    private Optional<String> getJWT(HttpResponse<Buffer> response) {
-        if (response.statusCode() != OK.code()) {
-            return Optional.empty();
-        }
-        final String jwt = extractJWT(response);
-        return Optional.ofNullable(jwt);
-    }
-
     private void replaceAndStoreAuthorizationHeader(RoutingContext routingContext, String jwt) {
         replaceAuthorizationHeader(routingContext, jwt);
         // This will be retrieved and sent back to the frontend as a SET_COOKIE header.
@@ -111,58 +103,35 @@ public class TokenExchangeMapping extends DefaultMapping {
         routingContext.request().headers().add(HttpHeaders.AUTHORIZATION, BEARER_PREFIX + jwt);
     }
 
-    private String extractJWT(HttpResponse<Buffer> response) {
-        final JsonObject jsonObject = response.bodyAsJsonObject();
-        return jsonObject.getString("access_token");
-    }
-
     private String getSAMLHeader(RoutingContext routingContext) {
         String header = routingContext.request().getHeader(HttpHeaders.AUTHORIZATION);
         if (header != null && header.startsWith(BEARER_PREFIX)) {
-            header = header.replaceFirst(BEARER_PREFIX, "");
+            header = header.substring(BEARER_PREFIX.length());
         }
         return header;
     }
 
-    // https://tools.ietf.org/html/draft-ietf-oauth-token-exchange-19#section-2.1
-    private MultiMap tokenexchangeBody(String samlTokenUrlEncoded) {
-        final String clientId = getClientId();
-        final String subjectIssuer = getConfig().get("subjectIssuer");
-        final String clientSecret = getConfig().get("clientSecret");
-
-        if (clientId == null || subjectIssuer ==  null || clientSecret == null) {
-            throw new IllegalStateException(
-                    "missing config: clientId-> " + clientId + " subjectIssuer-> " + subjectIssuer + " clientSecret-> " + clientSecret);
+    private String requiredConfig(String key) {
+        final String value = getConfig().get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("mapping '" + getName() + "': missing config '" + key + "'");
         }
-
-        return MultiMap.caseInsensitiveMultiMap()
-                .set("grant_type", "urn:ietf:params:oauth:grant-type:token-exchange")
-                .set("subject_token_type", "urn:ietf:params:oauth:token-type:saml2")
-                .set("subject_token", samlTokenUrlEncoded)
-                .set("subject_issuer", subjectIssuer)
-                .set("client_id", clientId)
-                .set("client_secret", clientSecret);
-    }
-
-    private String getClientId() {
-        return getConfig().get("clientId");
+        return value;
     }
 
     URL getTokenExchangeUrl() {
-        if (tokenExchangeUrl == null) {
-            initializeTokenExchangeUrl();
-        }
-        return  tokenExchangeUrl;
-
+        return tokenExchangeUrl;
     }
 
-    private void initializeTokenExchangeUrl() {
+    private URL tokenExchangeUrl(String url) {
+        if (url == null) {
+            throw new IllegalArgumentException("mapping '" + getName() + "': missing deniedAccessUrl");
+        }
         try {
-            tokenExchangeUrl = new URL(getAccessDeniedUrl());
+            return new URL(url);
         }
         catch (MalformedURLException e) {
-            e.printStackTrace();
-            throw new IllegalArgumentException(e.getMessage());
+            throw new IllegalArgumentException("mapping '" + getName() + "': invalid deniedAccessUrl '" + url + "'", e);
         }
     }
 }
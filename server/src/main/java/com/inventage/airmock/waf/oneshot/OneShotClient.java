@@ -0,0 +1,108 @@
+package com.inventage.airmock.waf.oneshot;
+
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import com.inventage.airmock.kernel.util.FormUtils;
+import io.reactivex.Single;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.reactivex.core.MultiMap;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.ext.web.client.HttpRequest;
+import io.vertx.reactivex.ext.web.client.HttpResponse;
+import io.vertx.reactivex.ext.web.client.WebClient;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends the one shot requests of a mapping to the IAM over one pooled web client with keep-alive, shared by all
+ * verticles of a vert.x instance.
+ * <p>
+ * Requests of a session arriving while a one shot request of the same session is outstanding wait for its response,
+ * so concurrent first requests of a browser call the IAM once. The response of the IAM is delivered on the thread that
+ * received it; callers observe it on their own context. A request not answered within {@link #ONE_SHOT_TIMEOUT}
+ * milliseconds fails and its connection is closed. At most {@link #ONE_SHOT_MAX_POOL_SIZE} connections to the IAM are
+ * opened, further requests wait for a free one.
+ */
+public final class OneShotClient implements Shareable {
+    public static final String ONE_SHOT_TIMEOUT = "oneShotTimeout";
+    public static final String ONE_SHOT_MAX_POOL_SIZE = "oneShotMaxPoolSize";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OneShotClient.class);
+
+    private static final String SHARED_MAP = "airmock.oneShots";
+    private static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+    private static final int DEFAULT_MAX_POOL_SIZE = 10;
+    private static final int KEEP_ALIVE_TIMEOUT_SECONDS = 60;
+
+    private final String url;
+    private final long timeoutMillis;
+    private final WebClient client;
+    private final Map<String, Single<HttpResponse<Buffer>>> pending = new ConcurrentHashMap<>();
+
+    OneShotClient(Vertx vertx, String url, Map<String, String> config) {
+        this.url = url;
+        this.timeoutMillis = ConfigUtils.getLong(config, ONE_SHOT_TIMEOUT, DEFAULT_TIMEOUT_MILLIS);
+        this.client = WebClient.create(vertx, new WebClientOptions()
+            .setUserAgent("Airmock/1.0.0")
+            .setTrustAll(true)
+            .setKeepAlive(true)
+            .setKeepAliveTimeout(KEEP_ALIVE_TIMEOUT_SECONDS)
+            .setIdleTimeout(KEEP_ALIVE_TIMEOUT_SECONDS)
+            .setMaxPoolSize(ConfigUtils.getInteger(config, ONE_SHOT_MAX_POOL_SIZE, DEFAULT_MAX_POOL_SIZE)));
+    }
+
+    /**
+     * The client of the given mapping; the first call creates it with the settings of its config.
+     *
+     * @param vertx       vertx
+     * @param mappingName name of the mapping
+     * @param url         URL of the one shot endpoint of the IAM
+     * @param config      config of the mapping, may be null
+     * @return client
+     */
+    public static OneShotClient shared(Vertx vertx, String mappingName, String url, Map<String, String> config) {
+        return vertx.getDelegate().sharedData().<String, OneShotClient>getLocalMap(SHARED_MAP).computeIfAbsent(mappingName,
+            name -> new OneShotClient(vertx, url, config == null ? Collections.emptyMap() : config));
+    }
+
+    /**
+     * Post a one shot request of a session to the IAM. The request is sent on subscription; a session with an
+     * outstanding request shares its response.
+     *
+     * @param sessionId id of the session, null to always send a request
+     * @param headers   headers of the client forwarded to the IAM
+     * @param form      form
+     * @return response of the IAM
+     */
+    public Single<HttpResponse<Buffer>> send(String sessionId, MultiMap headers, MultiMap form) {
+        if (sessionId == null) {
+            return request(headers, form);
+        }
+        return Single.defer(() -> pending.computeIfAbsent(sessionId, id -> request(headers, form)
+            .doOnEvent((response, error) -> pending.remove(id))
+            .cache()));
+    }
+
+    /**
+     * Number of outstanding one shot requests.
+     *
+     * @return requests
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    private Single<HttpResponse<Buffer>> request(MultiMap headers, MultiMap form) {
+        LOGGER.debug("request: one shot request to '{}'", url);
+        final HttpRequest<Buffer> request = client.postAbs(url);
+        request.headers().addAll(headers).remove(HttpHeaders.CONTENT_LENGTH.toString())
+            .set(HttpHeaders.CONTENT_TYPE.toString(), FormUtils.URL_ENCODED);
+        return request.timeout(timeoutMillis).rxSendBuffer(Buffer.newInstance(FormUtils.urlEncoded(form.getDelegate())));
+    }
+}
@@ -1,6 +1,5 @@
 package com.inventage.airmock.waf.saml;
 
-import com.inventage.airmock.kernel.util.SAMLUtils;
 import com.inventage.airmock.waf.headerbag.HeaderBag;
 import com.inventage.airmock.waf.headerbag.Headermanager;
 import io.vertx.core.Handler;
@@ -11,6 +10,7 @@ import io.vertx.reactivex.ext.web.RoutingContext;
 import static com.inventage.airmock.kernel.Constants.BEARER_PREFIX;
 import static com.inventage.airmock.kernel.util.SAMLUtils.SAML_RESPONSE_PARAM_KEY;
 import static io.netty.handler.codec.http.HttpResponseStatus.FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
 import static io.vertx.core.http.HttpHeaders.AUTHORIZATION;
 import static io.vertx.core.http.HttpHeaders.LOCATION;
 
@@ -19,6 +19,7 @@ import static io.vertx.core.http.HttpHeaders.LOCATION;
  * POSTBINDING_PATH. Please also make sure to add bodyHandler to that path.
  *
  * The handler reads the SAMLResponse from the post request and saves the contained SAMLAssertion in the routingContext.
+ * The SAMLResponse is parsed by the {@link SAMLProcessor} on a worker thread.
  * It then redirects the browser to the original url, minus the POSTBINDING_PATH_PREFIX. This means, you will have to
  * configure your SAML Server to make its postbinding call go to <POSTBINDING_PATH_PREFIX>/<where-you-really-want-to-go>
  *
@@ -28,16 +29,32 @@ public class SAMLPostbindingHandler implements Handler<RoutingContext> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SAMLPostbindingHandler.class);
     private String postbindingPathPrefix;
+    private final SAMLProcessor processor;
 
-    public SAMLPostbindingHandler(String postbindingPathPrefix) {
+    public SAMLPostbindingHandler(String postbindingPathPrefix, SAMLProcessor processor) {
 
         this.postbindingPathPrefix = postbindingPathPrefix;
+        this.processor = processor;
     }
 
     @Override
     public void handle(RoutingContext routingContext) {
-        storeSAMLHeader(routingContext);
-        redirect(routingContext);
+        final String samlResponseParam = getSamlResponseParam(routingContext);
+        if (samlResponseParam == null) {
+            redirect(routingContext);
+            return;
+        }
+        processor.encodedAssertion(samlResponseParam, ar -> {
+            if (ar.failed()) {
+                LOGGER.warn("handle: SAML response not processed, error: '{}'", ar.cause().getMessage());
+                routingContext.response().setStatusCode(SERVICE_UNAVAILABLE.code()).end();
+                return;
+            }
+            if (ar.result() != null) {
+                Headermanager.storeHeader(routingContext, new HeaderBag.HttpHeader(AUTHORIZATION, BEARER_PREFIX + ar.result()));
+            }
+            redirect(routingContext);
+        });
     }
 
     public String getPostBindingPath() {
@@ -57,30 +74,10 @@ public class SAMLPostbindingHandler implements Handler<RoutingContext> {
                 .end();
     }
 
-    private void storeSAMLHeader(RoutingContext routingContext) {
-        if (isSAMLResponse(routingContext)) {
-            Headermanager.storeHeader(routingContext, getSAMLAssertionHeader(routingContext));
-        }
-    }
-
-    private boolean isSAMLResponse(RoutingContext routingContext) {
-        final String samlResponseParam = getSamlResponseParam(routingContext);
-        if (samlResponseParam == null) {
-            return false;
-        }
-        return SAMLUtils.isSAMLToken(samlResponseParam);
-    }
-
     private String getSamlResponseParam(RoutingContext routingContext) {
         return routingContext.request().getParam(SAML_RESPONSE_PARAM_KEY);
     }
 
-    private HeaderBag.HttpHeader getSAMLAssertionHeader(RoutingContext routingContext) {
-        final String samlResponseParam = getSamlResponseParam(routingContext);
-        final String encodedAssertion = SAMLUtils.getEncodedAssertion(samlResponseParam);
-        return new HeaderBag.HttpHeader(AUTHORIZATION, BEARER_PREFIX + encodedAssertion);
-    }
-
     private String getRedirectPath(RoutingContext routingContext) {
         String path = routingContext.request().path();
         LOGGER.info("handling path " + path);
@@ -0,0 +1,81 @@
+package com.inventage.airmock.waf.saml;
+
+import com.inventage.airmock.kernel.util.SAMLUtils;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts the assertion of SAML responses on a bounded pool of worker threads, so that parsing large signed responses
+ * does not block the event loop.
+ * <p>
+ * The pool is the shared worker executor {@link #POOL_NAME}; its queue size, queue delay and usage are reported by the
+ * vert.x metrics as {@code vertx.pools.worker.airmock-saml}. At most {@code maxQueued} responses of a processor wait
+ * for a worker, further responses are rejected right away.
+ */
+public final class SAMLProcessor {
+    public static final String POOL_NAME = "airmock-saml";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SAMLProcessor.class);
+
+    private final WorkerExecutor executor;
+    private final int poolSize;
+    private final int maxQueued;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Create a processor on the shared worker executor; all processors of a vert.x instance share its threads.
+     *
+     * @param vertx     vertx
+     * @param poolSize  number of worker threads
+     * @param maxQueued number of responses waiting for a worker at most
+     */
+    public SAMLProcessor(Vertx vertx, int poolSize, int maxQueued) {
+        this.executor = vertx.createSharedWorkerExecutor(POOL_NAME, poolSize);
+        this.poolSize = poolSize;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Extract the first assertion of a SAML response. The handler is called on the context of the caller.
+     *
+     * @param samlResponse base64 encoded SAML response or assertion
+     * @param handler      handler with the base64 encoded assertion, null if the response is not a SAML response;
+     *                     failed with a {@link RejectedExecutionException} if too many responses are waiting
+     */
+    public void encodedAssertion(String samlResponse, Handler<AsyncResult<String>> handler) {
+        if (pending.incrementAndGet() > poolSize + maxQueued) {
+            pending.decrementAndGet();
+            LOGGER.warn("encodedAssertion: rejected, {} SAML responses are pending", poolSize + maxQueued);
+            handler.handle(Future.failedFuture(new RejectedExecutionException("too many pending SAML responses")));
+            return;
+        }
+        executor.<String>executeBlocking(future -> future.complete(SAMLUtils.getEncodedAssertion(samlResponse)), false, ar -> {
+            pending.decrementAndGet();
+            handler.handle(ar);
+        });
+    }
+
+    /**
+     * Number of responses being processed or waiting for a worker.
+     *
+     * @return responses
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    /**
+     * Release the worker executor.
+     */
+    public void close() {
+        executor.close();
+    }
+}
@@ -2,6 +2,7 @@ package com.inventage.airmock.waf.saml;
 
 import com.inventage.airmock.kernel.RouteProvider;
 import com.inventage.airmock.kernel.util.AirmockConfigRetriever;
+import com.inventage.airmock.kernel.util.ConfigUtils;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 import io.vertx.reactivex.config.ConfigRetriever;
@@ -17,8 +18,14 @@ import static io.vertx.core.http.HttpMethod.POST;
 public class SamlPostBindingVerticle extends AbstractVerticle implements RouteProvider {
 
     public static final String POSTBINDING_PATH_PREFIX = "post-binding-path-prefix";
+    public static final String SAML_POOL_SIZE = "saml-pool-size";
+    public static final String SAML_MAX_QUEUED = "saml-max-queued";
+
+    private static final int DEFAULT_SAML_POOL_SIZE = 4;
+    private static final int DEFAULT_SAML_MAX_QUEUED = 100;
 
     private JsonObject config;
+    private SAMLProcessor processor;
 
     /**
      * Get the fully qualified property for a given key.
@@ -50,8 +57,18 @@ public class SamlPostBindingVerticle extends AbstractVerticle implements RoutePr
         final Router router = Router.router(vertx);
 
         router.route(POST, "/*").handler(BodyHandler.create());
-        router.route(POST, "/*").handler(new SAMLPostbindingHandler(config.getString(property(POSTBINDING_PATH_PREFIX))));
+        processor = new SAMLProcessor(vertx.getDelegate(), ConfigUtils.getInteger(config, property(SAML_POOL_SIZE), DEFAULT_SAML_POOL_SIZE),
+            ConfigUtils.getInteger(config, property(SAML_MAX_QUEUED), DEFAULT_SAML_MAX_QUEUED));
+        router.route(POST, "/*").handler(new SAMLPostbindingHandler(config.getString(property(POSTBINDING_PATH_PREFIX)), processor));
 
         return router;
     }
+
+    @Override
+    public void stop() throws Exception {
+        if (processor != null) {
+            processor.close();
+        }
+        super.stop();
+    }
 }
@@ -0,0 +1,497 @@
+package com.inventage.airmock.waf.session;
+
+import com.inventage.airmock.waf.headerbag.HeaderBag;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.shareddata.impl.ClusterSerializable;
+import io.vertx.reactivex.ext.web.RoutingContext;
+import io.vertx.reactivex.ext.web.Session;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.inventage.airmock.kernel.route.RoutingContextUtils.session;
+
+/**
+ * The state airmock keeps per session: the granted roles, the cookie bag and the header bag.
+ * <p>
+ * The state is stored as a single object in the vert.x session and mutated in place. Roles are indexed by name,
+ * cookies by path and name, and headers by name (in insertion order). For session stores which serialize their
+ * content, the state is written in a compact binary format (see {@link #writeToBuffer(Buffer)}).
+ * <p>
+ * Instances are not thread safe. They are only accessed from the event loop handling the request of the session;
+ * the state remembers the context of the latest request (see {@link #context()}), so that changes made in the
+ * background are run there.
+ */
+public final class AirmockSessionState implements ClusterSerializable {
+    public static final String SESSION_KEY = "AIRMOCK_SESSION_STATE";
+
+    private static final byte FORMAT_VERSION = 2;
+    private static final int NULL_LENGTH = -1;
+
+    private final Map<String, Role> roles = new LinkedHashMap<>();
+    private final BitSet grantedRoles = new BitSet();
+    private long nextRoleExpiry = Long.MAX_VALUE;
+    private long scheduledRoleExpiry = Long.MAX_VALUE;
+    private final TreeMap<String, Map<String, String>> cookieBag = new TreeMap<>();
+    private final Map<String, String> cookieHeaders = new HashMap<>();
+    private final Map<String, HeaderBag.HttpHeader> headerBag = new LinkedHashMap<>();
+    private HeaderBag headerSnapshot;
+    private int version;
+    private volatile Context context;
+
+    /**
+     * Needed by the session stores for deserialization.
+     */
+    public AirmockSessionState() {
+    }
+
+    /**
+     * Get the state of the session of the given routing context. A new state is put into the session if there is none.
+     *
+     * @param routingContext rc
+     * @return the state, never null
+     */
+    public static AirmockSessionState of(RoutingContext routingContext) {
+        return of(session(routingContext));
+    }
+
+    /**
+     * Get the state of the given session. A new state is put into the session if there is none.
+     *
+     * @param session session
+     * @return the state, never null
+     */
+    public static AirmockSessionState of(Session session) {
+        AirmockSessionState state = session.get(SESSION_KEY);
+        if (state == null) {
+            state = new AirmockSessionState();
+            session.put(SESSION_KEY, state);
+        }
+        return state.accessed();
+    }
+
+    /**
+     * Get the state of the session of the given routing context without creating one.
+     *
+     * @param routingContext rc
+     * @return the state or null
+     */
+    public static AirmockSessionState peek(RoutingContext routingContext) {
+        final AirmockSessionState state = session(routingContext).get(SESSION_KEY);
+        return state == null ? null : state.accessed();
+    }
+
+    /**
+     * The context of the latest request which accessed the state.
+     *
+     * @return context or null if the state was not accessed on a vert.x thread
+     */
+    Context context() {
+        return context;
+    }
+
+    private AirmockSessionState accessed() {
+        final Context current = Vertx.currentContext();
+        if (current != null && current != context) {
+            context = current;
+        }
+        return this;
+    }
+
+    /**
+     * Modification counter, incremented on every change of the state. Callers compare it to a version seen before to
+     * find out whether the state changed, instead of comparing the whole state.
+     *
+     * @return version
+     */
+    public int version() {
+        return version;
+    }
+
+    /**
+     * Add or replace a role.
+     *
+     * @param role role
+     */
+    public void addRole(Role role) {
+        roles.put(role.getName(), role);
+        setGranted(role.getName());
+        nextRoleExpiry = Math.min(nextRoleExpiry, role.expiresAtMillis());
+        version++;
+    }
+
+    /**
+     * Remove a role by name.
+     *
+     * @param name name of the role
+     * @return true if the role was present
+     */
+    public boolean removeRole(String name) {
+        final boolean removed = roles.remove(name) != null;
+        if (removed) {
+            clearGranted(name);
+            version++;
+        }
+        return removed;
+    }
+
+    /**
+     * Remove all roles.
+     */
+    public void clearRoles() {
+        if (!roles.isEmpty()) {
+            roles.clear();
+            grantedRoles.clear();
+            nextRoleExpiry = Long.MAX_VALUE;
+            version++;
+        }
+    }
+
+    /**
+     * Is the role with the given name granted.
+     *
+     * @param name name of the role
+     * @return boolean
+     */
+    public boolean hasRole(String name) {
+        return roles.containsKey(name);
+    }
+
+    /**
+     * Is at least one of the given roles granted.
+     *
+     * @param requiredRoles role indexes as assigned by the {@link RoleDictionary}
+     * @return boolean
+     */
+    public boolean hasAnyRole(BitSet requiredRoles) {
+        return grantedRoles.intersects(requiredRoles);
+    }
+
+    /**
+     * Remove all roles which are expired at the given time. The roles are only scanned if the earliest expiry is
+     * reached, so calling this method on every access is cheap.
+     *
+     * @param nowMillis current time
+     * @return true if at least one role was removed
+     */
+    public boolean expireRoles(long nowMillis) {
+        if (nowMillis < nextRoleExpiry) {
+            return false;
+        }
+        boolean removed = false;
+        long nextExpiry = Long.MAX_VALUE;
+        final Iterator<Role> iterator = roles.values().iterator();
+        while (iterator.hasNext()) {
+            final Role role = iterator.next();
+            final long expiresAt = role.expiresAtMillis();
+            if (expiresAt <= nowMillis) {
+                iterator.remove();
+                clearGranted(role.getName());
+                removed = true;
+            }
+            else {
+                nextExpiry = Math.min(nextExpiry, expiresAt);
+            }
+        }
+        nextRoleExpiry = nextExpiry;
+        if (removed) {
+            version++;
+        }
+        return removed;
+    }
+
+    /**
+     * Record a use of the given roles, which restarts their idle timeout.
+     *
+     * @param usedRoles role indexes as assigned by the {@link RoleDictionary}
+     * @param nowMillis current time
+     */
+    public void touchRoles(BitSet usedRoles, long nowMillis) {
+        for (Role role : roles.values()) {
+            final int index = RoleDictionary.indexOf(role.getName());
+            if (index != RoleDictionary.UNKNOWN && usedRoles.get(index) && role.touch(nowMillis)) {
+                version++;
+            }
+        }
+    }
+
+    /**
+     * Earliest point in time at which a role may expire. Touching a role does not move this point, so it is a lower
+     * bound which is corrected by {@link #expireRoles(long)}.
+     *
+     * @return epoch millis or {@link Long#MAX_VALUE} if no role expires
+     */
+    public long nextRoleExpiry() {
+        return nextRoleExpiry;
+    }
+
+    long getScheduledRoleExpiry() {
+        return scheduledRoleExpiry;
+    }
+
+    void setScheduledRoleExpiry(long scheduledRoleExpiry) {
+        this.scheduledRoleExpiry = scheduledRoleExpiry;
+    }
+
+    public Collection<Role> getRoles() {
+        return Collections.unmodifiableCollection(roles.values());
+    }
+
+    /**
+     * Add or replace a cookie for the given path.
+     *
+     * @param path  cookie path
+     * @param name  cookie name
+     * @param value cookie value
+     * @return true if the cookie bag was changed
+     */
+    public boolean putCookie(String path, String name, String value) {
+        final String previous = cookieBag.computeIfAbsent(path, p -> new LinkedHashMap<>()).put(name, value);
+        if (value.equals(previous)) {
+            return false;
+        }
+        cookieHeaders.clear();
+        version++;
+        return true;
+    }
+
+    /**
+     * The cookies by path and name.
+     *
+     * @return unmodifiable view of the cookie bag
+     */
+    public Map<String, Map<String, String>> getCookieBag() {
+        return Collections.unmodifiableMap(cookieBag);
+    }
+
+    /**
+     * The Cookie header with all cookies whose path is a prefix of the given request path.
+     * <p>
+     * All matching paths are prefixes of each other, so the matching cookies are determined by the longest matching
+     * path alone. The rendered header is cached per longest matching path until the cookie bag changes.
+     *
+     * @param requestPath path of the request
+     * @return the header value, empty if no cookie matches
+     */
+    public String getCookieHeader(String requestPath) {
+        final String longestPath = longestMatchingCookiePath(requestPath);
+        if (longestPath == null) {
+            return "";
+        }
+        return cookieHeaders.computeIfAbsent(longestPath, this::renderCookieHeader);
+    }
+
+    private String longestMatchingCookiePath(String requestPath) {
+        String candidate = requestPath;
+        while (candidate != null) {
+            final String path = cookieBag.floorKey(candidate);
+            if (path == null || candidate.startsWith(path)) {
+                return path;
+            }
+            candidate = candidate.substring(0, commonPrefixLength(candidate, path));
+        }
+        return null;
+    }
+
+    private static int commonPrefixLength(String first, String second) {
+        final int length = Math.min(first.length(), second.length());
+        int i = 0;
+        while (i < length && first.charAt(i) == second.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private String renderCookieHeader(String longestPath) {
+        final StringBuilder cookieHeader = new StringBuilder();
+        for (Map.Entry<String, Map<String, String>> path : cookieBag.headMap(longestPath, true).entrySet()) {
+            if (longestPath.startsWith(path.getKey())) {
+                path.getValue().forEach((name, value) -> {
+                    if (cookieHeader.length() > 0) {
+                        cookieHeader.append("; ");
+                    }
+                    cookieHeader.append(name).append('=').append(value);
+                });
+            }
+        }
+        return cookieHeader.toString();
+    }
+
+    /**
+     * Add or replace a header. A header is replaced by a header with the same name for the same mapping; the
+     * replaced header is moved to the end.
+     *
+     * @param header header
+     */
+    public void putHeader(HeaderBag.HttpHeader header) {
+        final String key = headerKey(header);
+        headerBag.remove(key);
+        headerBag.put(key, header);
+        headerSnapshot = null;
+        version++;
+    }
+
+    public Collection<HeaderBag.HttpHeader> getHeaderBag() {
+        return Collections.unmodifiableCollection(headerBag.values());
+    }
+
+    /**
+     * Immutable snapshot of the header bag, taken again only after the headers changed.
+     *
+     * @return the snapshot, never null
+     */
+    public HeaderBag getHeaderSnapshot() {
+        if (headerSnapshot == null) {
+            headerSnapshot = headerBag.isEmpty() ? HeaderBag.EMPTY : new HeaderBag(version, headerBag.values());
+        }
+        return headerSnapshot;
+    }
+
+    private static String headerKey(HeaderBag.HttpHeader header) {
+        final String name = header.getName().toString();
+        return header.getMappingName() == null ? name : name + '@' + header.getMappingName();
+    }
+
+    @Override
+    public void writeToBuffer(Buffer buffer) {
+        buffer.appendByte(FORMAT_VERSION);
+        buffer.appendInt(roles.size());
+        for (Role role : roles.values()) {
+            writeString(buffer, role.getName());
+            buffer.appendLong(role.getIdleTimeoutSeconds());
+            buffer.appendLong(role.getLifetimeSeconds());
+            buffer.appendLong(role.getGrantedAtMillis());
+            buffer.appendLong(role.getLastUsedMillis());
+        }
+        buffer.appendInt(cookieBag.size());
+        for (Map.Entry<String, Map<String, String>> path : cookieBag.entrySet()) {
+            writeString(buffer, path.getKey());
+            buffer.appendInt(path.getValue().size());
+            for (Map.Entry<String, String> cookie : path.getValue().entrySet()) {
+                writeString(buffer, cookie.getKey());
+                writeString(buffer, cookie.getValue());
+            }
+        }
+        buffer.appendInt(headerBag.size());
+        for (HeaderBag.HttpHeader header : headerBag.values()) {
+            writeString(buffer, header.getName().toString());
+            writeString(buffer, header.getValue());
+            writeString(buffer, header.getMappingName());
+        }
+    }
+
+    @Override
+    public int readFromBuffer(int start, Buffer buffer) {
+        final Reader reader = new Reader(buffer, start);
+        final byte format = reader.readByte();
+        if (format != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported session state format: " + format);
+        }
+        roles.clear();
+        grantedRoles.clear();
+        nextRoleExpiry = Long.MAX_VALUE;
+        cookieBag.clear();
+        cookieHeaders.clear();
+        headerBag.clear();
+        headerSnapshot = null;
+
+        final int roleCount = reader.readInt();
+        for (int i = 0; i < roleCount; i++) {
+            final Role role = new Role(reader.readString(), reader.readLong(), reader.readLong(), reader.readLong(), reader.readLong());
+            roles.put(role.getName(), role);
+            setGranted(role.getName());
+            nextRoleExpiry = Math.min(nextRoleExpiry, role.expiresAtMillis());
+        }
+        final int pathCount = reader.readInt();
+        for (int i = 0; i < pathCount; i++) {
+            final String path = reader.readString();
+            final int cookieCount = reader.readInt();
+            final Map<String, String> cookies = new LinkedHashMap<>();
+            for (int j = 0; j < cookieCount; j++) {
+                cookies.put(reader.readString(), reader.readString());
+            }
+            cookieBag.put(path, cookies);
+        }
+        final int headerCount = reader.readInt();
+        for (int i = 0; i < headerCount; i++) {
+            final HeaderBag.HttpHeader header = new HeaderBag.HttpHeader(reader.readString(), reader.readString(), reader.readString());
+            headerBag.put(headerKey(header), header);
+        }
+        version++;
+        return reader.pos;
+    }
+
+    private void setGranted(String roleName) {
+        // a role unknown to the dictionary is required by no mapping, it is only kept by name in the roles
+        final int index = RoleDictionary.indexOf(roleName);
+        if (index != RoleDictionary.UNKNOWN) {
+            grantedRoles.set(index);
+        }
+    }
+
+    private void clearGranted(String roleName) {
+        final int index = RoleDictionary.indexOf(roleName);
+        if (index != RoleDictionary.UNKNOWN) {
+            grantedRoles.clear(index);
+        }
+    }
+
+    private static void writeString(Buffer buffer, String value) {
+        if (value == null) {
+            buffer.appendInt(NULL_LENGTH);
+        }
+        else {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.appendInt(bytes.length);
+            buffer.appendBytes(bytes);
+        }
+    }
+
+    /**
+     * Sequential reader for the binary format.
+     */
+    private static final class Reader {
+        private final Buffer buffer;
+        private int pos;
+
+        Reader(Buffer buffer, int pos) {
+            this.buffer = buffer;
+            this.pos = pos;
+        }
+
+        byte readByte() {
+            return buffer.getByte(pos++);
+        }
+
+        int readInt() {
+            final int value = buffer.getInt(pos);
+            pos += Integer.BYTES;
+            return value;
+        }
+
+        long readLong() {
+            final long value = buffer.getLong(pos);
+            pos += Long.BYTES;
+            return value;
+        }
+
+        String readString() {
+            final int length = readInt();
+            if (length == NULL_LENGTH) {
+                return null;
+            }
+            final String value = new String(buffer.getBytes(pos, pos + length), StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+    }
+}
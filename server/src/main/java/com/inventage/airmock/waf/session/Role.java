@@ -0,0 +1,146 @@
+package com.inventage.airmock.waf.session;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A role (credential) granted to a session by the control API.
+ * <p>
+ * roleDefinition := credential-name [ ":" credential-timeout [ ":" credential-lifetime ] ]
+ * <p>
+ * The timeout is the idle time in seconds after which the role expires if it is not used to access a mapping,
+ * the lifetime the absolute time in seconds after which the role expires since it was granted.
+ */
+public final class Role {
+    public static final long UNLIMITED = 0L;
+
+    private static final long TOUCH_RESOLUTION_MILLIS = 1000L;
+
+    private final String name;
+    private final long idleTimeoutSeconds;
+    private final long lifetimeSeconds;
+    private final long grantedAtMillis;
+    private long lastUsedMillis;
+
+    public Role(String name) {
+        this(name, UNLIMITED, UNLIMITED);
+    }
+
+    public Role(String name, long idleTimeoutSeconds, long lifetimeSeconds) {
+        this(name, idleTimeoutSeconds, lifetimeSeconds, System.currentTimeMillis());
+    }
+
+    Role(String name, long idleTimeoutSeconds, long lifetimeSeconds, long grantedAtMillis) {
+        this(name, idleTimeoutSeconds, lifetimeSeconds, grantedAtMillis, grantedAtMillis);
+    }
+
+    Role(String name, long idleTimeoutSeconds, long lifetimeSeconds, long grantedAtMillis, long lastUsedMillis) {
+        this.name = Objects.requireNonNull(name);
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+        this.lifetimeSeconds = lifetimeSeconds;
+        this.grantedAtMillis = grantedAtMillis;
+        this.lastUsedMillis = lastUsedMillis;
+    }
+
+    /**
+     * Parse a role definition as sent by the control API.
+     *
+     * @param roleDefinition credential-name [ ":" credential-timeout [ ":" credential-lifetime ] ]
+     * @return the role or null if the definition is empty
+     */
+    public static Role parse(String roleDefinition) {
+        if (roleDefinition == null || roleDefinition.isEmpty()) {
+            return null;
+        }
+        final String[] roleElements = roleDefinition.split(":");
+        if (roleElements.length == 0 || roleElements[0].isEmpty()) {
+            return null;
+        }
+        final long idleTimeout = roleElements.length > 1 ? parseSeconds(roleElements[1]) : UNLIMITED;
+        final long lifetime = roleElements.length > 2 ? parseSeconds(roleElements[2]) : UNLIMITED;
+        return new Role(roleElements[0], idleTimeout, lifetime);
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            final long seconds = Long.parseLong(value.trim());
+            return seconds < 0 ? UNLIMITED : seconds;
+        }
+        catch (NumberFormatException e) {
+            return UNLIMITED;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    public long getLifetimeSeconds() {
+        return lifetimeSeconds;
+    }
+
+    public long getGrantedAtMillis() {
+        return grantedAtMillis;
+    }
+
+    public long getLastUsedMillis() {
+        return lastUsedMillis;
+    }
+
+    /**
+     * Point in time at which this role expires, either by its lifetime or by its idle timeout.
+     *
+     * @return epoch millis or {@link Long#MAX_VALUE} if the role never expires
+     */
+    public long expiresAtMillis() {
+        long expiresAt = Long.MAX_VALUE;
+        if (lifetimeSeconds != UNLIMITED) {
+            expiresAt = grantedAtMillis + TimeUnit.SECONDS.toMillis(lifetimeSeconds);
+        }
+        if (idleTimeoutSeconds != UNLIMITED) {
+            expiresAt = Math.min(expiresAt, lastUsedMillis + TimeUnit.SECONDS.toMillis(idleTimeoutSeconds));
+        }
+        return expiresAt;
+    }
+
+    /**
+     * Record a use of this role, which restarts its idle timeout. Uses within the same second are ignored.
+     *
+     * @param nowMillis current time
+     * @return true if the last use was updated
+     */
+    boolean touch(long nowMillis) {
+        if (idleTimeoutSeconds == UNLIMITED || nowMillis - lastUsedMillis < TOUCH_RESOLUTION_MILLIS) {
+            return false;
+        }
+        lastUsedMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * Json representation as shown in the WAF UI.
+     *
+     * @return JsonObject
+     */
+    public JsonObject toJson() {
+        final JsonObject json = new JsonObject().put("name", name);
+        if (idleTimeoutSeconds != UNLIMITED) {
+            json.put("idleTimeout", idleTimeoutSeconds);
+        }
+        if (lifetimeSeconds != UNLIMITED) {
+            json.put("roleLifetime", lifetimeSeconds);
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().encode();
+    }
+}
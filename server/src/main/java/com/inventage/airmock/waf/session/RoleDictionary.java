@@ -0,0 +1,62 @@
+package com.inventage.airmock.waf.session;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global dictionary assigning a bit index to every role name used by a mapping.
+ * <p>
+ * The role names are interned when the mappings are loaded. The roles required by a mapping and the roles granted to
+ * a session are then represented as {@link BitSet}s, so the authorization check is a single intersection. A role
+ * granted to a session which is not known here is required by no mapping, it is kept by name only and never interned,
+ * so that the role names sent by clients and backends do not grow the dictionary.
+ * <p>
+ * The indexes are only valid within the running process and are never serialized.
+ */
+public final class RoleDictionary {
+    public static final int UNKNOWN = -1;
+
+    private static final Map<String, Integer> INDEXES = new ConcurrentHashMap<>();
+
+    private RoleDictionary() {
+    }
+
+    /**
+     * Get the index of the given role, assigning a new one if the role is not known yet.
+     *
+     * @param roleName name of the role
+     * @return index of the role
+     */
+    public static synchronized int intern(String roleName) {
+        return INDEXES.computeIfAbsent(roleName, name -> INDEXES.size());
+    }
+
+    /**
+     * Get the index of the given role.
+     *
+     * @param roleName name of the role
+     * @return index of the role or {@link #UNKNOWN}
+     */
+    public static int indexOf(String roleName) {
+        final Integer index = INDEXES.get(roleName);
+        return index == null ? UNKNOWN : index;
+    }
+
+    static int size() {
+        return INDEXES.size();
+    }
+
+    /**
+     * Intern all given roles and return them as a bit set.
+     *
+     * @param roleNames names of the roles
+     * @return bit set with the indexes of the roles
+     */
+    public static BitSet internAll(Collection<String> roleNames) {
+        final BitSet roles = new BitSet();
+        roleNames.forEach(roleName -> roles.set(intern(roleName)));
+        return roles;
+    }
+}
@@ -0,0 +1,207 @@
+package com.inventage.airmock.waf.session;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel removing expired roles from the session states in the background.
+ * <p>
+ * There is one wheel per event loop, driven by a periodic timer ticking every second while the wheel holds states; the
+ * timer is cancelled when the wheel runs empty and started again with the next scheduled state. A session state is
+ * scheduled with the earliest expiry of its roles; when its slot is reached, the expired roles are removed and the
+ * state is scheduled again if it still has expiring roles. The wheel has 4 levels of 64 slots, covering about
+ * 194 days; later expiries are parked at the end of the wheel and rescheduled from there.
+ * <p>
+ * The wheel only holds weak references to the session states, so destroyed sessions are not kept alive. Expiry is
+ * also enforced lazily on access (see {@link AirmockSessionState#expireRoles(long)}), the wheel only makes sure that
+ * idle sessions do not keep their roles.
+ * <p>
+ * A session may be served by another event loop than the one which scheduled it. A due state is therefore expired on
+ * the context of its latest request and moves to the wheel of that context. The wheel is only useful for session
+ * stores keeping the state objects in memory; stores which serialize the sessions hand out copies, which the wheel
+ * must not be given.
+ */
+public final class RoleExpiryWheel {
+    public static final long TICK_MILLIS = 1000L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoleExpiryWheel.class);
+
+    private static final String CONTEXT_KEY = RoleExpiryWheel.class.getName();
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+    private static final long NO_TIMER = -1;
+
+    private final List<List<Entry>> slots = new ArrayList<>(LEVELS * SLOTS);
+    private final Vertx vertx;
+    private long currentTick;
+    private int size;
+    private long timerId = NO_TIMER;
+
+    /**
+     * A wheel which is advanced by the caller.
+     */
+    RoleExpiryWheel(long nowMillis) {
+        this(null, nowMillis);
+    }
+
+    /**
+     * A wheel advancing itself with a timer of the given vertx while it holds states; must be used on one context.
+     */
+    RoleExpiryWheel(Vertx vertx, long nowMillis) {
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>(0));
+        }
+        this.vertx = vertx;
+        this.currentTick = nowMillis / TICK_MILLIS;
+    }
+
+    /**
+     * Schedule the given state on the wheel of the event loop handling the given request.
+     *
+     * @param routingContext rc
+     * @param state          the session state with expiring roles
+     */
+    public static void schedule(RoutingContext routingContext, AirmockSessionState state) {
+        forContext(routingContext.vertx().getDelegate().getOrCreateContext()).schedule(state);
+    }
+
+    // must be called on the given context
+    private static RoleExpiryWheel forContext(Context context) {
+        RoleExpiryWheel wheel = context.get(CONTEXT_KEY);
+        if (wheel == null) {
+            wheel = new RoleExpiryWheel(context.owner(), System.currentTimeMillis());
+            context.put(CONTEXT_KEY, wheel);
+            LOGGER.debug("forContext: role expiry wheel created");
+        }
+        return wheel;
+    }
+
+    /**
+     * Schedule the given state for its next role expiry. Nothing is done if the state has no expiring roles or is
+     * already scheduled for an earlier point in time.
+     *
+     * @param state session state
+     */
+    void schedule(AirmockSessionState state) {
+        final long expiry = state.nextRoleExpiry();
+        if (expiry == Long.MAX_VALUE || expiry >= state.getScheduledRoleExpiry()) {
+            return;
+        }
+        if (vertx != null && timerId == NO_TIMER) {
+            // the slots are empty while the timer is stopped, the wheel just continues at the current time
+            currentTick = Math.max(currentTick, System.currentTimeMillis() / TICK_MILLIS);
+            timerId = vertx.setPeriodic(TICK_MILLIS, id -> advance(System.currentTimeMillis()));
+        }
+        state.setScheduledRoleExpiry(expiry);
+        insert(new Entry(state, expiry));
+        size++;
+    }
+
+    /**
+     * Process all slots up to the given time.
+     *
+     * @param nowMillis current time
+     */
+    void advance(long nowMillis) {
+        final long nowTick = nowMillis / TICK_MILLIS;
+        while (currentTick <= nowTick) {
+            final int index = (int) (currentTick & SLOT_MASK);
+            if (index == 0) {
+                int level = 1;
+                while (level < LEVELS && cascade(level) == 0) {
+                    level++;
+                }
+            }
+            final List<Entry> due = slots.get(index);
+            if (!due.isEmpty()) {
+                slots.set(index, new ArrayList<>(0));
+                due.forEach(entry -> expire(entry, nowMillis));
+            }
+            currentTick++;
+        }
+        if (size == 0 && timerId != NO_TIMER) {
+            vertx.cancelTimer(timerId);
+            timerId = NO_TIMER;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isTicking() {
+        return timerId != NO_TIMER;
+    }
+
+    private void insert(Entry entry) {
+        final long expiryTick = (entry.expiry + TICK_MILLIS - 1) / TICK_MILLIS;
+        final long delta = Math.min(Math.max(expiryTick - currentTick, 0), MAX_DELTA);
+        final long tick = currentTick + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        final int index = (int) ((tick >> (SLOT_BITS * level)) & SLOT_MASK);
+        slots.get(level * SLOTS + index).add(entry);
+    }
+
+    private int cascade(int level) {
+        final int index = (int) ((currentTick >> (SLOT_BITS * level)) & SLOT_MASK);
+        final int slot = level * SLOTS + index;
+        final List<Entry> entries = slots.get(slot);
+        if (!entries.isEmpty()) {
+            slots.set(slot, new ArrayList<>(0));
+            entries.forEach(this::insert);
+        }
+        return index;
+    }
+
+    private void expire(Entry entry, long nowMillis) {
+        size--;
+        final AirmockSessionState state = entry.state.get();
+        if (state == null) {
+            return;
+        }
+        final Context owner = state.context();
+        if (owner == null || owner == Vertx.currentContext()) {
+            expire(state, entry.expiry, nowMillis);
+        }
+        else {
+            owner.runOnContext(v -> forContext(owner).expire(state, entry.expiry, System.currentTimeMillis()));
+        }
+    }
+
+    private void expire(AirmockSessionState state, long expiry, long nowMillis) {
+        if (state.getScheduledRoleExpiry() != expiry) {
+            return;
+        }
+        state.setScheduledRoleExpiry(Long.MAX_VALUE);
+        if (state.expireRoles(nowMillis)) {
+            LOGGER.debug("expire: expired roles removed from session state");
+        }
+        schedule(state);
+    }
+
+    /**
+     * A scheduled session state.
+     */
+    private static final class Entry {
+        private final WeakReference<AirmockSessionState> state;
+        private final long expiry;
+
+        Entry(AirmockSessionState state, long expiry) {
+            this.state = new WeakReference<>(state);
+            this.expiry = expiry;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.inventage.airmock.waf.tokenexchange;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import com.inventage.airmock.kernel.util.FormUtils;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchanges SAML assertions for JWTs at the IAM of a mapping (https://tools.ietf.org/html/draft-ietf-oauth-token-exchange-19),
+ * shared by all verticles of a vert.x instance.
+ * <p>
+ * The requests are sent over one pooled web client with keep-alive, so the connections to the IAM are reused. The
+ * issued tokens are remembered by the hash of the assertion until they expire, at most {@link #TOKEN_EXCHANGE_CACHE_SIZE}
+ * of them. Requests with an assertion being exchanged wait for the same exchange, so a burst of requests carrying the
+ * same assertion calls the IAM once. Refused and failed exchanges are not remembered.
+ * <p>
+ * The cookies set by the IAM belong to the session of the request which called it. Only that request gets them;
+ * requests waiting for its exchange or served from the remembered tokens get the token without cookies.
+ */
+public final class TokenExchangeClient implements Shareable {
+    public static final String TOKEN_EXCHANGE_CONNECT_TIMEOUT = "tokenExchangeConnectTimeout";
+    public static final String TOKEN_EXCHANGE_TIMEOUT = "tokenExchangeTimeout";
+    public static final String TOKEN_EXCHANGE_MAX_POOL_SIZE = "tokenExchangeMaxPoolSize";
+    public static final String TOKEN_EXCHANGE_CACHE_SIZE = "tokenExchangeCacheSize";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenExchangeClient.class);
+
+    private static final String SHARED_MAP = "airmock.tokenExchanges";
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+    private static final int DEFAULT_MAX_POOL_SIZE = 10;
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+    private static final int KEEP_ALIVE_TIMEOUT_SECONDS = 60;
+    private static final int OK = 200;
+
+    private final Vertx vertx;
+    private final String tokenExchangeUrl;
+    private final MultiMap form;
+    private final int timeoutMillis;
+    private final int maxEntries;
+    private final WebClient client;
+    private final Map<String, Exchange> exchanged;
+    private final Map<String, List<Handler<AsyncResult<Exchange>>>> pending = new HashMap<>();
+    private long sent;
+
+    TokenExchangeClient(Vertx vertx, String tokenExchangeUrl, Map<String, String> config) {
+        this.vertx = vertx;
+        this.tokenExchangeUrl = tokenExchangeUrl;
+        this.form = form(config);
+        this.timeoutMillis = ConfigUtils.getInteger(config, TOKEN_EXCHANGE_TIMEOUT, DEFAULT_TIMEOUT_MILLIS);
+        this.maxEntries = ConfigUtils.getInteger(config, TOKEN_EXCHANGE_CACHE_SIZE, DEFAULT_CACHE_SIZE);
+        this.client = WebClient.create(vertx, new WebClientOptions()
+            .setUserAgent("Airmock/1.0.0")
+            .setTrustAll(true)
+            .setKeepAlive(true)
+            .setKeepAliveTimeout(KEEP_ALIVE_TIMEOUT_SECONDS)
+            .setIdleTimeout(KEEP_ALIVE_TIMEOUT_SECONDS)
+            .setMaxPoolSize(ConfigUtils.getInteger(config, TOKEN_EXCHANGE_MAX_POOL_SIZE, DEFAULT_MAX_POOL_SIZE))
+            .setConnectTimeout(ConfigUtils.getInteger(config, TOKEN_EXCHANGE_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT_MILLIS)));
+        this.exchanged = new LinkedHashMap<String, Exchange>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Exchange> eldest) {
+                return size() > TokenExchangeClient.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * The client of the given mapping; the first call creates it with the settings of its config.
+     *
+     * @param vertx            vertx
+     * @param mappingName      name of the mapping
+     * @param tokenExchangeUrl URL of the token exchange endpoint of the IAM
+     * @param config           config of the mapping, may be null
+     * @return client
+     * @throws IllegalStateException if clientId, subjectIssuer or clientSecret are not configured
+     */
+    public static TokenExchangeClient shared(Vertx vertx, String mappingName, String tokenExchangeUrl, Map<String, String> config) {
+        return vertx.sharedData().<String, TokenExchangeClient>getLocalMap(SHARED_MAP).computeIfAbsent(mappingName,
+            name -> new TokenExchangeClient(vertx, tokenExchangeUrl, config == null ? Collections.emptyMap() : config));
+    }
+
+    /**
+     * Exchange an assertion for a JWT. The handler is called right away if the assertion was exchanged before and the
+     * token has not expired yet, otherwise on the context of the caller once the IAM answered.
+     *
+     * @param assertion SAML assertion, as sent by the client
+     * @param handler   handler, failed if the IAM could not be reached
+     */
+    public void exchange(String assertion, Handler<AsyncResult<Exchange>> handler) {
+        final String key = hash(assertion);
+        final Context context = vertx.getOrCreateContext();
+        final Exchange known;
+        final boolean send;
+        List<Handler<AsyncResult<Exchange>>> waiting;
+        synchronized (this) {
+            known = lookup(key, System.currentTimeMillis());
+            waiting = pending.get(key);
+            send = known == null && waiting == null;
+            if (send) {
+                waiting = new ArrayList<>();
+                pending.put(key, waiting);
+                sent++;
+            }
+            if (known == null) {
+                waiting.add(result -> context.runOnContext(v -> handler.handle(result)));
+            }
+        }
+        if (known != null) {
+            LOGGER.debug("exchange: assertion was exchanged before");
+            handler.handle(Future.succeededFuture(known));
+        }
+        else if (send) {
+            send(key, MultiMap.caseInsensitiveMultiMap().addAll(form).set("subject_token", assertion), waiting);
+        }
+    }
+
+    /**
+     * Number of requests sent to the IAM so far.
+     *
+     * @return requests
+     */
+    public synchronized long sent() {
+        return sent;
+    }
+
+    private Exchange lookup(String key, long now) {
+        final Exchange known = exchanged.get(key);
+        if (known != null && known.expiresAt <= now) {
+            exchanged.remove(key);
+            return null;
+        }
+        return known;
+    }
+
+    private void send(String key, MultiMap form, List<Handler<AsyncResult<Exchange>>> waiting) {
+        LOGGER.debug("send: token exchange request to '{}'", tokenExchangeUrl);
+        client.postAbs(tokenExchangeUrl)
+            .putHeader(HttpHeaders.CONTENT_TYPE.toString(), FormUtils.URL_ENCODED)
+            .timeout(timeoutMillis)
+            .sendBuffer(FormUtils.urlEncoded(form), ar -> {
+                if (ar.succeeded()) {
+                    final Exchange exchange = Exchange.of(ar.result());
+                    if (exchange.accessToken() == null) {
+                        LOGGER.warn("send: token exchange refused by '{}' with status '{}'", tokenExchangeUrl, ar.result().statusCode());
+                    }
+                    complete(key, waiting, Future.succeededFuture(exchange));
+                }
+                else {
+                    complete(key, waiting, Future.failedFuture(ar.cause()));
+                }
+            });
+    }
+
+    private void complete(String key, List<Handler<AsyncResult<Exchange>>> waiting, AsyncResult<Exchange> result) {
+        final AsyncResult<Exchange> withoutCookies = result.succeeded() ? Future.succeededFuture(result.result().withoutCookies()) : result;
+        synchronized (this) {
+            pending.remove(key);
+            if (result.succeeded() && result.result().expiresAt > System.currentTimeMillis() && maxEntries > 0) {
+                exchanged.put(key, withoutCookies.result());
+            }
+        }
+        // the first handler is the one of the request which sent the exchange
+        for (int i = 0; i < waiting.size(); i++) {
+            waiting.get(i).handle(i == 0 ? result : withoutCookies);
+        }
+    }
+
+    // https://tools.ietf.org/html/draft-ietf-oauth-token-exchange-19#section-2.1, without the subject_token
+    private static MultiMap form(Map<String, String> config) {
+        final String clientId = config.get("clientId");
+        final String subjectIssuer = config.get("subjectIssuer");
+        final String clientSecret = config.get("clientSecret");
+
+        if (clientId == null || subjectIssuer == null || clientSecret == null) {
+            throw new IllegalStateException(
+                "missing config: clientId-> " + clientId + " subjectIssuer-> " + subjectIssuer + " clientSecret-> " + clientSecret);
+        }
+
+        return MultiMap.caseInsensitiveMultiMap()
+            .set("grant_type", "urn:ietf:params:oauth:grant-type:token-exchange")
+            .set("subject_token_type", "urn:ietf:params:oauth:token-type:saml2")
+            .set("subject_issuer", subjectIssuer)
+            .set("client_id", clientId)
+            .set("client_secret", clientSecret);
+    }
+
+    private static String hash(String assertion) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(assertion.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Result of a token exchange.
+     */
+    public static final class Exchange {
+        private final String accessToken;
+        private final List<String> cookies;
+        private final long expiresAt;
+
+        private Exchange(String accessToken, List<String> cookies, long expiresAt) {
+            this.accessToken = accessToken;
+            this.cookies = cookies;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Read the response of the IAM. The token expires at its "exp" claim, or after "expires_in" seconds of the
+         * response if it has none.
+         *
+         * @param response response of the IAM
+         * @return exchange
+         */
+        static Exchange of(HttpResponse<Buffer> response) {
+            final List<String> cookies = Collections.unmodifiableList(new ArrayList<>(response.cookies()));
+            if (response.statusCode() != OK) {
+                return new Exchange(null, cookies, 0);
+            }
+            final JsonObject body;
+            try {
+                body = response.bodyAsJsonObject();
+            }
+            catch (RuntimeException e) {
+                return new Exchange(null, cookies, 0);
+            }
+            final String accessToken = body == null ? null : body.getString("access_token");
+            if (accessToken == null) {
+                return new Exchange(null, cookies, 0);
+            }
+            return new Exchange(accessToken, cookies, expiresAt(accessToken, body));
+        }
+
+        private static long expiresAt(String accessToken, JsonObject body) {
+            try {
+                final DecodedJWT jwt = JWT.decode(accessToken);
+                if (jwt.getExpiresAt() != null) {
+                    return jwt.getExpiresAt().getTime();
+                }
+            }
+            catch (JWTDecodeException e) {
+                LOGGER.debug("expiresAt: access token is not a JWT, error: '{}'", e.getMessage());
+            }
+            final Object expiresIn = body.getValue("expires_in");
+            if (expiresIn instanceof Number) {
+                return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(((Number) expiresIn).longValue());
+            }
+            return 0;
+        }
+
+        /**
+         * The same exchange without the cookies of the IAM, for requests of other sessions.
+         *
+         * @return exchange
+         */
+        Exchange withoutCookies() {
+            return cookies.isEmpty() ? this : new Exchange(accessToken, Collections.emptyList(), expiresAt);
+        }
+
+        /**
+         * The issued token.
+         *
+         * @return token, null if the IAM refused the exchange
+         */
+        public String accessToken() {
+            return accessToken;
+        }
+
+        /**
+         * The Set-Cookie headers of the response of the IAM.
+         *
+         * @return cookies
+         */
+        public List<String> cookies() {
+            return cookies;
+        }
+    }
+}
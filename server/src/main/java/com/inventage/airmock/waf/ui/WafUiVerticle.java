@@ -1,12 +1,13 @@
 package com.inventage.airmock.waf.ui;
 
 import com.inventage.airmock.kernel.RouteProvider;
+import com.inventage.airmock.kernel.proxy.resilience.ResilienceRegistry;
 import com.inventage.airmock.kernel.route.RoutingContextUtils;
 import com.inventage.airmock.kernel.util.AirmockConfigRetriever;
 import com.inventage.airmock.waf.AirmockHandler;
-import com.inventage.airmock.waf.cookiebag.CookieBag;
 import com.inventage.airmock.waf.cookiebag.Cookiemanager;
-import com.inventage.airmock.waf.headerbag.Headermanager;
+import com.inventage.airmock.waf.headerbag.HeaderBag;
+import com.inventage.airmock.waf.session.AirmockSessionState;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.vertx.core.Future;
 import io.vertx.core.http.HttpHeaders;
@@ -25,12 +26,10 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.Map;
 
-import static com.inventage.airmock.waf.headerbag.HeaderBag.NAME_FIELD;
-import static com.inventage.airmock.waf.headerbag.HeaderBag.VALUE_FIELD;
 import static java.util.Objects.nonNull;
 
 /**
@@ -76,6 +75,7 @@ public class WafUiVerticle extends AbstractVerticle implements RouteProvider {
         router.get("/session/terminate").handler(this::terminateSession);
         router.get("/roles/:role/remove").handler(this::removeRoleFromSession);
         router.get("/cookiebags/:mapping/delete").handler(this::deleteCookiesOfMapping);
+        router.get("/backends").handler(this::backends);
         router.get("/*").handler(this::ui);
 
         return router;
@@ -101,6 +101,11 @@ public class WafUiVerticle extends AbstractVerticle implements RouteProvider {
         routingContext.response().setStatusCode(HttpResponseStatus.FOUND.code()).putHeader(HttpHeaders.LOCATION.toString(), "/waf").end();
     }
 
+    private void backends(RoutingContext rc) {
+        rc.response().putHeader(HttpHeaders.CONTENT_TYPE.toString(), "application/json;charset=utf-8")
+            .end(ResilienceRegistry.shared(vertx.getDelegate()).toJson().encodePrettily());
+    }
+
     private void ui(RoutingContext rc) {
         rc.response().putHeader(HttpHeaders.CONTENT_TYPE.toString(), "text/html;charset=utf-8").end(mePage(rc));
     }
@@ -125,42 +130,34 @@ public class WafUiVerticle extends AbstractVerticle implements RouteProvider {
     private String cookieBagSection(RoutingContext rc) {
         final StringBuffer buffer = new StringBuffer();
         buffer.append("<h2>Cookie Bag</h2>");
-        final JsonObject cookieBag = (JsonObject) RoutingContextUtils.session(rc).get(Cookiemanager.COOKIE_BAG);
-        if (cookieBag != null) {
+        final AirmockSessionState state = AirmockSessionState.peek(rc);
+        if (state != null) {
             buffer.append("<ul>");
-            cookieBag.stream()
-                    .map(entry -> (Map.Entry<String, Object>) entry)
-                    .forEach(pathCookies -> {
-                        final String path = pathCookies.getKey();
-                        buffer.append("<li>");
-                        buffer.append(path);
-                        final Object value = ((Map.Entry) pathCookies).getValue();
-                        if (value instanceof JsonArray) {
-                            buffer.append("<ul>");
-                            final JsonArray cookies = (JsonArray) value;
-                            cookies.stream().map(entry -> (JsonObject) entry).forEach(cookie -> {
-                                buffer.append("<li>");
-                                buffer.append(pre(cookie.getString("name") + "=" + cookie.getString("value")));
-                                if (showJWTDecodingLink(cookie)) {
-                                    buffer.append(" [");
-                                    buffer.append("<a target=_blank href=\"https://jwt.io?token=")
-                                            .append(cookie.getString(CookieBag.VALUE_FIELD))
-                                            .append("\">show</a>");
-                                    buffer.append("]");
-                                }
-                                buffer.append("</li>");
-                            });
-                            buffer.append("</ul>");
-                        }
-                        buffer.append("</li>");
-                    });
+            state.getCookieBag().forEach((path, cookies) -> {
+                buffer.append("<li>");
+                buffer.append(path);
+                buffer.append("<ul>");
+                cookies.forEach((name, value) -> {
+                    buffer.append("<li>");
+                    buffer.append(pre(name + "=" + value));
+                    if (showJWTDecodingLink(name)) {
+                        buffer.append(" [");
+                        buffer.append("<a target=_blank href=\"https://jwt.io?token=")
+                                .append(value)
+                                .append("\">show</a>");
+                        buffer.append("]");
+                    }
+                    buffer.append("</li>");
+                });
+                buffer.append("</ul>");
+                buffer.append("</li>");
+            });
             buffer.append("</ul>");
         }
         return buffer.toString();
     }
 
-    private boolean showJWTDecodingLink(JsonObject cookie) {
-        final String cookieName = cookie.getString("name");
+    private boolean showJWTDecodingLink(String cookieName) {
         return cookieName.endsWith("_token") ||
                 cookieName.endsWith("KEYCLOAK_IDENTITY") ||
                 "jwt".equals(cookieName);
@@ -169,37 +166,33 @@ public class WafUiVerticle extends AbstractVerticle implements RouteProvider {
     private String headerBagSection(RoutingContext rc) {
         final StringBuffer buffer = new StringBuffer();
         buffer.append("<h2>Header Bag</h2>");
-        final JsonArray headerBag = RoutingContextUtils.session(rc).get(Headermanager.HEADER_BAG);
-        if (headerBag != null) {
+        final AirmockSessionState state = AirmockSessionState.peek(rc);
+        if (state != null) {
             buffer.append("<ul>");
-            headerBag.stream()
-                    .map(e -> (JsonObject) e)
-                    .forEach(header -> {
-                        buffer.append("<li>");
-                        if (header instanceof JsonObject) {
-                            buffer.append(pre(header.getString(NAME_FIELD) + "=" + header.getString(VALUE_FIELD)));
-                        }
-
-                        final String encodedJWT = getEncodedJWT(header);
-                        if (encodedJWT != null) {
-                            buffer.append(" [");
-                            buffer.append("<a target=_blank href=\"https://jwt.io?token=")
-                                    .append(encodedJWT)
-                                    .append("\">show</a>");
-                            buffer.append("]");
-                        }
-
-                        buffer.append("</li>");
-                    });
+            state.getHeaderBag().forEach(header -> {
+                buffer.append("<li>");
+                buffer.append(pre(header.getName() + "=" + header.getValue()));
+
+                final String encodedJWT = getEncodedJWT(header);
+                if (encodedJWT != null) {
+                    buffer.append(" [");
+                    buffer.append("<a target=_blank href=\"https://jwt.io?token=")
+                            .append(encodedJWT)
+                            .append("\">show</a>");
+                    buffer.append("]");
+                }
+
+                buffer.append("</li>");
+            });
             buffer.append("</ul>");
         }
         return buffer.toString();
     }
 
-    private String getEncodedJWT(JsonObject header) {
-        final String headerName = header.getString(NAME_FIELD);
-        if ("Authorization".equals(headerName)) {
-            final String authorizationValue = header.getString(VALUE_FIELD);
+    private String getEncodedJWT(HeaderBag.HttpHeader header) {
+        final String headerName = header.getName().toString();
+        if ("Authorization".equalsIgnoreCase(headerName)) {
+            final String authorizationValue = header.getValue();
             if (authorizationValue.startsWith("Bearer ")) {
                 return authorizationValue.replaceFirst("Bearer ", "");
             }
@@ -223,8 +216,8 @@ public class WafUiVerticle extends AbstractVerticle implements RouteProvider {
                             .append("\"> [")
                             .append(mapping.getString("contextRoot"))
                             .append("]</a> ");
-                    buffer.append(session.get(mapping.getString("contextRoot")) != null ? " @ "
-                        + DATE_TIME_FORMATTER.format(session.get(mapping.getString("contextRoot"))) : "");
+                    final Long lastAccess = session.get(mapping.getString("contextRoot"));
+                    buffer.append(lastAccess != null ? " @ " + DATE_TIME_FORMATTER.format(Instant.ofEpochMilli(lastAccess)) : "");
                     buffer.append("</li>");
                 });
         }
@@ -237,13 +230,13 @@ public class WafUiVerticle extends AbstractVerticle implements RouteProvider {
         final StringBuffer buffer = new StringBuffer();
         buffer.append("<h2>Roles</h2>");
 
-        final JsonArray wafRoles = RoutingContextUtils.session(rc).get("WAF_ROLES");
-        if (wafRoles != null) {
+        final AirmockSessionState state = AirmockSessionState.peek(rc);
+        if (state != null) {
             buffer.append("<ul>");
-            wafRoles.stream().map(role -> (JsonObject) role).forEach(role -> {
+            state.getRoles().forEach(role -> {
                 buffer
                         .append("<li>")
-                        .append(code(role.toString())).append(" [<a href=\"/waf/roles/").append(role.getString("name")).append("/remove\">remove</a>]")
+                        .append(code(role.toString())).append(" [<a href=\"/waf/roles/").append(role.getName()).append("/remove\">remove</a>]")
                         .append("</li>");
 
             });
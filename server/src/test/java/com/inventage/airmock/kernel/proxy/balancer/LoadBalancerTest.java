@@ -0,0 +1,242 @@
+package com.inventage.airmock.kernel.proxy.balancer;
+
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class LoadBalancerTest {
+
+    private static final List<BackendInstance> INSTANCES = Arrays.asList(
+        new BackendInstance("app1", 8080, 1),
+        new BackendInstance("app2", 8080, 1),
+        new BackendInstance("app3", 8080, 2));
+
+    @Test
+    public void test_round_robin() {
+        // given
+        final LoadBalancer balancer = LoadBalancer.create(INSTANCES, LoadBalancer.Strategy.ROUND_ROBIN, null);
+        // when
+        final Map<String, Integer> counts = select(balancer, 300);
+        // then
+        Assertions.assertEquals(100, counts.get("app1"));
+        Assertions.assertEquals(100, counts.get("app2"));
+        Assertions.assertEquals(100, counts.get("app3"));
+    }
+
+    @Test
+    public void test_weighted_interleaves_by_weight() {
+        // given
+        final LoadBalancer balancer = LoadBalancer.create(INSTANCES, LoadBalancer.Strategy.WEIGHTED, null);
+        // when
+        final String first = balancer.select(null).instance().host();
+        final String second = balancer.select(null).instance().host();
+        final Map<String, Integer> counts = select(balancer, 400);
+        // then
+        Assertions.assertNotEquals(first, second, "instances are interleaved");
+        Assertions.assertEquals(100, counts.get("app1"));
+        Assertions.assertEquals(100, counts.get("app2"));
+        Assertions.assertEquals(200, counts.get("app3"));
+    }
+
+    @Test
+    public void test_least_outstanding() {
+        // given
+        final LoadBalancer balancer = LoadBalancer.create(INSTANCES, LoadBalancer.Strategy.LEAST_OUTSTANDING, null);
+        final List<LoadBalancer.Member> members = balancer.members();
+        members.get(0).acquire();
+        members.get(1).acquire();
+        members.get(1).acquire();
+        members.get(2).acquire();
+        members.get(2).acquire();
+        members.get(2).acquire();
+        // when / then
+        Assertions.assertSame(members.get(0), balancer.select(null), "1 outstanding of weight 1 is less than 3 of weight 2");
+        // when
+        members.get(0).acquire();
+        // then
+        Assertions.assertSame(members.get(2), balancer.select(null));
+        // when
+        members.get(1).release();
+        members.get(1).release();
+        // then
+        Assertions.assertSame(members.get(1), balancer.select(null));
+        Assertions.assertEquals(0, members.get(1).outstanding());
+    }
+
+    @Test
+    public void test_power_of_two_avoids_the_loaded_instance() {
+        // given
+        final LoadBalancer balancer = LoadBalancer.create(INSTANCES.subList(0, 2), LoadBalancer.Strategy.POWER_OF_TWO, null);
+        balancer.members().get(0).acquire();
+        // when
+        final Map<String, Integer> counts = select(balancer, 100);
+        // then
+        Assertions.assertEquals(100, counts.get("app2"));
+    }
+
+    @Test
+    public void test_consistent_hash_is_stable_and_spread() {
+        // given
+        final LoadBalancer balancer = LoadBalancer.create(INSTANCES, LoadBalancer.Strategy.CONSISTENT_HASH, null);
+        final LoadBalancer withoutApp2 = LoadBalancer.create(Arrays.asList(INSTANCES.get(0), INSTANCES.get(2)), LoadBalancer.Strategy.CONSISTENT_HASH, null);
+        final Map<String, Integer> counts = new HashMap<>();
+        int moved = 0;
+        // when
+        for (int i = 0; i < 4000; i++) {
+            final String host = balancer.consistentHash("session-" + i, 0).instance().host();
+            counts.merge(host, 1, Integer::sum);
+            Assertions.assertEquals(host, balancer.consistentHash("session-" + i, 0).instance().host());
+            if (!"app2".equals(host) && !host.equals(withoutApp2.consistentHash("session-" + i, 0).instance().host())) {
+                moved++;
+            }
+        }
+        // then
+        Assertions.assertTrue(counts.get("app1") > 700 && counts.get("app1") < 1300, "about a quarter: " + counts);
+        Assertions.assertTrue(counts.get("app3") > 1600 && counts.get("app3") < 2400, "about half: " + counts);
+        Assertions.assertEquals(0, moved, "only the sessions of the removed instance move");
+    }
+
+    @Test
+    public void test_consecutive_errors_eject_with_exponential_back_off() {
+        // given
+        final HealthPolicy policy = policy(HealthPolicy.OUTLIER_CONSECUTIVE_ERRORS, "3", HealthPolicy.OUTLIER_BASE_EJECTION, "10",
+            HealthPolicy.OUTLIER_MAX_EJECTION, "40");
+        final LoadBalancer balancer = LoadBalancer.create(INSTANCES, LoadBalancer.Strategy.ROUND_ROBIN, null, policy);
+        final LoadBalancer.Member member = balancer.members().get(0);
+        final long now = System.currentTimeMillis();
+        // when
+        member.onError(now);
+        member.onResponse(500, 0, now);
+        final boolean ejectedBeforeThreshold = member.isEjected(now);
+        member.onError(now);
+        // then
+        Assertions.assertFalse(ejectedBeforeThreshold);
+        Assertions.assertTrue(member.isEjected(now + 9_999));
+        Assertions.assertFalse(member.isEjected(now + 10_000));
+        Assertions.assertFalse(select(balancer, 30).containsKey("app1"), "ejected instance is skipped");
+        // when ejected again after re-admission
+        for (int i = 0; i < 3; i++) {
+            member.onError(now + 10_000);
+        }
+        // then
+        Assertions.assertTrue(member.isEjected(now + 29_999));
+        Assertions.assertFalse(member.isEjected(now + 30_000));
+        Assertions.assertEquals(40_000, policy.ejectionMillis(5));
+    }
+
+    @Test
+    public void test_latency_outlier_is_ejected() {
+        // given
+        final LoadBalancer balancer = LoadBalancer.create(INSTANCES, LoadBalancer.Strategy.ROUND_ROBIN, null, HealthPolicy.DEFAULT);
+        final List<LoadBalancer.Member> members = balancer.members();
+        final long now = System.currentTimeMillis();
+        // when
+        for (int i = 0; i < 20; i++) {
+            members.get(1).onResponse(200, TimeUnit.MILLISECONDS.toNanos(60), now);
+            members.get(2).onResponse(200, TimeUnit.MILLISECONDS.toNanos(80), now);
+        }
+        for (int i = 0; i < 19; i++) {
+            members.get(0).onResponse(200, TimeUnit.MILLISECONDS.toNanos(300), now);
+        }
+        final boolean ejectedWithFewSamples = members.get(0).isEjected(now);
+        members.get(0).onResponse(200, TimeUnit.MILLISECONDS.toNanos(300), now);
+        // then
+        Assertions.assertFalse(ejectedWithFewSamples);
+        Assertions.assertTrue(members.get(0).isEjected(now));
+        Assertions.assertFalse(members.get(1).isEjected(now));
+    }
+
+    @Test
+    public void test_ejections_are_limited_by_the_maximal_percentage() {
+        // given
+        final HealthPolicy policy = policy(HealthPolicy.OUTLIER_CONSECUTIVE_ERRORS, "1");
+        final LoadBalancer balancer = LoadBalancer.create(INSTANCES.subList(0, 2), LoadBalancer.Strategy.ROUND_ROBIN, null, policy);
+        final long now = System.currentTimeMillis();
+        // when
+        balancer.members().get(0).onError(now);
+        balancer.members().get(1).onError(now);
+        // then
+        Assertions.assertTrue(balancer.members().get(0).isEjected(now));
+        Assertions.assertFalse(balancer.members().get(1).isEjected(now));
+    }
+
+    @Test
+    public void test_probes_take_instances_out_and_back() {
+        // given
+        final LoadBalancer balancer = LoadBalancer.create(INSTANCES.subList(0, 2), LoadBalancer.Strategy.LEAST_OUTSTANDING, null, HealthPolicy.DEFAULT);
+        final LoadBalancer.Member member = balancer.members().get(0);
+        // when
+        member.onProbe(false);
+        member.onProbe(false);
+        final boolean healthyBelowThreshold = member.isHealthy();
+        member.onProbe(false);
+        // then
+        Assertions.assertTrue(healthyBelowThreshold);
+        Assertions.assertFalse(member.isHealthy());
+        Assertions.assertEquals(Integer.valueOf(50), select(balancer, 50).get("app2"));
+        // when
+        member.onProbe(true);
+        member.onProbe(true);
+        // then
+        Assertions.assertTrue(member.isHealthy());
+        Assertions.assertTrue(select(balancer, 50).containsKey("app1"));
+    }
+
+    @Test
+    public void test_active_health_checks() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final int healthy = listen(vertx, 200);
+        final int failing = listen(vertx, 503);
+        final HealthPolicy policy = policy(HealthPolicy.HEALTH_CHECK_PATH, "/health", HealthPolicy.HEALTH_CHECK_INTERVAL, "1",
+            HealthPolicy.UNHEALTHY_THRESHOLD, "1");
+        final LoadBalancer balancer = LoadBalancer.create(Arrays.asList(new BackendInstance("localhost", healthy, 1),
+            new BackendInstance("localhost", failing, 1)), LoadBalancer.Strategy.ROUND_ROBIN, null, policy);
+        // when
+        balancer.startHealthChecks(vertx, vertx.createHttpClient());
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while (balancer.members().get(1).isHealthy() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        // then
+        Assertions.assertTrue(balancer.members().get(0).isHealthy());
+        Assertions.assertFalse(balancer.members().get(1).isHealthy());
+        vertx.close();
+    }
+
+    @Test
+    public void test_strategy_names() {
+        Assertions.assertEquals(LoadBalancer.Strategy.LEAST_OUTSTANDING, LoadBalancer.Strategy.of("least-outstanding"));
+        Assertions.assertEquals(LoadBalancer.Strategy.POWER_OF_TWO, LoadBalancer.Strategy.of(" POWER_OF_TWO "));
+    }
+
+    private static HealthPolicy policy(String... keysAndValues) {
+        final Map<String, String> config = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            config.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return HealthPolicy.of(config);
+    }
+
+    private static int listen(Vertx vertx, int statusCode) throws Exception {
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(request -> request.response().setStatusCode(statusCode).end())
+            .listen(0, "localhost", ar -> port.complete(ar.result().actualPort()));
+        return port.get(10, TimeUnit.SECONDS);
+    }
+
+    private static Map<String, Integer> select(LoadBalancer balancer, int requests) {
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < requests; i++) {
+            counts.merge(balancer.select(null).instance().host(), 1, Integer::sum);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,174 @@
+package com.inventage.airmock.kernel.proxy.cache;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+public class ResponseCacheTest {
+
+    private static final String KEY = "http://localhost:10001/app/data.json";
+
+    @Test
+    public void test_scope() {
+        // given
+        final MultiMap request = headers();
+        // when / then
+        Assertions.assertEquals(ResponseCache.Scope.SHARED, scope(headers("Cache-Control", "max-age=60"), request, headers()));
+        Assertions.assertEquals(ResponseCache.Scope.SHARED, scope(headers("ETag", "\"1\""), request, headers()));
+        Assertions.assertEquals(ResponseCache.Scope.NONE, scope(headers(), request, headers()));
+        Assertions.assertEquals(ResponseCache.Scope.NONE, scope(headers("Cache-Control", "no-store, max-age=60"), request, headers()));
+        Assertions.assertEquals(ResponseCache.Scope.NONE, scope(headers("Cache-Control", "max-age=60", "Set-Cookie", "a=b"), request, headers()));
+        Assertions.assertEquals(ResponseCache.Scope.NONE, scope(headers("Cache-Control", "max-age=60", "Vary", "*"), request, headers()));
+        Assertions.assertEquals(ResponseCache.Scope.NONE,
+            ResponseCache.scope(HttpMethod.POST, 200, headers("Cache-Control", "max-age=60"), request, headers()));
+    }
+
+    @Test
+    public void test_scope_is_session_if_credentials_are_injected_or_vary_on_cookie() {
+        // given
+        final MultiMap request = headers("Accept-Language", "de");
+        // when / then
+        Assertions.assertEquals(ResponseCache.Scope.SESSION, scope(headers("Cache-Control", "max-age=60"), request, headers("Cookie", "JSESSIONID=1")));
+        Assertions.assertEquals(ResponseCache.Scope.SESSION, scope(headers("Cache-Control", "max-age=60"), request, headers("Authorization", "Bearer x")));
+        Assertions.assertEquals(ResponseCache.Scope.SESSION, scope(headers("Cache-Control", "max-age=60", "Vary", "Cookie"), request, headers()));
+        Assertions.assertEquals(ResponseCache.Scope.SESSION, scope(headers("Cache-Control", "private, max-age=60"), request, headers()));
+        Assertions.assertEquals(ResponseCache.Scope.SESSION,
+            scope(headers("Cache-Control", "max-age=60", "Vary", "X-User"), request, headers("X-User", "alice")));
+        Assertions.assertEquals(ResponseCache.Scope.SHARED,
+            scope(headers("Cache-Control", "max-age=60", "Vary", "Accept-Language"), request, headers("Accept-Language", "de")));
+    }
+
+    @Test
+    public void test_session_entries_are_not_shared() {
+        // given
+        final ResponseCache cache = new ResponseCache(1024 * 1024, 1024, null);
+        cache.put(KEY, entry("alice", headers("Cache-Control", "max-age=60"), "for alice"));
+        // when
+        final CachedResponse forAlice = cache.get(KEY, "alice", headers());
+        final CachedResponse forBob = cache.get(KEY, "bob", headers());
+        final CachedResponse withoutSession = cache.get(KEY, null, headers());
+        // then
+        Assertions.assertEquals("for alice", forAlice.body().toString());
+        Assertions.assertNull(forBob);
+        Assertions.assertNull(withoutSession);
+    }
+
+    @Test
+    public void test_vary() {
+        // given
+        final ResponseCache cache = new ResponseCache(1024 * 1024, 1024, null);
+        final MultiMap responseHeaders = headers("Cache-Control", "max-age=60", "Vary", "Accept-Language");
+        cache.put(KEY, CachedResponse.create(200, "OK", responseHeaders, Buffer.buffer("de"), headers("Accept-Language", "de"), null, now()));
+        // when / then
+        Assertions.assertNotNull(cache.get(KEY, null, headers("Accept-Language", "de")));
+        Assertions.assertNull(cache.get(KEY, null, headers("Accept-Language", "en")));
+    }
+
+    @Test
+    public void test_freshness_and_revalidation() {
+        // given
+        final CachedResponse maxAge = entry(null, headers("Cache-Control", "max-age=60", "Age", "10"), "body");
+        final CachedResponse noCache = entry(null, headers("Cache-Control", "no-cache", "ETag", "\"1\""), "body");
+        final CachedResponse expires = entry(null, headers("Date", "Mon, 01 Jan 2024 10:00:00 GMT", "Expires", "Mon, 01 Jan 2024 10:01:00 GMT"), "body");
+        // when
+        final CachedResponse refreshed = noCache.refresh(headers("Cache-Control", "max-age=30", "ETag", "\"1\""), now());
+        // then
+        Assertions.assertTrue(maxAge.isFresh(now() + 49_000));
+        Assertions.assertFalse(maxAge.isFresh(now() + 51_000));
+        Assertions.assertFalse(noCache.isFresh(now()));
+        Assertions.assertTrue(noCache.isRevalidatable());
+        Assertions.assertTrue(expires.isFresh(now() + 59_000));
+        Assertions.assertTrue(refreshed.isFresh(now() + 29_000));
+        Assertions.assertEquals("body", refreshed.body().toString());
+        final MultiMap conditional = headers();
+        noCache.addConditionalHeaders(conditional);
+        Assertions.assertEquals("\"1\"", conditional.get("If-None-Match"));
+    }
+
+    @Test
+    public void test_least_recently_used_entries_are_moved_to_disk() throws Exception {
+        // given
+        final File file = File.createTempFile("airmock-response-cache", ".cache");
+        file.deleteOnExit();
+        final DiskTier disk = DiskTier.open(file.getPath(), 64 * 1024);
+        final ResponseCache cache = new ResponseCache(3 * 1024, 2048, disk);
+        // when
+        for (int i = 0; i < 10; i++) {
+            cache.put(KEY + i, entry(null, headers("Cache-Control", "max-age=60"), repeat(i, 1000)));
+        }
+        // then
+        Assertions.assertTrue(cache.usedMemory() <= 3 * 1024);
+        Assertions.assertEquals(10, cache.size());
+        Assertions.assertEquals(repeat(0, 1000), cache.get(KEY + 0, null, headers()).body().toString(), "promoted from disk");
+        Assertions.assertTrue(cache.evicted() > 0);
+        cache.close();
+    }
+
+    @Test
+    public void test_disk_tier_evicts_overwritten_entries() throws Exception {
+        // given
+        final File file = File.createTempFile("airmock-response-cache", ".cache");
+        file.deleteOnExit();
+        final DiskTier disk = DiskTier.open(file.getPath(), 300);
+        // when
+        disk.put("a", Buffer.buffer(new byte[100]));
+        disk.put("b", Buffer.buffer(new byte[100]));
+        disk.put("c", Buffer.buffer(new byte[50]));
+        disk.put("d", Buffer.buffer(new byte[150]));
+        // then
+        Assertions.assertNull(disk.get("a"));
+        Assertions.assertNull(disk.get("b"));
+        Assertions.assertEquals(50, disk.get("c").length());
+        Assertions.assertEquals(150, disk.get("d").length());
+        Assertions.assertFalse(disk.put("e", Buffer.buffer(new byte[301])));
+        disk.close();
+    }
+
+    @Test
+    public void test_serialization() {
+        // given
+        final CachedResponse entry = CachedResponse.create(200, "OK", headers("Cache-Control", "max-age=60", "Vary", "Accept", "Content-Type", "text/plain"),
+            Buffer.buffer("body"), headers("Accept", "text/plain"), "alice", now());
+        // when
+        final CachedResponse copy = CachedResponse.fromBuffer(entry.toBuffer());
+        // then
+        Assertions.assertEquals("body", copy.body().toString());
+        Assertions.assertEquals("text/plain", copy.headers().get("content-type"));
+        Assertions.assertEquals("alice", copy.sessionId());
+        Assertions.assertTrue(copy.matches(headers("Accept", "text/plain")));
+        Assertions.assertFalse(copy.matches(headers("Accept", "text/html")));
+        Assertions.assertTrue(copy.isFresh(now()));
+    }
+
+    private static ResponseCache.Scope scope(MultiMap responseHeaders, MultiMap frontendHeaders, MultiMap backendHeaders) {
+        return ResponseCache.scope(HttpMethod.GET, 200, responseHeaders, frontendHeaders, backendHeaders);
+    }
+
+    private static CachedResponse entry(String sessionId, MultiMap responseHeaders, String body) {
+        return CachedResponse.create(200, "OK", responseHeaders, Buffer.buffer(body), headers(), sessionId, now());
+    }
+
+    private static MultiMap headers(String... namesAndValues) {
+        final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.add(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return headers;
+    }
+
+    private static String repeat(int value, int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value % 10);
+        }
+        return builder.toString();
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+}
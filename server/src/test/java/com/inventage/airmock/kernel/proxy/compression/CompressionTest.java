@@ -0,0 +1,113 @@
+package com.inventage.airmock.kernel.proxy.compression;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class CompressionTest {
+
+    @Test
+    public void test_accepted_encoding() {
+        Assertions.assertEquals(Compression.Encoding.GZIP, Compression.Encoding.accepted(Collections.singletonList("deflate, gzip")));
+        Assertions.assertEquals(Compression.Encoding.DEFLATE, Compression.Encoding.accepted(Collections.singletonList("gzip;q=0.5, deflate")));
+        Assertions.assertEquals(Compression.Encoding.GZIP, Compression.Encoding.accepted(Collections.singletonList("br, *")));
+        Assertions.assertNull(Compression.Encoding.accepted(Collections.singletonList("gzip;q=0, br")));
+        Assertions.assertNull(Compression.Encoding.accepted(Collections.emptyList()));
+    }
+
+    @Test
+    public void test_wildcard_does_not_accept_refused_encoding() {
+        Assertions.assertEquals(Compression.Encoding.DEFLATE, Compression.Encoding.accepted(Collections.singletonList("gzip;q=0, *")));
+        Assertions.assertEquals(Compression.Encoding.DEFLATE, Compression.Encoding.accepted(Arrays.asList("*", "gzip;q=0")));
+        Assertions.assertNull(Compression.Encoding.accepted(Collections.singletonList("gzip;q=0, deflate;q=0, *")));
+        Assertions.assertEquals(Compression.Encoding.GZIP, Compression.Encoding.accepted(Collections.singletonList("deflate;q=0.5, *;q=0.8")));
+    }
+
+    @Test
+    public void test_compressible_types() {
+        // given
+        final Compression compression = compression(Compression.COMPRESS, "true");
+        // then
+        Assertions.assertTrue(compression.isCompressible("application/json; charset=utf-8"));
+        Assertions.assertTrue(compression.isCompressible("text/html"));
+        Assertions.assertTrue(compression.isCompressible("application/problem+json"));
+        Assertions.assertFalse(compression.isCompressible("text/event-stream"));
+        Assertions.assertFalse(compression.isCompressible("image/png"));
+        Assertions.assertFalse(compression.isCompressible(null));
+        Assertions.assertTrue(compression(Compression.COMPRESS_TYPES, "application/pdf").isCompressible("application/pdf"));
+    }
+
+    @Test
+    public void test_streamed_gzip_round_trip() throws Exception {
+        // given
+        final Compressor compressor = new Compressor(Compression.Encoding.GZIP, 6);
+        final Buffer compressed = Buffer.buffer();
+        final StringBuilder body = new StringBuilder();
+        // when
+        for (int i = 0; i < 1000; i++) {
+            final String chunk = "{\"index\":" + i + ",\"name\":\"chunk\"}\n";
+            body.append(chunk);
+            compressed.appendBuffer(compressor.compress(Buffer.buffer(chunk)));
+        }
+        compressed.appendBuffer(compressor.finish());
+        // then
+        Assertions.assertEquals(body.toString(), read(new GZIPInputStream(new ByteArrayInputStream(compressed.getBytes()))));
+        Assertions.assertTrue(compressed.length() < body.length() / 2, "compressed " + compressed.length() + " of " + body.length());
+    }
+
+    @Test
+    public void test_deflate_round_trip() throws Exception {
+        // given
+        final Buffer body = Buffer.buffer(String.join("", Collections.nCopies(200, "lorem ipsum ")));
+        // when
+        final Buffer compressed = Compressor.compress(body, Compression.Encoding.DEFLATE, 9);
+        // then
+        Assertions.assertEquals(body.toString(), read(new InflaterInputStream(new ByteArrayInputStream(compressed.getBytes()))));
+    }
+
+    @Test
+    public void test_headers_of_compressed_response() {
+        // given
+        final MultiMap headers = MultiMap.caseInsensitiveMultiMap()
+            .add("Content-Length", "2048")
+            .add("ETag", "\"v1\"")
+            .add("Vary", "Cookie");
+        // when
+        Compression.applyHeaders(headers, Compression.Encoding.GZIP);
+        // then
+        Assertions.assertNull(headers.get("Content-Length"));
+        Assertions.assertEquals("gzip", headers.get("Content-Encoding"));
+        Assertions.assertEquals(Arrays.asList("Cookie", "accept-encoding"), headers.getAll("Vary"));
+        Assertions.assertEquals("W/\"v1\"", headers.get("ETag"));
+    }
+
+    private static Compression compression(String... keysAndValues) {
+        final Map<String, String> config = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            config.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return Compression.of(config);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,128 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.net.NetServer;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.http.HttpServer;
+import io.vertx.reactivex.ext.web.Router;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class BackendResponseImplTest {
+
+    private static final int BODY_SIZE = 512 * 1024;
+
+    @Test
+    public void test_response_without_content_length_is_chunked_for_http_1_1() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final int proxyPort = startProxy(vertx, startBackend(vertx));
+        // when
+        final Response response = get(vertx, proxyPort, HttpVersion.HTTP_1_1);
+        // then
+        Assertions.assertEquals(200, response.statusCode);
+        Assertions.assertEquals("chunked", response.transferEncoding);
+        Assertions.assertEquals(body().toString(), response.body.toString());
+        vertx.close();
+    }
+
+    @Test
+    public void test_response_without_content_length_is_delimited_by_close_for_http_1_0() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final int proxyPort = startProxy(vertx, startBackend(vertx));
+        // when
+        final String response = getWithHttp10(proxyPort);
+        // then
+        final int headerEnd = response.indexOf("\r\n\r\n");
+        final String head = response.substring(0, headerEnd).toLowerCase();
+        Assertions.assertTrue(head.startsWith("http/1.0 200"), head);
+        Assertions.assertFalse(head.contains("transfer-encoding"), head);
+        Assertions.assertFalse(head.contains("content-length"), head);
+        Assertions.assertEquals(body().toString(), response.substring(headerEnd + 4));
+        vertx.close();
+    }
+
+    /**
+     * A HTTP/1.0 backend sending its body without a content length and closing the connection at the end.
+     */
+    private int startBackend(Vertx vertx) throws Exception {
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        final NetServer server = vertx.getDelegate().createNetServer().connectHandler(socket -> socket.handler(request -> {
+            socket.write("HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n\r\n");
+            socket.write(body());
+            socket.close();
+        }));
+        server.listen(0, "localhost", ar -> port.complete(ar.result().actualPort()));
+        return port.get(10, TimeUnit.SECONDS);
+    }
+
+    private int startProxy(Vertx vertx, int backendPort) throws Exception {
+        final HttpProxyImpl proxy = new HttpProxyImpl();
+        proxy.backend("http", "localhost", backendPort);
+        proxy.setClient(vertx.getDelegate().createHttpClient());
+        final Router router = Router.router(vertx);
+        router.route().handler(proxy::delegate);
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        final HttpServer server = vertx.createHttpServer().requestHandler(router);
+        server.listen(0, ar -> port.complete(ar.result().actualPort()));
+        return port.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A HTTP/1.0 client asking for keep alive, which reads the response until the connection is closed.
+     */
+    private String getWithHttp10(int port) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10_000);
+            socket.getOutputStream().write("GET /download HTTP/1.0\r\nConnection: keep-alive\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int length = socket.getInputStream().read(buffer);
+            while (length >= 0) {
+                response.write(buffer, 0, length);
+                length = socket.getInputStream().read(buffer);
+            }
+            return new String(response.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private Response get(Vertx vertx, int port, HttpVersion version) throws Exception {
+        final HttpClient client = vertx.getDelegate().createHttpClient(new HttpClientOptions().setProtocolVersion(version));
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        client.getNow(port, "localhost", "/download", response -> response.bodyHandler(body -> result.complete(new Response(response, body))));
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private static Buffer body() {
+        final Buffer body = Buffer.buffer(BODY_SIZE);
+        for (int i = 0; i < BODY_SIZE; i++) {
+            body.appendByte((byte) ('a' + i % 26));
+        }
+        return body;
+    }
+
+    private static final class Response {
+        private final int statusCode;
+        private final String transferEncoding;
+        private final String connection;
+        private final Buffer body;
+
+        private Response(HttpClientResponse response, Buffer body) {
+            this.statusCode = response.statusCode();
+            this.transferEncoding = response.getHeader("transfer-encoding");
+            this.connection = response.getHeader("connection");
+            this.body = body;
+        }
+    }
+}
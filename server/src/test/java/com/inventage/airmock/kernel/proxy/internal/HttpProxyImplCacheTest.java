@@ -0,0 +1,95 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import com.inventage.airmock.kernel.proxy.cache.ResponseCache;
+import com.inventage.airmock.kernel.proxy.internal.ProxyFixture.Response;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpProxyImplCacheTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @Test
+    public void test_fresh_response_is_served_from_cache() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final Backend backend = startBackend(vertx);
+        final int proxyPort = startProxy(vertx, backend.port);
+        // when
+        final Response first = ProxyFixture.get(vertx, proxyPort, "/fresh");
+        final Response second = ProxyFixture.get(vertx, proxyPort, "/fresh");
+        // then
+        Assertions.assertEquals(1, backend.requests.get());
+        Assertions.assertEquals("body of /fresh", first.body.toString());
+        Assertions.assertEquals(200, second.statusCode);
+        Assertions.assertEquals("body of /fresh", second.body.toString());
+        Assertions.assertNotNull(second.header("Age"));
+        vertx.close();
+    }
+
+    @Test
+    public void test_stale_response_is_revalidated() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final Backend backend = startBackend(vertx);
+        final int proxyPort = startProxy(vertx, backend.port);
+        // when
+        ProxyFixture.get(vertx, proxyPort, "/stale");
+        final Response second = ProxyFixture.get(vertx, proxyPort, "/stale");
+        // then
+        Assertions.assertEquals(2, backend.requests.get());
+        Assertions.assertEquals(1, backend.notModified.get());
+        Assertions.assertEquals(200, second.statusCode);
+        Assertions.assertEquals("body of /stale", second.body.toString());
+        vertx.close();
+    }
+
+    @Test
+    public void test_uncacheable_response_is_not_stored() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final Backend backend = startBackend(vertx);
+        final int proxyPort = startProxy(vertx, backend.port);
+        // when
+        ProxyFixture.get(vertx, proxyPort, "/no-store");
+        final Response second = ProxyFixture.get(vertx, proxyPort, "/no-store");
+        // then
+        Assertions.assertEquals(2, backend.requests.get());
+        Assertions.assertEquals("body of /no-store", second.body.toString());
+        vertx.close();
+    }
+
+    /**
+     * Backend answering /fresh with max-age, /stale with no-cache and an ETag and /no-store with no-store.
+     */
+    private Backend startBackend(Vertx vertx) throws Exception {
+        final Backend backend = new Backend();
+        backend.port = ProxyFixture.startBackend(vertx, request -> {
+            backend.requests.incrementAndGet();
+            if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                backend.notModified.incrementAndGet();
+                request.response().setStatusCode(304).putHeader("ETag", ETAG).end();
+                return;
+            }
+            final String cacheControl = "/fresh".equals(request.path()) ? "max-age=60" : "/stale".equals(request.path()) ? "no-cache" : "no-store";
+            request.response().putHeader("Cache-Control", cacheControl).putHeader("ETag", ETAG).end("body of " + request.path());
+        });
+        return backend;
+    }
+
+    private int startProxy(Vertx vertx, int backendPort) throws Exception {
+        final HttpProxyImpl proxy = ProxyFixture.proxy(vertx, backendPort);
+        proxy.responseCache(ResponseCache.create(new JsonObject()));
+        return ProxyFixture.startProxy(vertx, proxy);
+    }
+
+    private static final class Backend {
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger notModified = new AtomicInteger();
+        private int port;
+    }
+}
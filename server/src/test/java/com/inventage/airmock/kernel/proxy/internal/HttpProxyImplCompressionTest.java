@@ -0,0 +1,122 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import com.inventage.airmock.kernel.proxy.cache.ResponseCache;
+import com.inventage.airmock.kernel.proxy.compression.Compression;
+import com.inventage.airmock.kernel.proxy.internal.ProxyFixture.Response;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+public class HttpProxyImplCompressionTest {
+
+    private static final String JSON = "[" + String.join(",", Collections.nCopies(500, "{\"name\":\"value\"}")) + "]";
+
+    @Test
+    public void test_streamed_response_is_compressed() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final int proxyPort = startProxy(vertx, startBackend(vertx, new AtomicInteger()), false);
+        // when
+        final Response response = get(vertx, proxyPort, "/chunked", "gzip, deflate");
+        // then
+        Assertions.assertEquals("gzip", response.header("Content-Encoding"));
+        Assertions.assertEquals(JSON, gunzip(response.body));
+        vertx.close();
+    }
+
+    @Test
+    public void test_small_or_not_accepted_responses_are_not_compressed() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final int proxyPort = startProxy(vertx, startBackend(vertx, new AtomicInteger()), false);
+        // when
+        final Response notAccepted = get(vertx, proxyPort, "/chunked", null);
+        final Response small = get(vertx, proxyPort, "/small", "gzip");
+        // then
+        Assertions.assertNull(notAccepted.header("Content-Encoding"));
+        Assertions.assertEquals(JSON, notAccepted.body.toString());
+        Assertions.assertNull(small.header("Content-Encoding"));
+        Assertions.assertEquals("[]", small.body.toString());
+        vertx.close();
+    }
+
+    @Test
+    public void test_cached_response_is_served_in_both_codings() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger requests = new AtomicInteger();
+        final int proxyPort = startProxy(vertx, startBackend(vertx, requests), true);
+        // when
+        final Response first = get(vertx, proxyPort, "/cacheable", "gzip");
+        final Response cachedCompressed = get(vertx, proxyPort, "/cacheable", "gzip");
+        final Response cachedIdentity = get(vertx, proxyPort, "/cacheable", null);
+        // then
+        Assertions.assertEquals(1, requests.get());
+        Assertions.assertEquals(JSON, gunzip(first.body));
+        Assertions.assertEquals("gzip", cachedCompressed.header("Content-Encoding"));
+        Assertions.assertEquals(JSON, gunzip(cachedCompressed.body));
+        Assertions.assertNull(cachedIdentity.header("Content-Encoding"));
+        Assertions.assertEquals(JSON, cachedIdentity.body.toString());
+        vertx.close();
+    }
+
+    /**
+     * Backend answering /chunked with a chunked JSON body, /cacheable with a cacheable one and /small with a tiny one.
+     */
+    private int startBackend(Vertx vertx, AtomicInteger requests) throws Exception {
+        return ProxyFixture.startBackend(vertx, request -> {
+            requests.incrementAndGet();
+            request.response().putHeader("Content-Type", "application/json");
+            if ("/small".equals(request.path())) {
+                request.response().end("[]");
+            }
+            else if ("/cacheable".equals(request.path())) {
+                request.response().putHeader("Cache-Control", "max-age=60").end(JSON);
+            }
+            else {
+                request.response().setChunked(true);
+                for (int i = 0; i < JSON.length(); i += 1000) {
+                    request.response().write(JSON.substring(i, Math.min(JSON.length(), i + 1000)));
+                }
+                request.response().end();
+            }
+        });
+    }
+
+    private int startProxy(Vertx vertx, int backendPort, boolean cache) throws Exception {
+        final HttpProxyImpl proxy = ProxyFixture.proxy(vertx, backendPort);
+        proxy.compression(Compression.of(Collections.singletonMap(Compression.COMPRESS, "true")));
+        if (cache) {
+            proxy.responseCache(ResponseCache.create(new JsonObject()));
+        }
+        return ProxyFixture.startProxy(vertx, proxy);
+    }
+
+    private Response get(Vertx vertx, int port, String path, String acceptEncoding) throws Exception {
+        final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        if (acceptEncoding != null) {
+            headers.set("Accept-Encoding", acceptEncoding);
+        }
+        return ProxyFixture.get(vertx, port, path, headers);
+    }
+
+    private static String gunzip(Buffer body) throws Exception {
+        final GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body.getBytes()));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,108 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import com.inventage.airmock.kernel.route.CookieCrumbsHandler;
+import com.inventage.airmock.kernel.proxy.internal.ProxyFixture.Response;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class HttpProxyImplHttp2Test {
+
+    private static final HttpClientOptions H2C = new HttpClientOptions().setProtocolVersion(HttpVersion.HTTP_2).setHttp2ClearTextUpgrade(false);
+
+    @Test
+    public void test_http2_frontend_to_http11_backend() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicReference<Received> received = new AtomicReference<>();
+        final int proxyPort = startProxy(vertx, startBackend(vertx, received), vertx.getDelegate().createHttpClient());
+        // when
+        final HttpClient client = vertx.getDelegate().createHttpClient(H2C);
+        final Response response = send(client, proxyPort, HttpMethod.GET, "/path", null, headers -> headers.add("cookie", "a=1"));
+        final Received get = received.get();
+        final Response post = send(client, proxyPort, HttpMethod.POST, "/path", "request body", headers -> { });
+        // then
+        Assertions.assertEquals(HttpVersion.HTTP_2, response.version);
+        Assertions.assertEquals(200, response.statusCode);
+        Assertions.assertEquals("backend body", response.body.toString());
+        Assertions.assertNull(response.headers.get("keep-alive"), "hop-by-hop headers are not forwarded");
+        Assertions.assertEquals("yes", response.headers.get("x-backend"));
+        Assertions.assertEquals(HttpVersion.HTTP_1_1, get.version);
+        Assertions.assertNull(get.headers.get("transfer-encoding"), "request without body");
+        Assertions.assertTrue(get.headers.get("cookie").contains("a=1"), get.headers.get("cookie"));
+        Assertions.assertEquals(200, post.statusCode);
+        Assertions.assertEquals("request body", received.get().body.toString());
+        Assertions.assertEquals("chunked", received.get().headers.get("transfer-encoding"));
+        vertx.close();
+    }
+
+    @Test
+    public void test_http11_frontend_to_http2_backend() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicReference<Received> received = new AtomicReference<>();
+        final int proxyPort = startProxy(vertx, startBackend(vertx, received), vertx.getDelegate().createHttpClient(H2C));
+        // when
+        final Response response = send(vertx.getDelegate().createHttpClient(), proxyPort, HttpMethod.GET, "/path", null,
+            headers -> headers.add("connection", "keep-alive, x-hop").add("x-hop", "1").add("x-end", "2")
+                // cookies in separate headers, as sent by browsers over HTTP/2 (the HTTP/2 client of Vert.x joins them)
+                .add("cookie", "a=1").add("cookie", "b=2"));
+        // then
+        Assertions.assertEquals(HttpVersion.HTTP_1_1, response.version);
+        Assertions.assertEquals("backend body", response.body.toString());
+        Assertions.assertEquals(HttpVersion.HTTP_2, received.get().version);
+        Assertions.assertNull(received.get().headers.get("x-hop"), "headers listed in connection are not forwarded");
+        Assertions.assertEquals("2", received.get().headers.get("x-end"));
+        final String cookies = received.get().headers.get("cookie");
+        Assertions.assertTrue(cookies.contains("a=1") && cookies.contains("b=2"), cookies);
+        vertx.close();
+    }
+
+    /**
+     * Backend speaking HTTP/1.1 and h2c, answering with a hop-by-hop header which HTTP/2 forbids.
+     */
+    private int startBackend(Vertx vertx, AtomicReference<Received> received) throws Exception {
+        return ProxyFixture.startBackend(vertx, request -> request.bodyHandler(body -> {
+            received.set(new Received(request, body));
+            if (request.version() != HttpVersion.HTTP_2) {
+                request.response().putHeader("keep-alive", "timeout=5");
+            }
+            request.response().putHeader("x-backend", "yes").end("backend body");
+        }));
+    }
+
+    private int startProxy(Vertx vertx, int backendPort, HttpClient backendClient) throws Exception {
+        final HttpProxyImpl proxy = ProxyFixture.proxy(vertx, backendPort);
+        proxy.setClient(backendClient);
+        return ProxyFixture.startProxy(vertx, proxy, new CookieCrumbsHandler());
+    }
+
+    private Response send(HttpClient client, int port, HttpMethod method, String path, String body, Handler<MultiMap> headers) throws Exception {
+        final MultiMap requestHeaders = MultiMap.caseInsensitiveMultiMap();
+        headers.handle(requestHeaders);
+        return ProxyFixture.send(client, method, port, path, requestHeaders, body).get(10, TimeUnit.SECONDS);
+    }
+
+    private static final class Received {
+        private final HttpVersion version;
+        private final MultiMap headers;
+        private final Buffer body;
+
+        private Received(HttpServerRequest request, Buffer body) {
+            this.version = request.version();
+            this.headers = MultiMap.caseInsensitiveMultiMap().addAll(request.headers());
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import com.inventage.airmock.kernel.proxy.balancer.BackendInstance;
+import com.inventage.airmock.kernel.proxy.balancer.LoadBalancer;
+import com.inventage.airmock.kernel.proxy.resilience.RetryBudget;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class HttpProxyImplRetryTest {
+
+    @Test
+    public void test_failed_request_is_retried_on_another_instance() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final int down = closedPort(vertx);
+        final int up = ProxyFixture.startBackend(vertx, request -> request.response().end("ok"));
+        final LoadBalancer balancer = LoadBalancer.create(Arrays.asList(new BackendInstance("localhost", down, 1),
+            new BackendInstance("localhost", up, 1)), LoadBalancer.Strategy.ROUND_ROBIN, null);
+        final RetryBudget budget = new RetryBudget(0.2, 10);
+        final HttpProxyImpl proxy = ProxyFixture.proxy(vertx, down);
+        proxy.loadBalancer(balancer);
+        proxy.retries(1, budget);
+        final int proxyPort = ProxyFixture.startProxy(vertx, proxy);
+        // when / then: round robin selects the instance which is down first for every request
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertEquals("ok", ProxyFixture.get(vertx, proxyPort, "/").body.toString());
+        }
+        Assertions.assertEquals(4L, budget.toJson().getLong("retries"));
+        vertx.close();
+    }
+
+    private int closedPort(Vertx vertx) throws Exception {
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        final io.vertx.core.http.HttpServer server = vertx.getDelegate().createHttpServer().requestHandler(request -> request.response().end());
+        server.listen(0, "localhost", ar -> server.close(v -> port.complete(ar.result().actualPort())));
+        return port.get(10, TimeUnit.SECONDS);
+    }
+}
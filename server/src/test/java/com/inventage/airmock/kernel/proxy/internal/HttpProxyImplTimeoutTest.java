@@ -0,0 +1,130 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import com.inventage.airmock.kernel.proxy.resilience.DeadlineHandler;
+import com.inventage.airmock.kernel.proxy.resilience.ResiliencePolicy;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpProxyImplTimeoutTest {
+
+    @Test
+    public void test_first_byte_timeout_answers_504() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final int backend = ProxyFixture.startBackend(vertx, request -> { });
+        final int proxyPort = startProxy(vertx, backend, 0, ResiliencePolicy.TIMEOUT_FIRST_BYTE, "200");
+        // when
+        final long start = System.currentTimeMillis();
+        final int status = ProxyFixture.get(vertx, proxyPort, "/").statusCode;
+        // then
+        Assertions.assertEquals(504, status);
+        Assertions.assertTrue(System.currentTimeMillis() - start < 5_000);
+        vertx.close();
+    }
+
+    @Test
+    public void test_first_byte_timeout_starts_after_the_request_body() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final int backend = ProxyFixture.startBackend(vertx, request -> request.endHandler(v -> request.response().end()));
+        final int proxyPort = startProxy(vertx, backend, 0, ResiliencePolicy.TIMEOUT_FIRST_BYTE, "200");
+        final CompletableFuture<Integer> status = new CompletableFuture<>();
+        // when
+        final HttpClientRequest request = vertx.getDelegate().createHttpClient()
+            .post(proxyPort, "localhost", "/", response -> status.complete(response.statusCode()))
+            .setChunked(true);
+        final AtomicInteger chunks = new AtomicInteger();
+        vertx.setPeriodic(100, id -> {
+            if (chunks.incrementAndGet() <= 6) {
+                request.write("chunk " + chunks.get());
+            }
+            else {
+                vertx.cancelTimer(id);
+                request.end();
+            }
+        });
+        // then
+        Assertions.assertEquals(200, status.get(10, TimeUnit.SECONDS), "a slow upload is not a slow backend");
+        vertx.close();
+    }
+
+    @Test
+    public void test_idle_body_closes_the_response() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final int backend = ProxyFixture.startBackend(vertx, request -> request.response().setChunked(true).write("first chunk"));
+        final int proxyPort = startProxy(vertx, backend, 0, ResiliencePolicy.TIMEOUT_IDLE, "200");
+        final HttpClient client = vertx.getDelegate().createHttpClient();
+        final CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        // when
+        client.getNow(proxyPort, "localhost", "/", response -> {
+            response.exceptionHandler(failure::complete);
+            response.endHandler(v -> failure.complete(null));
+        });
+        // then
+        Assertions.assertNotNull(failure.get(10, TimeUnit.SECONDS), "the body did not end regularly");
+        vertx.close();
+    }
+
+    @Test
+    public void test_deadline_is_propagated() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final CompletableFuture<String> deadline = new CompletableFuture<>();
+        final int backend = ProxyFixture.startBackend(vertx, request -> {
+            deadline.complete(request.getHeader("X-Deadline"));
+            request.response().end();
+        });
+        final int proxyPort = startProxy(vertx, backend, 0, ResiliencePolicy.TIMEOUT_TOTAL, "5000", ResiliencePolicy.DEADLINE_HEADER, "X-Deadline");
+        // when
+        final int status = ProxyFixture.get(vertx, proxyPort, "/").statusCode;
+        // then
+        Assertions.assertEquals(200, status);
+        final long remaining = Long.parseLong(deadline.get(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(remaining > 0 && remaining <= 5000, "remaining " + remaining);
+        vertx.close();
+    }
+
+    @Test
+    public void test_exhausted_deadline_fails_fast() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger requests = new AtomicInteger();
+        final int backend = ProxyFixture.startBackend(vertx, request -> {
+            requests.incrementAndGet();
+            request.response().end();
+        });
+        final int proxyPort = startProxy(vertx, backend, 2_000, ResiliencePolicy.TIMEOUT_TOTAL, "1000");
+        // when
+        final int status = ProxyFixture.get(vertx, proxyPort, "/").statusCode;
+        // then
+        Assertions.assertEquals(504, status);
+        Assertions.assertEquals(0, requests.get());
+        vertx.close();
+    }
+
+    /**
+     * Proxy with the given timeouts; the requests arrive as if they had already spent the given time in Airmock.
+     */
+    private int startProxy(Vertx vertx, int backend, long spentMillis, String... keysAndValues) throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            config.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        final HttpProxyImpl proxy = ProxyFixture.proxy(vertx, backend);
+        proxy.timeouts(ResiliencePolicy.of(config));
+        return ProxyFixture.startProxy(vertx, proxy, rc -> {
+            rc.put(DeadlineHandler.RECEIVED_AT, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(spentMillis));
+            rc.next();
+        });
+    }
+}
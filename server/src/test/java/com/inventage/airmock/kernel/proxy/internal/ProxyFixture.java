@@ -0,0 +1,114 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.ext.web.Router;
+import io.vertx.reactivex.ext.web.RoutingContext;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backend, proxy and client of the tests of {@link HttpProxyImpl}: the backend and the proxy listen on a random port of
+ * localhost, the client waits at most 10 seconds for a response.
+ */
+final class ProxyFixture {
+
+    private ProxyFixture() {
+    }
+
+    /**
+     * Start a backend answering the requests with the given handler.
+     *
+     * @return port of the backend
+     */
+    static int startBackend(Vertx vertx, Handler<HttpServerRequest> handler) throws Exception {
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.getDelegate().createHttpServer().requestHandler(handler).listen(0, "localhost", ar -> port.complete(ar.result().actualPort()));
+        return port.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A proxy to the backend on the given port, sending its requests with a default client.
+     */
+    static HttpProxyImpl proxy(Vertx vertx, int backendPort) {
+        final HttpProxyImpl proxy = new HttpProxyImpl();
+        proxy.backend("http", "localhost", backendPort);
+        proxy.setClient(vertx.getDelegate().createHttpClient());
+        return proxy;
+    }
+
+    /**
+     * Start a server passing all requests to the given proxy, after the given handlers.
+     *
+     * @return port of the proxy
+     */
+    @SafeVarargs
+    static int startProxy(Vertx vertx, HttpProxyImpl proxy, Handler<RoutingContext>... before) throws Exception {
+        final Router router = Router.router(vertx);
+        for (Handler<RoutingContext> handler : before) {
+            router.route().handler(handler);
+        }
+        router.route().handler(proxy::delegate);
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(router).listen(0, ar -> port.complete(ar.result().actualPort()));
+        return port.get(10, TimeUnit.SECONDS);
+    }
+
+    static Response get(Vertx vertx, int port, String path) throws Exception {
+        return get(vertx, port, path, MultiMap.caseInsensitiveMultiMap());
+    }
+
+    static Response get(Vertx vertx, int port, String path, MultiMap headers) throws Exception {
+        return send(vertx.getDelegate().createHttpClient(), HttpMethod.GET, port, path, headers, null).get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Send a request; a body is sent chunked, as over HTTP/2 it is sent without length.
+     *
+     * @param body body, null to send none
+     * @return response
+     */
+    static CompletableFuture<Response> send(HttpClient client, HttpMethod method, int port, String path, MultiMap headers, String body) {
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        final HttpClientRequest request = client.request(method, port, "localhost", path, response ->
+            response.bodyHandler(responseBody -> result.complete(new Response(response.version(), response.statusCode(), response.headers(), responseBody))));
+        request.exceptionHandler(result::completeExceptionally);
+        request.headers().addAll(headers);
+        if (body == null) {
+            request.end();
+        }
+        else {
+            request.setChunked(true).write(body).end();
+        }
+        return result;
+    }
+
+    /**
+     * Response received through the proxy.
+     */
+    static final class Response {
+        final HttpVersion version;
+        final int statusCode;
+        final MultiMap headers;
+        final Buffer body;
+
+        private Response(HttpVersion version, int statusCode, MultiMap headers, Buffer body) {
+            this.version = version;
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+    }
+}
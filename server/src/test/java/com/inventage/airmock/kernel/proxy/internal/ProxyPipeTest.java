@@ -0,0 +1,167 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProxyPipeTest {
+
+    @Test
+    public void test_source_is_paused_at_high_and_resumed_at_low_watermark() {
+        // given
+        final FakeReadStream source = new FakeReadStream();
+        final FakeWriteStream destination = new FakeWriteStream();
+        final ProxyPipe pipe = new ProxyPipe(source, destination, ProxyPipe.Direction.RESPONSE, 30, 10).start();
+        // when
+        source.emit(10);
+        source.emit(10);
+        final boolean pausedBelowHigh = source.paused;
+        source.emit(10);
+        // then
+        Assertions.assertFalse(pausedBelowHigh);
+        Assertions.assertTrue(source.paused);
+        Assertions.assertTrue(pipe.isPaused());
+        Assertions.assertEquals(30, pipe.pendingBytes());
+        // when
+        destination.flush(1);
+        // then
+        Assertions.assertTrue(source.paused, "still above the low watermark");
+        // when
+        destination.flush(1);
+        // then
+        Assertions.assertFalse(source.paused);
+        Assertions.assertFalse(pipe.isPaused());
+        Assertions.assertEquals(30, pipe.bytes());
+        Assertions.assertEquals(1, pipe.pauses());
+    }
+
+    @Test
+    public void test_stopped_pipe_drops_data() {
+        // given
+        final FakeReadStream source = new FakeReadStream();
+        final FakeWriteStream destination = new FakeWriteStream();
+        final ProxyPipe pipe = new ProxyPipe(source, destination, ProxyPipe.Direction.REQUEST, 30, 10).start();
+        source.emit(40);
+        // when
+        pipe.stop();
+        destination.flush(1);
+        // then
+        Assertions.assertTrue(pipe.isStopped());
+        Assertions.assertFalse(pipe.isPaused());
+        Assertions.assertNull(source.handler, "handler of the source is removed");
+        Assertions.assertTrue(source.paused, "stopped pipe does not resume the source");
+        Assertions.assertEquals(40, pipe.bytes());
+    }
+
+    @Test
+    public void test_invalid_watermarks_are_rejected() {
+        // given
+        final FakeReadStream source = new FakeReadStream();
+        final FakeWriteStream destination = new FakeWriteStream();
+        // when / then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ProxyPipe(source, destination, ProxyPipe.Direction.REQUEST, 10, 10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ProxyPipe(source, destination, ProxyPipe.Direction.REQUEST, 10, -1));
+    }
+
+    private static final class FakeReadStream implements ReadStream<Buffer> {
+        private Handler<Buffer> handler;
+        private boolean paused;
+
+        private void emit(int length) {
+            handler.handle(Buffer.buffer(new byte[length]));
+        }
+
+        @Override
+        public ReadStream<Buffer> exceptionHandler(Handler<Throwable> exceptionHandler) {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> handler(Handler<Buffer> dataHandler) {
+            this.handler = dataHandler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> pause() {
+            paused = true;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> resume() {
+            paused = false;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> fetch(long amount) {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+            return this;
+        }
+    }
+
+    /**
+     * Write stream which completes the writes only when flushed.
+     */
+    private static final class FakeWriteStream implements WriteStream<Buffer> {
+        private final List<Handler<AsyncResult<Void>>> pending = new ArrayList<>();
+
+        private void flush(int writes) {
+            for (int i = 0; i < writes; i++) {
+                pending.remove(0).handle(Future.succeededFuture());
+            }
+        }
+
+        @Override
+        public WriteStream<Buffer> exceptionHandler(Handler<Throwable> exceptionHandler) {
+            return this;
+        }
+
+        @Override
+        public WriteStream<Buffer> write(Buffer data) {
+            return write(data, null);
+        }
+
+        @Override
+        public WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> writeHandler) {
+            pending.add(writeHandler);
+            return this;
+        }
+
+        @Override
+        public void end() {
+        }
+
+        @Override
+        public void end(Handler<AsyncResult<Void>> endHandler) {
+        }
+
+        @Override
+        public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+            return this;
+        }
+
+        @Override
+        public boolean writeQueueFull() {
+            return false;
+        }
+
+        @Override
+        public WriteStream<Buffer> drainHandler(Handler<Void> drainHandler) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.http.HttpServer;
+import io.vertx.reactivex.ext.web.Router;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestCoalescerTest {
+
+    private static final int REQUESTS = 5;
+
+    @Test
+    public void test_identical_requests_share_one_backend_request() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final Backend backend = startBackend(vertx);
+        final RequestCoalescer coalescer = new RequestCoalescer(RequestCoalescer.DEFAULT_KEY_HEADERS);
+        final int proxyPort = startProxy(vertx, backend.port, coalescer);
+        // when
+        final List<String> bodies = getConcurrently(vertx, proxyPort, "/slow", null);
+        // then
+        Assertions.assertEquals(1, backend.requests.get());
+        Assertions.assertEquals(REQUESTS - 1, coalescer.coalesced());
+        Assertions.assertEquals(0, coalescer.inFlight());
+        bodies.forEach(body -> Assertions.assertEquals(expectedBody("/slow"), body));
+        vertx.close();
+    }
+
+    @Test
+    public void test_requests_with_different_key_headers_are_not_coalesced() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final Backend backend = startBackend(vertx);
+        final RequestCoalescer coalescer = new RequestCoalescer(RequestCoalescer.DEFAULT_KEY_HEADERS);
+        final int proxyPort = startProxy(vertx, backend.port, coalescer);
+        // when
+        getConcurrently(vertx, proxyPort, "/slow", "Accept-Language");
+        // then
+        Assertions.assertEquals(REQUESTS, backend.requests.get());
+        Assertions.assertEquals(0, coalescer.coalesced());
+        vertx.close();
+    }
+
+    @Test
+    public void test_responses_setting_cookies_are_not_shared() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final Backend backend = startBackend(vertx);
+        final RequestCoalescer coalescer = new RequestCoalescer(RequestCoalescer.DEFAULT_KEY_HEADERS);
+        final int proxyPort = startProxy(vertx, backend.port, coalescer);
+        // when
+        final List<String> bodies = getConcurrently(vertx, proxyPort, "/cookie", null);
+        // then
+        Assertions.assertEquals(REQUESTS, backend.requests.get());
+        bodies.forEach(body -> Assertions.assertEquals(expectedBody("/cookie"), body));
+        vertx.close();
+    }
+
+    /**
+     * Backend answering after a delay with a body of several chunks, /cookie also sets a cookie.
+     */
+    private Backend startBackend(Vertx vertx) throws Exception {
+        final Backend backend = new Backend();
+        final AtomicInteger requests = backend.requests;
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.getDelegate().createHttpServer().requestHandler(request -> {
+            requests.incrementAndGet();
+            vertx.getDelegate().setTimer(500, id -> {
+                if ("/cookie".equals(request.path())) {
+                    request.response().putHeader("Set-Cookie", "id=" + requests.get());
+                }
+                request.response().setChunked(true);
+                for (int i = 0; i < 100; i++) {
+                    request.response().write(chunk(request.path(), i));
+                }
+                request.response().end();
+            });
+        }).listen(0, "localhost", ar -> port.complete(ar.result().actualPort()));
+        backend.port = port.get(10, TimeUnit.SECONDS);
+        return backend;
+    }
+
+    private int startProxy(Vertx vertx, int port, RequestCoalescer coalescer) throws Exception {
+        final HttpProxyImpl proxy = new HttpProxyImpl();
+        proxy.backend("http", "localhost", port);
+        proxy.setClient(vertx.getDelegate().createHttpClient());
+        proxy.requestCoalescer(coalescer);
+        final Router router = Router.router(vertx);
+        router.route().handler(proxy::delegate);
+        final CompletableFuture<Integer> proxyPort = new CompletableFuture<>();
+        final HttpServer server = vertx.createHttpServer().requestHandler(router);
+        server.listen(0, ar -> proxyPort.complete(ar.result().actualPort()));
+        return proxyPort.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sends the requests at the same time, each with a distinct value of the given header if not null.
+     */
+    private List<String> getConcurrently(Vertx vertx, int port, String path, String distinctHeader) throws Exception {
+        final HttpClient client = vertx.getDelegate().createHttpClient();
+        final List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            final CompletableFuture<String> result = new CompletableFuture<>();
+            results.add(result);
+            final HttpClientRequest request = client.get(port, "localhost", path, response ->
+                response.bodyHandler(body -> result.complete(body.toString())));
+            if (distinctHeader != null) {
+                request.putHeader(distinctHeader, "value-" + i);
+            }
+            request.end();
+        }
+        final List<String> bodies = new ArrayList<>();
+        for (CompletableFuture<String> result : results) {
+            bodies.add(result.get(10, TimeUnit.SECONDS));
+        }
+        return bodies;
+    }
+
+    private static String chunk(String path, int index) {
+        return path + " chunk " + index + "\n";
+    }
+
+    private static String expectedBody(String path) {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append(chunk(path, i));
+        }
+        return body.toString();
+    }
+
+    private static final class Backend {
+        private final AtomicInteger requests = new AtomicInteger();
+        private int port;
+    }
+}
@@ -0,0 +1,137 @@
+package com.inventage.airmock.kernel.proxy.internal;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ResponseFanOutTest {
+
+    @Test
+    public void test_every_branch_receives_the_body() {
+        // given
+        final FakeReadStream source = new FakeReadStream();
+        final ResponseFanOut fanOut = new ResponseFanOut(source, 30, 10);
+        final Receiver first = new Receiver(fanOut.branch());
+        final Receiver second = new Receiver(fanOut.branch());
+        // when
+        first.branch.resume();
+        second.branch.resume();
+        source.emit(10);
+        source.emit(5);
+        source.endHandler.handle(null);
+        // then
+        Assertions.assertEquals(15, first.bytes);
+        Assertions.assertEquals(15, second.bytes);
+        Assertions.assertTrue(first.ended);
+        Assertions.assertTrue(second.ended);
+    }
+
+    @Test
+    public void test_source_is_paused_while_a_branch_is_full() {
+        // given
+        final FakeReadStream source = new FakeReadStream();
+        final ResponseFanOut fanOut = new ResponseFanOut(source, 30, 10);
+        final Receiver fast = new Receiver(fanOut.branch());
+        final Receiver slow = new Receiver(fanOut.branch());
+        fast.branch.resume();
+        slow.branch.resume();
+        slow.branch.pause();
+        // when
+        source.emit(20);
+        final boolean pausedBelowHigh = source.paused;
+        source.emit(20);
+        // then
+        Assertions.assertFalse(pausedBelowHigh);
+        Assertions.assertTrue(source.paused);
+        Assertions.assertEquals(40, fast.bytes);
+        Assertions.assertEquals(0, slow.bytes);
+        // when
+        slow.branch.resume();
+        // then
+        Assertions.assertFalse(source.paused);
+        Assertions.assertEquals(40, slow.bytes);
+    }
+
+    @Test
+    public void test_detached_branch_does_not_hold_back_the_others() {
+        // given
+        final FakeReadStream source = new FakeReadStream();
+        final ResponseFanOut fanOut = new ResponseFanOut(source, 30, 10);
+        final Receiver remaining = new Receiver(fanOut.branch());
+        final Receiver gone = new Receiver(fanOut.branch());
+        remaining.branch.resume();
+        gone.branch.resume();
+        gone.branch.pause();
+        source.emit(40);
+        // when
+        gone.branch.handler(null);
+        source.emit(10);
+        // then
+        Assertions.assertFalse(source.paused);
+        Assertions.assertEquals(50, remaining.bytes);
+    }
+
+    /**
+     * Counts the bytes received from a branch.
+     */
+    private static final class Receiver {
+        private final ReadStream<Buffer> branch;
+        private int bytes;
+        private boolean ended;
+
+        private Receiver(ReadStream<Buffer> branch) {
+            this.branch = branch;
+            branch.handler(data -> bytes += data.length());
+            branch.endHandler(v -> ended = true);
+        }
+    }
+
+    /**
+     * Read stream emitting data on demand.
+     */
+    private static final class FakeReadStream implements ReadStream<Buffer> {
+        private Handler<Buffer> handler;
+        private Handler<Void> endHandler;
+        private boolean paused;
+
+        private void emit(int length) {
+            handler.handle(Buffer.buffer(new byte[length]));
+        }
+
+        @Override
+        public ReadStream<Buffer> exceptionHandler(Handler<Throwable> exceptionHandler) {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> handler(Handler<Buffer> dataHandler) {
+            this.handler = dataHandler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> pause() {
+            paused = true;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> resume() {
+            paused = false;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> fetch(long amount) {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> endHandler(Handler<Void> handler) {
+            this.endHandler = handler;
+            return this;
+        }
+    }
+}
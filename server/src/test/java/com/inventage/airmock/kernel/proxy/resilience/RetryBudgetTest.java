@@ -0,0 +1,72 @@
+package com.inventage.airmock.kernel.proxy.resilience;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void test_retries_are_limited_to_the_ratio_of_the_requests() {
+        // given
+        final RetryBudget budget = new RetryBudget(0.5, 0);
+        // when
+        for (int i = 0; i < 4; i++) {
+            budget.onRequest();
+        }
+        // then
+        Assertions.assertTrue(budget.tryRetry());
+        Assertions.assertTrue(budget.tryRetry());
+        Assertions.assertFalse(budget.tryRetry());
+        final JsonObject json = budget.toJson();
+        Assertions.assertEquals(4L, json.getLong("requests"));
+        Assertions.assertEquals(2L, json.getLong("retries"));
+        Assertions.assertEquals(1L, json.getLong("rejected"));
+    }
+
+    @Test
+    public void test_minimal_retries_without_requests() {
+        // given
+        final RetryBudget budget = new RetryBudget(0.2, 3);
+        // when
+        int allowed = 0;
+        while (budget.tryRetry()) {
+            allowed++;
+        }
+        // then
+        Assertions.assertEquals(3, allowed);
+    }
+
+    @Test
+    public void test_balance_is_capped() {
+        // given
+        final RetryBudget budget = new RetryBudget(1.0, 0);
+        // when
+        for (int i = 0; i < 1000; i++) {
+            budget.onRequest();
+        }
+        // then
+        Assertions.assertEquals(RetryBudget.MAX_TOKENS, budget.tokens(), 0.001);
+    }
+
+    @Test
+    public void test_policy_from_config() {
+        // given
+        final Map<String, String> config = new HashMap<>();
+        config.put(ResiliencePolicy.BREAKER_MAX_FAILURES, "3");
+        config.put(ResiliencePolicy.BREAKER_FALLBACK_STATUS, "503");
+        config.put(ResiliencePolicy.RETRIES, "2");
+        // when
+        final ResiliencePolicy policy = ResiliencePolicy.of(config);
+        // then
+        Assertions.assertEquals(3, policy.circuitBreakerOptions().getMaxFailures());
+        Assertions.assertEquals(240_000, policy.circuitBreakerOptions().getTimeout());
+        Assertions.assertEquals(Integer.valueOf(503), policy.fallbackStatus());
+        Assertions.assertEquals(2, policy.retries());
+        Assertions.assertNull(ResiliencePolicy.DEFAULT.fallbackStatus());
+        Assertions.assertEquals(0, ResiliencePolicy.DEFAULT.retries());
+    }
+}
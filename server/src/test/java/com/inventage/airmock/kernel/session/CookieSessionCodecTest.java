@@ -0,0 +1,105 @@
+package com.inventage.airmock.kernel.session;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+public class CookieSessionCodecTest {
+
+    private static final String OLD_KEY = "1:" + Base64.getEncoder().encodeToString(key(1));
+    private static final String NEW_KEY = "2:" + Base64.getEncoder().encodeToString(key(2));
+    private static final int MAX_SESSION_SIZE = 64 * 1024;
+
+    @Test
+    public void test_encode_and_decode() {
+        // given
+        final CookieSessionCodec codec = codec(NEW_KEY);
+        final byte[] session = repeat("role=portal;", 100);
+        // when
+        final String encoded = codec.encode(session);
+        // then
+        Assertions.assertTrue(encoded.length() < session.length, "session is compressed");
+        Assertions.assertTrue(encoded.matches("[A-Za-z0-9_-]+"), "encoding is cookie safe");
+        Assertions.assertArrayEquals(session, codec.decode(encoded));
+    }
+
+    @Test
+    public void test_rotated_key_still_decodes() {
+        // given
+        final String encoded = codec(OLD_KEY).encode(repeat("a", 10));
+        final CookieSessionCodec rotated = codec(NEW_KEY + "," + OLD_KEY);
+        // when
+        final byte[] decoded = rotated.decode(encoded);
+        // then
+        Assertions.assertArrayEquals(repeat("a", 10), decoded);
+        Assertions.assertEquals(2, rotated.activeKeyId());
+    }
+
+    @Test
+    public void test_removed_key_does_not_decode() {
+        // given
+        final String encoded = codec(OLD_KEY).encode(repeat("a", 10));
+        // when
+        final byte[] decoded = codec(NEW_KEY).decode(encoded);
+        // then
+        Assertions.assertNull(decoded);
+    }
+
+    @Test
+    public void test_tampered_value_does_not_decode() {
+        // given
+        final CookieSessionCodec codec = codec(NEW_KEY);
+        final char[] encoded = codec.encode(repeat("a", 10)).toCharArray();
+        encoded[encoded.length - 5] = encoded[encoded.length - 5] == 'A' ? 'B' : 'A';
+        // when
+        final byte[] decoded = codec.decode(new String(encoded));
+        // then
+        Assertions.assertNull(decoded);
+        Assertions.assertNull(codec.decode("not base64!"));
+        Assertions.assertNull(codec.decode("AAAA"));
+    }
+
+    @Test
+    public void test_too_large_session_does_not_decode() {
+        // given
+        final CookieSessionCodec codec = codec(NEW_KEY);
+        final String encoded = codec.encode(new byte[MAX_SESSION_SIZE + 1]);
+        // when
+        final byte[] decoded = codec.decode(encoded);
+        // then
+        Assertions.assertNull(decoded);
+    }
+
+    @Test
+    public void test_invalid_keys_are_rejected() {
+        // given
+        final Map<Integer, byte[]> shortKey = CookieSessionCodec.parseKeys("1:" + Base64.getEncoder().encodeToString(new byte[8]));
+        // when / then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CookieSessionCodec(shortKey, MAX_SESSION_SIZE));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CookieSessionCodec.parseKeys(OLD_KEY + "," + OLD_KEY));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CookieSessionCodec.parseKeys("nokey"));
+    }
+
+    private static CookieSessionCodec codec(String keys) {
+        return new CookieSessionCodec(CookieSessionCodec.parseKeys(keys), MAX_SESSION_SIZE);
+    }
+
+    private static byte[] key(int seed) {
+        final byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (seed * 31 + i);
+        }
+        return key;
+    }
+
+    private static byte[] repeat(String value, int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package com.inventage.airmock.kernel.session;
+
+import com.inventage.airmock.waf.session.AirmockSessionState;
+import com.inventage.airmock.waf.session.Role;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.ext.web.Router;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class CookieSessionHandlerTest {
+
+    private static final String OLD_KEY = "1:" + Base64.getEncoder().encodeToString(key(1));
+    private static final String NEW_KEY = "2:" + Base64.getEncoder().encodeToString(key(2));
+    private static final int CHUNK_SIZE = 200;
+
+    @Test
+    public void test_session_round_trips_through_the_chunk_cookies() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final String sessionId = UUID.randomUUID().toString();
+        final int port = startServer(vertx, new JsonObject().put(CookieSessionHandler.CONFIG_PREFIX + CookieSessionHandler.KEYS, NEW_KEY));
+        // when
+        final List<String> setCookies = write(vertx, port, sessionId);
+        final String read = read(vertx, port, cookieHeader(setCookies));
+        // then
+        Assertions.assertTrue(setCookies.size() > 1, "session is split into several cookies: " + setCookies);
+        Assertions.assertTrue(setCookies.stream().allMatch(cookie -> cookie.startsWith(CookieSessionHandler.COOKIE_NAME + ".")), setCookies.toString());
+        Assertions.assertTrue(setCookies.stream().allMatch(cookie -> cookie.contains("Secure")), "cookies are secure by default");
+        Assertions.assertEquals("true;JSESSIONID=" + sessionId, read);
+        vertx.close();
+    }
+
+    @Test
+    public void test_rotated_key_still_reads_the_session() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final String sessionId = UUID.randomUUID().toString();
+        final int oldPort = startServer(vertx, new JsonObject().put(CookieSessionHandler.CONFIG_PREFIX + CookieSessionHandler.KEYS, OLD_KEY)
+            .put(CookieSessionHandler.CONFIG_PREFIX + CookieSessionHandler.COOKIE_SECURE, "false"));
+        final int rotatedPort = startServer(vertx, new JsonObject()
+            .put(CookieSessionHandler.CONFIG_PREFIX + CookieSessionHandler.KEYS, NEW_KEY + "," + OLD_KEY));
+        final int newPort = startServer(vertx, new JsonObject().put(CookieSessionHandler.CONFIG_PREFIX + CookieSessionHandler.KEYS, NEW_KEY));
+        final List<String> setCookies = write(vertx, oldPort, sessionId);
+        // when
+        final String rotated = read(vertx, rotatedPort, cookieHeader(setCookies));
+        final String removed = read(vertx, newPort, cookieHeader(setCookies));
+        // then
+        Assertions.assertTrue(setCookies.stream().noneMatch(cookie -> cookie.contains("Secure")), setCookies.toString());
+        Assertions.assertEquals("true;JSESSIONID=" + sessionId, rotated);
+        Assertions.assertEquals("false;", removed);
+        vertx.close();
+    }
+
+    private int startServer(Vertx vertx, JsonObject config) throws Exception {
+        config.put(CookieSessionHandler.CONFIG_PREFIX + CookieSessionHandler.CHUNK_SIZE, String.valueOf(CHUNK_SIZE));
+        final Router router = Router.router(vertx);
+        router.route().handler(new CookieSessionHandler(vertx, config));
+        router.route("/write").handler(routingContext -> {
+            final AirmockSessionState state = AirmockSessionState.of(routingContext);
+            state.addRole(new Role("portal"));
+            state.putCookie("/backend", "JSESSIONID", routingContext.request().getParam("id"));
+            routingContext.response().end();
+        });
+        router.route("/read").handler(routingContext -> {
+            final AirmockSessionState state = AirmockSessionState.of(routingContext);
+            routingContext.response().end(state.hasRole("portal") + ";" + state.getCookieHeader("/backend"));
+        });
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(router).listen(0, ar -> port.complete(ar.result().actualPort()));
+        return port.get(10, TimeUnit.SECONDS);
+    }
+
+    private List<String> write(Vertx vertx, int port, String sessionId) throws Exception {
+        final CompletableFuture<List<String>> result = new CompletableFuture<>();
+        vertx.getDelegate().createHttpClient().getNow(port, "localhost", "/write?id=" + sessionId, response -> result.complete(response.cookies()));
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private String read(Vertx vertx, int port, String cookieHeader) throws Exception {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final HttpClientRequest request = vertx.getDelegate().createHttpClient().get(port, "localhost", "/read", response ->
+            response.bodyHandler(body -> result.complete(body.toString())));
+        request.putHeader("Cookie", cookieHeader).end();
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private static String cookieHeader(List<String> setCookies) {
+        return setCookies.stream().map(cookie -> cookie.substring(0, cookie.indexOf(';'))).collect(Collectors.joining("; "));
+    }
+
+    private static byte[] key(int seed) {
+        final byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (seed * 31 + i);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,147 @@
+package com.inventage.airmock.kernel.session;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Session;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MappedSessionStoreTest {
+
+    private static final long TIMEOUT = 60_000;
+
+    @Test
+    public void test_put_and_get() {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final MappedSessionStore store = store(vertx, null, 4);
+        final Session session = store.createSession(TIMEOUT);
+        session.put("name", "value");
+        put(store, session);
+        // when
+        final Session read = get(store, session.id());
+        // then
+        Assertions.assertNotNull(read);
+        Assertions.assertEquals("value", read.get("name"));
+        Assertions.assertEquals(session.id(), read.id());
+        store.close();
+        vertx.close();
+    }
+
+    @Test
+    public void test_least_recently_written_sessions_are_evicted() {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final MappedSessionStore store = store(vertx, null, 2);
+        final Session first = store.createSession(TIMEOUT);
+        first.put("payload", new String(new char[1000]));
+        put(store, first);
+        // when
+        for (int i = 0; i < 3000; i++) {
+            final Session session = store.createSession(TIMEOUT);
+            session.put("payload", new String(new char[1000]));
+            put(store, session);
+        }
+        // then
+        Assertions.assertNull(get(store, first.id()));
+        Assertions.assertTrue(store.evicted() > 0);
+        store.close();
+        vertx.close();
+    }
+
+    @Test
+    public void test_sessions_survive_restart() throws IOException {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final File file = File.createTempFile("sessions", ".store");
+        file.deleteOnExit();
+        final MappedSessionStore store = store(vertx, file.getPath(), 2);
+        final Session kept = store.createSession(TIMEOUT);
+        kept.put("name", "kept");
+        put(store, kept);
+        final Session deleted = store.createSession(TIMEOUT);
+        put(store, deleted);
+        store.delete(deleted.id(), result -> { });
+        store.close();
+        // when
+        final MappedSessionStore reopened = store(vertx, file.getPath(), 2);
+        // then
+        Assertions.assertEquals("kept", get(reopened, kept.id()).get("name"));
+        Assertions.assertNull(get(reopened, deleted.id()));
+        reopened.close();
+        vertx.close();
+    }
+
+    @Test
+    public void test_concurrent_sessions_over_stripes_survive_restart() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final File file = File.createTempFile("sessions", ".store");
+        file.deleteOnExit();
+        final MappedSessionStore store = store(vertx, file.getPath(), 8, 4);
+        final ExecutorService threads = Executors.newFixedThreadPool(4);
+        final List<Future<List<String>>> written = new ArrayList<>();
+        // when
+        for (int t = 0; t < 4; t++) {
+            written.add(threads.submit(() -> {
+                final List<String> ids = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    final Session session = store.createSession(TIMEOUT);
+                    session.put("name", session.id());
+                    put(store, session);
+                    Assertions.assertEquals(session.id(), get(store, session.id()).get("name"));
+                    ids.add(session.id());
+                }
+                return ids;
+            }));
+        }
+        final List<String> ids = new ArrayList<>();
+        for (Future<List<String>> thread : written) {
+            ids.addAll(thread.get(30, TimeUnit.SECONDS));
+        }
+        threads.shutdown();
+        store.close();
+        final MappedSessionStore reopened = store(vertx, file.getPath(), 8, 4);
+        // then
+        final AtomicReference<Integer> size = new AtomicReference<>();
+        reopened.size(result -> size.set(result.result()));
+        Assertions.assertEquals(2000, size.get());
+        ids.forEach(id -> Assertions.assertEquals(id, get(reopened, id).get("name")));
+        reopened.close();
+        vertx.close();
+    }
+
+    private MappedSessionStore store(Vertx vertx, String path, int maxMemoryMB) {
+        return store(vertx, path, maxMemoryMB, 4);
+    }
+
+    private MappedSessionStore store(Vertx vertx, String path, int maxMemoryMB, int stripes) {
+        final MappedSessionStore store = new MappedSessionStore();
+        store.init(vertx, new JsonObject()
+            .put(MappedSessionStore.MAX_MEMORY_MB, maxMemoryMB)
+            .put(MappedSessionStore.SEGMENT_SIZE_MB, 1)
+            .put(MappedSessionStore.STRIPES, stripes)
+            .put(MappedSessionStore.PATH, path));
+        return store;
+    }
+
+    private void put(MappedSessionStore store, Session session) {
+        store.put(session, result -> Assertions.assertTrue(result.succeeded()));
+    }
+
+    private Session get(MappedSessionStore store, String id) {
+        final AtomicReference<Session> session = new AtomicReference<>();
+        store.get(id, result -> session.set(result.result()));
+        return session.get();
+    }
+}
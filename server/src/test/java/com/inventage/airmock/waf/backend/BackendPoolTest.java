@@ -0,0 +1,129 @@
+package com.inventage.airmock.waf.backend;
+
+import com.inventage.airmock.kernel.proxy.balancer.BackendInstance;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class BackendPoolTest {
+
+    @Test
+    public void test_mappings_with_the_same_backend_share_a_pool() {
+        // given
+        final JsonObject pool = new JsonObject().put(BackendPool.MAX_POOL_SIZE, 200).put(BackendPool.WARM_UP, 5);
+        final JsonObject mappings = mappings(
+            mapping(backend("localhost", "10001")),
+            mapping(backend("localhost", "10001").put(BackendPool.POOL, pool)),
+            mapping(backend("localhost", "10002")),
+            mapping(null));
+        // when
+        final List<BackendPool> backends = BackendPool.fromMappings(mappings, new JsonObject());
+        // then
+        Assertions.assertEquals(2, backends.size());
+        Assertions.assertEquals("http://localhost:10001", backends.get(0).key());
+        Assertions.assertEquals(200, backends.get(0).clientOptions().getMaxPoolSize());
+        Assertions.assertEquals(5, backends.get(0).warmUp());
+        Assertions.assertEquals("http://localhost:10002", backends.get(1).key());
+    }
+
+    @Test
+    public void test_pool_options() {
+        // given
+        final JsonObject pool = new JsonObject()
+            .put(BackendPool.MAX_POOL_SIZE, "50")
+            .put(BackendPool.KEEP_ALIVE_TIMEOUT, 30)
+            .put(BackendPool.PIPELINING, true)
+            .put(BackendPool.PIPELINING_LIMIT, 4)
+            .put(BackendPool.CONNECT_TIMEOUT, 1000)
+            .put(BackendPool.IDLE_TIMEOUT, 90)
+            .put(BackendPool.WARM_UP, 500);
+        final JsonObject backend = backend("${BACKEND_HOST}", "443").put("protocol", "https").put(BackendPool.POOL, pool);
+        // when
+        final BackendPool backendPool = BackendPool.of(backend, new JsonObject().put("BACKEND_HOST", "backend.example.com"));
+        final HttpClientOptions options = backendPool.clientOptions();
+        // then
+        Assertions.assertEquals("https://backend.example.com:443", backendPool.key());
+        Assertions.assertTrue(options.isSsl());
+        Assertions.assertEquals(50, options.getMaxPoolSize());
+        Assertions.assertEquals(30, options.getKeepAliveTimeout());
+        Assertions.assertTrue(options.isPipelining());
+        Assertions.assertEquals(4, options.getPipeliningLimit());
+        Assertions.assertEquals(1000, options.getConnectTimeout());
+        Assertions.assertEquals(90, options.getIdleTimeout());
+        Assertions.assertEquals(50, backendPool.warmUp());
+    }
+
+    @Test
+    public void test_http2_options() {
+        // given
+        final JsonObject pool = new JsonObject()
+            .put(BackendPool.HTTP2, true)
+            .put(BackendPool.HTTP2_MAX_POOL_SIZE, 2)
+            .put(BackendPool.HTTP2_MULTIPLEXING_LIMIT, "50")
+            .put(BackendPool.WARM_UP, 10);
+        // when
+        final BackendPool cleartext = BackendPool.of(backend("localhost", "10001").put(BackendPool.POOL, pool), new JsonObject());
+        final BackendPool tls = BackendPool.of(backend("localhost", "10443").put("protocol", "https")
+            .put(BackendPool.POOL, pool.copy().put(BackendPool.HTTP2_UPGRADE, true)), new JsonObject());
+        // then
+        Assertions.assertEquals(HttpVersion.HTTP_2, cleartext.clientOptions().getProtocolVersion());
+        Assertions.assertFalse(cleartext.clientOptions().isHttp2ClearTextUpgrade(), "prior knowledge");
+        Assertions.assertFalse(cleartext.clientOptions().isUseAlpn());
+        Assertions.assertEquals(2, cleartext.clientOptions().getHttp2MaxPoolSize());
+        Assertions.assertEquals(50, cleartext.clientOptions().getHttp2MultiplexingLimit());
+        Assertions.assertEquals(2, cleartext.warmUp());
+        Assertions.assertTrue(tls.clientOptions().isUseAlpn());
+        Assertions.assertTrue(tls.clientOptions().isHttp2ClearTextUpgrade());
+        Assertions.assertEquals(HttpVersion.HTTP_1_1, BackendPool.of("http", "localhost", 10001).clientOptions().getProtocolVersion());
+    }
+
+    @Test
+    public void test_default_pool_options() {
+        // given
+        final BackendPool backendPool = BackendPool.of("http", "localhost", 80);
+        // when
+        final HttpClientOptions options = backendPool.clientOptions();
+        // then
+        Assertions.assertFalse(options.isSsl());
+        Assertions.assertEquals(10, options.getMaxPoolSize());
+        Assertions.assertEquals(0, backendPool.warmUp());
+    }
+
+    @Test
+    public void test_instances() {
+        // given
+        final JsonArray instances = new JsonArray()
+            .add(backend("app1", "10001"))
+            .add(backend("${APP2_HOST}", "10001").put(BackendPool.WEIGHT, 2));
+        final JsonObject backend = new JsonObject().put(BackendPool.INSTANCES, instances);
+        // when
+        final BackendPool backendPool = BackendPool.of(backend, new JsonObject().put("APP2_HOST", "app2"));
+        // then
+        Assertions.assertEquals("http://app1:10001", backendPool.key());
+        Assertions.assertEquals(2, backendPool.instances().size());
+        Assertions.assertEquals(new BackendInstance("app2", 10001, 2), backendPool.instances().get(1));
+        Assertions.assertEquals(1, BackendPool.of("http", "localhost", 80).instances().size());
+    }
+
+    private static JsonObject mappings(JsonObject... mappings) {
+        final JsonArray array = new JsonArray();
+        for (JsonObject mapping : mappings) {
+            array.add(mapping);
+        }
+        return new JsonObject().put("mappings", array);
+    }
+
+    private static JsonObject mapping(JsonObject backend) {
+        final JsonObject mapping = new JsonObject().put("name", "mapping");
+        return backend == null ? mapping : mapping.put("backend", backend);
+    }
+
+    private static JsonObject backend(String host, String port) {
+        return new JsonObject().put("host", host).put("port", port);
+    }
+}
@@ -0,0 +1,47 @@
+package com.inventage.airmock.waf.cookiebag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SetCookieTest {
+
+    @Test
+    public void test_name_value_and_path() {
+        // given
+        final SetCookie cookie = new SetCookie();
+        // when
+        final boolean valid = cookie.parse("JSESSIONID = abc123 ; HttpOnly; PATH=/backend ; Secure");
+        // then
+        Assertions.assertTrue(valid);
+        Assertions.assertTrue(cookie.nameEquals("JSESSIONID"));
+        Assertions.assertEquals("JSESSIONID", cookie.getName());
+        Assertions.assertEquals("abc123", cookie.getValue());
+        Assertions.assertEquals("/backend", cookie.getPath());
+    }
+
+    @Test
+    public void test_quoted_value_without_path() {
+        // given
+        final SetCookie cookie = new SetCookie();
+        cookie.parse("first=1; Path=/first");
+        // when
+        final boolean valid = cookie.parse("AL_CONTROL=\"ADD_CREDENTIALS%3Drole\"; Max-Age=0");
+        // then
+        Assertions.assertTrue(valid);
+        Assertions.assertTrue(cookie.nameEquals("AL_CONTROL"));
+        Assertions.assertEquals("ADD_CREDENTIALS%3Drole", cookie.getValue());
+        Assertions.assertNull(cookie.getPath());
+    }
+
+    @Test
+    public void test_invalid_cookies() {
+        // given
+        final SetCookie cookie = new SetCookie();
+        // when
+        // then
+        Assertions.assertFalse(cookie.parse("novalue; Path=/"));
+        Assertions.assertFalse(cookie.parse(" =value"));
+        Assertions.assertTrue(cookie.parse("empty="));
+        Assertions.assertEquals("", cookie.getValue());
+    }
+}
@@ -0,0 +1,175 @@
+package com.inventage.airmock.waf.jwt;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.ext.web.Cookie;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class JWTValidatorTest {
+
+    private static final KeyPair KEY1 = keyPair();
+    private static final KeyPair KEY2 = keyPair();
+
+    @Test
+    public void test_valid_token_is_verified_once() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger fetches = new AtomicInteger();
+        final String url = jwks(vertx, fetches, new AtomicReference<>(keySet(KEY1, "k1")));
+        final JWTValidator validator = JWTValidator.shared(vertx, url, null);
+        final Cookie cookie = cookie(token(KEY1, "k1", "client"));
+        // when
+        final boolean first = validator.isValidJWT(cookie, "client").blockingGet();
+        final boolean second = validator.isValidJWT(cookie, "client").blockingGet();
+        final boolean otherAudience = validator.isValidJWT(cookie, "other").blockingGet();
+        // then
+        Assertions.assertTrue(first);
+        Assertions.assertTrue(second);
+        Assertions.assertFalse(otherAudience);
+        Assertions.assertEquals(1, fetches.get(), "the key set is fetched once");
+        Assertions.assertEquals(1, validator.verifiedTokens());
+        Assertions.assertSame(validator, JWTValidator.shared(vertx, url, null));
+        vertx.close();
+    }
+
+    @Test
+    public void test_invalid_tokens() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final String url = jwks(vertx, new AtomicInteger(), new AtomicReference<>(keySet(KEY1, "k1")));
+        final JWTValidator validator = JWTValidator.shared(vertx, url, null);
+        // then
+        Assertions.assertFalse(validator.isValidJWT(null, "client").blockingGet());
+        Assertions.assertFalse(validator.isValidJWT(cookie("not a token"), "client").blockingGet());
+        Assertions.assertFalse(validator.isValidJWT(cookie(token(KEY2, "k1", "client")), "client").blockingGet(), "signed by another key");
+        Assertions.assertEquals(0, validator.verifiedTokens());
+        vertx.close();
+    }
+
+    @Test
+    public void test_unknown_key_ids_do_not_refetch_within_the_interval() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger fetches = new AtomicInteger();
+        final String url = jwks(vertx, fetches, new AtomicReference<>(keySet(KEY1, "k1")));
+        final JWTValidator validator = JWTValidator.shared(vertx, url, null);
+        // when
+        final boolean known = validator.isValidJWT(cookie(token(KEY1, "k1", "client")), "client").blockingGet();
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertFalse(validator.isValidJWT(cookie(token(KEY2, "unknown" + i, "client")), "client").blockingGet());
+        }
+        // then
+        Assertions.assertTrue(known);
+        Assertions.assertEquals(1, fetches.get(), "the key set was fetched recently");
+        vertx.close();
+    }
+
+    @Test
+    public void test_rotated_key_is_fetched() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger fetches = new AtomicInteger();
+        final AtomicReference<JsonObject> keySet = new AtomicReference<>(keySet(KEY1, "k1"));
+        final String url = jwks(vertx, fetches, keySet);
+        final Map<String, String> config = new HashMap<>();
+        config.put(JwksKeyProvider.JWKS_REFETCH_INTERVAL, "0");
+        final JWTValidator validator = JWTValidator.shared(vertx, url, config);
+        final boolean before = validator.isValidJWT(cookie(token(KEY1, "k1", "client")), "client").blockingGet();
+        // when
+        keySet.set(new JsonObject().put("keys", keySet(KEY1, "k1").getJsonArray("keys").addAll(keySet(KEY2, "k2").getJsonArray("keys"))));
+        final boolean rotated = validator.isValidJWT(cookie(token(KEY2, "k2", "client")), "client").blockingGet();
+        // then
+        Assertions.assertTrue(before);
+        Assertions.assertTrue(rotated);
+        Assertions.assertEquals(2, fetches.get());
+        vertx.close();
+    }
+
+    @Test
+    public void test_verified_tokens_are_bounded_and_expire() {
+        // given
+        final VerifiedTokens tokens = new VerifiedTokens(2);
+        final long now = System.currentTimeMillis();
+        // when
+        tokens.put("a", null, now + 1000);
+        tokens.put("b", null, now + 1000);
+        tokens.contains("a", null, now);
+        tokens.put("c", "client", now + 1000);
+        // then
+        Assertions.assertTrue(tokens.contains("a", null, now));
+        Assertions.assertFalse(tokens.contains("b", null, now), "least recently used is evicted");
+        Assertions.assertFalse(tokens.contains("c", null, now), "other audience");
+        Assertions.assertTrue(tokens.contains("c", "client", now + 999));
+        Assertions.assertFalse(tokens.contains("c", "client", now + 1000), "expired");
+        Assertions.assertEquals(1, tokens.size());
+    }
+
+    private static String jwks(Vertx vertx, AtomicInteger fetches, AtomicReference<JsonObject> keySet) throws Exception {
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(request -> {
+            fetches.incrementAndGet();
+            request.response().putHeader("Content-Type", "application/json").end(keySet.get().encode());
+        }).listen(0, "localhost", ar -> port.complete(ar.result().actualPort()));
+        return "http://localhost:" + port.get(10, TimeUnit.SECONDS) + "/certs";
+    }
+
+    private static JsonObject keySet(KeyPair keyPair, String keyId) {
+        final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        return new JsonObject().put("keys", new JsonArray().add(new JsonObject()
+            .put("kid", keyId)
+            .put("kty", "RSA")
+            .put("alg", "RS256")
+            .put("use", "sig")
+            .put("n", base64Url(publicKey.getModulus()))
+            .put("e", base64Url(publicKey.getPublicExponent()))));
+    }
+
+    private static String token(KeyPair keyPair, String keyId, String audience) {
+        return JWT.create()
+            .withKeyId(keyId)
+            .withAudience(audience)
+            .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5)))
+            .sign(Algorithm.RSA256((RSAPublicKey) keyPair.getPublic(), (RSAPrivateKey) keyPair.getPrivate()));
+    }
+
+    private static Cookie cookie(String value) {
+        return Cookie.cookie("jwt", value);
+    }
+
+    private static String base64Url(BigInteger value) {
+        final byte[] bytes = value.toByteArray();
+        final byte[] unsigned = bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(unsigned);
+    }
+
+    private static KeyPair keyPair() {
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
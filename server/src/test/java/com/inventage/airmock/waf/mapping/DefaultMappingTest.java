@@ -0,0 +1,106 @@
+package com.inventage.airmock.waf.mapping;
+
+import com.inventage.airmock.kernel.proxy.balancer.BackendInstance;
+import com.inventage.airmock.kernel.proxy.compression.Compression;
+import com.inventage.airmock.kernel.proxy.resilience.ResiliencePolicy;
+import com.inventage.airmock.waf.backend.ProxySettings;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class DefaultMappingTest {
+
+    @Test
+    public void test_compile_accepts_mapping_without_backend() {
+        // given
+        final DefaultMapping mapping = mapping("waf ui", "/waf", "", 0, null);
+        // when
+        mapping.compile(null);
+        // then
+        Assertions.assertEquals(1, mapping.backendInstances().size());
+    }
+
+    @Test
+    public void test_compile_rejects_missing_name_and_context_root() {
+        // given
+        final DefaultMapping withoutName = mapping(null, "/backend", "localhost", 80, null);
+        final DefaultMapping withoutContextRoot = mapping("backend", null, "localhost", 80, null);
+        final DefaultMapping relativeContextRoot = mapping("backend", "backend", "localhost", 80, null);
+        // when / then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> withoutName.compile(null));
+        final IllegalArgumentException error = Assertions.assertThrows(IllegalArgumentException.class, () -> withoutContextRoot.compile(null));
+        Assertions.assertTrue(error.getMessage().contains("'backend'"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> relativeContextRoot.compile(null));
+    }
+
+    @Test
+    public void test_compile_rejects_invalid_backend() {
+        // given
+        final DefaultMapping withoutHost = mapping("backend", "/backend", null, 80, null);
+        final DefaultMapping invalidPort = mapping("backend", "/backend", "localhost", 70000, null);
+        final DefaultMapping invalidInstance = mapping("backend", "/backend", "app1", 80,
+            Collections.singletonList(new BackendInstance("", 80, BackendInstance.DEFAULT_WEIGHT)));
+        // when / then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> withoutHost.compile(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> invalidPort.compile(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> invalidInstance.compile(null));
+    }
+
+    @Test
+    public void test_compile_reads_the_proxy_settings() {
+        // given
+        final DefaultMapping mapping = mapping("backend", "/backend", "localhost", 80, null,
+            Collections.singletonMap(ResiliencePolicy.RETRIES, "2"));
+        // when
+        mapping.compile(null);
+        // then
+        Assertions.assertEquals(2, mapping.proxySettings().resilience().retries());
+    }
+
+    @Test
+    public void test_compile_rejects_invalid_proxy_settings() {
+        // given
+        final DefaultMapping invalidTimeout = mapping("backend", "/backend", "localhost", 80, null,
+            Collections.singletonMap(ResiliencePolicy.TIMEOUT_TOTAL, "ten"));
+        final DefaultMapping invalidWatermark = mapping("backend", "/backend", "localhost", 80, null,
+            Collections.singletonMap(ProxySettings.LOW_WATERMARK, "1000000"));
+        final DefaultMapping invalidLevel = mapping("backend", "/backend", "localhost", 80, null,
+            Collections.singletonMap(Compression.COMPRESS_LEVEL, "best"));
+        // when
+        final IllegalArgumentException error = Assertions.assertThrows(IllegalArgumentException.class, () -> invalidTimeout.compile(null));
+        // then
+        Assertions.assertTrue(error.getMessage().contains("'backend'"));
+        Assertions.assertTrue(error.getMessage().contains(ResiliencePolicy.TIMEOUT_TOTAL));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> invalidWatermark.compile(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> invalidLevel.compile(null));
+    }
+
+    @Test
+    public void test_backend_instances_are_copied() {
+        // given
+        final List<BackendInstance> instances = new ArrayList<>();
+        instances.add(new BackendInstance("app1", 10001, BackendInstance.DEFAULT_WEIGHT));
+        instances.add(new BackendInstance("app2", 10001, 2));
+        final DefaultMapping mapping = mapping("backend", "/backend", "app1", 10001, instances);
+        // when
+        instances.clear();
+        mapping.compile(null);
+        // then
+        Assertions.assertEquals(2, mapping.backendInstances().size());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> mapping.backendInstances().clear());
+    }
+
+    private DefaultMapping mapping(String name, String contextRoot, String host, int port, List<BackendInstance> instances) {
+        return mapping(name, contextRoot, host, port, instances, null);
+    }
+
+    private DefaultMapping mapping(String name, String contextRoot, String host, int port, List<BackendInstance> instances, Map<String, String> config) {
+        final DefaultMapping mapping = new DefaultMapping();
+        mapping.init(null, name, contextRoot, new String[0], null, Collections.emptyList(), "http", host, port, instances, config);
+        return mapping;
+    }
+}
@@ -0,0 +1,55 @@
+package com.inventage.airmock.waf.mapping;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+public class MappingTableTest {
+
+    @Test
+    public void test_longest_prefix_wins() {
+        // given
+        final Mapping root = mapping("root", "/");
+        final Mapping backend = mapping("backend", "/backend");
+        final Mapping backendApi = mapping("backend api", "/backend/api");
+        final MappingTable table = MappingTable.build(Arrays.asList(root, backend, backendApi));
+        // when
+        // then
+        Assertions.assertSame(backendApi, table.lookup("/backend/api/users"));
+        Assertions.assertSame(backend, table.lookup("/backend/index.html"));
+        Assertions.assertSame(backend, table.lookup("/backend10"));
+        Assertions.assertSame(root, table.lookup("/other"));
+    }
+
+    @Test
+    public void test_no_match_returns_deny_all() {
+        // given
+        final MappingTable table = MappingTable.build(Collections.singletonList(mapping("backend", "/backend")));
+        // when
+        final Mapping mapping = table.lookup("/other");
+        // then
+        Assertions.assertSame(MappingTable.DENY_ALL, mapping);
+        Assertions.assertSame(MappingTable.DENY_ALL, table.lookup("/back"));
+        Assertions.assertSame(MappingTable.DENY_ALL, table.lookup(null));
+    }
+
+    @Test
+    public void test_first_definition_wins_for_same_context_root() {
+        // given
+        final Mapping first = mapping("first", "/backend");
+        final Mapping second = mapping("second", "/backend");
+        // when
+        final MappingTable table = MappingTable.build(Arrays.asList(first, second));
+        // then
+        Assertions.assertSame(first, table.lookup("/backend/x"));
+    }
+
+    private Mapping mapping(String name, String contextRoot) {
+        final DefaultMapping mapping = new DefaultMapping();
+        mapping.init(null, name, contextRoot, new String[0], null, Collections.emptyList(), "http", "localhost", 80, null, new HashMap<>());
+        return mapping;
+    }
+}
@@ -0,0 +1,66 @@
+package com.inventage.airmock.waf.mapping;
+
+import com.inventage.airmock.kernel.util.ConfigUtils;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TokenExchangeMappingTest {
+
+    @Test
+    public void test_compile_resolves_the_config() {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final TokenExchangeMapping mapping = mapping("https://iam/token", config());
+        // when
+        mapping.compile(vertx);
+        // then
+        Assertions.assertEquals("iam", mapping.getTokenExchangeUrl().getHost());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> mapping.getConfig().put("clientId", "other"));
+        vertx.close();
+    }
+
+    @Test
+    public void test_compile_rejects_missing_config() {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final Map<String, String> config = config();
+        config.remove("clientSecret");
+        final TokenExchangeMapping mapping = mapping("https://iam/token", config);
+        // when / then
+        final IllegalArgumentException error = Assertions.assertThrows(IllegalArgumentException.class, () -> mapping.compile(vertx));
+        Assertions.assertTrue(error.getMessage().contains("clientSecret"));
+        vertx.close();
+    }
+
+    @Test
+    public void test_compile_rejects_invalid_url() {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final TokenExchangeMapping mapping = mapping("iam/token", config());
+        // when / then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> mapping.compile(vertx));
+        vertx.close();
+    }
+
+    private TokenExchangeMapping mapping(String tokenExchangeUrl, Map<String, String> config) {
+        final TokenExchangeMapping mapping = new TokenExchangeMapping();
+        mapping.init(new ConfigUtils(new JsonObject().put("IAM_HOST", "iam")), "api", "/api", new String[0], tokenExchangeUrl,
+            Collections.emptyList(), "http", "localhost", 80, null, config);
+        return mapping;
+    }
+
+    private static Map<String, String> config() {
+        final Map<String, String> config = new HashMap<>();
+        config.put("clientId", "client");
+        config.put("subjectIssuer", "issuer");
+        config.put("clientSecret", "secret");
+        config.put("certificateUrl", "https://${IAM_HOST}/certs");
+        return config;
+    }
+}
@@ -0,0 +1,122 @@
+package com.inventage.airmock.waf.oneshot;
+
+import io.reactivex.Single;
+import io.vertx.reactivex.core.MultiMap;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.ext.web.client.HttpResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToLongFunction;
+
+public class OneShotClientTest {
+
+    @Test
+    public void test_concurrent_requests_of_a_session_call_the_iam_once() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger calls = new AtomicInteger();
+        final OneShotClient client = OneShotClient.shared(vertx, "oneshot", iam(vertx, calls, call -> 100), null);
+        // when
+        final List<CompletableFuture<HttpResponse<Buffer>>> burst = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            burst.add(send(client.send("session", headers(), form())));
+        }
+        for (CompletableFuture<HttpResponse<Buffer>> response : burst) {
+            Assertions.assertEquals("1", response.get(10, TimeUnit.SECONDS).getHeader("X-Call"));
+        }
+        final HttpResponse<Buffer> later = send(client.send("session", headers(), form())).get(10, TimeUnit.SECONDS);
+        final HttpResponse<Buffer> other = send(client.send("other", headers(), form())).get(10, TimeUnit.SECONDS);
+        // then
+        Assertions.assertEquals("2", later.getHeader("X-Call"), "a request after the response calls the IAM again");
+        Assertions.assertEquals("3", other.getHeader("X-Call"));
+        Assertions.assertEquals("value", other.getHeader("X-Forwarded"));
+        Assertions.assertEquals(0, client.pending());
+        Assertions.assertSame(client, OneShotClient.shared(vertx, "oneshot", "ignored", null));
+        vertx.close();
+    }
+
+    @Test
+    public void test_requests_without_session_are_not_shared() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger calls = new AtomicInteger();
+        final OneShotClient client = OneShotClient.shared(vertx, "oneshot", iam(vertx, calls, call -> 100), null);
+        // when
+        final CompletableFuture<HttpResponse<Buffer>> first = send(client.send(null, headers(), form()));
+        final CompletableFuture<HttpResponse<Buffer>> second = send(client.send(null, headers(), form()));
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+        // then
+        Assertions.assertEquals(2, calls.get());
+        vertx.close();
+    }
+
+    @Test
+    public void test_unanswered_requests_time_out() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final String url = iam(vertx, new AtomicInteger(), call -> TimeUnit.MINUTES.toMillis(1));
+        final OneShotClient client = OneShotClient.shared(vertx, "oneshot", url, Collections.singletonMap(OneShotClient.ONE_SHOT_TIMEOUT, "200"));
+        // when
+        final CompletableFuture<HttpResponse<Buffer>> response = send(client.send("session", headers(), form()));
+        // then
+        Assertions.assertThrows(ExecutionException.class, () -> response.get(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, client.pending());
+        vertx.close();
+    }
+
+    @Test
+    public void test_timed_out_requests_release_their_connection() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final String url = iam(vertx, new AtomicInteger(), call -> call == 1 ? TimeUnit.MINUTES.toMillis(1) : 1);
+        final Map<String, String> config = new HashMap<>();
+        config.put(OneShotClient.ONE_SHOT_TIMEOUT, "500");
+        config.put(OneShotClient.ONE_SHOT_MAX_POOL_SIZE, "1");
+        final OneShotClient client = OneShotClient.shared(vertx, "oneshot", url, config);
+        // when
+        final CompletableFuture<HttpResponse<Buffer>> first = send(client.send("session", headers(), form()));
+        Assertions.assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+        final CompletableFuture<HttpResponse<Buffer>> second = send(client.send("other", headers(), form()));
+        // then
+        Assertions.assertEquals("2", second.get(10, TimeUnit.SECONDS).getHeader("X-Call"), "the only connection is free again");
+        vertx.close();
+    }
+
+    private static CompletableFuture<HttpResponse<Buffer>> send(Single<HttpResponse<Buffer>> response) {
+        final CompletableFuture<HttpResponse<Buffer>> result = new CompletableFuture<>();
+        response.subscribe(result::complete, result::completeExceptionally);
+        return result;
+    }
+
+    private static MultiMap headers() {
+        return MultiMap.caseInsensitiveMultiMap().set("X-Forwarded", "value");
+    }
+
+    private static MultiMap form() {
+        return MultiMap.caseInsensitiveMultiMap().set("grant_type", "password");
+    }
+
+    private static String iam(Vertx vertx, AtomicInteger calls, IntToLongFunction delay) throws Exception {
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(request -> request.endHandler(v -> {
+            final int call = calls.incrementAndGet();
+            vertx.setTimer(delay.applyAsLong(call), id -> request.response()
+                .putHeader("X-Call", String.valueOf(call))
+                .putHeader("X-Forwarded", request.getHeader("X-Forwarded"))
+                .end());
+        })).listen(0, "localhost", ar -> port.complete(ar.result().actualPort()));
+        return "http://localhost:" + port.get(10, TimeUnit.SECONDS) + "/oneshot";
+    }
+}
@@ -0,0 +1,85 @@
+package com.inventage.airmock.waf.saml;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class SAMLProcessorTest {
+
+    private static final String SAML_RESPONSE = "src/test/java/com/inventage/airmock/kernel/util/SAML_RESPONSE.xml";
+
+    @Test
+    public void test_assertion_is_extracted_from_response() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final SAMLProcessor processor = new SAMLProcessor(vertx, 1, 10);
+        // when
+        final AsyncResult<String> result = process(vertx, processor, samlResponse()).get(10, TimeUnit.SECONDS);
+        // then
+        final String assertion = new String(Base64.getDecoder().decode(result.result()), StandardCharsets.UTF_8);
+        Assertions.assertTrue(assertion.contains("<saml:Assertion"));
+        Assertions.assertTrue(assertion.contains("ID_20309686-3051-4ff8-a99b-e9128b5d08e2"));
+        Assertions.assertFalse(assertion.contains("samlp:Response"));
+        Assertions.assertEquals(0, processor.pending());
+        processor.close();
+        vertx.close();
+    }
+
+    @Test
+    public void test_other_content_has_no_assertion() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final SAMLProcessor processor = new SAMLProcessor(vertx, 1, 10);
+        final String notXml = Base64.getEncoder().encodeToString("not xml".getBytes(StandardCharsets.UTF_8));
+        // when
+        final AsyncResult<String> result = process(vertx, processor, notXml).get(10, TimeUnit.SECONDS);
+        final AsyncResult<String> notBase64 = process(vertx, processor, "%%%").get(10, TimeUnit.SECONDS);
+        // then
+        Assertions.assertTrue(result.succeeded());
+        Assertions.assertNull(result.result());
+        Assertions.assertNull(notBase64.result());
+        processor.close();
+        vertx.close();
+    }
+
+    @Test
+    public void test_responses_beyond_the_queue_are_rejected() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final SAMLProcessor processor = new SAMLProcessor(vertx, 1, 1);
+        final String samlResponse = samlResponse();
+        final List<CompletableFuture<AsyncResult<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(new CompletableFuture<>());
+        }
+        // when
+        vertx.runOnContext(v -> results.forEach(result -> processor.encodedAssertion(samlResponse, result::complete)));
+        // then
+        Assertions.assertNotNull(results.get(0).get(10, TimeUnit.SECONDS).result());
+        Assertions.assertNotNull(results.get(1).get(10, TimeUnit.SECONDS).result());
+        Assertions.assertTrue(results.get(2).get(10, TimeUnit.SECONDS).cause() instanceof RejectedExecutionException);
+        processor.close();
+        vertx.close();
+    }
+
+    private static CompletableFuture<AsyncResult<String>> process(Vertx vertx, SAMLProcessor processor, String samlResponse) {
+        final CompletableFuture<AsyncResult<String>> result = new CompletableFuture<>();
+        vertx.runOnContext(v -> processor.encodedAssertion(samlResponse, result::complete));
+        return result;
+    }
+
+    private static String samlResponse() throws Exception {
+        return Base64.getEncoder().encodeToString(Files.readAllBytes(Paths.get(SAML_RESPONSE)));
+    }
+}
@@ -0,0 +1,154 @@
+package com.inventage.airmock.waf.session;
+
+import com.inventage.airmock.waf.headerbag.HeaderBag;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class AirmockSessionStateTest {
+
+    @Test
+    public void test_codec_round_trip() {
+        // given
+        final AirmockSessionState state = new AirmockSessionState();
+        state.addRole(new Role("aRole", 600, 3600));
+        state.addRole(new Role("otherRole"));
+        state.putCookie("/backend", "JSESSIONID", "abc");
+        state.putCookie("/backend", "jwt", "x.y.z");
+        state.putHeader(new HeaderBag.HttpHeader("Authorization", "Bearer token", "backend"));
+        state.putHeader(new HeaderBag.HttpHeader("X-Test", "value"));
+        final Buffer buffer = Buffer.buffer().appendString("prefix");
+        state.writeToBuffer(buffer);
+        // when
+        final AirmockSessionState read = new AirmockSessionState();
+        final int end = read.readFromBuffer("prefix".length(), buffer);
+        // then
+        Assertions.assertEquals(buffer.length(), end);
+        Assertions.assertTrue(read.hasRole("aRole"));
+        Assertions.assertTrue(read.hasRole("otherRole"));
+        Assertions.assertEquals(600, read.getRoles().iterator().next().getIdleTimeoutSeconds());
+        Assertions.assertEquals("x.y.z", read.getCookieBag().get("/backend").get("jwt"));
+        Assertions.assertEquals(2, read.getHeaderBag().size());
+        Assertions.assertEquals("backend", read.getHeaderBag().iterator().next().getMappingName());
+    }
+
+    @Test
+    public void test_replaced_header_moves_to_end() {
+        // given
+        final AirmockSessionState state = new AirmockSessionState();
+        state.putHeader(new HeaderBag.HttpHeader("A", "1"));
+        state.putHeader(new HeaderBag.HttpHeader("B", "2"));
+        // when
+        state.putHeader(new HeaderBag.HttpHeader("A", "3"));
+        // then
+        Assertions.assertEquals(2, state.getHeaderBag().size());
+        Assertions.assertEquals("B", state.getHeaderBag().iterator().next().getName());
+    }
+
+    @Test
+    public void test_header_snapshot_partitioned_by_mapping() {
+        // given
+        final AirmockSessionState state = new AirmockSessionState();
+        state.putHeader(new HeaderBag.HttpHeader("X-Global", "g"));
+        state.putHeader(new HeaderBag.HttpHeader("Authorization", "Bearer a", "app"));
+        state.putHeader(new HeaderBag.HttpHeader("Authorization", "Bearer o", "other"));
+        // when
+        final HeaderBag snapshot = state.getHeaderSnapshot();
+        // then
+        Assertions.assertSame(snapshot, state.getHeaderSnapshot());
+        Assertions.assertEquals(2, snapshot.forMapping("app").size());
+        Assertions.assertEquals("Bearer a", snapshot.forMapping("app").get(1).getValue());
+        Assertions.assertEquals("Bearer o", snapshot.forMapping("other").get(1).getValue());
+        Assertions.assertEquals(1, snapshot.forMapping("unknown").size());
+        state.putHeader(new HeaderBag.HttpHeader("X-Late", "l"));
+        Assertions.assertNotSame(snapshot, state.getHeaderSnapshot());
+        Assertions.assertEquals(3, state.getHeaderSnapshot().forMapping("app").size());
+    }
+
+    @Test
+    public void test_cookie_header_for_longest_matching_path() {
+        // given
+        final AirmockSessionState state = new AirmockSessionState();
+        state.putCookie("/", "root", "r");
+        state.putCookie("/backend", "backend", "b");
+        state.putCookie("/backend/api", "api", "a");
+        state.putCookie("/backend10", "other", "o");
+        // when
+        final String header = state.getCookieHeader("/backend/api/users");
+        // then
+        Assertions.assertEquals("root=r; backend=b; api=a", header);
+        Assertions.assertEquals("root=r; backend=b", state.getCookieHeader("/backend/index.html"));
+        Assertions.assertEquals("root=r; backend=b; other=o", state.getCookieHeader("/backend10/x"));
+        Assertions.assertEquals("root=r", state.getCookieHeader("/b"));
+    }
+
+    @Test
+    public void test_cookie_header_invalidated_on_change() {
+        // given
+        final AirmockSessionState state = new AirmockSessionState();
+        state.putCookie("/backend", "JSESSIONID", "1");
+        final String before = state.getCookieHeader("/backend/x");
+        // when
+        final boolean unchanged = state.putCookie("/backend", "JSESSIONID", "1");
+        state.putCookie("/backend", "JSESSIONID", "2");
+        // then
+        Assertions.assertEquals("JSESSIONID=1", before);
+        Assertions.assertFalse(unchanged);
+        Assertions.assertEquals("JSESSIONID=2", state.getCookieHeader("/backend/x"));
+        Assertions.assertEquals("", state.getCookieHeader("/other"));
+    }
+
+    @Test
+    public void test_granted_roles_intersect_required_roles() {
+        // given
+        final BitSet required = RoleDictionary.internAll(Arrays.asList("requiredRole", "otherRequiredRole"));
+        final AirmockSessionState state = new AirmockSessionState();
+        state.addRole(new Role("unrelatedRole"));
+        // when
+        final boolean before = state.hasAnyRole(required);
+        state.addRole(new Role("otherRequiredRole"));
+        // then
+        Assertions.assertFalse(before);
+        Assertions.assertTrue(state.hasAnyRole(required));
+        state.removeRole("otherRequiredRole");
+        Assertions.assertFalse(state.hasAnyRole(required));
+    }
+
+    @Test
+    public void test_granting_unknown_role_does_not_grow_the_dictionary() {
+        // given
+        final BitSet required = RoleDictionary.internAll(Arrays.asList("requiredRole"));
+        final int size = RoleDictionary.size();
+        final AirmockSessionState state = new AirmockSessionState();
+        state.addRole(new Role("roleOfNoMapping"));
+        final Buffer buffer = Buffer.buffer();
+        state.writeToBuffer(buffer);
+        // when
+        final AirmockSessionState read = new AirmockSessionState();
+        read.readFromBuffer(0, buffer);
+        read.addRole(new Role("requiredRole"));
+        // then
+        Assertions.assertEquals(size, RoleDictionary.size());
+        Assertions.assertEquals(RoleDictionary.UNKNOWN, RoleDictionary.indexOf("roleOfNoMapping"));
+        Assertions.assertTrue(state.hasRole("roleOfNoMapping"));
+        Assertions.assertFalse(state.hasAnyRole(required));
+        Assertions.assertTrue(read.hasRole("roleOfNoMapping"));
+        Assertions.assertTrue(read.hasAnyRole(required));
+        Assertions.assertTrue(read.removeRole("roleOfNoMapping"));
+    }
+
+    @Test
+    public void test_parse_role_definition() {
+        // when
+        final Role role = Role.parse("aRole:300:7200");
+        // then
+        Assertions.assertEquals("aRole", role.getName());
+        Assertions.assertEquals(300, role.getIdleTimeoutSeconds());
+        Assertions.assertEquals(7200, role.getLifetimeSeconds());
+        Assertions.assertEquals(Role.UNLIMITED, Role.parse("aRole").getIdleTimeoutSeconds());
+        Assertions.assertNull(Role.parse(""));
+    }
+}
@@ -0,0 +1,144 @@
+package com.inventage.airmock.waf.session;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.ext.auth.PRNG;
+import io.vertx.ext.web.sstore.impl.SharedDataSessionImpl;
+import io.vertx.reactivex.ext.web.Session;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class RoleExpiryWheelTest {
+
+    private static final long START = 1_000_000_000L;
+
+    @Test
+    public void test_role_removed_after_lifetime() {
+        // given
+        final RoleExpiryWheel wheel = new RoleExpiryWheel(START);
+        final AirmockSessionState state = new AirmockSessionState();
+        state.addRole(new Role("shortLived", Role.UNLIMITED, 5, START));
+        state.addRole(new Role("unlimited", Role.UNLIMITED, Role.UNLIMITED, START));
+        wheel.schedule(state);
+        // when
+        wheel.advance(START + 4_000);
+        final boolean before = state.hasRole("shortLived");
+        wheel.advance(START + 6_000);
+        // then
+        Assertions.assertTrue(before);
+        Assertions.assertFalse(state.hasRole("shortLived"));
+        Assertions.assertTrue(state.hasRole("unlimited"));
+        Assertions.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void test_role_removed_after_cascading_levels() {
+        // given
+        final RoleExpiryWheel wheel = new RoleExpiryWheel(START);
+        final AirmockSessionState state = new AirmockSessionState();
+        state.addRole(new Role("twoHours", Role.UNLIMITED, 7_200, START));
+        wheel.schedule(state);
+        // when
+        for (long now = START; now < START + 7_199_000; now += 60_000) {
+            wheel.advance(now);
+        }
+        final boolean before = state.hasRole("twoHours");
+        wheel.advance(START + 7_201_000);
+        // then
+        Assertions.assertTrue(before);
+        Assertions.assertFalse(state.hasRole("twoHours"));
+    }
+
+    @Test
+    public void test_used_role_is_kept_until_idle() {
+        // given
+        final RoleExpiryWheel wheel = new RoleExpiryWheel(START);
+        final AirmockSessionState state = new AirmockSessionState();
+        state.addRole(new Role("idle", 10, Role.UNLIMITED, START));
+        wheel.schedule(state);
+        // when
+        state.touchRoles(RoleDictionary.internAll(Collections.singletonList("idle")), START + 8_000);
+        wheel.advance(START + 12_000);
+        final boolean touched = state.hasRole("idle");
+        wheel.advance(START + 19_000);
+        // then
+        Assertions.assertTrue(touched);
+        Assertions.assertFalse(state.hasRole("idle"));
+    }
+
+    @Test
+    public void test_roles_are_expired_on_the_context_of_the_latest_request() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final Context wheelContext = vertx.getOrCreateContext();
+        final Context requestContext = vertx.getOrCreateContext();
+        final long start = System.currentTimeMillis() - 2_000;
+        final Session session = Session.newInstance(new SharedDataSessionImpl(new PRNG(vertx), 30_000, 16));
+        final AirmockSessionState state = AirmockSessionState.of(session);
+        state.addRole(new Role("shortLived", Role.UNLIMITED, 1, start));
+        final CompletableFuture<Context> expiredOn = new CompletableFuture<>();
+        final CompletableFuture<Boolean> hasRole = new CompletableFuture<>();
+        // when
+        requestContext.runOnContext(v -> AirmockSessionState.of(session));
+        requestContext.runOnContext(v -> wheelContext.runOnContext(w -> {
+            final RoleExpiryWheel wheel = new RoleExpiryWheel(start);
+            wheel.schedule(state);
+            wheel.advance(System.currentTimeMillis());
+            requestContext.runOnContext(x -> {
+                expiredOn.complete(requestContext.get(RoleExpiryWheel.class.getName()) == null ? null : requestContext);
+                hasRole.complete(state.hasRole("shortLived"));
+            });
+        }));
+        // then
+        Assertions.assertSame(requestContext, expiredOn.get(10, TimeUnit.SECONDS), "expired by the wheel of the request context");
+        Assertions.assertFalse(hasRole.get(10, TimeUnit.SECONDS));
+        vertx.close();
+    }
+
+    @Test
+    public void test_timer_runs_only_while_states_are_scheduled() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final Context context = vertx.getOrCreateContext();
+        final CompletableFuture<RoleExpiryWheel> created = new CompletableFuture<>();
+        final CompletableFuture<Boolean> tickingWhileScheduled = new CompletableFuture<>();
+        final AirmockSessionState first = new AirmockSessionState();
+        final AirmockSessionState second = new AirmockSessionState();
+        // when
+        context.runOnContext(v -> {
+            final RoleExpiryWheel wheel = new RoleExpiryWheel(vertx, System.currentTimeMillis());
+            created.complete(wheel);
+            first.addRole(new Role("shortLived", Role.UNLIMITED, 1, System.currentTimeMillis()));
+            wheel.schedule(first);
+            tickingWhileScheduled.complete(wheel.isTicking());
+        });
+        final RoleExpiryWheel wheel = created.get(10, TimeUnit.SECONDS);
+        Thread.sleep(2_500);
+        final boolean tickingWhenEmpty = onContext(context, wheel::isTicking);
+        final boolean restarted = onContext(context, () -> {
+            second.addRole(new Role("shortLived", Role.UNLIMITED, 1, System.currentTimeMillis()));
+            wheel.schedule(second);
+            return wheel.isTicking();
+        });
+        Thread.sleep(2_500);
+        // then
+        Assertions.assertTrue(tickingWhileScheduled.get(10, TimeUnit.SECONDS));
+        Assertions.assertFalse(first.hasRole("shortLived"));
+        Assertions.assertFalse(tickingWhenEmpty, "timer is cancelled when the wheel is empty");
+        Assertions.assertTrue(restarted);
+        Assertions.assertFalse(second.hasRole("shortLived"), "restarted timer expires the roles");
+        Assertions.assertFalse(onContext(context, wheel::isTicking));
+        vertx.close();
+    }
+
+    private static <T> T onContext(Context context, Supplier<T> supplier) throws Exception {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        context.runOnContext(v -> result.complete(supplier.get()));
+        return result.get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,191 @@
+package com.inventage.airmock.waf.tokenexchange;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TokenExchangeClientTest {
+
+    @Test
+    public void test_concurrent_exchanges_of_an_assertion_call_the_iam_once() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger calls = new AtomicInteger();
+        final String url = iam(vertx, calls, new AtomicReference<>(TimeUnit.MINUTES.toMillis(5)), 200);
+        final TokenExchangeClient client = TokenExchangeClient.shared(vertx, "api", url, config());
+        // when
+        final List<CompletableFuture<TokenExchangeClient.Exchange>> burst = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            burst.add(exchange(client, "assertion"));
+        }
+        final List<String> tokens = new ArrayList<>();
+        for (CompletableFuture<TokenExchangeClient.Exchange> exchange : burst) {
+            tokens.add(exchange.get(10, TimeUnit.SECONDS).accessToken());
+        }
+        final String again = exchange(client, "assertion").get(10, TimeUnit.SECONDS).accessToken();
+        final String other = exchange(client, "other").get(10, TimeUnit.SECONDS).accessToken();
+        // then
+        Assertions.assertEquals(2, calls.get(), "one call per assertion");
+        Assertions.assertEquals(2, client.sent());
+        tokens.forEach(token -> Assertions.assertEquals(again, token));
+        Assertions.assertNotEquals(again, other);
+        Assertions.assertSame(client, TokenExchangeClient.shared(vertx, "api", url, config()));
+        vertx.close();
+    }
+
+    @Test
+    public void test_cookies_of_the_iam_are_only_given_to_the_calling_request() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final String url = iam(vertx, new AtomicInteger(), new AtomicReference<>(TimeUnit.MINUTES.toMillis(5)), 200);
+        final TokenExchangeClient client = TokenExchangeClient.shared(vertx, "api", url, config());
+        // when
+        final CompletableFuture<TokenExchangeClient.Exchange> calling = exchange(client, "assertion");
+        final CompletableFuture<TokenExchangeClient.Exchange> waiting = exchange(client, "assertion");
+        final TokenExchangeClient.Exchange first = calling.get(10, TimeUnit.SECONDS);
+        final TokenExchangeClient.Exchange joined = waiting.get(10, TimeUnit.SECONDS);
+        final TokenExchangeClient.Exchange remembered = exchange(client, "assertion").get(10, TimeUnit.SECONDS);
+        // then
+        Assertions.assertEquals(1, first.cookies().size());
+        Assertions.assertTrue(first.cookies().get(0).startsWith("IAM=1"));
+        Assertions.assertTrue(joined.cookies().isEmpty());
+        Assertions.assertTrue(remembered.cookies().isEmpty());
+        Assertions.assertEquals(first.accessToken(), remembered.accessToken());
+        vertx.close();
+    }
+
+    @Test
+    public void test_expired_tokens_are_exchanged_again() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger calls = new AtomicInteger();
+        final String url = iam(vertx, calls, new AtomicReference<>(-TimeUnit.MINUTES.toMillis(1)), 200);
+        final TokenExchangeClient client = TokenExchangeClient.shared(vertx, "api", url, config());
+        // when
+        exchange(client, "assertion").get(10, TimeUnit.SECONDS);
+        exchange(client, "assertion").get(10, TimeUnit.SECONDS);
+        // then
+        Assertions.assertEquals(2, calls.get());
+        vertx.close();
+    }
+
+    @Test
+    public void test_refused_exchanges_are_not_remembered() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger calls = new AtomicInteger();
+        final String url = iam(vertx, calls, new AtomicReference<>(TimeUnit.MINUTES.toMillis(5)), 401);
+        final TokenExchangeClient client = TokenExchangeClient.shared(vertx, "api", url, config());
+        // when
+        final TokenExchangeClient.Exchange first = exchange(client, "assertion").get(10, TimeUnit.SECONDS);
+        exchange(client, "assertion").get(10, TimeUnit.SECONDS);
+        // then
+        Assertions.assertNull(first.accessToken());
+        Assertions.assertEquals(2, calls.get());
+        vertx.close();
+    }
+
+    @Test
+    public void test_unanswered_exchanges_time_out() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(request -> { }).listen(0, "localhost", ar -> port.complete(ar.result().actualPort()));
+        final Map<String, String> config = config();
+        config.put(TokenExchangeClient.TOKEN_EXCHANGE_TIMEOUT, "200");
+        final TokenExchangeClient client = TokenExchangeClient.shared(vertx, "api", "http://localhost:" + port.get(10, TimeUnit.SECONDS) + "/token", config);
+        // when
+        final CompletableFuture<TokenExchangeClient.Exchange> exchange = exchange(client, "assertion");
+        // then
+        final ExecutionException error = Assertions.assertThrows(ExecutionException.class, () -> exchange.get(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(error.getCause() instanceof TimeoutException);
+        vertx.close();
+    }
+
+    @Test
+    public void test_timed_out_exchanges_release_their_connection() throws Exception {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(request -> {
+            if (calls.incrementAndGet() > 1) {
+                request.response().putHeader("Content-Type", "application/json").end(new JsonObject().put("access_token", "token").encode());
+            }
+        }).listen(0, "localhost", ar -> port.complete(ar.result().actualPort()));
+        final Map<String, String> config = config();
+        config.put(TokenExchangeClient.TOKEN_EXCHANGE_TIMEOUT, "500");
+        config.put(TokenExchangeClient.TOKEN_EXCHANGE_MAX_POOL_SIZE, "1");
+        final TokenExchangeClient client = TokenExchangeClient.shared(vertx, "api", "http://localhost:" + port.get(10, TimeUnit.SECONDS) + "/token", config);
+        // when
+        final CompletableFuture<TokenExchangeClient.Exchange> unanswered = exchange(client, "unanswered");
+        Assertions.assertThrows(ExecutionException.class, () -> unanswered.get(10, TimeUnit.SECONDS));
+        final TokenExchangeClient.Exchange next = exchange(client, "assertion").get(10, TimeUnit.SECONDS);
+        // then
+        Assertions.assertEquals("token", next.accessToken());
+        vertx.close();
+    }
+
+    @Test
+    public void test_missing_config_is_rejected() {
+        // given
+        final Vertx vertx = Vertx.vertx();
+        // when / then
+        Assertions.assertThrows(IllegalStateException.class, () -> TokenExchangeClient.shared(vertx, "api", "http://localhost:1/token", null));
+        vertx.close();
+    }
+
+    private static CompletableFuture<TokenExchangeClient.Exchange> exchange(TokenExchangeClient client, String assertion) {
+        final CompletableFuture<TokenExchangeClient.Exchange> result = new CompletableFuture<>();
+        client.exchange(assertion, ar -> {
+            if (ar.succeeded()) {
+                result.complete(ar.result());
+            }
+            else {
+                result.completeExceptionally(ar.cause());
+            }
+        });
+        return result;
+    }
+
+    private static Map<String, String> config() {
+        final Map<String, String> config = new HashMap<>();
+        config.put("clientId", "client");
+        config.put("subjectIssuer", "issuer");
+        config.put("clientSecret", "secret");
+        return config;
+    }
+
+    private static String iam(Vertx vertx, AtomicInteger calls, AtomicReference<Long> validity, int status) throws Exception {
+        final CompletableFuture<Integer> port = new CompletableFuture<>();
+        vertx.createHttpServer().requestHandler(request -> request.setExpectMultipart(true).endHandler(v -> {
+            final int call = calls.incrementAndGet();
+            // answer late, so that concurrent exchanges overlap
+            vertx.setTimer(100, id -> {
+                final String token = JWT.create()
+                    .withSubject(request.getFormAttribute("subject_token") + call)
+                    .withExpiresAt(new Date(System.currentTimeMillis() + validity.get()))
+                    .sign(Algorithm.HMAC256("secret".getBytes(StandardCharsets.UTF_8)));
+                request.response().setStatusCode(status).putHeader("Content-Type", "application/json").putHeader("Set-Cookie", "IAM=" + call)
+                    .end(new JsonObject().put("access_token", token).encode());
+            });
+        })).listen(0, "localhost", ar -> port.complete(ar.result().actualPort()));
+        return "http://localhost:" + port.get(10, TimeUnit.SECONDS) + "/token";
+    }
+}